@@ -0,0 +1,41 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * <p>
+ * WPBLocalFileAccess is an optional capability of a WPBFileStorage implementation that keeps the file content
+ * on the local file system. 
+ * </p>
+ * <p>
+ * When the configured WPBFileStorage implements this interface and the container supports sendfile the files 
+ * are written by the container from their local path, otherwise they are read from the local path with a positioned 
+ * FileChannel.
+ * </p>
+ */
+public interface WPBLocalFileAccess {
+	/**
+	 * Returns the local path of a stored file content
+	 * @param file Represents a file location
+	 * @return Returns the path of the file content on the local file system, null if the content is not available locally
+	 * @throws IOException Exception
+	 */
+	public Path getLocalPath(WPBFilePath file) throws IOException;
+}
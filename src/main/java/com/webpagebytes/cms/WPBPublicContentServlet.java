@@ -16,9 +16,14 @@
 
 package com.webpagebytes.cms;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
@@ -33,12 +38,24 @@ import javax.servlet.http.HttpServletResponse;
 import com.webpagebytes.cms.cmsdata.WPBFile;
 import com.webpagebytes.cms.cmsdata.WPBUri;
 import com.webpagebytes.cms.cmsdata.WPBPage;
+import com.webpagebytes.cms.engine.AccessLog;
+import com.webpagebytes.cms.engine.ByteRanges;
+import com.webpagebytes.cms.engine.ConditionalRequest;
 import com.webpagebytes.cms.engine.DefaultWPBCacheFactory;
+import com.webpagebytes.cms.engine.EncodedContent;
+import com.webpagebytes.cms.engine.EncodedContentCache;
 import com.webpagebytes.cms.engine.FileContentBuilder;
+import com.webpagebytes.cms.engine.GzipEncoding;
 import com.webpagebytes.cms.engine.InternalModel;
 import com.webpagebytes.cms.engine.LocalCloudFileContentBuilder;
 import com.webpagebytes.cms.engine.ModelBuilder;
 import com.webpagebytes.cms.engine.PageContentBuilder;
+import com.webpagebytes.cms.engine.PageOutputCache;
+import com.webpagebytes.cms.engine.RenderCoalescer;
+import com.webpagebytes.cms.engine.RenderDependencies;
+import com.webpagebytes.cms.engine.RequestLatencies;
+import com.webpagebytes.cms.engine.RequestTimings;
+import com.webpagebytes.cms.engine.ServerTimingResponse;
 import com.webpagebytes.cms.engine.URLMatcher;
 import com.webpagebytes.cms.engine.URLMatcherResult;
 import com.webpagebytes.cms.engine.UriContentBuilder;
@@ -51,6 +68,7 @@ import com.webpagebytes.cms.exception.WPBTemplateException;
 import com.webpagebytes.cms.utility.CmsConfiguration;
 import com.webpagebytes.cms.utility.CmsConfiguration.WPBSECTION;
 import com.webpagebytes.cms.utility.CmsConfigurationFactory;
+import com.webpagebytes.cms.utility.ConcurrentLRUCache;
 
 /**
  * <p>  
@@ -81,6 +99,8 @@ public class WPBPublicContentServlet extends HttpServlet {
 	public static final String CACHE_QUERY_PARAM = "cqp";
 	public static final String CACHE_MAX_AGE = "31536000"; // it's one year in seconds
 	public static final String CONTEXT_PATH = "wpb-context-path";
+	private static final int STATIC_PAGES_CACHE_SIZE = 256;
+	public static final int RENDER_BUFFER_SIZE = 64 * 1024;
 
 	private WPBServletUtility servletUtility = null;
 	
@@ -96,6 +116,13 @@ public class WPBPublicContentServlet extends HttpServlet {
 	private ModelBuilder modelBuilder;
 	private String cache_query_param = CACHE_QUERY_PARAM;
 	private String cache_max_age = CACHE_MAX_AGE;
+	private int url_matcher_cache_size = URLMatcher.DEFAULT_RESULTS_CACHE_SIZE;
+	private PageOutputCache outputCache; // null if the rendered pages are not cached
+	private RenderCoalescer renderCoalescer; // null if the concurrent renders of a cached page are not coalesced
+	private boolean request_timing = true; // the phases of each request are timed for the admin latencies
+	private boolean server_timing = false; // the timings are sent in the Server-Timing header
+	private int render_buffer_size = RENDER_BUFFER_SIZE; // the rendered bytes held before the response is committed
+	private ConcurrentLRUCache<String, EncodedContent> staticPagesContent = new ConcurrentLRUCache<String, EncodedContent>(STATIC_PAGES_CACHE_SIZE);
 	
 public WPBPublicContentServlet()
 {
@@ -108,6 +135,7 @@ public void initUrls() throws WPBIOException
 	{
 		Set<String> uris = cacheInstances.getUriCache().getAllUris(i);
 		this.urlMatcherArray[i] = new URLMatcher();
+		this.urlMatcherArray[i].setResultsCacheSize(url_matcher_cache_size);
 		this.urlMatcherArray[i].initialize(uris, cacheInstances.getUriCache().getCacheFingerPrint());
 	}	
 }
@@ -124,6 +152,9 @@ public void initBuilders() throws WPBException
 	
 	uriContentBuilder = new UriContentBuilder(cacheInstances, modelBuilder, fileContentBuilder, pageContentBuilder);
 	uriContentBuilder.initialize();	
+
+	// the templates are parsed in background, the requests that come meanwhile parse them as before
+	pageContentBuilder.warmUpTemplates();
 }
 
 public void initLocalFileContentBuilder()
@@ -171,6 +202,74 @@ public void init() throws ServletException
             cache_max_age = CACHE_MAX_AGE;
         }
     }
+    if ((generalParams != null) && generalParams.containsKey("url_matcher_cache_size"))
+    {
+        try
+        {
+            url_matcher_cache_size = Math.max(0, Integer.valueOf(generalParams.get("url_matcher_cache_size")));
+        } catch (NumberFormatException e)
+        {
+            url_matcher_cache_size = URLMatcher.DEFAULT_RESULTS_CACHE_SIZE;
+        }
+    }
+    AccessLog.configure(generalParams);
+    if ((generalParams != null) && generalParams.containsKey("request_timing"))
+    {
+        request_timing = "1".equals(generalParams.get("request_timing"));
+    }
+    if ((generalParams != null) && generalParams.containsKey("render_buffer_size"))
+    {
+        try
+        {
+            render_buffer_size = Math.max(0, Integer.valueOf(generalParams.get("render_buffer_size")));
+        } catch (NumberFormatException e)
+        {
+            render_buffer_size = RENDER_BUFFER_SIZE;
+        }
+    }
+    if ((generalParams != null) && generalParams.containsKey("server_timing"))
+    {
+        server_timing = "1".equals(generalParams.get("server_timing"));
+    }
+    if ((generalParams != null) && generalParams.containsKey("output_cache_size"))
+    {
+        try
+        {
+            int outputCacheSize = Integer.valueOf(generalParams.get("output_cache_size"));
+            if (outputCacheSize > 0)
+            {
+                List<String> queryParams = new ArrayList<String>();
+                String queryParamsStr = generalParams.get("output_cache_query_params");
+                if (queryParamsStr != null)
+                {
+                    for(String queryParam: queryParamsStr.split(","))
+                    {
+                        if (queryParam.trim().length() > 0) queryParams.add(queryParam.trim());
+                    }
+                }
+                outputCache = new PageOutputCache(outputCacheSize, queryParams);
+            }
+        } catch (NumberFormatException e)
+        {
+            outputCache = null;
+        }
+    }
+    if (outputCache != null)
+    {
+        long coalesceTimeout = RenderCoalescer.DEFAULT_TIMEOUT_MILLIS;
+        if ((generalParams != null) && generalParams.containsKey("render_coalesce_timeout"))
+        {
+            try
+            {
+                coalesceTimeout = Long.valueOf(generalParams.get("render_coalesce_timeout"));
+            } catch (NumberFormatException e)
+            {
+                coalesceTimeout = RenderCoalescer.DEFAULT_TIMEOUT_MILLIS;
+            }
+        }
+        // 0 turns off the coalescing, each request renders its page
+        renderCoalescer = (coalesceTimeout > 0) ? new RenderCoalescer(coalesceTimeout) : null;
+    }
 	
 	String initUriPrefix = servletUtility.getContextPath(this);
 	if (initUriPrefix.length() > 0)
@@ -194,30 +293,48 @@ public void init() throws ServletException
 	}
 }
 	
+public void destroy()
+{
+	if (outputCache != null)
+	{
+		outputCache.unregister();
+	}
+	if (pageContentBuilder != null)
+	{
+		pageContentBuilder.stopTemplateWarmUp();
+	}
+	super.destroy();
+}
+
 private URLMatcher getUrlMatcher(HttpServletRequest req) throws WPBIOException
 {
 	int currentHttpIndex = cacheInstances.getUriCache().httpToOperationIndex(req.getMethod().toUpperCase());
 	URLMatcher urlMatcher = urlMatcherArray[currentHttpIndex];
-	//reinitialize the matchurlToPattern if needed
-	if (cacheInstances.getUriCache().getCacheFingerPrint().compareTo(urlMatcher.getFingerPrint())!= 0)
-	{
-		Set<String> allUris = cacheInstances.getUriCache().getAllUris(currentHttpIndex);
-		urlMatcher.initialize(allUris, cacheInstances.getUriCache().getCacheFingerPrint());
-	}
+	//rebuild the matcher if the uris cache changed, only one request does it, the others use the current snapshot
+	urlMatcher.refresh(cacheInstances.getUriCache(), currentHttpIndex);
 	return urlMatcher;
 }
 	
 private void handleRequestTypeText(WPBPage webPage, HttpServletRequest req, HttpServletResponse resp, InternalModel model) throws WPBException, IOException
+{
+	handleRequestTypeText(webPage, req, resp, model, null, 0);
+}
+
+/*
+ * outputCacheKey is not null if the page output can be cached, version is the PageOutputCache version
+ * taken before the model was built
+ */
+private void handleRequestTypeText(WPBPage webPage, HttpServletRequest req, HttpServletResponse resp, InternalModel model, String outputCacheKey, long version) throws WPBException, IOException
 {
 	if (webPage == null)
 	{
 		resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
 		return;
 	}
-	String content = pageContentBuilder.buildPageContent(req, webPage, model);
-	resp.setCharacterEncoding("UTF-8");
 	Integer isTemplateSource = webPage.getIsTemplateSource();
-	if (isTemplateSource != 1)
+	boolean templateSource = isTemplateSource != null && isTemplateSource == 1;
+	resp.setCharacterEncoding("UTF-8");
+	if (!templateSource)
 	{
 		String cqp = req.getParameter(cache_query_param);
 		if (cqp != null)
@@ -225,22 +342,158 @@ private void handleRequestTypeText(WPBPage webPage, HttpServletRequest req, Http
 			// this is a request that can be cached, to do customize the cache time
 			resp.addHeader("cache-control", "max-age=".concat(cache_max_age));
 		}
-	} else
+		// the content of a static page is encoded once, revalidation is answered from the page hash
+		EncodedContent content = getStaticPageContent(webPage);
+		String etag = content.getETag();
+		byte[] gzipContent = GzipEncoding.isCompressible(webPage.getContentType()) ? content.getGzipContent() : null;
+		boolean gzip = false;
+		if (gzipContent != null)
+		{
+			GzipEncoding.addVary(resp);
+			gzip = GzipEncoding.acceptsGzip(req);
+			if (gzip)
+			{
+				etag = GzipEncoding.gzipETag(etag);
+			}
+		}
+		if (ConditionalRequest.handle(req, resp, etag, webPage.getLastModified()))
+		{
+			return;
+		}
+		if (gzip)
+		{
+			writeGzipContent(resp, webPage.getContentType(), gzipContent);
+			return;
+		}
+		resp.setContentType(webPage.getContentType());
+		resp.setContentLength(content.getContentLength());
+		resp.getOutputStream().write(content.getContent());
+		return;
+	}
+	resp.addHeader("cache-control", "no-cache;no-store;");
+	PageOutputCache.Entry entry = (outputCacheKey != null) ? outputCache.get(outputCacheKey) : null;
+	if (entry == null && outputCacheKey != null)
 	{
-		resp.addHeader("cache-control", "no-cache;no-store;");
+		if (renderCoalescer != null)
+		{
+			// the concurrent requests for the same page wait for one render
+			final WPBPage page = webPage;
+			final HttpServletRequest request = req;
+			final InternalModel pageModel = model;
+			final String key = outputCacheKey;
+			final long pageVersion = version;
+			entry = renderCoalescer.render(outputCacheKey, version, new RenderCoalescer.Render() {
+				public PageOutputCache.Entry render() throws WPBException, IOException
+				{
+					return renderOutputCacheEntry(page, request, pageModel, key, pageVersion);
+				}
+			});
+		} else
+		{
+			entry = renderOutputCacheEntry(webPage, req, model, outputCacheKey, version);
+		}
 	}
-	resp.setContentType(webPage.getContentType());			
+	// a template page has a validator and a compressed copy only when its output is known before it is sent
+	if (entry != null && templateSource)
+	{
+		String etag = entry.getETag();
+		boolean gzip = false;
+		if (entry.getGzipContent() != null)
+		{
+			GzipEncoding.addVary(resp);
+			gzip = GzipEncoding.acceptsGzip(req);
+			if (gzip)
+			{
+				etag = GzipEncoding.gzipETag(etag);
+			}
+		}
+		if (ConditionalRequest.handle(req, resp, etag, null))
+		{
+			return;
+		}
+		if (gzip)
+		{
+			writeGzipContent(resp, entry.getContentType(), entry.getGzipContent());
+			return;
+		}
+	}
+	resp.setContentType((entry != null) ? entry.getContentType() : webPage.getContentType());			
 	ServletOutputStream os = resp.getOutputStream();
-	os.write(content.getBytes("UTF-8"));
+	if (entry != null)
+	{
+		os.write(entry.getContent());
+	} else
+	{
+		// the page is streamed to the response while the template is processed, the response buffer holds the first
+		// render_buffer_size bytes so a template that fails before them can still be replaced by the error page
+		if (render_buffer_size > resp.getBufferSize())
+		{
+			resp.setBufferSize(render_buffer_size);
+		}
+		Writer out = PageContentBuilder.createPageWriter(os);
+		pageContentBuilder.buildPageContent(req, webPage, model, out);
+		out.flush();
+	}
+}
+
+/*
+ * Renders the template page in memory and stores it in the output cache
+ */
+private PageOutputCache.Entry renderOutputCacheEntry(WPBPage webPage, HttpServletRequest req, InternalModel model, String outputCacheKey, long version) throws WPBException, IOException
+{
+	ByteArrayOutputStream bos = new ByteArrayOutputStream();
+	Writer out = PageContentBuilder.createPageWriter(bos);
+	pageContentBuilder.buildPageContent(req, webPage, model, out);
+	out.flush();
+	PageOutputCache.Entry entry = new PageOutputCache.Entry(bos.toByteArray(), webPage.getContentType(), true,
+			version, RenderDependencies.isRecording() ? new HashSet<String>(RenderDependencies.get()) : null);
+	outputCache.put(outputCacheKey, entry);
+	return entry;
+}
+
+private void writeGzipContent(HttpServletResponse resp, String contentType, byte[] gzipContent) throws IOException
+{
+	resp.setContentType(contentType);
+	GzipEncoding.setGzipEncoding(resp);
+	resp.setContentLength(gzipContent.length);
+	resp.getOutputStream().write(gzipContent);
+}
+
+/*
+ * Returns the encoded content of a static page, it is taken from the pages cache if the cache keeps it,
+ * otherwise the page is encoded once for each page version.
+ */
+private EncodedContent getStaticPageContent(WPBPage webPage) throws WPBIOException
+{
+	WPBPagesCache pagesCache = cacheInstances.getPageCache();
+	if (pagesCache instanceof EncodedContentCache)
+	{
+		EncodedContent content = ((EncodedContentCache)pagesCache).getEncodedContent(webPage.getExternalKey());
+		if (content != null)
+		{
+			return content;
+		}
+	}
+	String key = webPage.getExternalKey() + ":" + webPage.getHash();
+	EncodedContent content = staticPagesContent.get(key);
+	if (content == null)
+	{
+		content = new EncodedContent(webPage.getHtmlSource(), webPage.getHash());
+		staticPagesContent.put(key, content);
+	}
+	return content;
 }
 
-private void handleRequestTypeFile(String fileExternalKey, URLMatcherResult urlMatcherResult, HttpServletRequest req, HttpServletResponse resp) throws WPBException, IOException
+/*
+ * Returns true if the file body is written after the request processing returns, see writeFileContentAsync
+ */
+private boolean handleRequestTypeFile(String fileExternalKey, URLMatcherResult urlMatcherResult, HttpServletRequest req, HttpServletResponse resp) throws WPBException, IOException
 {
 	WPBFile wbFile = fileContentBuilder.find(fileExternalKey);
 	if (wbFile == null)
 	{
 		resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
-		return;						
+		return false;						
 	}
 	WPBFilesCache fileCache = cacheFactory.getFilesCacheInstance();
 	WPBFile fileResponse = wbFile;
@@ -264,7 +517,7 @@ private void handleRequestTypeFile(String fileExternalKey, URLMatcherResult urlM
 	    if (fileResponse == null)
 	    {
 	        resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
-	        return;                     
+	        return false;                     
 	    }	    	    
 	}
 	
@@ -274,15 +527,74 @@ private void handleRequestTypeFile(String fileExternalKey, URLMatcherResult urlM
 		// there is a request that can be cached
 		resp.addHeader("cache-control", "max-age=".concat(cache_max_age));
 	}
-	ServletOutputStream os = resp.getOutputStream();
+	String etag = ConditionalRequest.strongETag(fileResponse.getHash());
+	boolean gzip = false;
+	if (fileResponse.getGzipSize() != null)
+	{
+		GzipEncoding.addVary(resp);
+		// the byte ranges are positions in the identity content, a Range request is never answered with gzip
+		gzip = GzipEncoding.acceptsGzip(req) && req.getHeader(ByteRanges.RANGE) == null;
+		if (gzip)
+		{
+			etag = GzipEncoding.gzipETag(etag);
+		}
+	}
+	if (ConditionalRequest.handle(req, resp, etag, fileResponse.getLastModified()))
+	{
+		// the client copy is current, the file content is not read
+		return false;
+	}
+	if (gzip)
+	{
+		// the compressed variant was created at upload
+		resp.setContentType(fileResponse.getAdjustedContentType());
+		GzipEncoding.setGzipEncoding(resp);
+		fileContentBuilder.sendGzipFileContent(fileResponse, req, resp);
+		return false;
+	}
+	if (fileContentBuilder.writeFileRanges(fileResponse, req, resp))
+	{
+		// a part of the file was asked, video players and resumed downloads
+		return false;
+	}
 	resp.setContentType(fileResponse.getAdjustedContentType());													
-	fileContentBuilder.writeFileContent(fileResponse, os);
+	if (writeFileContentAsync(fileResponse, req, resp))
+	{
+		return true;
+	}
+	fileContentBuilder.sendFileContent(fileResponse, req, resp);
+	return false;
 }
 
-private void handleRequest(HttpServletRequest req, HttpServletResponse resp)
+/*
+ * Extension point for the servlet 3.1 build (see WPBAsyncPublicContentServlet), called before the whole content
+ * of a file is sent. Returns true if the subclass writes the body after handleRequest returns, in this case
+ * the response output stream is not closed by handleRequest. The content type is already set.
+ */
+protected boolean writeFileContentAsync(WPBFile file, HttpServletRequest req, HttpServletResponse resp) throws WPBException, IOException
+{
+	return false;
+}
+
+protected FileContentBuilder getFileContentBuilder()
+{
+	return fileContentBuilder;
+}
+
+protected void handleRequest(HttpServletRequest req, HttpServletResponse resp)
 	throws ServletException,
 	java.io.IOException
 {
+	RequestTimings timings = null;
+	if (request_timing || server_timing)
+	{
+		timings = RequestTimings.start();
+		if (server_timing)
+		{
+			resp = new ServerTimingResponse(resp, timings);
+		}
+	}
+	String uriPattern = null;
 	String uri = req.getRequestURI();
 	if (uriCommonPrefix.length()>0 && uri.startsWith(uriCommonPrefix))
 	{
@@ -291,7 +603,10 @@ private void handleRequest(HttpServletRequest req, HttpServletResponse resp)
 	
 	// urlMatcher will get the corresponding wbUri that macthes the current request 
 	URLMatcher urlMatcher = null;
+	boolean bodyDeferred = false;
+	boolean aborted = false;
 	req.setAttribute(CONTEXT_PATH, uriCommonPrefix);
+	long matchBegin = RequestTimings.begin();
 	try
 	{
 		urlMatcher = getUrlMatcher(req);
@@ -300,6 +615,7 @@ private void handleRequest(HttpServletRequest req, HttpServletResponse resp)
 		//  nothing that can be done to serve better the request
 		log.log(Level.SEVERE, "ERROR: ", e);
 		resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+		RequestTimings.stop();
 		return;
 	}
 	
@@ -314,6 +630,8 @@ private void handleRequest(HttpServletRequest req, HttpServletResponse resp)
 		{
 			int currentHttpIndex = cacheInstances.getUriCache().httpToOperationIndex(req.getMethod().toUpperCase());
 			WPBUri wbUri = cacheInstances.getUriCache().get(urlMatcherResult.getUrlPattern(), currentHttpIndex);
+			RequestTimings.end(RequestTimings.Phase.MATCH, matchBegin);
+			uriPattern = urlMatcherResult.getUrlPattern();
 			
 			if ((null == wbUri) || (wbUri.getEnabled() == null) || (wbUri.getEnabled() == 0))
 			{
@@ -324,11 +642,23 @@ private void handleRequest(HttpServletRequest req, HttpServletResponse resp)
 			// build the uri model
 			InternalModel model = new InternalModel();
 			WPBForward forward = new WPBForward();
+			// the version is taken before the model is built so a content change during the render is not cached
+			long outputCacheVersion = PageOutputCache.getVersion();
+			if (outputCache != null)
+			{
+				// the records used to render the page are kept with the cached page
+				RenderDependencies.start();
+				RenderDependencies.record(RenderDependencies.URI, wbUri.getExternalKey());
+			}
+			long modelBegin = RequestTimings.begin();
 			modelBuilder.populateModelForUriData(req, wbUri, urlMatcherResult, model);
+			RequestTimings.end(RequestTimings.Phase.MODEL, modelBegin);
 			
 			if (wbUri.getResourceType() == WPBUri.RESOURCE_TYPE_URL_CONTROLLER)
 			{
+				long controllerBegin = RequestTimings.begin();
 				uriContentBuilder.buildUriContent(req, resp, wbUri, model, forward);
+				RequestTimings.end(RequestTimings.Phase.CONTROLLER, controllerBegin);
 				if (!forward.isRequestForwarded())
 				{
 					return;
@@ -345,11 +675,20 @@ private void handleRequest(HttpServletRequest req, HttpServletResponse resp)
 				{					
 					webPage = pageContentBuilder.findWebPage(wbUri.getResourceExternalKey());
 				}
-				handleRequestTypeText(webPage, req, resp, model);
+				String outputCacheKey = null;
+				if (outputCache != null && webPage != null && !forward.isRequestForwarded() && currentHttpIndex == WPBUrisCache.HTTP_GET_INDEX 
+						&& outputCache.isCacheable(webPage, model.getCmsModel().get(WPBModel.URI_PARAMETERS_KEY), cacheInstances.getParameterCache()))
+				{
+					outputCacheKey = outputCache.buildKey(urlMatcherResult, webPage, model, req);
+					RenderDependencies.record(RenderDependencies.PAGE, webPage.getExternalKey());
+				}
+				handleRequestTypeText(webPage, req, resp, model, outputCacheKey, outputCacheVersion);
 			} else
 			if (wbUri.getResourceType() == WPBUri.RESOURCE_TYPE_FILE)
 			{
-				handleRequestTypeFile(wbUri.getResourceExternalKey(), urlMatcherResult, req, resp);
+				long fileBegin = RequestTimings.begin();
+				bodyDeferred = handleRequestTypeFile(wbUri.getResourceExternalKey(), urlMatcherResult, req, resp);
+				RequestTimings.end(RequestTimings.Phase.FILE, fileBegin);
 			} else
 			{
 				resp.setStatus(HttpServletResponse.SC_NOT_FOUND);
@@ -360,6 +699,14 @@ private void handleRequest(HttpServletRequest req, HttpServletResponse resp)
 	catch (WPBTemplateException e)
 	{
 		log.log(Level.SEVERE, "Template ERROR: ", e);
+		if (resp.isCommitted())
+		{
+			// part of the page is sent already, the response is aborted so the client does not take it as complete
+			aborted = true;
+			throw new ServletException("Template failed after the response was committed", e);
+		}
+		// drop the page content buffered before the template failed
+		resp.reset();
 		ServletOutputStream os = resp.getOutputStream();
 		String stack = Arrays.toString(e.getStackTrace());
 		os.write(e.getMessage().getBytes("UTF-8")); os.write("\n".getBytes());				
@@ -377,14 +724,34 @@ private void handleRequest(HttpServletRequest req, HttpServletResponse resp)
 	catch (Exception e)
 	{
 		log.log(Level.SEVERE, "ERROR: ", e);
+		if (resp.isCommitted())
+		{
+			aborted = true;
+			throw new ServletException("Request failed after the response was committed", e);
+		}
 		resp.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
 		return;
 	}
 	finally
 	{
-		// close the output stream
-		OutputStream os = resp.getOutputStream();
-		os.close();
+		RenderDependencies.stop();
+		// close the output stream, unless the file body is still being written or the response is aborted,
+		// the container drops the connection of an aborted response instead of ending it normally
+		if (!bodyDeferred && !aborted)
+		{
+			OutputStream os = resp.getOutputStream();
+			os.close();
+		}
+		RequestTimings.stop();
+		if (request_timing)
+		{
+			RequestLatencies.record(uriPattern, timings);
+		}
+		if (AccessLog.isEnabled())
+		{
+			AccessLog.log("request", "method", req.getMethod(), "uri", uri, "pattern", uriPattern, 
+					"micros", (timings != null) ? timings.getElapsed() / 1000L : -1);
+		}
 	}
  }
 	
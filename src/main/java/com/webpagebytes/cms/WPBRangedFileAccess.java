@@ -0,0 +1,42 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * <p>
+ * WPBRangedFileAccess is an optional capability of a WPBFileStorage implementation that can read a part of a 
+ * stored file content without reading the content before it.
+ * </p>
+ * <p>
+ * The byte range requests are served with this interface when the configured WPBFileStorage implements it, 
+ * otherwise the content before the range is read from WPBFileStorage.getFileContent and skipped.
+ * </p>
+ */
+public interface WPBRangedFileAccess {
+	/**
+	 * Provides access to a part of a stored file content, used to serve the byte range requests.
+	 * @param file Represents a file location
+	 * @param offset The position of the first byte to read
+	 * @param length The maximum number of bytes to read
+	 * @return Returns an InputStream with at most length bytes of the file content, starting at offset 
+	 * @throws IOException Exception 
+	 */
+	public InputStream getFileContent(WPBFilePath file, long offset, long length) throws IOException;
+}
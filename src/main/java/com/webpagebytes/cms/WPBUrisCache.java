@@ -16,6 +16,7 @@
 
 package com.webpagebytes.cms;
 
+import java.util.List;
 import java.util.Set;
 
 import com.webpagebytes.cms.cmsdata.WPBUri;
@@ -94,6 +95,89 @@ public abstract class WPBUrisCache implements WPBRefreshableCache {
      */
 	public abstract Long getCacheFingerPrint();
 	
+	/**
+	 * Describes the change of a single WPBUri record between two cache fingerprints.
+	 * For a create previousUri is null, for a delete currentUri is null.
+	 */
+	public static class UriChange
+	{
+		private final WPBUri previousUri;
+		private final WPBUri currentUri;
+		private final Long previousFingerPrint;
+		private final Long fingerPrint;
+		
+		public UriChange(WPBUri previousUri, WPBUri currentUri, Long previousFingerPrint, Long fingerPrint)
+		{
+			this.previousUri = previousUri;
+			this.currentUri = currentUri;
+			this.previousFingerPrint = previousFingerPrint;
+			this.fingerPrint = fingerPrint;
+		}
+		
+		/**
+		 * @return The record as it was before the change or null if the record was created
+		 */
+		public WPBUri getPreviousUri() {
+			return previousUri;
+		}
+		
+		/**
+		 * @return The record as it is after the change or null if the record was deleted
+		 */
+		public WPBUri getCurrentUri() {
+			return currentUri;
+		}
+		
+		/**
+		 * @return The cache fingerprint before the change
+		 */
+		public Long getPreviousFingerPrint() {
+			return previousFingerPrint;
+		}
+		
+		/**
+		 * @return The cache fingerprint after the change
+		 */
+		public Long getFingerPrint() {
+			return fingerPrint;
+		}
+	}
+	
+	/**
+	 * Updates the cache with a single record that was created or updated, without reloading all the records.
+	 * The default implementation refreshes the whole cache.
+	 * @param uri The record received from the storage notification
+	 * @throws WPBIOException Exception
+	 */
+	public void refreshRecord(WPBUri uri) throws WPBIOException
+	{
+		Refresh();
+	}
+	
+	/**
+	 * Removes a single deleted record from the cache, without reloading all the records.
+	 * The default implementation refreshes the whole cache.
+	 * @param uri The record received from the storage notification, it can have only the privkey set
+	 * @throws WPBIOException Exception
+	 */
+	public void removeRecord(WPBUri uri) throws WPBIOException
+	{
+		Refresh();
+	}
+	
+	/**
+	 * Returns the single record changes done since a previous fingerprint, in the order they were applied. 
+	 * A client that had a fingerprint can use them to update its own data instead of reloading all the uris.
+	 * The default implementation does not keep track of changes and returns null.
+	 * @param fromFingerPrint A previous cache fingerprint
+	 * @return The list of changes from fromFingerPrint to the current fingerprint or null if they are not known, 
+	 * for example if the cache was fully refreshed in the meantime.
+	 */
+	public List<UriChange> getChangesSince(Long fromFingerPrint)
+	{
+		return null;
+	}
+	
 	/**
 	 * Utility method to convert a HTTP verb to the corresponsing index value
 	 * @param httpOperation HTTP verb operation
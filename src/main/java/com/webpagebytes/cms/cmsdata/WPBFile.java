@@ -47,6 +47,10 @@ public class WPBFile {
 	@WPBAdminFieldStore
 	private Long hash;
 
+	// the size of the gzip variant stored next to the blob, null if the file has no compressed variant
+	@WPBAdminFieldStore
+	private Long gzipSize;
+
 	@WPBAdminField
 	private String publicUrl;
 
@@ -136,6 +140,14 @@ public class WPBFile {
 		this.hash = hash;
 	}
 
+	public Long getGzipSize() {
+		return gzipSize;
+	}
+
+	public void setGzipSize(Long gzipSize) {
+		this.gzipSize = gzipSize;
+	}
+
 	public String getPublicUrl() {
 		return publicUrl;
 	}
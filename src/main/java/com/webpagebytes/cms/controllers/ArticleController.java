@@ -34,6 +34,7 @@ import com.webpagebytes.cms.cmsdata.WPBArticle;
 import com.webpagebytes.cms.cmsdata.WPBResource;
 import com.webpagebytes.cms.engine.DefaultWPBCacheFactory;
 import com.webpagebytes.cms.engine.JSONToFromObjectConverter;
+import com.webpagebytes.cms.engine.RenderDependencies;
 import com.webpagebytes.cms.engine.WPBAdminDataStorageFactory;
 import com.webpagebytes.cms.engine.WPBAdminDataStorageListener;
 import com.webpagebytes.cms.exception.WPBException;
@@ -57,7 +58,7 @@ public class ArticleController extends Controller implements WPBAdminDataStorage
 		{
 			if (type.equals(WPBArticle.class))
 			{
-				wbArticleCache.Refresh();
+				refreshCache(wbArticleCache, o, RenderDependencies.ARTICLE, (t != null) ? ((WPBArticle)t).getExternalKey() : null);
 			}
 		} catch (WPBIOException e)
 		{
@@ -28,6 +28,7 @@ import org.json.JSONException;
 import com.webpagebytes.cms.WPBAdminDataStorage;
 import com.webpagebytes.cms.WPBFilePath;
 import com.webpagebytes.cms.WPBFileStorage;
+import com.webpagebytes.cms.WPBRefreshableCache;
 import com.webpagebytes.cms.cmsdata.WPBArticle;
 import com.webpagebytes.cms.cmsdata.WPBFile;
 import com.webpagebytes.cms.cmsdata.WPBMessage;
@@ -38,9 +39,12 @@ import com.webpagebytes.cms.cmsdata.WPBProject;
 import com.webpagebytes.cms.cmsdata.WPBResource;
 import com.webpagebytes.cms.cmsdata.WPBUri;
 import com.webpagebytes.cms.engine.JSONToFromObjectConverter;
+import com.webpagebytes.cms.engine.PageOutputCache;
 import com.webpagebytes.cms.engine.WPBAdminDataStorageFactory;
+import com.webpagebytes.cms.engine.WPBAdminDataStorageListener.AdminDataStorageOperation;
 import com.webpagebytes.cms.engine.WPBFileStorageFactory;
 import com.webpagebytes.cms.exception.WPBException;
+import com.webpagebytes.cms.exception.WPBIOException;
 import com.webpagebytes.cms.utility.HttpServletToolbox;
 
 public class Controller {
@@ -179,6 +183,29 @@ public class Controller {
 		adminStorage = WPBAdminDataStorageFactory.getInstance();
 	}
 	
+	/*
+	 * Refreshes a content cache after a storage notification. When a record is created or updated only the rendered pages
+	 * that depend on it are evicted from the output cache, for the other operations all the rendered pages are.
+	 */
+	protected void refreshCache(WPBRefreshableCache cache, AdminDataStorageOperation o, String dependencyType, String dependencyKey) throws WPBIOException
+	{
+		boolean recordChange = (dependencyKey != null) && (o == AdminDataStorageOperation.CREATE_RECORD || o == AdminDataStorageOperation.UPDATE_RECORD);
+		if (recordChange)
+		{
+			PageOutputCache.beginRecordChange(dependencyType, dependencyKey);
+		}
+		try
+		{
+			cache.Refresh();
+		} finally
+		{
+			if (recordChange)
+			{
+				PageOutputCache.endRecordChange();
+			}
+		}
+	}
+	
    protected void deleteFile(WPBFile file) throws IOException
     {
         if (file.getBlobKey() != null)
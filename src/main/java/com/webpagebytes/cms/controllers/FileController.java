@@ -16,6 +16,8 @@
 
 package com.webpagebytes.cms.controllers;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
 import java.io.InputStream;
@@ -49,7 +51,11 @@ import com.webpagebytes.cms.WPBAdminDataStorage.AdminSortOperator;
 import com.webpagebytes.cms.cmsdata.WPBFile;
 import com.webpagebytes.cms.cmsdata.WPBResource;
 import com.webpagebytes.cms.cmsdata.WPBUri;
+import com.webpagebytes.cms.engine.ByteRanges;
+import com.webpagebytes.cms.engine.ConditionalRequest;
 import com.webpagebytes.cms.engine.DefaultWPBCacheFactory;
+import com.webpagebytes.cms.engine.GzipEncoding;
+import com.webpagebytes.cms.engine.RenderDependencies;
 import com.webpagebytes.cms.engine.WPBAdminDataStorageListener;
 import com.webpagebytes.cms.exception.WPBException;
 import com.webpagebytes.cms.exception.WPBIOException;
@@ -78,7 +84,7 @@ public class FileController extends Controller implements WPBAdminDataStorageLis
 		{
 			if (type.equals(WPBFile.class))
 			{
-				filesCache.Refresh();
+				refreshCache(filesCache, o, RenderDependencies.FILE, (t != null) ? ((WPBFile)t).getExternalKey() : null);
 			}
 		} catch (WPBIOException e)
 		{
@@ -215,10 +221,49 @@ public class FileController extends Controller implements WPBAdminDataStorageLis
             WPBFilePath contentFile = new WPBFilePath(PUBLIC_BUCKET, file.getBlobKey());
             
             cloudFileStorage.deleteFile(contentFile);             
+            deleteGzipVariant(file);
         }
         adminStorage.delete(file.getPrivkey(), WPBFile.class);
     }
 
+    private void deleteGzipVariant(WPBFile file) throws IOException
+    {
+        if (file.getGzipSize() != null)
+        {
+            cloudFileStorage.deleteFile(new WPBFilePath(PUBLIC_BUCKET, file.getBlobKey() + GzipEncoding.GZIP_BLOB_SUFFIX));
+            file.setGzipSize(null);
+        }
+    }
+
+    /*
+     * Stores the gzip variant of a text like file next to its blob so the public servlet
+     * does not compress it on each request
+     */
+    private void storeGzipVariant(WPBFile file, WPBFilePath cloudFile, WPBFileInfo fileInfo) throws IOException
+    {
+        if (! GzipEncoding.isWorthCompressing(fileInfo.getContentType(), fileInfo.getSize()))
+        {
+            return;
+        }
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        InputStream is = cloudFileStorage.getFileContent(cloudFile);
+        try
+        {
+            GzipEncoding.gzip(is, bos);
+        } finally
+        {
+            IOUtils.closeQuietly(is);
+        }
+        if (bos.size() >= fileInfo.getSize())
+        {
+            // the content does not compress
+            return;
+        }
+        WPBFilePath gzipFile = new WPBFilePath(PUBLIC_BUCKET, cloudFile.getPath() + GzipEncoding.GZIP_BLOB_SUFFIX);
+        cloudFileStorage.storeFile(new ByteArrayInputStream(bos.toByteArray()), gzipFile);
+        file.setGzipSize((long)bos.size());
+    }
+
 	private WPBFile createDirectory(WPBFile parentdirectory, String dirName) throws WPBException
 	{
 	    WPBFile file = new WPBFile();
@@ -272,6 +317,8 @@ public class FileController extends Controller implements WPBAdminDataStorageLis
          file.setBlobKey(cloudFile.getPath());
          file.setHash(fileInfo.getCrc32());
          file.setSize(fileInfo.getSize());
+         file.setGzipSize(null);
+         storeGzipVariant(file, cloudFile, fileInfo);
          file.setContentType(fileInfo.getContentType());
          file.setAdjustedContentType(file.getContentType());
          file.setDirectoryFlag(0);
@@ -453,6 +500,7 @@ public class FileController extends Controller implements WPBAdminDataStorageLis
 	                    // delete only if the blob key is set
 	                    WPBFilePath oldCloudFile = new WPBFilePath(PUBLIC_BUCKET, oldFilePath);
 	                    cloudFileStorage.deleteFile(oldCloudFile);
+	                    deleteGzipVariant(wbFile);
 	                }
 	            } else
 	            {
@@ -738,9 +786,14 @@ public class FileController extends Controller implements WPBAdminDataStorageLis
 			Long key = Long.valueOf((String)request.getAttribute("key"));
 			WPBFile wbfile = adminStorage.get(key, WPBFile.class);
 			WPBFilePath cloudFile = new WPBFilePath(PUBLIC_BUCKET, wbfile.getBlobKey());
+			response.setHeader("Content-Disposition", "attachment; filename=\"" + wbfile.getFileName() + "\"");
+			if (serveRanges(request, response, wbfile, cloudFile, wbfile.getContentType()))
+			{
+				// resumed download
+				return;
+			}
 			InputStream is = cloudFileStorage.getFileContent(cloudFile);
 			response.setContentType(wbfile.getContentType());			
-			response.setHeader("Content-Disposition", "attachment; filename=\"" + wbfile.getFileName() + "\"");
 			response.setContentLength(wbfile.getSize().intValue());
 			OutputStream os = response.getOutputStream();
 			IOUtils.copy(is, os);
@@ -754,6 +807,16 @@ public class FileController extends Controller implements WPBAdminDataStorageLis
 		
 	}
 
+	private boolean serveRanges(HttpServletRequest request, HttpServletResponse response, WPBFile wbfile, WPBFilePath cloudFile, String contentType) throws IOException
+	{
+		if (wbfile.getSize() == null)
+		{
+			return false;
+		}
+		return ByteRanges.serveRanges(request, response, cloudFileStorage, cloudFile, wbfile.getSize(), contentType, 
+				ConditionalRequest.strongETag(wbfile.getHash()), wbfile.getLastModified());
+	}
+
 	public void serveResource(HttpServletRequest request, HttpServletResponse response, String requestUri) throws WPBException
 	{
 	    InputStream is = null;
@@ -763,6 +826,10 @@ public class FileController extends Controller implements WPBAdminDataStorageLis
 			Long key = Long.valueOf((String)request.getAttribute("key"));
 			WPBFile wbfile = adminStorage.get(key, WPBFile.class);
 			WPBFilePath cloudFile = new WPBFilePath(PUBLIC_BUCKET, wbfile.getBlobKey());
+			if (serveRanges(request, response, wbfile, cloudFile, wbfile.getAdjustedContentType()))
+			{
+				return;
+			}
 			is = cloudFileStorage.getFileContent(cloudFile);
 			response.setContentType(wbfile.getAdjustedContentType());
 			response.setContentLength(wbfile.getSize().intValue());
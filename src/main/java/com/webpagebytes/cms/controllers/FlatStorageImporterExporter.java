@@ -56,6 +56,7 @@ import com.webpagebytes.cms.engine.WPBAdminDataStorageFactory;
 import com.webpagebytes.cms.engine.WPBFileStorageFactory;
 import com.webpagebytes.cms.exception.WPBException;
 import com.webpagebytes.cms.exception.WPBIOException;
+import com.webpagebytes.cms.template.TemplateWarmUp;
 
 public class FlatStorageImporterExporter {
 	private static final Logger log = Logger.getLogger(FlatStorageImporterExporter.class.getName());
@@ -252,6 +253,8 @@ public class FlatStorageImporterExporter {
             dataStorage.startNotifications();
         }
         resetCache();
+        // the imported pages and modules are parsed before they are requested
+        TemplateWarmUp.startAll();
     }
 
 	private byte[] getBytesFromInputStream(InputStream is) throws IOException
@@ -39,6 +39,7 @@ import com.webpagebytes.cms.WPBAdminDataStorage.AdminSortOperator;
 import com.webpagebytes.cms.cmsdata.WPBMessage;
 import com.webpagebytes.cms.cmsdata.WPBResource;
 import com.webpagebytes.cms.engine.DefaultWPBCacheFactory;
+import com.webpagebytes.cms.engine.RenderDependencies;
 import com.webpagebytes.cms.engine.WPBAdminDataStorageListener;
 import com.webpagebytes.cms.exception.WPBException;
 import com.webpagebytes.cms.exception.WPBIOException;
@@ -62,7 +63,7 @@ public class MessageController extends Controller implements WPBAdminDataStorage
 		{
 			if (type.equals(WPBMessage.class))
 			{
-				wbMessageCache.Refresh();
+				refreshCache(wbMessageCache, o, RenderDependencies.MESSAGES, (t != null) ? ((WPBMessage)t).getLcid() : null);
 			}
 		} catch (WPBIOException e)
 		{
@@ -40,6 +40,7 @@ import com.webpagebytes.cms.cmsdata.WPBUri;
 import com.webpagebytes.cms.cmsdata.WPBPage;
 import com.webpagebytes.cms.engine.DefaultWPBCacheFactory;
 import com.webpagebytes.cms.engine.JSONToFromObjectConverter;
+import com.webpagebytes.cms.engine.RenderDependencies;
 import com.webpagebytes.cms.engine.WPBAdminDataStorageListener;
 import com.webpagebytes.cms.exception.WPBException;
 import com.webpagebytes.cms.exception.WPBIOException;
@@ -68,7 +69,7 @@ public class PageController extends Controller implements WPBAdminDataStorageLis
 			if (type.equals(WPBPage.class))
 			{
 				log.log(Level.INFO, "WbWebPage datastore notification, going to refresh the cache");
-				wbWebPageCache.Refresh();
+				refreshCache(wbWebPageCache, o, RenderDependencies.PAGE, (t != null) ? ((WPBPage)t).getExternalKey() : null);
 			}
 		} catch (WPBIOException e)
 		{
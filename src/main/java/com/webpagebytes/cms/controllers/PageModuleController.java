@@ -35,6 +35,7 @@ import com.webpagebytes.cms.cmsdata.WPBResource;
 import com.webpagebytes.cms.cmsdata.WPBPageModule;
 import com.webpagebytes.cms.engine.DefaultWPBCacheFactory;
 import com.webpagebytes.cms.engine.JSONToFromObjectConverter;
+import com.webpagebytes.cms.engine.RenderDependencies;
 import com.webpagebytes.cms.engine.WPBAdminDataStorageListener;
 import com.webpagebytes.cms.exception.WPBException;
 import com.webpagebytes.cms.exception.WPBIOException;
@@ -60,7 +61,7 @@ public class PageModuleController extends Controller implements WPBAdminDataStor
 		{
 			if (type.equals(WPBPageModule.class))
 			{
-				wbPageModuleCache.Refresh();
+				refreshCache(wbPageModuleCache, o, RenderDependencies.MODULE, (t != null) ? ((WPBPageModule)t).getExternalKey() : null);
 			}
 		} catch (WPBIOException e)
 		{
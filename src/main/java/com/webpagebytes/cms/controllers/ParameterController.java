@@ -36,6 +36,7 @@ import com.webpagebytes.cms.cmsdata.WPBParameter;
 import com.webpagebytes.cms.cmsdata.WPBResource;
 import com.webpagebytes.cms.engine.DefaultWPBCacheFactory;
 import com.webpagebytes.cms.engine.JSONToFromObjectConverter;
+import com.webpagebytes.cms.engine.RenderDependencies;
 import com.webpagebytes.cms.engine.WPBAdminDataStorageListener;
 import com.webpagebytes.cms.exception.WPBException;
 import com.webpagebytes.cms.exception.WPBIOException;
@@ -59,7 +60,7 @@ public class ParameterController extends Controller implements WPBAdminDataStora
 		{
 			if (type.equals(WPBParameter.class))
 			{
-				wbParameterCache.Refresh();
+				refreshCache(wbParameterCache, o, RenderDependencies.PARAMETERS, (t != null) ? ((WPBParameter)t).getOwnerExternalKey() : null);
 			}
 		} catch (WPBIOException e)
 		{
@@ -0,0 +1,162 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.controllers;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.webpagebytes.cms.engine.DefaultWPBCacheFactory;
+import com.webpagebytes.cms.engine.FileContentBuilder;
+import com.webpagebytes.cms.engine.ModelBuilder;
+import com.webpagebytes.cms.engine.PageContentBuilder;
+import com.webpagebytes.cms.engine.StaticSiteExporter;
+import com.webpagebytes.cms.engine.WPBCacheInstances;
+import com.webpagebytes.cms.exception.WPBException;
+import com.webpagebytes.cms.utility.CmsConfiguration;
+import com.webpagebytes.cms.utility.CmsConfigurationFactory;
+import com.webpagebytes.cms.utility.CmsConfiguration.WPBSECTION;
+
+/*
+ * Pre-renders the public site in a directory (static_export_dir) and serves it as a zip.
+ * The settings are read from the general section: static_export_base_url is the site url used in the
+ * rendered links, static_export_threads the number of render threads and static_export_param.<name>
+ * the values of the uri parameter {name}, @articles, @pages, @files or a comma separated list.
+ */
+public class StaticExportController extends Controller {
+
+	public static final String EXPORT_DIR = "static_export_dir";
+	public static final String EXPORT_BASE_URL = "static_export_base_url";
+	public static final String EXPORT_THREADS = "static_export_threads";
+	public static final String EXPORT_PARAM_PREFIX = "static_export_param.";
+	public static final String DEFAULT_BASE_URL = "http://localhost";
+	
+	private StaticSiteExporter exporter;
+	private File exportDirectory;
+	
+	public StaticExportController()
+	{
+	}
+	
+	private synchronized StaticSiteExporter getExporter() throws WPBException
+	{
+		if (exporter == null)
+		{
+			CmsConfiguration configuration = CmsConfigurationFactory.getConfiguration();
+			Map<String, String> generalParams = (configuration != null) ? configuration.getSectionParams(WPBSECTION.SECTION_GENERAL) : null;
+			if (generalParams == null)
+			{
+				generalParams = new HashMap<String, String>();
+			}
+			String dir = generalParams.get(EXPORT_DIR);
+			exportDirectory = (dir != null && dir.length() > 0) ? new File(dir) : new File(System.getProperty("java.io.tmpdir"), "wpb-static-export");
+			String baseUrl = generalParams.get(EXPORT_BASE_URL);
+			if (baseUrl == null || baseUrl.length() == 0)
+			{
+				baseUrl = DEFAULT_BASE_URL;
+			}
+			int threads = StaticSiteExporter.DEFAULT_THREADS;
+			try
+			{
+				if (generalParams.get(EXPORT_THREADS) != null)
+				{
+					threads = Integer.parseInt(generalParams.get(EXPORT_THREADS).trim());
+				}
+			} catch (NumberFormatException e)
+			{
+				// keep the default
+			}
+			
+			WPBCacheInstances cacheInstances = new WPBCacheInstances(DefaultWPBCacheFactory.getInstance());
+			ModelBuilder modelBuilder = new ModelBuilder(cacheInstances);
+			PageContentBuilder pageContentBuilder = new PageContentBuilder(cacheInstances, modelBuilder);
+			pageContentBuilder.initialize();
+			// the export parses the templates it renders, startAll does not need to warm up this engine
+			pageContentBuilder.stopTemplateWarmUp();
+			FileContentBuilder fileContentBuilder = new FileContentBuilder(cacheInstances);
+			
+			StaticSiteExporter newExporter = new StaticSiteExporter(cacheInstances, modelBuilder, pageContentBuilder, fileContentBuilder,
+					adminStorage, baseUrl, threads);
+			for(Map.Entry<String, String> entry: generalParams.entrySet())
+			{
+				if (entry.getKey().startsWith(EXPORT_PARAM_PREFIX))
+				{
+					newExporter.setParameterSource(entry.getKey().substring(EXPORT_PARAM_PREFIX.length()), entry.getValue());
+				}
+			}
+			exporter = newExporter;
+		}
+		return exporter;
+	}
+	
+	public void exportSite(HttpServletRequest request, HttpServletResponse response, String requestUri) throws WPBException
+	{
+		try
+		{
+			StaticSiteExporter.Result result;
+			// one export at a time, the exports share the directory
+			synchronized (this)
+			{
+				result = getExporter().export(exportDirectory);
+			}
+			org.json.JSONObject resultJson = new org.json.JSONObject();
+			resultJson.put("directory", exportDirectory.getAbsolutePath());
+			resultJson.put("written", result.getWritten());
+			resultJson.put("unchanged", result.getUnchanged());
+			resultJson.put("removed", result.getRemoved());
+			resultJson.put("duration", result.getDuration());
+			resultJson.put("errors", result.getErrors());
+			resultJson.put("skipped", result.getSkipped());
+			org.json.JSONObject returnJson = new org.json.JSONObject();
+			returnJson.put(DATA, resultJson);
+			httpServletToolbox.writeBodyResponseAsJson(response, returnJson, null);
+		} catch (Exception e)
+		{
+			Map<String, String> errors = new HashMap<String, String>();		
+			errors.put("", WPBErrors.WB_UNKNOWN_ERROR);
+			httpServletToolbox.writeBodyResponseAsJson(response, jsonObjectConverter.JSONObjectFromMap(null), errors);			
+		}
+	}
+
+	public void getSiteZip(HttpServletRequest request, HttpServletResponse response, String requestUri) throws WPBException
+	{
+		try
+		{
+			getExporter();
+			if (!new File(exportDirectory, StaticSiteExporter.MANIFEST_FILE).exists())
+			{
+				Map<String, String> errors = new HashMap<String, String>();		
+				errors.put("", WPBErrors.WB_CANNOT_EXPORT_PROJECT);
+				httpServletToolbox.writeBodyResponseAsJson(response, jsonObjectConverter.JSONObjectFromMap(null), errors);
+				return;
+			}
+			response.setContentType("application/zip");
+			synchronized (this)
+			{
+				StaticSiteExporter.writeZip(exportDirectory, response.getOutputStream());
+			}
+		} catch (Exception e)
+		{
+			Map<String, String> errors = new HashMap<String, String>();		
+			errors.put("", WPBErrors.WB_CANNOT_EXPORT_PROJECT);
+			httpServletToolbox.writeBodyResponseAsJson(response, jsonObjectConverter.JSONObjectFromMap(null), errors);			
+		}
+	}
+}
@@ -17,6 +17,7 @@
 package com.webpagebytes.cms.controllers;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -33,6 +34,9 @@ import com.webpagebytes.cms.cmsdata.WPBUri;
 import com.webpagebytes.cms.cmsdata.WPBPage;
 import com.webpagebytes.cms.cmsdata.WPBPageModule;
 import com.webpagebytes.cms.engine.JSONToFromObjectConverter;
+import com.webpagebytes.cms.engine.LatencyHistogram;
+import com.webpagebytes.cms.engine.RequestLatencies;
+import com.webpagebytes.cms.engine.RequestTimings;
 import com.webpagebytes.cms.engine.WPBAdminDataStorageFactory;
 import com.webpagebytes.cms.exception.WPBException;
 
@@ -150,4 +154,46 @@ public class Statistics extends Controller {
 			httpServletToolbox.writeBodyResponseAsJson(response, jsonObjectConverter.JSONObjectFromMap(null), errors);				
 		}
 	}
+	
+	/*
+	 * Returns the latencies of the public requests by uri pattern, the times are in microseconds.
+	 * The latencies are cleared when the request has the parameter reset=1.
+	 */
+	public void getLatencies(HttpServletRequest request, HttpServletResponse response, String requestUri) throws WPBException
+	{
+		try
+		{
+			org.json.JSONObject patternsJson = new org.json.JSONObject();
+			for(Map.Entry<String, RequestLatencies.PatternLatency> entry: RequestLatencies.getAll().entrySet())
+			{
+				LatencyHistogram histogram = entry.getValue().getHistogram();
+				org.json.JSONObject latencyJson = new org.json.JSONObject();
+				latencyJson.put("count", histogram.getCount());
+				latencyJson.put("mean", histogram.getMean());
+				latencyJson.put("p50", histogram.getPercentile(50));
+				latencyJson.put("p90", histogram.getPercentile(90));
+				latencyJson.put("p99", histogram.getPercentile(99));
+				latencyJson.put("max", histogram.getMax());
+				Map<String, Long> phases = new LinkedHashMap<String, Long>();
+				for(RequestTimings.Phase phase: RequestTimings.Phase.values())
+				{
+					phases.put(phase.getMetricName(), entry.getValue().getPhaseTotal(phase));
+				}
+				latencyJson.put("phaseTotals", phases);
+				patternsJson.put(entry.getKey(), latencyJson);
+			}
+			if ("1".equals(request.getParameter("reset")))
+			{
+				RequestLatencies.clear();
+			}
+			org.json.JSONObject returnJson = new org.json.JSONObject();
+			returnJson.put(DATA, patternsJson);
+			httpServletToolbox.writeBodyResponseAsJson(response, returnJson, null);
+		} catch (Exception e)
+		{
+			Map<String, String> errors = new HashMap<String, String>();		
+			errors.put("", WPBErrors.WB_CANT_GET_RECORDS);
+			httpServletToolbox.writeBodyResponseAsJson(response, jsonObjectConverter.JSONObjectFromMap(null), errors);				
+		}
+	}
 }
@@ -0,0 +1,79 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.controllers;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.webpagebytes.cms.exception.WPBException;
+import com.webpagebytes.cms.template.TemplateWarmUp;
+
+public class TemplateWarmUpController extends Controller {
+
+	public TemplateWarmUpController()
+	{
+	}
+	
+	private org.json.JSONObject reportToJson(TemplateWarmUp.Report report) throws org.json.JSONException
+	{
+		org.json.JSONObject reportJson = new org.json.JSONObject();
+		reportJson.put("running", TemplateWarmUp.isAnyRunning());
+		if (report != null)
+		{
+			reportJson.put("startTime", report.getStartTime());
+			reportJson.put("duration", report.getDuration());
+			reportJson.put("count", report.getTimings().size());
+			reportJson.put("timings", report.getTimings());
+			reportJson.put("failures", report.getFailures());
+		}
+		return reportJson;
+	}
+	
+	public void getWarmUpReport(HttpServletRequest request, HttpServletResponse response, String requestUri) throws WPBException
+	{
+		try
+		{
+			org.json.JSONObject returnJson = new org.json.JSONObject();
+			returnJson.put(DATA, reportToJson(TemplateWarmUp.getLastReport()));
+			httpServletToolbox.writeBodyResponseAsJson(response, returnJson, null);
+		} catch (Exception e)
+		{
+			Map<String, String> errors = new HashMap<String, String>();		
+			errors.put("", WPBErrors.WB_CANT_GET_RECORDS);
+			httpServletToolbox.writeBodyResponseAsJson(response, jsonObjectConverter.JSONObjectFromMap(null), errors);			
+		}
+	}
+
+	public void startWarmUp(HttpServletRequest request, HttpServletResponse response, String requestUri) throws WPBException
+	{
+		try
+		{
+			TemplateWarmUp.startAll();
+			org.json.JSONObject returnJson = new org.json.JSONObject();
+			returnJson.put(DATA, reportToJson(TemplateWarmUp.getLastReport()));
+			httpServletToolbox.writeBodyResponseAsJson(response, returnJson, null);
+		} catch (Exception e)
+		{
+			Map<String, String> errors = new HashMap<String, String>();		
+			errors.put("", WPBErrors.WB_UNKNOWN_ERROR);
+			httpServletToolbox.writeBodyResponseAsJson(response, jsonObjectConverter.JSONObjectFromMap(null), errors);			
+		}
+	}
+}
@@ -35,6 +35,8 @@ import com.webpagebytes.cms.cmsdata.WPBUri;
 import com.webpagebytes.cms.cmsdata.WPBPage;
 import com.webpagebytes.cms.engine.DefaultWPBCacheFactory;
 import com.webpagebytes.cms.engine.JSONToFromObjectConverter;
+import com.webpagebytes.cms.engine.PageOutputCache;
+import com.webpagebytes.cms.engine.RenderDependencies;
 import com.webpagebytes.cms.engine.WPBAdminDataStorageFactory;
 import com.webpagebytes.cms.engine.WPBAdminDataStorageListener;
 import com.webpagebytes.cms.exception.WPBException;
@@ -67,7 +69,25 @@ public class UriController extends Controller implements WPBAdminDataStorageList
 		{
 			if (type.equals(WPBUri.class))
 			{
-				wbUriCache.Refresh();
+				// single record changes are applied as deltas, the rest reload the cache
+				if (t != null && (o == AdminDataStorageOperation.CREATE_RECORD || o == AdminDataStorageOperation.UPDATE_RECORD))
+				{
+					// only the rendered pages that used this uri are evicted
+					PageOutputCache.beginRecordChange(RenderDependencies.URI, ((WPBUri)t).getExternalKey());
+					try
+					{
+						wbUriCache.refreshRecord((WPBUri)t);
+					} finally
+					{
+						PageOutputCache.endRecordChange();
+					}
+				} else if (t != null && o == AdminDataStorageOperation.DELETE_RECORD)
+				{
+					wbUriCache.removeRecord((WPBUri)t);
+				} else
+				{
+					wbUriCache.Refresh();
+				}
 			}
 		} catch (WPBIOException e)
 		{
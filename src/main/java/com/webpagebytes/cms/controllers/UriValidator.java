@@ -21,12 +21,14 @@ import java.util.HashSet;
 import java.util.Map;
 
 import com.webpagebytes.cms.cmsdata.WPBUri;
+import com.webpagebytes.cms.engine.URLMatcher;
 
 class UriValidator {
 	public final static int MAX_URI_LENGHT = 255;
 	public final static int MAX_CONTROLLER_LENGHT = 255;
 	
 	public final static int MAX_EXTERNAL_KEY = 100;
+	private final static String URI_REGEX = "/([0-9a-zA-Z_~.-]*(\\{[0-9a-zA-Z_.*-]+\\})*[0-9a-zA-Z_~.-]*/?)*";
 	private HashSet<String> httpOperations;
 	
 	
@@ -41,6 +43,51 @@ class UriValidator {
 		httpOperations.add("OPTIONS");
 		httpOperations.add("HEAD");
 	}
+	/*
+	 * The parameters can have a constraint like {id:int}, {slug:alpha}, {code:alnum} or a regular expression like {lang:[a-z]{2}}.
+	 * Each constraint is checked and then removed so the rest of the uri is checked with URI_REGEX.
+	 */
+	private boolean isValidUri(String uri)
+	{
+		StringBuilder uriNoConstraints = new StringBuilder();
+		int i = 0;
+		while (i < uri.length())
+		{
+			char c = uri.charAt(i);
+			uriNoConstraints.append(c);
+			i++;
+			if (c != '{') continue;
+			int nameEnd = i;
+			while (nameEnd < uri.length() && "{}:".indexOf(uri.charAt(nameEnd)) < 0)
+			{
+				nameEnd++;
+			}
+			if (nameEnd == uri.length() || uri.charAt(nameEnd) != ':') continue;
+			
+			// the constraint ends at the '}' that balances the braces inside it
+			int depth = 0;
+			int constraintEnd = nameEnd + 1;
+			while (constraintEnd < uri.length() && (uri.charAt(constraintEnd) != '}' || depth > 0))
+			{
+				if (uri.charAt(constraintEnd) == '{')
+				{
+					depth++;
+				} else if (uri.charAt(constraintEnd) == '}')
+				{
+					depth--;
+				}
+				constraintEnd++;
+			}
+			if (constraintEnd == uri.length() || !URLMatcher.isValidParamConstraint(uri.substring(nameEnd + 1, constraintEnd)))
+			{
+				return false;
+			}
+			uriNoConstraints.append(uri, i, nameEnd);
+			i = constraintEnd;
+		}
+		return uriNoConstraints.toString().matches(URI_REGEX);
+	}
+	
 	public Map<String, String> validateUpdate(WPBUri wbUri)
 	{
 		Map<String, String> errors = new HashMap<String, String>();
@@ -57,7 +104,7 @@ class UriValidator {
 			errors.put("uri", WPBErrors.ERROR_URI_LENGTH);
 		} else
 		{
-			if (! wbUri.getUri().matches("/([0-9a-zA-Z_~.-]*(\\{[0-9a-zA-Z_.*-]+\\})*[0-9a-zA-Z_~.-]*/?)*"))
+			if (! isValidUri(wbUri.getUri()))
 			{
 				errors.put("uri", WPBErrors.ERROR_INVALID_VALUE);
 			}
@@ -131,7 +178,7 @@ class UriValidator {
 			errors.put("uri", WPBErrors.ERROR_URI_LENGTH);
 		} else
 		{
-			if (! wbUri.getUri().matches("/([0-9a-zA-Z_~.-]*(\\{[0-9a-zA-Z_.*-]+\\})*[0-9a-zA-Z_~.-]*/?)*"))
+			if (! isValidUri(wbUri.getUri()))
 			{
 				errors.put("uri", WPBErrors.ERROR_INVALID_VALUE);
 			}
@@ -0,0 +1,261 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.engine;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Access and trace log of the public requests that never blocks the request threads.
+ *
+ * An event is a name and name/value pairs, it is put in a lock free ring buffer (multiple producers, one consumer) 
+ * and a background thread formats the events and writes them in batches to the java.util.logging logger 
+ * com.webpagebytes.cms.access, one log record for each batch, so the handler lock is taken once per batch.
+ * When the buffer is full the event is dropped and counted (drop policy "drop", the default) or written
+ * by the request thread itself (drop policy "inline").
+ *
+ * The log is off until configure is called with access_log=1 in the general configuration, trace_log=1 enables
+ * also the trace events (the template renders). Outside of it isEnabled and isTraceEnabled are a volatile read.
+ */
+public class AccessLog {
+
+public static final String LOGGER_NAME = "com.webpagebytes.cms.access";
+public static final int DEFAULT_BUFFER_SIZE = 8192;
+public static final int BATCH_SIZE = 256;
+public static final String DROP_POLICY_DROP = "drop";
+public static final String DROP_POLICY_INLINE = "inline";
+private static final long IDLE_PARK_NANOS = 10000000L; // 10 ms
+
+private static final Logger accessLogger = Logger.getLogger(LOGGER_NAME);
+private static volatile AccessLog instance;
+private static volatile boolean traceEnabled;
+
+private static class Event
+{
+	final long time;
+	final String name;
+	final Object[] fields;
+	Event(long time, String name, Object[] fields)
+	{
+		this.time = time;
+		this.name = name;
+		this.fields = fields;
+	}
+}
+
+private final AtomicReferenceArray<Event> slots;
+private final int mask;
+private final AtomicLong tail = new AtomicLong(); // the next slot claimed by a producer
+private volatile long head; // the next slot read by the writer thread, written only by it
+private final boolean inlineWhenFull;
+private final AtomicLong dropped = new AtomicLong();
+private volatile boolean running = true;
+private final Thread writer;
+
+AccessLog(int bufferSize, boolean inlineWhenFull)
+{
+	int capacity = Integer.highestOneBit(Math.max(2, bufferSize) - 1) << 1;
+	this.slots = new AtomicReferenceArray<Event>(capacity);
+	this.mask = capacity - 1;
+	this.inlineWhenFull = inlineWhenFull;
+	this.writer = new Thread(new Runnable() {
+		public void run()
+		{
+			writeLoop();
+		}
+	}, "wpb-access-log");
+	this.writer.setDaemon(true);
+}
+
+/*
+ * Starts or stops the log from the general configuration parameters
+ */
+public static synchronized void configure(Map<String, String> generalParams)
+{
+	boolean enabled = generalParams != null && "1".equals(generalParams.get("access_log"));
+	traceEnabled = enabled && "1".equals(generalParams.get("trace_log"));
+	AccessLog previous = instance;
+	instance = null;
+	if (previous != null)
+	{
+		previous.shutdown();
+	}
+	if (!enabled)
+	{
+		return;
+	}
+	int bufferSize = DEFAULT_BUFFER_SIZE;
+	try
+	{
+		if (generalParams.containsKey("access_log_buffer_size"))
+		{
+			bufferSize = Integer.valueOf(generalParams.get("access_log_buffer_size"));
+		}
+	} catch (NumberFormatException e)
+	{
+		bufferSize = DEFAULT_BUFFER_SIZE;
+	}
+	AccessLog accessLog = new AccessLog(bufferSize, DROP_POLICY_INLINE.equals(generalParams.get("access_log_drop_policy")));
+	accessLog.writer.start();
+	instance = accessLog;
+}
+
+public static boolean isEnabled()
+{
+	return instance != null;
+}
+
+public static boolean isTraceEnabled()
+{
+	return traceEnabled && instance != null;
+}
+
+/*
+ * Logs an access event, fields are name/value pairs formatted by the writer thread
+ */
+public static void log(String name, Object... fields)
+{
+	AccessLog accessLog = instance;
+	if (accessLog != null)
+	{
+		accessLog.offer(name, fields);
+	}
+}
+
+/*
+ * Logs a trace event, only if the trace is enabled
+ */
+public static void trace(String name, Object... fields)
+{
+	if (traceEnabled)
+	{
+		log(name, fields);
+	}
+}
+
+/*
+ * The number of events dropped because the buffer was full, since the log was started
+ */
+public static long getDropped()
+{
+	AccessLog accessLog = instance;
+	return (accessLog != null) ? accessLog.dropped.get() : 0;
+}
+
+boolean offer(String name, Object[] fields)
+{
+	Event event = new Event(System.currentTimeMillis(), name, fields);
+	int capacity = mask + 1;
+	while (true)
+	{
+		long currentTail = tail.get();
+		if (currentTail - head >= capacity)
+		{
+			if (inlineWhenFull)
+			{
+				StringBuilder line = new StringBuilder(128);
+				format(event, line);
+				accessLogger.log(Level.INFO, line.toString());
+				return true;
+			}
+			dropped.incrementAndGet();
+			return false;
+		}
+		if (tail.compareAndSet(currentTail, currentTail + 1))
+		{
+			// the writer waits for the slot to be set, a claimed slot is always published
+			slots.lazySet((int) (currentTail & mask), event);
+			return true;
+		}
+	}
+}
+
+/*
+ * Formats up to BATCH_SIZE events, returns the number of events taken from the buffer
+ */
+int drain(StringBuilder batch)
+{
+	int count = 0;
+	long currentHead = head;
+	while (count < BATCH_SIZE)
+	{
+		int index = (int) (currentHead & mask);
+		Event event = slots.get(index);
+		if (event == null)
+		{
+			// empty, or a producer claimed the slot and did not set it yet
+			break;
+		}
+		slots.lazySet(index, null);
+		currentHead++;
+		head = currentHead;
+		if (count > 0)
+		{
+			batch.append('\n');
+		}
+		format(event, batch);
+		count++;
+	}
+	return count;
+}
+
+private static void format(Event event, StringBuilder line)
+{
+	line.append(event.time).append(' ').append(event.name);
+	Object[] fields = event.fields;
+	if (fields != null)
+	{
+		for(int i = 0; i + 1 < fields.length; i += 2)
+		{
+			line.append(' ').append(fields[i]).append('=').append(fields[i + 1]);
+		}
+	}
+}
+
+private void writeLoop()
+{
+	StringBuilder batch = new StringBuilder(BATCH_SIZE * 96);
+	while (true)
+	{
+		batch.setLength(0);
+		int count = drain(batch);
+		if (count > 0)
+		{
+			accessLogger.log(Level.INFO, batch.toString());
+		} else
+		{
+			if (!running)
+			{
+				return;
+			}
+			LockSupport.parkNanos(IDLE_PARK_NANOS);
+		}
+	}
+}
+
+private void shutdown()
+{
+	// the writer drains the events left in the buffer and ends
+	running = false;
+	LockSupport.unpark(writer);
+}
+
+}
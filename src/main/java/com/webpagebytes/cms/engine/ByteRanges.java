@@ -0,0 +1,272 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.engine;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.webpagebytes.cms.WPBFilePath;
+import com.webpagebytes.cms.WPBFileStorage;
+
+/*
+ * Byte range requests for the stored files, a single range is sent as 206 with Content-Range,
+ * many ranges are sent as multipart/byteranges. Each range is read from the file storage with a positioned read
+ * so the bytes before the range are not read.
+ * A Range header that cannot be parsed is ignored and the whole file is sent, a Range that cannot be satisfied gets 416.
+ * The overlapping and adjacent ranges are merged and sent in ascending order. A Range that asks for more bytes than 
+ * the content has (the same bytes many times) is ignored, so a small request cannot make the server send a file many times.
+ */
+public class ByteRanges {
+
+public static final String ACCEPT_RANGES = "Accept-Ranges";
+public static final String RANGE = "Range";
+public static final String IF_RANGE = "If-Range";
+public static final String CONTENT_RANGE = "Content-Range";
+
+private static final String BYTES_UNIT = "bytes";
+private static final String MULTIPART_BOUNDARY = "WPB_BYTERANGES_2f1c7e9a";
+// more ranges than this are answered with the whole content
+private static final int MAX_RANGES = 16;
+
+public static class Range
+{
+	private final long start;
+	private final long end;
+
+	public Range(long start, long end)
+	{
+		this.start = start;
+		this.end = end;
+	}
+	public long getStart() {
+		return start;
+	}
+	// the last byte position, inclusive
+	public long getEnd() {
+		return end;
+	}
+	public long getLength() {
+		return end - start + 1;
+	}
+	public String toContentRange(long contentLength)
+	{
+		return BYTES_UNIT + " " + start + "-" + end + "/" + contentLength;
+	}
+}
+
+private ByteRanges()
+{
+
+}
+
+/*
+ * Parses the Range header for a content of the given length.
+ * Returns null if the whole content must be sent and an empty list if none of the ranges can be satisfied.
+ */
+public static List<Range> parse(String rangeHeader, long length)
+{
+	if (rangeHeader == null || !rangeHeader.startsWith(BYTES_UNIT + "="))
+	{
+		return null;
+	}
+	List<Range> ranges = new ArrayList<Range>();
+	for(String spec: rangeHeader.substring(BYTES_UNIT.length() + 1).split(","))
+	{
+		spec = spec.trim();
+		int dash = spec.indexOf('-');
+		if (dash < 0)
+		{
+			return null;
+		}
+		String first = spec.substring(0, dash).trim();
+		String last = spec.substring(dash + 1).trim();
+		long start, end;
+		try
+		{
+			if (first.length() == 0)
+			{
+				// suffix range, the last bytes of the content
+				long suffix = Long.parseLong(last);
+				if (suffix <= 0 || length == 0)
+				{
+					continue;
+				}
+				start = Math.max(0, length - suffix);
+				end = length - 1;
+			} else
+			{
+				start = Long.parseLong(first);
+				end = (last.length() == 0) ? Long.MAX_VALUE : Long.parseLong(last);
+				if (start < 0 || end < start)
+				{
+					return null;
+				}
+				if (start >= length)
+				{
+					continue;
+				}
+				end = Math.min(end, length - 1);
+			}
+		} catch (NumberFormatException e)
+		{
+			return null;
+		}
+		ranges.add(new Range(start, end));
+	}
+	if (ranges.size() > MAX_RANGES)
+	{
+		return null;
+	}
+	long requested = 0;
+	for(Range range: ranges)
+	{
+		requested += range.getLength();
+	}
+	if (requested > length)
+	{
+		return null;
+	}
+	return coalesce(ranges);
+}
+
+/*
+ * Sorts the ranges and merges the ones that overlap or are adjacent
+ */
+private static List<Range> coalesce(List<Range> ranges)
+{
+	if (ranges.size() < 2)
+	{
+		return ranges;
+	}
+	Collections.sort(ranges, new Comparator<Range>() {
+		public int compare(Range range1, Range range2)
+		{
+			return (range1.getStart() < range2.getStart()) ? -1 : ((range1.getStart() == range2.getStart()) ? 0 : 1);
+		}
+	});
+	List<Range> result = new ArrayList<Range>();
+	Range current = ranges.get(0);
+	for(int i = 1; i < ranges.size(); i++)
+	{
+		Range range = ranges.get(i);
+		if (range.getStart() <= current.getEnd() + 1)
+		{
+			current = new Range(current.getStart(), Math.max(current.getEnd(), range.getEnd()));
+		} else
+		{
+			result.add(current);
+			current = range;
+		}
+	}
+	result.add(current);
+	return result;
+}
+
+/*
+ * The ranges are sent only if the If-Range validator matches the current content,
+ * an ETag is compared with the strong comparison.
+ */
+public static boolean isIfRangeCurrent(HttpServletRequest request, String etag, Date lastModified)
+{
+	String ifRange = request.getHeader(IF_RANGE);
+	if (ifRange == null)
+	{
+		return true;
+	}
+	ifRange = ifRange.trim();
+	if (ifRange.startsWith("\"") || ifRange.startsWith("W/"))
+	{
+		return etag != null && !etag.startsWith("W/") && ifRange.equals(etag);
+	}
+	if (lastModified == null)
+	{
+		return false;
+	}
+	try
+	{
+		long date = request.getDateHeader(IF_RANGE);
+		return date >= 0 && (lastModified.getTime() / 1000) <= (date / 1000);
+	} catch (IllegalArgumentException e)
+	{
+		return false;
+	}
+}
+
+/*
+ * Sends the ranges of the stored file asked by the request. Returns false if the request has no usable Range
+ * and the caller needs to send the whole file.
+ */
+public static boolean serveRanges(HttpServletRequest request, HttpServletResponse response, WPBFileStorage storage, WPBFilePath file,
+		long length, String contentType, String etag, Date lastModified) throws IOException
+{
+	response.setHeader(ACCEPT_RANGES, BYTES_UNIT);
+	if (!"GET".equalsIgnoreCase(request.getMethod()))
+	{
+		return false;
+	}
+	List<Range> ranges = parse(request.getHeader(RANGE), length);
+	if (ranges == null || !isIfRangeCurrent(request, etag, lastModified))
+	{
+		return false;
+	}
+	if (ranges.size() == 0)
+	{
+		response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+		response.setHeader(CONTENT_RANGE, BYTES_UNIT + " */" + length);
+		return true;
+	}
+	response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+	if (ranges.size() == 1)
+	{
+		Range range = ranges.get(0);
+		response.setContentType(contentType);
+		response.setHeader(CONTENT_RANGE, range.toContentRange(length));
+		response.setHeader("Content-Length", Long.toString(range.getLength()));
+		OutputStream os = response.getOutputStream();
+		copyRange(storage, file, range, os);
+		os.flush();
+		return true;
+	}
+	response.setContentType("multipart/byteranges; boundary=" + MULTIPART_BOUNDARY);
+	OutputStream os = response.getOutputStream();
+	for(Range range: ranges)
+	{
+		String partHeader = "\r\n--" + MULTIPART_BOUNDARY + "\r\n"
+							+ "Content-Type: " + contentType + "\r\n"
+							+ CONTENT_RANGE + ": " + range.toContentRange(length) + "\r\n\r\n";
+		os.write(partHeader.getBytes("ISO-8859-1"));
+		copyRange(storage, file, range, os);
+	}
+	os.write(("\r\n--" + MULTIPART_BOUNDARY + "--\r\n").getBytes("ISO-8859-1"));
+	os.flush();
+	return true;
+}
+
+private static void copyRange(WPBFileStorage storage, WPBFilePath file, Range range, OutputStream os) throws IOException
+{
+	FileTransfer.copy(storage, file, range.getStart(), range.getLength(), os);
+}
+
+}
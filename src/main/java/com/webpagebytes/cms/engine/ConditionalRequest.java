@@ -0,0 +1,146 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.engine;
+
+import java.util.Date;
+import java.util.zip.CRC32;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/*
+ * Validators for the conditional GET requests.
+ * The static pages and the files have a strong ETag made from their CRC32 hash and a Last-Modified date,
+ * the rendered template pages have a weak ETag made from the CRC32 of the output.
+ * If-None-Match is checked first, If-Modified-Since is used only when there is no If-None-Match.
+ */
+public class ConditionalRequest {
+
+public static final String ETAG = "ETag";
+public static final String LAST_MODIFIED = "Last-Modified";
+public static final String IF_NONE_MATCH = "If-None-Match";
+public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+
+private ConditionalRequest()
+{
+
+}
+
+public static String strongETag(Long hash)
+{
+	if (hash == null)
+	{
+		return null;
+	}
+	return "\"" + Long.toHexString(hash) + "\"";
+}
+
+public static String weakETag(byte[] content)
+{
+	CRC32 crc = new CRC32();
+	crc.update(content);
+	return "W/\"" + Long.toHexString(crc.getValue()) + "-" + Integer.toHexString(content.length) + "\"";
+}
+
+/*
+ * Only GET and HEAD requests can be answered with 304
+ */
+public static boolean isConditionalMethod(HttpServletRequest request)
+{
+	String method = request.getMethod();
+	return "GET".equalsIgnoreCase(method) || "HEAD".equalsIgnoreCase(method);
+}
+
+/*
+ * Returns true if the client copy identified by the request validators is still current.
+ * The ETags are compared with the weak comparison, as required for If-None-Match.
+ */
+public static boolean isNotModified(HttpServletRequest request, String etag, Date lastModified)
+{
+	String ifNoneMatch = request.getHeader(IF_NONE_MATCH);
+	if (ifNoneMatch != null)
+	{
+		return etag != null && matchesETag(ifNoneMatch, etag);
+	}
+	if (lastModified == null)
+	{
+		return false;
+	}
+	long ifModifiedSince;
+	try
+	{
+		ifModifiedSince = request.getDateHeader(IF_MODIFIED_SINCE);
+	} catch (IllegalArgumentException e)
+	{
+		// a date that cannot be parsed is ignored
+		return false;
+	}
+	// the header has a one second precision
+	return ifModifiedSince >= 0 && (lastModified.getTime() / 1000) <= (ifModifiedSince / 1000);
+}
+
+static boolean matchesETag(String ifNoneMatch, String etag)
+{
+	String opaqueTag = opaqueTag(etag);
+	for(String tag: ifNoneMatch.split(","))
+	{
+		tag = tag.trim();
+		if (tag.equals("*") || opaqueTag(tag).equals(opaqueTag))
+		{
+			return true;
+		}
+	}
+	return false;
+}
+
+private static String opaqueTag(String etag)
+{
+	return etag.startsWith("W/") ? etag.substring(2) : etag;
+}
+
+public static void setValidators(HttpServletResponse response, String etag, Date lastModified)
+{
+	if (etag != null)
+	{
+		response.setHeader(ETAG, etag);
+	}
+	if (lastModified != null)
+	{
+		response.setDateHeader(LAST_MODIFIED, lastModified.getTime());
+	}
+}
+
+/*
+ * Checks the request validators, sets the validators on the response and the 304 status if the client copy is current.
+ * Returns true if the response is complete and no content must be sent.
+ */
+public static boolean handle(HttpServletRequest request, HttpServletResponse response, String etag, Date lastModified)
+{
+	if ((etag == null && lastModified == null) || !isConditionalMethod(request))
+	{
+		return false;
+	}
+	setValidators(response, etag, lastModified);
+	if (isNotModified(request, etag, lastModified))
+	{
+		response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+		return true;
+	}
+	return false;
+}
+
+}
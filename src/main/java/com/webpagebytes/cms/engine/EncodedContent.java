@@ -0,0 +1,81 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.engine;
+
+import java.nio.charset.Charset;
+
+/*
+ * The UTF-8 bytes of a content that is not a template (static pages, modules and articles) with its
+ * Content-Length and ETag. It is built once, when the record is loaded in the cache, and it is never changed
+ * so the bytes are written to the response as they are.
+ */
+public final class EncodedContent {
+
+private static final Charset UTF8 = Charset.forName("UTF-8");
+
+private final byte[] content;
+private final String etag;
+// the gzip copy is made on the first request that accepts it, null until then
+private volatile byte[] gzipContent;
+private volatile boolean gzipDone;
+
+/*
+ * hash is the record hash if it has one, otherwise the ETag is computed from the content
+ */
+public EncodedContent(String source, Long hash)
+{
+	this.content = (source != null) ? source.getBytes(UTF8) : new byte[0];
+	this.etag = (hash != null) ? ConditionalRequest.strongETag(hash) : ConditionalRequest.weakETag(content);
+}
+
+/*
+ * The returned array is shared, it must not be changed
+ */
+public byte[] getContent()
+{
+	return content;
+}
+
+public int getContentLength()
+{
+	return content.length;
+}
+
+public String getETag()
+{
+	return etag;
+}
+
+/*
+ * Returns the gzip copy of the content or null if the content is too small or it does not get smaller
+ */
+public byte[] getGzipContent()
+{
+	if (!gzipDone)
+	{
+		// two first requests can both compress, the copies are equal. gzipContent is written before
+		// the volatile gzipDone so a thread that sees gzipDone sees the copy too
+		if (content.length >= GzipEncoding.MIN_SIZE)
+		{
+			gzipContent = GzipEncoding.gzipOrNull(content);
+		}
+		gzipDone = true;
+	}
+	return gzipContent;
+}
+
+}
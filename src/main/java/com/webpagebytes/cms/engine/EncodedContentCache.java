@@ -0,0 +1,33 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.engine;
+
+import com.webpagebytes.cms.exception.WPBIOException;
+
+/*
+ * Implemented by the pages, modules and articles caches that keep the encoded content of the records
+ * that are not templates. The callers check for it with instanceof and encode the content themselves
+ * when a cache does not implement it.
+ */
+public interface EncodedContentCache {
+
+/*
+ * Returns null if there is no record with the externalKey or if the record is a template
+ */
+public EncodedContent getEncodedContent(String externalKey) throws WPBIOException;
+
+}
@@ -17,15 +17,18 @@
 package com.webpagebytes.cms.engine;
 
 import java.io.IOException;
-
-
-
 import java.io.InputStream;
 import java.io.OutputStream;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+
 import com.webpagebytes.cms.WPBFilePath;
 import com.webpagebytes.cms.WPBFileStorage;
 import com.webpagebytes.cms.WPBFilesCache;
+import com.webpagebytes.cms.WPBLocalFileAccess;
 import com.webpagebytes.cms.cmsdata.WPBFile;
 import com.webpagebytes.cms.exception.WPBException;
 import com.webpagebytes.cms.exception.WPBIOException;
@@ -59,17 +62,72 @@ public class FileContentBuilder {
 	}
 	public void writeFileContent(WPBFile wbFile, OutputStream os) throws WPBException 
 	{
-		InputStream is = getFileContent(wbFile);
-		byte[] buffer = new byte[4096];
-		int len;
 		try 
 		{
-			while ((len = is.read(buffer)) != -1) {
-			    os.write(buffer, 0, len);
+			if (cloudFileStorage instanceof WPBLocalFileAccess)
+			{
+				FileTransfer.copy(cloudFileStorage, new WPBFilePath("public", wbFile.getBlobKey()), 0, -1, os);
+				return;
 			}
 		} catch (IOException e)
 		{
 			throw new WPBIOException(e.getMessage(), e);
 		}
+		InputStream is = getFileContent(wbFile);
+		try 
+		{
+			FileTransfer.copy(is, os);
+		} catch (IOException e)
+		{
+			throw new WPBIOException(e.getMessage(), e);
+		} finally
+		{
+			IOUtils.closeQuietly(is);
+		}
+	}
+	/*
+	 * Sends the whole file as the response body with the stored size as Content-Length
+	 */
+	public void sendFileContent(WPBFile wbFile, HttpServletRequest request, HttpServletResponse response) throws WPBException
+	{
+		try
+		{
+			FileTransfer.sendFile(request, response, cloudFileStorage, new WPBFilePath("public", wbFile.getBlobKey()), wbFile.getSize());
+		} catch (IOException e)
+		{
+			throw new WPBIOException(e.getMessage(), e);
+		}
+	}
+	/*
+	 * Sends the gzip variant stored next to the file blob, the caller sets the content type and the content encoding
+	 */
+	public void sendGzipFileContent(WPBFile wbFile, HttpServletRequest request, HttpServletResponse response) throws WPBException
+	{
+		try
+		{
+			FileTransfer.sendFile(request, response, cloudFileStorage, new WPBFilePath("public", wbFile.getBlobKey() + GzipEncoding.GZIP_BLOB_SUFFIX), wbFile.getGzipSize());
+		} catch (IOException e)
+		{
+			throw new WPBIOException(e.getMessage(), e);
+		}
+	}
+	/*
+	 * Sends the byte ranges asked by the request, returns false if the whole file needs to be sent
+	 */
+	public boolean writeFileRanges(WPBFile wbFile, HttpServletRequest request, HttpServletResponse response) throws WPBException
+	{
+		if (wbFile.getSize() == null)
+		{
+			return false;
+		}
+		WPBFilePath cloudFile = new WPBFilePath("public", wbFile.getBlobKey());
+		try
+		{
+			return ByteRanges.serveRanges(request, response, cloudFileStorage, cloudFile, wbFile.getSize(), wbFile.getAdjustedContentType(), 
+					ConditionalRequest.strongETag(wbFile.getHash()), wbFile.getLastModified());
+		} catch (IOException e)
+		{
+			throw new WPBIOException(e.getMessage(), e);
+		}
 	}
 }
@@ -0,0 +1,183 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.engine;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+
+import com.webpagebytes.cms.WPBFilePath;
+import com.webpagebytes.cms.WPBFileStorage;
+import com.webpagebytes.cms.WPBLocalFileAccess;
+import com.webpagebytes.cms.WPBRangedFileAccess;
+
+/*
+ * Copies the stored files content to the response.
+ * If the file storage implements WPBLocalFileAccess and the request says the container sendfile is supported (Tomcat),
+ * the container writes the file from its local path without copying it through the servlet. Otherwise the content
+ * is copied to the response output stream with a buffer taken from a small pool: a local file is read from a
+ * positioned FileChannel, the other storages from their InputStream. This is an ordinary copy, the servlet API
+ * gives no way to reach the socket.
+ * The streams and channels opened here are always closed, the response output stream is not.
+ */
+public class FileTransfer {
+
+public static final String SENDFILE_SUPPORT_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+public static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+public static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+public static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
+private static final int BUFFER_SIZE = 16384;
+private static final ArrayBlockingQueue<byte[]> buffers = new ArrayBlockingQueue<byte[]>(32);
+
+private FileTransfer()
+{
+
+}
+
+private static Path localPath(WPBFileStorage storage, WPBFilePath file) throws IOException
+{
+	if (storage instanceof WPBLocalFileAccess)
+	{
+		return ((WPBLocalFileAccess)storage).getLocalPath(file);
+	}
+	return null;
+}
+
+/*
+ * Sends the whole file content as the response body, the content type has to be set by the caller.
+ * size is the stored size of the file, if not null it is sent as Content-Length.
+ */
+public static void sendFile(HttpServletRequest request, HttpServletResponse response, WPBFileStorage storage, WPBFilePath file, Long size) throws IOException
+{
+	if (size != null)
+	{
+		response.setHeader("Content-Length", Long.toString(size));
+	}
+	Path path = localPath(storage, file);
+	if (path != null && size != null && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT_ATTRIBUTE)))
+	{
+		// the container writes the file to the socket after the request is processed
+		request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, path.toAbsolutePath().toString());
+		request.setAttribute(SENDFILE_START_ATTRIBUTE, Long.valueOf(0));
+		request.setAttribute(SENDFILE_END_ATTRIBUTE, size);
+		return;
+	}
+	copy(storage, file, path, 0, -1, response.getOutputStream());
+}
+
+/*
+ * Writes length bytes of the file content starting at offset, a negative length means up to the end of the file
+ */
+public static void copy(WPBFileStorage storage, WPBFilePath file, long offset, long length, OutputStream os) throws IOException
+{
+	copy(storage, file, localPath(storage, file), offset, length, os);
+}
+
+private static void copy(WPBFileStorage storage, WPBFilePath file, Path path, long offset, long length, OutputStream os) throws IOException
+{
+	if (path != null)
+	{
+		FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+		try
+		{
+			long end = (length < 0) ? channel.size() : Math.min(channel.size(), offset + length);
+			if (offset < end)
+			{
+				channel.position(offset);
+				copy(new BoundedInputStream(Channels.newInputStream(channel), end - offset), os);
+			}
+		} finally
+		{
+			IOUtils.closeQuietly(channel);
+		}
+		return;
+	}
+	InputStream is = openContent(storage, file, offset, length);
+	try
+	{
+		copy(is, os);
+	} finally
+	{
+		IOUtils.closeQuietly(is);
+	}
+}
+
+/*
+ * Opens the file content from offset, with at most length bytes if length is not negative. A storage that does not
+ * implement WPBRangedFileAccess is read from the start and the content before offset is skipped.
+ */
+static InputStream openContent(WPBFileStorage storage, WPBFilePath file, long offset, long length) throws IOException
+{
+	if (offset == 0 && length < 0)
+	{
+		return storage.getFileContent(file);
+	}
+	if (storage instanceof WPBRangedFileAccess)
+	{
+		return ((WPBRangedFileAccess)storage).getFileContent(file, offset, length);
+	}
+	InputStream is = storage.getFileContent(file);
+	try
+	{
+		IOUtils.skipFully(is, offset);
+	} catch (IOException e)
+	{
+		IOUtils.closeQuietly(is);
+		throw e;
+	}
+	return (length < 0) ? is : new BoundedInputStream(is, length);
+}
+
+/*
+ * Copies the stream with a pooled buffer, the streams are not closed
+ */
+public static long copy(InputStream is, OutputStream os) throws IOException
+{
+	byte[] buffer = buffers.poll();
+	if (buffer == null)
+	{
+		buffer = new byte[BUFFER_SIZE];
+	}
+	try
+	{
+		long total = 0;
+		int len;
+		while ((len = is.read(buffer)) != -1)
+		{
+			os.write(buffer, 0, len);
+			total += len;
+		}
+		return total;
+	} finally
+	{
+		buffers.offer(buffer);
+	}
+}
+
+}
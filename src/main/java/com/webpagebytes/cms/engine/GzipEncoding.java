@@ -0,0 +1,170 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.engine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/*
+ * gzip content negotiation. The compressed variants are created once and kept: the files when they are uploaded,
+ * the admin resources when they are loaded and the rendered pages when they are stored in the output cache.
+ * The static pages are compressed by EncodedContent on the first request that accepts gzip, not at load, 
+ * most of the encoded contents are modules and articles that are never sent on their own.
+ * A content is compressed only if its type is text like and it has at least MIN_SIZE bytes.
+ */
+public class GzipEncoding {
+
+public static final String ACCEPT_ENCODING = "Accept-Encoding";
+public static final String CONTENT_ENCODING = "Content-Encoding";
+public static final String VARY = "Vary";
+public static final String GZIP = "gzip";
+
+// the suffix of the blob that keeps the compressed variant of a file
+public static final String GZIP_BLOB_SUFFIX = ".wpb.gz";
+
+public static final int MIN_SIZE = 1024;
+
+private GzipEncoding()
+{
+
+}
+
+public static boolean isCompressible(String contentType)
+{
+	if (contentType == null)
+	{
+		return false;
+	}
+	contentType = contentType.toLowerCase();
+	int pos = contentType.indexOf(';');
+	if (pos > 0)
+	{
+		contentType = contentType.substring(0, pos).trim();
+	}
+	return contentType.startsWith("text/")
+			|| contentType.endsWith("javascript")
+			|| contentType.endsWith("json")
+			|| contentType.endsWith("xml")
+			|| contentType.equals("application/vnd.ms-fontobject")
+			|| contentType.equals("application/x-font-ttf")
+			|| contentType.equals("application/x-font-otf");
+}
+
+public static boolean isWorthCompressing(String contentType, long size)
+{
+	return size >= MIN_SIZE && isCompressible(contentType);
+}
+
+/*
+ * Returns true if the request accepts the gzip coding, a q=0 value refuses it
+ */
+public static boolean acceptsGzip(HttpServletRequest request)
+{
+	String acceptEncoding = request.getHeader(ACCEPT_ENCODING);
+	if (acceptEncoding == null)
+	{
+		return false;
+	}
+	for(String coding: acceptEncoding.split(","))
+	{
+		String[] parts = coding.split(";");
+		String name = parts[0].trim().toLowerCase();
+		if (name.equals(GZIP) || name.equals("x-gzip") || name.equals("*"))
+		{
+			for(int i = 1; i < parts.length; i++)
+			{
+				String param = parts[i].trim().toLowerCase();
+				if (param.startsWith("q="))
+				{
+					try
+					{
+						return Float.parseFloat(param.substring(2)) > 0;
+					} catch (NumberFormatException e)
+					{
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+	}
+	return false;
+}
+
+/*
+ * The compressed variant needs its own validator, the ETag of the identity content gets a -gz suffix
+ */
+public static String gzipETag(String etag)
+{
+	if (etag == null || !etag.endsWith("\""))
+	{
+		return etag;
+	}
+	return etag.substring(0, etag.length() - 1) + "-gz\"";
+}
+
+/*
+ * Tells the caches that the response depends on Accept-Encoding, it is needed for each content that has a compressed variant
+ */
+public static void addVary(HttpServletResponse response)
+{
+	response.addHeader(VARY, ACCEPT_ENCODING);
+}
+
+public static void setGzipEncoding(HttpServletResponse response)
+{
+	response.setHeader(CONTENT_ENCODING, GZIP);
+}
+
+public static byte[] gzip(byte[] content) throws IOException
+{
+	ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(64, content.length / 4));
+	GZIPOutputStream gos = new GZIPOutputStream(bos);
+	gos.write(content);
+	gos.close();
+	return bos.toByteArray();
+}
+
+/*
+ * Returns null if the content cannot be compressed
+ */
+public static byte[] gzipOrNull(byte[] content)
+{
+	try
+	{
+		byte[] result = gzip(content);
+		return (result.length < content.length) ? result : null;
+	} catch (IOException e)
+	{
+		return null;
+	}
+}
+
+public static void gzip(InputStream is, OutputStream os) throws IOException
+{
+	GZIPOutputStream gos = new GZIPOutputStream(os);
+	FileTransfer.copy(is, gos);
+	gos.finish();
+}
+
+}
@@ -0,0 +1,134 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.engine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Lock free histogram of latencies in microseconds with log linear buckets, the same layout as an HdrHistogram
+ * with 4 bits of precision: the values below 16 have their own bucket, above each power of two is split in 16 buckets,
+ * so a reported value is at most 1/16 larger than the recorded one. The values above 2^36 microseconds are counted
+ * in the last bucket.
+ *
+ * record only increments counters and can be called by any number of threads, the reads see a consistent enough
+ * view for monitoring, they are not atomic with the records.
+ */
+public class LatencyHistogram {
+
+private static final int SUB_BUCKET_BITS = 4;
+private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+private static final int MAX_EXPONENT = 36;
+private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+private final AtomicLong count = new AtomicLong();
+private final AtomicLong total = new AtomicLong();
+private final AtomicLong max = new AtomicLong();
+
+static int bucketIndex(long value)
+{
+	if (value < SUB_BUCKETS)
+	{
+		return (value < 0) ? 0 : (int) value;
+	}
+	int exponent = 63 - Long.numberOfLeadingZeros(value);
+	if (exponent > MAX_EXPONENT)
+	{
+		return BUCKETS - 1;
+	}
+	int shift = exponent - SUB_BUCKET_BITS;
+	return (shift + 1) * SUB_BUCKETS + (int) ((value >> shift) - SUB_BUCKETS);
+}
+
+/*
+ * The largest value counted in the bucket
+ */
+static long bucketUpperBound(int index)
+{
+	if (index < SUB_BUCKETS)
+	{
+		return index;
+	}
+	int shift = index / SUB_BUCKETS - 1;
+	long mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+	return ((mantissa + 1) << shift) - 1;
+}
+
+public void record(long micros)
+{
+	counts.incrementAndGet(bucketIndex(micros));
+	count.incrementAndGet();
+	total.addAndGet(micros);
+	long currentMax = max.get();
+	while (micros > currentMax && !max.compareAndSet(currentMax, micros))
+	{
+		currentMax = max.get();
+	}
+}
+
+public long getCount()
+{
+	return count.get();
+}
+
+public long getTotal()
+{
+	return total.get();
+}
+
+public long getMax()
+{
+	return max.get();
+}
+
+public long getMean()
+{
+	long n = count.get();
+	return (n > 0) ? total.get() / n : 0;
+}
+
+/*
+ * Returns the value under which the percentile (0 to 100) of the recorded values are, 0 if nothing was recorded
+ */
+public long getPercentile(double percentile)
+{
+	long n = 0;
+	long[] snapshot = new long[BUCKETS];
+	for(int i = 0; i < BUCKETS; i++)
+	{
+		snapshot[i] = counts.get(i);
+		n += snapshot[i];
+	}
+	if (n == 0)
+	{
+		return 0;
+	}
+	long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * n));
+	long seen = 0;
+	for(int i = 0; i < BUCKETS; i++)
+	{
+		seen += snapshot[i];
+		if (seen >= rank)
+		{
+			return Math.min(bucketUpperBound(i), max.get());
+		}
+	}
+	return max.get();
+}
+
+}
@@ -16,14 +16,11 @@
 
 package com.webpagebytes.cms.engine;
 
-import java.io.InputStream;
 import java.nio.charset.Charset;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import org.apache.commons.io.IOUtils;
-
 import com.webpagebytes.cms.WPBFileInfo;
 import com.webpagebytes.cms.WPBFilePath;
 import com.webpagebytes.cms.WPBFileStorage;
@@ -51,22 +48,17 @@ public class LocalCloudFileContentBuilder {
 		String file = fullFilePath.substring(pos+1);
 		file = new String(CmsBase64Utility.fromSafePathBase64(file), Charset.forName("UTF-8"));
 		WPBFilePath cloudFile = new WPBFilePath(bucket, file);
-		InputStream is = null;
 		try
 		{
-			is = cloudFileStorage.getFileContent(cloudFile);
-			IOUtils.copy(is, response.getOutputStream());
+			// the headers are set before the content is written
 			WPBFileInfo fileInfo = cloudFileStorage.getFileInfo(cloudFile);
 			response.setContentType(fileInfo.getContentType());
+			FileTransfer.sendFile(request, response, cloudFileStorage, cloudFile, fileInfo.getSize());
 			
 			// do not close the response outputstream here
 		} catch (Exception e)
 		{
 			throw new WPBIOException("cannot serve file", e);
 		}
-		finally
-		{
-			IOUtils.closeQuietly(is);
-		}	
 	}
 }
@@ -64,11 +64,28 @@ public class ModelBuilder {
 		populateStaticParameters(request, model);
 	}
 
+	/*
+	 * Builds the uri model without a request, used by StaticSiteExporter. The base url is the public url
+	 * of the exported site, it replaces the request url.
+	 */
+	public void populateModelForExport(WPBUri uri, URLMatcherResult urlMatcherResult, String baseUrl, InternalModel model) throws WPBException
+	{
+		populateUriParameters(null, uri.getExternalKey(), urlMatcherResult, model);
+		populateGlobalParameters(model);
+		Map<String, String> result = new HashMap<String, String>();
+		result.put(WPBModel.GLOBAL_PROTOCOL, getProtocol(baseUrl));
+		result.put(WPBModel.GLOBAL_DOMAIN, getDomain(baseUrl));
+		putBaseUrl(baseUrl, result);
+		model.getCmsModel().put(WPBModel.REQUEST_KEY, result);
+	}
+
 	public void populateModelForWebPage(WPBPage page, InternalModel model) throws WPBException
 	{
 		WPBParametersCache parametersCache = cacheInstances.getParameterCache();
 		
-		List<WPBParameter> wbPageParams = parametersCache.getAllForOwner(page.getExternalKey());
+		String pageExternalKey = page.getExternalKey();
+		RenderDependencies.record(RenderDependencies.PARAMETERS, pageExternalKey);
+		List<WPBParameter> wbPageParams = parametersCache.getAllForOwner(pageExternalKey);
 		Map<String, String> pageParams = new HashMap<String, String>();
 		for(WPBParameter param: wbPageParams)
 		{
@@ -96,6 +113,7 @@ public class ModelBuilder {
 		Map<String, String> urlPatternParams = urlMatcherResult.getPatternParams();
 		Map<String, String> uriParams = new HashMap<String, String>();
 		
+		RenderDependencies.record(RenderDependencies.PARAMETERS, uriExternalKey);
 		List<WPBParameter> wbUriParams = parametersCache.getAllForOwner(uriExternalKey);
 		for(WPBParameter param: wbUriParams)
 		{
@@ -159,6 +177,7 @@ public class ModelBuilder {
 	{
 		// populate the GLOBALS_KEY
 		Map<String, String> globalParams = new HashMap<String, String>();
+		RenderDependencies.record(RenderDependencies.PARAMETERS, "");
 		List<WPBParameter> wbGlobalParams = cacheInstances.getParameterCache().getAllForOwner("");
 		for(WPBParameter param: wbGlobalParams)
 		{
@@ -248,7 +267,10 @@ public class ModelBuilder {
 				}
 			}
 		}
-		log.log(Level.INFO, "Build WBModel.REQUEST_KEY for url:" + url);
+		if (log.isLoggable(Level.FINE))
+		{
+			log.log(Level.FINE, "Build WBModel.REQUEST_KEY for url:" + url);
+		}
 	
 		String protocol = getProtocol(url);
 		String domain = getDomain(url);
@@ -279,15 +301,20 @@ public class ModelBuilder {
 			result.put(WPBModel.GLOBAL_BASE_URL, baseUrl);
 		} else
 		{
-			if (url.lastIndexOf('/') == url.length()-1)
-			{
-				url = url.substring(0,  url.length()-1);
-			}
-			result.put(WPBModel.GLOBAL_BASE_URL, url);
-			result.put(WPBModel.GLOBAL_CONTEXT_PATH, getContextPathFromUrl(url));
+			putBaseUrl(url, result);
 		}
 		
 		model.getCmsModel().put(WPBModel.REQUEST_KEY, result);
 	}
 
+	private void putBaseUrl(String url, Map<String, String> result)
+	{
+		if (url.lastIndexOf('/') == url.length()-1)
+		{
+			url = url.substring(0,  url.length()-1);
+		}
+		result.put(WPBModel.GLOBAL_BASE_URL, url);
+		result.put(WPBModel.GLOBAL_CONTEXT_PATH, getContextPathFromUrl(url));
+	}
+
 }
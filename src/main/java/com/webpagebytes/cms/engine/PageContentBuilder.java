@@ -16,7 +16,10 @@
 
 package com.webpagebytes.cms.engine;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -26,11 +29,15 @@ import com.webpagebytes.cms.WPBModel;
 import com.webpagebytes.cms.WPBPageModelProvider;
 import com.webpagebytes.cms.cmsdata.WPBPage;
 import com.webpagebytes.cms.exception.WPBException;
+import com.webpagebytes.cms.exception.WPBIOException;
+import com.webpagebytes.cms.template.TemplateWarmUpSupport;
 import com.webpagebytes.cms.template.WPBFreeMarkerTemplateEngine;
 import com.webpagebytes.cms.template.WPBTemplateEngine;
 
 public class PageContentBuilder {
-		
+	
+	private static final int WRITER_BUFFER_SIZE = 8192;
+	
 	private WPBTemplateEngine templateEngine;
 	private WPBCacheInstances cacheInstances;
 	private Map<String, WPBPageModelProvider> customControllers;
@@ -50,6 +57,25 @@ public class PageContentBuilder {
 	{
 			templateEngine.initialize();
 	}
+
+	public void warmUpTemplates()
+	{
+		if (templateEngine instanceof TemplateWarmUpSupport)
+		{
+			((TemplateWarmUpSupport) templateEngine).warmUp();
+		}
+	}
+	
+	/*
+	 * Called when the builder is no longer used, its templates are no longer warmed up after a project import
+	 */
+	public void stopTemplateWarmUp()
+	{
+		if (templateEngine instanceof TemplateWarmUpSupport)
+		{
+			((TemplateWarmUpSupport) templateEngine).stopWarmUp();
+		}
+	}
 	
 	public WPBPage findWebPage(String pageExternalKey) throws WPBException
 	{
@@ -72,77 +98,92 @@ public class PageContentBuilder {
 		return controllerInst;
 	}
 	
+	/*
+	 * Creates the writer used to stream the page content, the chars are encoded as UTF-8 and
+	 * buffered before they reach the output stream, the pre-encoded modules and articles are written as bytes.
+	 * The caller needs to flush the writer.
+	 */
+	public static Writer createPageWriter(OutputStream os)
+	{
+		return new PageWriter(os, WRITER_BUFFER_SIZE);
+	}
+	
 	public String buildPageContent(HttpServletRequest request,
 			WPBPage wbWebPage, 
 			InternalModel model) throws WPBException
 	{
+		return buildPageContent(wbWebPage, model);
+	}
+
+	public String buildPageContent(
+			WPBPage wbWebPage, 
+			InternalModel model) throws WPBException
+	{
 
 		Integer istemplateSource = wbWebPage.getIsTemplateSource();
 		if (istemplateSource == null || istemplateSource == 0)
 		{
 			return wbWebPage.getHtmlSource();
 		}
-						
-		modelBuilder.populateModelForWebPage(wbWebPage, model);
-		
-		String controllerClassName = wbWebPage.getPageModelProvider();
-
-		Map<String, Object> rootModel = new HashMap<String, Object>();
-		
-		boolean hasController = controllerClassName!=null && controllerClassName.length()>0;
-		
-		if (hasController)
-		{
-			WPBPageModelProvider controllerInst = getPageModelProvider(controllerClassName);
-			controllerInst.populatePageModel(model);
-		}
-		model.transferModel(rootModel);
-		rootModel.put(WPBModel.APPLICATION_CONTROLLER_MODEL_KEY, model.getCmsApplicationModel());
-		
-		if (model.getCmsModel().containsKey(WPBModel.LOCALE_KEY))
-		{
-			rootModel.put(WPBModel.LOCALE_COUNTRY_KEY, model.getCmsModel().get(WPBModel.LOCALE_KEY).get(WPBModel.LOCALE_COUNTRY_KEY));
-			rootModel.put(WPBModel.LOCALE_LANGUAGE_KEY, model.getCmsModel().get(WPBModel.LOCALE_KEY).get(WPBModel.LOCALE_LANGUAGE_KEY));
-		}
-		
-		String result = "";
-		try {
-			StringWriter out = new StringWriter();			
-			templateEngine.process(WPBTemplateEngine.WEBPAGES_PATH_PREFIX + wbWebPage.getExternalKey(), rootModel, out);
-			result += out.toString();
-		} catch (WPBException e)
-		{
-			throw e;
-		}
-		
-		return result;
+		StringWriter out = new StringWriter();
+		processTemplate(wbWebPage, model, out);
+		return out.toString();
 	}
 
-	public String buildPageContent(
+	/*
+	 * Writes the page content to out instead of building it in memory. If the template fails 
+	 * the content written so far stays in out, it is up to the caller to discard it. 
+	 */
+	public void buildPageContent(HttpServletRequest request,
 			WPBPage wbWebPage, 
-			InternalModel model) throws WPBException
+			InternalModel model,
+			Writer out) throws WPBException
 	{
+		buildPageContent(wbWebPage, model, out);
+	}
 
+	public void buildPageContent(
+			WPBPage wbWebPage, 
+			InternalModel model,
+			Writer out) throws WPBException
+	{
 		Integer istemplateSource = wbWebPage.getIsTemplateSource();
 		if (istemplateSource == null || istemplateSource == 0)
 		{
-			return wbWebPage.getHtmlSource();
+			try
+			{
+				PageWriter.writeContent(out, cacheInstances.getPageCache(), wbWebPage.getExternalKey(), wbWebPage.getHtmlSource());
+			} catch (IOException e)
+			{
+				throw new WPBIOException("Cannot write page content", e);
+			}
+			return;
 		}
-						
+		processTemplate(wbWebPage, model, out);
+	}
+
+	private void processTemplate(WPBPage wbWebPage, 
+			InternalModel model,
+			Writer out) throws WPBException
+	{
+		long modelBegin = RequestTimings.begin();
 		modelBuilder.populateModelForWebPage(wbWebPage, model);
+		RequestTimings.end(RequestTimings.Phase.MODEL, modelBegin);
 		
 		String controllerClassName = wbWebPage.getPageModelProvider();
 
-		Map<String, Object> rootModel = new HashMap<String, Object>();
+		// a view over the cms model, the model is not copied
+		Map<String, Object> rootModel = new RootModelMap(model.getCmsModel());
 		
 		boolean hasController = controllerClassName!=null && controllerClassName.length()>0;
 		
 		if (hasController)
 		{
+			long controllerBegin = RequestTimings.begin();
 			WPBPageModelProvider controllerInst = getPageModelProvider(controllerClassName);
 			controllerInst.populatePageModel(model);
+			RequestTimings.end(RequestTimings.Phase.CONTROLLER, controllerBegin);
 		}
-		model.transferModel(rootModel);
 		rootModel.put(WPBModel.APPLICATION_CONTROLLER_MODEL_KEY, model.getCmsApplicationModel());
 		
 		if (model.getCmsModel().containsKey(WPBModel.LOCALE_KEY))
@@ -151,17 +192,14 @@ public class PageContentBuilder {
 			rootModel.put(WPBModel.LOCALE_LANGUAGE_KEY, model.getCmsModel().get(WPBModel.LOCALE_KEY).get(WPBModel.LOCALE_LANGUAGE_KEY));
 		}
 		
-		String result = "";
-		try {
-			StringWriter out = new StringWriter();			
+		long renderBegin = RequestTimings.begin();
+		try
+		{
 			templateEngine.process(WPBTemplateEngine.WEBPAGES_PATH_PREFIX + wbWebPage.getExternalKey(), rootModel, out);
-			result += out.toString();
-		} catch (WPBException e)
+		} finally
 		{
-			throw e;
+			RequestTimings.end(RequestTimings.Phase.RENDER, renderBegin);
 		}
-		
-		return result;
 	}
 
 }
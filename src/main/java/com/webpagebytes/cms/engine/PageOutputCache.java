@@ -0,0 +1,351 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.engine;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.http.HttpServletRequest;
+
+import com.webpagebytes.cms.WPBModel;
+import com.webpagebytes.cms.WPBParametersCache;
+import com.webpagebytes.cms.cmsdata.WPBPage;
+import com.webpagebytes.cms.cmsdata.WPBParameter;
+import com.webpagebytes.cms.exception.WPBIOException;
+import com.webpagebytes.cms.utility.ConcurrentLRUCache;
+
+/*
+ * Cache of the rendered pages, stores the response bytes and headers so a hit skips the page model
+ * and the template processing.
+ *
+ * The key is made of the matched uri pattern, the pattern parameters, the locale, the base url and the values
+ * of the whitelisted query parameters, anything else that can change the page content needs to opt out the page.
+ * By default a page is cached if it has no page model provider. A page or an uri can opt in or out with
+ * a parameter named WPB_OUTPUT_CACHE with the value 1 or 0, the uri parameter wins over the page one.
+ *
+ * Each entry keeps the RenderDependencies recorded while the page was rendered and the cache indexes the keys
+ * by dependency, so invalidate evicts only the pages that used a changed record.
+ * The pages, modules, articles, files, parameters, messages, uris and project caches call invalidateAll when they refresh,
+ * this drops the entries of all the output caches in one step. When the refresh is caused by a single record change
+ * (between beginRecordChange and endRecordChange) only the pages that depend on that record are evicted.
+ *
+ * An entry keeps also the gzip copy of the content if the content is larger than GzipEncoding.MIN_SIZE.
+ */
+public class PageOutputCache {
+
+public static final String OUTPUT_CACHE_PARAMETER = "WPB_OUTPUT_CACHE";
+
+// incremented on each invalidation, a page rendered while it changed is not stored
+private static final AtomicLong version = new AtomicLong();
+// the version of the last invalidateAll, the entries rendered before it are stale
+private static volatile long invalidatedAllVersion;
+
+// the output caches that receive the record level invalidations
+private static final List<PageOutputCache> instances = new CopyOnWriteArrayList<PageOutputCache>();
+
+// the dependency of the record changed by the current thread, see beginRecordChange
+private static final ThreadLocal<String> changedRecord = new ThreadLocal<String>();
+
+public static class Entry
+{
+	private final byte[] content;
+	private final String contentType;
+	private final boolean templateSource;
+	private final long version;
+	private final Set<String> dependencies;
+	private final String etag;
+	private final byte[] gzipContent;
+
+	public Entry(byte[] content, String contentType, boolean templateSource, long version, Set<String> dependencies)
+	{
+		this.content = content;
+		this.contentType = contentType;
+		this.templateSource = templateSource;
+		this.version = version;
+		this.dependencies = (dependencies != null) ? dependencies : Collections.<String>emptySet();
+		// the output of a template page changes with the model, its validator is the hash of the output
+		this.etag = templateSource ? ConditionalRequest.weakETag(content) : null;
+		// the compressed copy is made once, when the page is stored
+		this.gzipContent = GzipEncoding.isWorthCompressing(contentType, content.length) ? GzipEncoding.gzipOrNull(content) : null;
+	}
+	public byte[] getContent() {
+		return content;
+	}
+	public String getContentType() {
+		return contentType;
+	}
+	public boolean isTemplateSource() {
+		return templateSource;
+	}
+	public long getVersion() {
+		return version;
+	}
+	public Set<String> getDependencies() {
+		return dependencies;
+	}
+	public String getETag() {
+		return etag;
+	}
+	// null if the page is too small or its content type is not compressible
+	public byte[] getGzipContent() {
+		return gzipContent;
+	}
+}
+
+private final ConcurrentLRUCache<String, Entry> entries;
+private final ConcurrentHashMap<String, Set<String>> keysByDependency = new ConcurrentHashMap<String, Set<String>>();
+private final List<String> queryParams;
+private volatile long clearedVersion;
+private final AtomicLong hits = new AtomicLong();
+private final AtomicLong misses = new AtomicLong();
+
+public PageOutputCache(int maxSize, List<String> queryParams)
+{
+	this.entries = new ConcurrentLRUCache<String, Entry>(maxSize);
+	this.entries.setEvictionListener(new ConcurrentLRUCache.EvictionListener<String, Entry>() {
+		public void evicted(String key, Entry entry)
+		{
+			unindex(key, entry);
+		}
+	});
+	this.queryParams = Collections.unmodifiableList(queryParams);
+	this.clearedVersion = invalidatedAllVersion;
+	instances.add(this);
+}
+
+/*
+ * Called when the content used by the pages changed, all the cached pages become stale.
+ * During a record change only the pages that depend on the record are evicted. 
+ */
+public static void invalidateAll()
+{
+	if (changedRecord.get() != null)
+	{
+		return;
+	}
+	invalidatedAllVersion = version.incrementAndGet();
+}
+
+/*
+ * Evicts from all the output caches the pages that depend on the record, dependency is built with RenderDependencies.dependency
+ */
+public static void invalidate(String dependency)
+{
+	version.incrementAndGet();
+	for(PageOutputCache instance: instances)
+	{
+		instance.evict(dependency);
+	}
+}
+
+/*
+ * Marks the start of a content cache refresh caused by the change of a single record,
+ * the invalidateAll calls from this thread are ignored until endRecordChange.
+ */
+public static void beginRecordChange(String type, String key)
+{
+	changedRecord.set(RenderDependencies.dependency(type, key));
+}
+
+/*
+ * Evicts the pages that depend on the record passed to beginRecordChange
+ */
+public static void endRecordChange()
+{
+	String dependency = changedRecord.get();
+	changedRecord.remove();
+	if (dependency != null)
+	{
+		invalidate(dependency);
+	}
+}
+
+public static long getVersion()
+{
+	return version.get();
+}
+
+/*
+ * Returns true if the rendered page can be cached. The uriParams are the parameters of the matched uri.
+ */
+public boolean isCacheable(WPBPage page, Map<String, String> uriParams, WPBParametersCache parametersCache) throws WPBIOException
+{
+	if (uriParams != null && uriParams.containsKey(OUTPUT_CACHE_PARAMETER))
+	{
+		return "1".equals(uriParams.get(OUTPUT_CACHE_PARAMETER));
+	}
+	List<WPBParameter> pageParams = parametersCache.getAllForOwner(page.getExternalKey());
+	if (pageParams != null)
+	{
+		for(WPBParameter param: pageParams)
+		{
+			if (OUTPUT_CACHE_PARAMETER.equals(param.getName()))
+			{
+				return "1".equals(param.getValue());
+			}
+		}
+	}
+	String pageModelProvider = page.getPageModelProvider();
+	return pageModelProvider == null || pageModelProvider.length() == 0;
+}
+
+/*
+ * Builds the key from the matched uri, the model built for the uri data and the whitelisted query parameters
+ */
+public String buildKey(URLMatcherResult urlMatcherResult, WPBPage page, InternalModel model, HttpServletRequest request)
+{
+	StringBuilder key = new StringBuilder(128);
+	key.append(urlMatcherResult.getUrlPattern()).append('\n').append(page.getExternalKey());
+	Map<String, String> patternParams = urlMatcherResult.getPatternParams();
+	if (patternParams != null && patternParams.size() > 0)
+	{
+		// sorted so the same params give the same key
+		key.append('\n').append(new TreeMap<String, String>(patternParams));
+	}
+	Map<String, String> locale = model.getCmsModel().get(WPBModel.LOCALE_KEY);
+	if (locale != null)
+	{
+		key.append('\n').append(locale.get(WPBModel.LOCALE_LANGUAGE_KEY)).append('_').append(locale.get(WPBModel.LOCALE_COUNTRY_KEY));
+	}
+	Map<String, String> requestParams = model.getCmsModel().get(WPBModel.REQUEST_KEY);
+	if (requestParams != null)
+	{
+		key.append('\n').append(requestParams.get(WPBModel.GLOBAL_BASE_URL));
+	}
+	for(String queryParam: queryParams)
+	{
+		String value = request.getParameter(queryParam);
+		if (value != null)
+		{
+			key.append('\n').append(queryParam).append('=').append(value);
+		}
+	}
+	return key.toString();
+}
+
+public Entry get(String key)
+{
+	Entry entry = entries.get(key);
+	if (entry != null && entry.getVersion() >= invalidatedAllVersion)
+	{
+		hits.incrementAndGet();
+		return entry;
+	}
+	misses.incrementAndGet();
+	return null;
+}
+
+/*
+ * Stores the entry only if nothing was invalidated while the page was rendered
+ */
+public void put(String key, Entry entry)
+{
+	if (entry.getVersion() != version.get())
+	{
+		return;
+	}
+	if (clearedVersion < invalidatedAllVersion)
+	{
+		// the stale entries rendered before the last invalidateAll are dropped at once
+		clearedVersion = invalidatedAllVersion;
+		entries.clear();
+		keysByDependency.clear();
+	}
+	remove(key);
+	entries.put(key, entry);
+	for(String dependency: entry.getDependencies())
+	{
+		Set<String> keys = keysByDependency.get(dependency);
+		if (keys == null)
+		{
+			keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+			Set<String> existingKeys = keysByDependency.putIfAbsent(dependency, keys);
+			if (existingKeys != null) keys = existingKeys;
+		}
+		keys.add(key);
+	}
+	if (entry.getVersion() != version.get())
+	{
+		// an invalidation happened while the entry was indexed, it may have missed it
+		remove(key);
+	}
+}
+
+private void remove(String key)
+{
+	Entry entry = entries.remove(key);
+	if (entry != null)
+	{
+		unindex(key, entry);
+	}
+}
+
+private void unindex(String key, Entry entry)
+{
+	for(String dependency: entry.getDependencies())
+	{
+		Set<String> keys = keysByDependency.get(dependency);
+		if (keys != null)
+		{
+			keys.remove(key);
+		}
+	}
+}
+
+private void evict(String dependency)
+{
+	Set<String> keys = keysByDependency.remove(dependency);
+	if (keys != null)
+	{
+		for(String key: keys)
+		{
+			remove(key);
+		}
+	}
+}
+
+/*
+ * Stops the record level invalidations of this cache, called when its servlet is destroyed so a redeploy
+ * in the same class loader does not keep the old cache reachable
+ */
+public void unregister()
+{
+	instances.remove(this);
+}
+
+public int size()
+{
+	return entries.size();
+}
+
+public long getHits()
+{
+	return hits.get();
+}
+
+public long getMisses()
+{
+	return misses.get();
+}
+
+}
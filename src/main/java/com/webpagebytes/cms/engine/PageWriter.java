@@ -0,0 +1,125 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.engine;
+
+import java.io.BufferedWriter;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+import com.webpagebytes.cms.exception.WPBIOException;
+
+/*
+ * The writer of the page content, the chars are encoded as UTF-8 and buffered before they reach the output stream.
+ * Content that is already encoded (static modules and articles) is written with writeEncoded, the buffered
+ * chars are pushed to the stream first without flushing the stream itself.
+ */
+public class PageWriter extends Writer {
+
+private static final Charset UTF8 = Charset.forName("UTF-8");
+
+private final OutputStream os;
+private final Writer writer;
+
+/*
+ * Keeps the flush of the encoder away from the output stream, a flush of the servlet stream
+ * would commit the response on each encoded fragment
+ */
+private static class NoFlushOutputStream extends FilterOutputStream
+{
+	NoFlushOutputStream(OutputStream os)
+	{
+		super(os);
+	}
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		out.write(b, off, len);
+	}
+	public void flush()
+	{
+
+	}
+	public void close()
+	{
+
+	}
+}
+
+public PageWriter(OutputStream os, int bufferSize)
+{
+	this.os = os;
+	this.writer = new BufferedWriter(new OutputStreamWriter(new NoFlushOutputStream(os), UTF8), bufferSize);
+}
+
+public void writeEncoded(byte[] content) throws IOException
+{
+	writer.flush();
+	os.write(content);
+}
+
+/*
+ * Writes the content of a record that is not a template, the encoded bytes kept by the cache are used
+ * when both the writer and the cache support it
+ */
+public static void writeContent(Writer out, Object cache, String externalKey, String source) throws IOException, WPBIOException
+{
+	if (out instanceof PageWriter && cache instanceof EncodedContentCache)
+	{
+		EncodedContent encoded = ((EncodedContentCache)cache).getEncodedContent(externalKey);
+		if (encoded != null)
+		{
+			((PageWriter)out).writeEncoded(encoded.getContent());
+			return;
+		}
+	}
+	if (source != null)
+	{
+		out.write(source);
+	}
+}
+
+public void write(char[] cbuf, int off, int len) throws IOException
+{
+	writer.write(cbuf, off, len);
+}
+
+public void write(int c) throws IOException
+{
+	writer.write(c);
+}
+
+public void write(String str, int off, int len) throws IOException
+{
+	writer.write(str, off, len);
+}
+
+public void flush() throws IOException
+{
+	writer.flush();
+	os.flush();
+}
+
+public void close() throws IOException
+{
+	writer.flush();
+	os.close();
+}
+
+}
@@ -0,0 +1,126 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.engine;
+
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.webpagebytes.cms.exception.WPBException;
+
+/*
+ * Coalesces the concurrent renders of the same page, so a burst of requests for a page that is not in the
+ * PageOutputCache (not rendered yet or just invalidated) renders the page once.
+ *
+ * The key is the output cache key, it holds everything the output depends on. The first request for a key
+ * is the leader and renders the page, the requests that come while the leader renders wait for its entry
+ * at most timeoutMillis and send the same bytes. A follower renders the page itself if the leader failed,
+ * if the wait timed out or if the content changed after the leader built its model (the leader entry version
+ * is older than the version taken by the follower), so a follower never gets an output the cache would refuse.
+ */
+public class RenderCoalescer {
+
+public static final long DEFAULT_TIMEOUT_MILLIS = 5000;
+
+public interface Render
+{
+	public PageOutputCache.Entry render() throws WPBException, IOException;
+}
+
+static class Flight
+{
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile PageOutputCache.Entry entry; // null if the leader failed
+}
+
+private final ConcurrentHashMap<String, Flight> flights = new ConcurrentHashMap<String, Flight>();
+private final long timeoutMillis;
+private final AtomicLong renders = new AtomicLong();
+private final AtomicLong coalesced = new AtomicLong();
+private final AtomicLong fallbacks = new AtomicLong();
+
+public RenderCoalescer(long timeoutMillis)
+{
+	this.timeoutMillis = timeoutMillis;
+}
+
+/*
+ * Returns the entry rendered for the key by this thread or by the leader of the key.
+ * version is the PageOutputCache version taken by the caller before it built its model.
+ */
+public PageOutputCache.Entry render(String key, long version, Render render) throws WPBException, IOException
+{
+	Flight flight = new Flight();
+	Flight leaderFlight = flights.putIfAbsent(key, flight);
+	if (leaderFlight == null)
+	{
+		renders.incrementAndGet();
+		try
+		{
+			flight.entry = render.render();
+			return flight.entry;
+		} finally
+		{
+			flights.remove(key, flight);
+			flight.done.countDown();
+		}
+	}
+
+	long waitBegin = RequestTimings.begin();
+	boolean done = false;
+	try
+	{
+		done = leaderFlight.done.await(timeoutMillis, TimeUnit.MILLISECONDS);
+	} catch (InterruptedException e)
+	{
+		Thread.currentThread().interrupt();
+	}
+	RequestTimings.end(RequestTimings.Phase.WAIT, waitBegin);
+	PageOutputCache.Entry entry = leaderFlight.entry;
+	if (done && entry != null && entry.getVersion() >= version)
+	{
+		coalesced.incrementAndGet();
+		return entry;
+	}
+	// the leader failed, is too slow or rendered older content, this request renders the page on its own
+	fallbacks.incrementAndGet();
+	return render.render();
+}
+
+public int getInFlight()
+{
+	return flights.size();
+}
+
+public long getRenders()
+{
+	return renders.get();
+}
+
+public long getCoalesced()
+{
+	return coalesced.get();
+}
+
+public long getFallbacks()
+{
+	return fallbacks.get();
+}
+
+}
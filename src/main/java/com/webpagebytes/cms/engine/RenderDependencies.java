@@ -0,0 +1,121 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.engine;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+ * Records the content records used while a page is rendered: pages, modules, articles, files, uris,
+ * the parameters of an owner (page, uri or "" for globals) and the messages of a locale.
+ * A dependency is a string like 'module:externalKey', the same string is used to evict the rendered pages
+ * when the record changes.
+ *
+ * The recording is per thread, between start and stop. Outside of it record does nothing.
+ */
+public class RenderDependencies {
+
+public static final String PAGE = "page:";
+public static final String MODULE = "module:";
+public static final String ARTICLE = "article:";
+public static final String FILE = "file:";
+public static final String URI = "uri:";
+public static final String PARAMETERS = "parameters:";
+public static final String MESSAGES = "messages:";
+
+private static final ThreadLocal<Set<String>> current = new ThreadLocal<Set<String>>();
+
+private RenderDependencies()
+{
+
+}
+
+public static void start()
+{
+	current.set(new HashSet<String>());
+}
+
+/*
+ * Ends the recording and returns the recorded dependencies, null if there was no recording
+ */
+public static Set<String> stop()
+{
+	Set<String> dependencies = current.get();
+	current.remove();
+	return dependencies;
+}
+
+/*
+ * Returns the dependencies recorded so far by the current thread, null if there is no recording
+ */
+public static Set<String> get()
+{
+	return current.get();
+}
+
+public static boolean isRecording()
+{
+	return current.get() != null;
+}
+
+/*
+ * Continues a recording stopped with stop, used to record a nested render on its own
+ */
+public static void resume(Set<String> dependencies)
+{
+	if (dependencies != null)
+	{
+		current.set(dependencies);
+	}
+}
+
+public static void recordAll(Set<String> dependencies)
+{
+	Set<String> recorded = current.get();
+	if (recorded != null && dependencies != null)
+	{
+		recorded.addAll(dependencies);
+	}
+}
+
+public static void record(String type, String key)
+{
+	Set<String> dependencies = current.get();
+	if (dependencies != null && key != null)
+	{
+		dependencies.add(type.concat(key));
+	}
+}
+
+/*
+ * Records a dependency built with dependency
+ */
+public static void recordDependency(String dependency)
+{
+	Set<String> dependencies = current.get();
+	if (dependencies != null)
+	{
+		dependencies.add(dependency);
+	}
+}
+
+public static String dependency(String type, String key)
+{
+	return type.concat(key);
+}
+
+}
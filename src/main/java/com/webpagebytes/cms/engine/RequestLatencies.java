@@ -0,0 +1,99 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.engine;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * The latencies of the public requests by matched uri pattern, kept for the admin statistics.
+ * Each pattern has a LatencyHistogram of the request time and the total time spent in each RequestTimings phase.
+ * The patterns are defined in the CMS so their number is small, at most MAX_PATTERNS are tracked. 
+ */
+public class RequestLatencies {
+
+public static final int MAX_PATTERNS = 1024;
+
+public static class PatternLatency
+{
+	private final LatencyHistogram histogram = new LatencyHistogram();
+	private final AtomicLongArray phaseTotals = new AtomicLongArray(RequestTimings.Phase.values().length);
+
+	public LatencyHistogram getHistogram() {
+		return histogram;
+	}
+	// the time spent in the phase by all the requests, in microseconds
+	public long getPhaseTotal(RequestTimings.Phase phase) {
+		return phaseTotals.get(phase.ordinal());
+	}
+}
+
+private static final ConcurrentHashMap<String, PatternLatency> latencies = new ConcurrentHashMap<String, PatternLatency>();
+
+private RequestLatencies()
+{
+
+}
+
+public static void record(String uriPattern, RequestTimings timings)
+{
+	if (uriPattern == null || timings == null)
+	{
+		return;
+	}
+	PatternLatency latency = latencies.get(uriPattern);
+	if (latency == null)
+	{
+		if (latencies.size() >= MAX_PATTERNS)
+		{
+			return;
+		}
+		PatternLatency newLatency = new PatternLatency();
+		latency = latencies.putIfAbsent(uriPattern, newLatency);
+		if (latency == null)
+		{
+			latency = newLatency;
+		}
+	}
+	latency.histogram.record(timings.getElapsed() / 1000L);
+	for(RequestTimings.Phase phase: RequestTimings.Phase.values())
+	{
+		long duration = timings.getDuration(phase);
+		if (duration > 0)
+		{
+			latency.phaseTotals.addAndGet(phase.ordinal(), duration / 1000L);
+		}
+	}
+}
+
+/*
+ * Returns the latencies sorted by uri pattern
+ */
+public static Map<String, PatternLatency> getAll()
+{
+	return Collections.unmodifiableMap(new TreeMap<String, PatternLatency>(latencies));
+}
+
+public static void clear()
+{
+	latencies.clear();
+}
+
+}
@@ -0,0 +1,148 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.engine;
+
+/*
+ * Measures the time spent by a public request in each processing phase: the url matching, the model building,
+ * the page model providers and url controllers, the template rendering, the file output and the wait
+ * for a render of the same page made by another request (see RenderCoalescer).
+ *
+ * The timing is per thread, between start and stop like RenderDependencies. The builders call begin and end around
+ * a phase, outside of a timing begin returns 0 and end does nothing, so the cost of a disabled timing is a ThreadLocal read.
+ * The phases can repeat (a forward renders a page after a controller), their durations add up.
+ */
+public class RequestTimings {
+
+public enum Phase
+{
+	MATCH("match"),
+	MODEL("model"),
+	CONTROLLER("ctrl"),
+	RENDER("render"),
+	FILE("file"),
+	WAIT("wait");
+
+	private final String metricName;
+	Phase(String metricName)
+	{
+		this.metricName = metricName;
+	}
+	// the name used in the Server-Timing header
+	public String getMetricName() {
+		return metricName;
+	}
+}
+
+private static final ThreadLocal<RequestTimings> current = new ThreadLocal<RequestTimings>();
+
+private final long startTime;
+private final long[] durations = new long[Phase.values().length];
+
+private RequestTimings(long startTime)
+{
+	this.startTime = startTime;
+}
+
+public static RequestTimings start()
+{
+	RequestTimings timings = new RequestTimings(System.nanoTime());
+	current.set(timings);
+	return timings;
+}
+
+/*
+ * Ends the timing of the current thread and returns it, null if there was no timing
+ */
+public static RequestTimings stop()
+{
+	RequestTimings timings = current.get();
+	current.remove();
+	return timings;
+}
+
+/*
+ * Returns the start of a phase, 0 if the current thread is not timed
+ */
+public static long begin()
+{
+	return (current.get() != null) ? System.nanoTime() : 0L;
+}
+
+/*
+ * Adds the time elapsed since begin to the phase
+ */
+public static void end(Phase phase, long begin)
+{
+	if (begin == 0L)
+	{
+		return;
+	}
+	RequestTimings timings = current.get();
+	if (timings != null)
+	{
+		timings.durations[phase.ordinal()] += System.nanoTime() - begin;
+	}
+}
+
+public long getDuration(Phase phase)
+{
+	return durations[phase.ordinal()];
+}
+
+// the time in nanoseconds since start
+public long getElapsed()
+{
+	return System.nanoTime() - startTime;
+}
+
+/*
+ * Builds the Server-Timing header value with the phases measured so far, in milliseconds.
+ * The phases that were not used are left out, total is the time since start.
+ */
+public String toServerTiming()
+{
+	StringBuilder header = new StringBuilder(96);
+	for(Phase phase: Phase.values())
+	{
+		long duration = durations[phase.ordinal()];
+		if (duration > 0)
+		{
+			appendMetric(header, phase.getMetricName(), duration);
+		}
+	}
+	appendMetric(header, "total", getElapsed());
+	return header.toString();
+}
+
+private static void appendMetric(StringBuilder header, String name, long nanos)
+{
+	if (header.length() > 0)
+	{
+		header.append(", ");
+	}
+	// milliseconds with 2 decimals
+	long hundredths = nanos / 10000L;
+	header.append(name).append(";dur=").append(hundredths / 100).append('.');
+	long fraction = hundredths % 100;
+	if (fraction < 10)
+	{
+		header.append('0');
+	}
+	header.append(fraction);
+}
+
+}
@@ -129,6 +129,16 @@ public class ResourceRequestProcessor {
 				{
 					resp.addHeader("cache-control", "no-cache;no-store;");
 				}
+				byte[] gzipRes = resourcesMap.getGzipResource(resource);
+				if (gzipRes != null)
+				{
+					GzipEncoding.addVary(resp);
+					if (GzipEncoding.acceptsGzip(req))
+					{
+						GzipEncoding.setGzipEncoding(resp);
+						res = gzipRes;
+					}
+				}
 				resp.getOutputStream().write(res);				
 			} else
 			{
@@ -0,0 +1,99 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.engine;
+
+import java.util.AbstractMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * The root map of a page render as a view over the cms model of the InternalModel, it replaces the copy made by
+ * InternalModel.transferModel. The cms model is read, never changed, the keys put in this map are kept apart
+ * and hide the cms model keys with the same name. A removed cms model key is hidden, the cms model keeps it.
+ */
+public class RootModelMap extends AbstractMap<String, Object> {
+
+private final Map<String, ? extends Object> model;
+private final Map<String, Object> added = new HashMap<String, Object>();
+// the cms model keys removed from this map
+private final Set<Object> hidden = new HashSet<Object>();
+
+public RootModelMap(Map<String, ? extends Object> model)
+{
+	this.model = model;
+}
+
+@Override
+public Object get(Object key)
+{
+	Object value = added.get(key);
+	if (value != null || added.containsKey(key))
+	{
+		return value;
+	}
+	return hidden.contains(key) ? null : model.get(key);
+}
+
+@Override
+public boolean containsKey(Object key)
+{
+	return added.containsKey(key) || (!hidden.contains(key) && model.containsKey(key));
+}
+
+@Override
+public Object put(String key, Object value)
+{
+	Object previous = get(key);
+	added.put(key, value);
+	hidden.remove(key);
+	return previous;
+}
+
+@Override
+public Object remove(Object key)
+{
+	Object previous = get(key);
+	added.remove(key);
+	if (model.containsKey(key))
+	{
+		hidden.add(key);
+	}
+	return previous;
+}
+
+@Override
+public void clear()
+{
+	added.clear();
+	hidden.addAll(model.keySet());
+}
+
+/*
+ * A merged copy, the renders read the keys with get and do not need it
+ */
+@Override
+public Set<Map.Entry<String, Object>> entrySet()
+{
+	Map<String, Object> merged = new HashMap<String, Object>(model);
+	merged.keySet().removeAll(hidden);
+	merged.putAll(added);
+	return merged.entrySet();
+}
+
+}
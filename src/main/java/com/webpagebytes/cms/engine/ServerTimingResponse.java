@@ -0,0 +1,77 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.engine;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/*
+ * Adds the Server-Timing header with the RequestTimings phases measured until the response body is started,
+ * the header has to be set before the response is committed. The phases that run while the body is written
+ * (the rendering of a streamed page) are not in the header, they are in the admin latencies.
+ */
+public class ServerTimingResponse extends HttpServletResponseWrapper {
+
+public static final String SERVER_TIMING_HEADER = "Server-Timing";
+
+private final RequestTimings timings;
+private boolean headerAdded;
+
+public ServerTimingResponse(HttpServletResponse response, RequestTimings timings)
+{
+	super(response);
+	this.timings = timings;
+}
+
+private void addTimingHeader()
+{
+	if (!headerAdded && !isCommitted())
+	{
+		headerAdded = true;
+		setHeader(SERVER_TIMING_HEADER, timings.toServerTiming());
+	}
+}
+
+public ServletOutputStream getOutputStream() throws IOException
+{
+	addTimingHeader();
+	return super.getOutputStream();
+}
+
+public PrintWriter getWriter() throws IOException
+{
+	addTimingHeader();
+	return super.getWriter();
+}
+
+public void flushBuffer() throws IOException
+{
+	addTimingHeader();
+	super.flushBuffer();
+}
+
+public void reset()
+{
+	super.reset();
+	headerAdded = false;
+}
+
+}
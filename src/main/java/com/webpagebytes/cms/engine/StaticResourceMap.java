@@ -28,11 +28,14 @@ public class StaticResourceMap {
 
 	private Map<String, byte[]> resourcesMap;
 	private Map<String, String> resourcesMapHash;
+	// the gzip variants of the text resources, made once at initialize
+	private Map<String, byte[]> resourcesMapGzip;
 	private ResourceReader resReader; 
 
 	public StaticResourceMap() {
 		resourcesMap = new HashMap<String, byte[]>();
 		resourcesMapHash = new HashMap<String, String>();
+		resourcesMapGzip = new HashMap<String, byte[]>();
 		resReader = new ResourceReader();
 	}
 		
@@ -48,9 +51,32 @@ public class StaticResourceMap {
 			crc32.reset();
 			crc32.update(resContent);
 			resourcesMapHash.put(resource, Long.toString(crc32.getValue()));
+			if (resContent.length >= GzipEncoding.MIN_SIZE && isCompressibleResource(resource))
+			{
+				byte[] gzipContent = GzipEncoding.gzipOrNull(resContent);
+				if (gzipContent != null)
+				{
+					resourcesMapGzip.put(resource, gzipContent);
+				}
+			}
 		}
 	}
 	
+	private boolean isCompressibleResource(String path)
+	{
+		String lowerPath = path.toLowerCase();
+		return lowerPath.endsWith(".js") || lowerPath.endsWith(".css") || lowerPath.endsWith(".html") || lowerPath.endsWith(".htm")
+				|| lowerPath.endsWith(".svg") || lowerPath.endsWith(".ttf") || lowerPath.endsWith(".otf") || lowerPath.endsWith(".eot");
+	}
+	
+	/*
+	 * Returns the gzip variant of the resource, null if the resource is not compressed
+	 */
+	public byte[] getGzipResource(String path)
+	{
+		return resourcesMapGzip.get(path);
+	}
+	
 	public byte[] getResource(String path) throws WPBResourceNotFoundException
 	{
 		if (resourcesMap.containsKey(path))
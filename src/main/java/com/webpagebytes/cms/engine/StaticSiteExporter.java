@@ -0,0 +1,651 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.engine;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import com.webpagebytes.cms.WPBAdminDataStorage;
+import com.webpagebytes.cms.WPBUrisCache;
+import com.webpagebytes.cms.cmsdata.WPBArticle;
+import com.webpagebytes.cms.cmsdata.WPBFile;
+import com.webpagebytes.cms.cmsdata.WPBPage;
+import com.webpagebytes.cms.cmsdata.WPBUri;
+import com.webpagebytes.cms.exception.WPBException;
+import com.webpagebytes.cms.exception.WPBIOException;
+
+/*
+ * Renders the public site to a directory so it can be served as static content, for example from a CDN.
+ *
+ * All the enabled GET uris of the uris cache are exported. A pattern with parameters like /news/{article} is expanded
+ * with the values of the parameter source set with setParameterSource: @articles, @pages or @files for the external keys
+ * of all the articles, pages or files, or a comma separated list of values. A pattern with a parameter without source,
+ * a pattern with a wildcard, a directory file and a url controller cannot be exported, they are reported as skipped.
+ *
+ * The pages are rendered with PageContentBuilder and a model built without request (ModelBuilder.populateModelForExport),
+ * the files are copied with FileContentBuilder, on a bounded pool of threads. A page uri without extension is written
+ * as uri/index.html. Next to each compressible output larger than GzipEncoding.MIN_SIZE a .gz variant is written.
+ *
+ * Each output is streamed to a temporary file of the directory while its CRC32 is computed, so the content is never held
+ * in memory. The directory keeps a manifest with the CRC32 of each output. On the next export only the outputs whose hash
+ * changed are written again, the outputs that are not exported anymore are deleted. The output of an uri that fails
+ * to render is kept with its previous manifest entry.
+ */
+public class StaticSiteExporter {
+
+private static final Logger log = Logger.getLogger(StaticSiteExporter.class.getName());
+public static final String MANIFEST_FILE = "wpb-manifest.json";
+public static final String GZIP_SUFFIX = ".gz";
+public static final int DEFAULT_THREADS = 4;
+public static final String SOURCE_ARTICLES = "@articles";
+public static final String SOURCE_PAGES = "@pages";
+public static final String SOURCE_FILES = "@files";
+
+private static final Pattern PARAMETER = Pattern.compile("\\{([^}]+)\\}");
+private static final String TEMP_PREFIX = "wpb-export-";
+
+static class Output
+{
+	final String hash;
+	final String contentType;
+	final long size;
+	final boolean gzip;
+	Output(String hash, String contentType, long size, boolean gzip)
+	{
+		this.hash = hash;
+		this.contentType = contentType;
+		this.size = size;
+		this.gzip = gzip;
+	}
+}
+
+public static class Result
+{
+	private int written;
+	private int unchanged;
+	private int removed;
+	private long duration;
+	private final Map<String, String> errors = new TreeMap<String, String>();
+	private final Map<String, String> skipped = new TreeMap<String, String>();
+
+	public int getWritten() {
+		return written;
+	}
+	public int getUnchanged() {
+		return unchanged;
+	}
+	public int getRemoved() {
+		return removed;
+	}
+	public long getDuration() {
+		return duration;
+	}
+	// the error message by uri
+	public Map<String, String> getErrors() {
+		return errors;
+	}
+	// the reason by uri pattern or uri
+	public Map<String, String> getSkipped() {
+		return skipped;
+	}
+}
+
+private final WPBCacheInstances cacheInstances;
+private final ModelBuilder modelBuilder;
+private final PageContentBuilder pageContentBuilder;
+private final FileContentBuilder fileContentBuilder;
+private final WPBAdminDataStorage adminStorage;
+private final String baseUrl;
+private final int threads;
+private final Map<String, String> parameterSources = new HashMap<String, String>();
+
+public StaticSiteExporter(WPBCacheInstances cacheInstances, ModelBuilder modelBuilder, PageContentBuilder pageContentBuilder,
+		FileContentBuilder fileContentBuilder, WPBAdminDataStorage adminStorage, String baseUrl, int threads)
+{
+	this.cacheInstances = cacheInstances;
+	this.modelBuilder = modelBuilder;
+	this.pageContentBuilder = pageContentBuilder;
+	this.fileContentBuilder = fileContentBuilder;
+	this.adminStorage = adminStorage;
+	this.baseUrl = baseUrl;
+	this.threads = Math.max(1, threads);
+}
+
+public void setParameterSource(String parameterName, String source)
+{
+	parameterSources.put(parameterName, source);
+}
+
+/*
+ * The path of the output file of an uri, relative to the export directory. Returns null if the uri cannot be 
+ * a path inside the export directory.
+ */
+static String outputPath(String uri, boolean page)
+{
+	String path = uri.startsWith("/") ? uri.substring(1) : uri;
+	if (path.indexOf('\\') >= 0 || path.indexOf('?') >= 0 || path.equals("..") || path.startsWith("../") 
+			|| path.indexOf("/../") >= 0 || path.endsWith("/.."))
+	{
+		return null;
+	}
+	if (path.length() == 0 || path.endsWith("/"))
+	{
+		return path + "index.html";
+	}
+	if (page && path.lastIndexOf('.') <= path.lastIndexOf('/'))
+	{
+		return path + "/index.html";
+	}
+	return path;
+}
+
+/*
+ * Returns the uris of the pattern with the values of their parameters, null if a parameter has no source
+ */
+List<URLMatcherResult> expand(String pattern, Map<String, List<String>> resolvedSources) throws WPBException
+{
+	List<String> names = new ArrayList<String>();
+	Matcher matcher = PARAMETER.matcher(pattern);
+	while (matcher.find())
+	{
+		names.add(matcher.group(1));
+	}
+	List<URLMatcherResult> results = new ArrayList<URLMatcherResult>();
+	if (names.size() == 0)
+	{
+		results.add(new URLMatcherResult(pattern, pattern, new HashMap<String, String>()));
+		return results;
+	}
+	List<List<String>> values = new ArrayList<List<String>>();
+	for(String name: names)
+	{
+		List<String> nameValues = resolveSource(name, resolvedSources);
+		if (nameValues == null)
+		{
+			return null;
+		}
+		values.add(nameValues);
+	}
+	expand(pattern, names, values, 0, new HashMap<String, String>(), results);
+	return results;
+}
+
+private void expand(String pattern, List<String> names, List<List<String>> values, int index, Map<String, String> params, List<URLMatcherResult> results)
+{
+	if (index == names.size())
+	{
+		String uri = pattern;
+		for(Map.Entry<String, String> param: params.entrySet())
+		{
+			uri = uri.replace("{" + param.getKey() + "}", param.getValue());
+		}
+		results.add(new URLMatcherResult(uri, pattern, new HashMap<String, String>(params)));
+		return;
+	}
+	for(String value: values.get(index))
+	{
+		// a value is a single path segment
+		if (value.length() == 0 || value.indexOf('/') >= 0 || value.equals(".."))
+		{
+			continue;
+		}
+		params.put(names.get(index), value);
+		expand(pattern, names, values, index + 1, params, results);
+	}
+	params.remove(names.get(index));
+}
+
+private List<String> resolveSource(String name, Map<String, List<String>> resolvedSources) throws WPBException
+{
+	if (resolvedSources.containsKey(name))
+	{
+		return resolvedSources.get(name);
+	}
+	String source = parameterSources.get(name);
+	List<String> values = null;
+	if (SOURCE_ARTICLES.equals(source))
+	{
+		values = new ArrayList<String>();
+		for(WPBArticle article: adminStorage.getAllRecords(WPBArticle.class))
+		{
+			values.add(article.getExternalKey());
+		}
+	} else if (SOURCE_PAGES.equals(source))
+	{
+		values = new ArrayList<String>();
+		for(WPBPage page: adminStorage.getAllRecords(WPBPage.class))
+		{
+			values.add(page.getExternalKey());
+		}
+	} else if (SOURCE_FILES.equals(source))
+	{
+		values = new ArrayList<String>();
+		for(WPBFile file: adminStorage.getAllRecords(WPBFile.class))
+		{
+			values.add(file.getExternalKey());
+		}
+	} else if (source != null)
+	{
+		values = new ArrayList<String>();
+		for(String value: source.split(","))
+		{
+			if (value.trim().length() > 0)
+			{
+				values.add(value.trim());
+			}
+		}
+	}
+	resolvedSources.put(name, values);
+	return values;
+}
+
+/*
+ * Exports the site to the directory, the directory is created if it does not exist
+ */
+public Result export(final File directory) throws WPBException
+{
+	long startTime = System.currentTimeMillis();
+	final Result result = new Result();
+	final Map<String, Output> previous = readManifest(directory);
+	final ConcurrentMap<String, Output> outputs = new ConcurrentHashMap<String, Output>();
+	final Map<String, String> errors = new ConcurrentHashMap<String, String>();
+	final Map<String, String> skipped = new ConcurrentHashMap<String, String>();
+	final AtomicInteger kept = new AtomicInteger();
+	try
+	{
+		FileUtils.forceMkdir(directory);
+	} catch (IOException e)
+	{
+		throw new WPBIOException("Cannot create the static export directory " + directory.getAbsolutePath(), e);
+	}
+
+	WPBUrisCache urisCache = cacheInstances.getUriCache();
+	Map<String, List<String>> resolvedSources = new HashMap<String, List<String>>();
+	List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+	Set<String> patterns = urisCache.getAllUris(WPBUrisCache.HTTP_GET_INDEX);
+	for(String pattern: patterns)
+	{
+		final WPBUri wbUri = urisCache.get(pattern, WPBUrisCache.HTTP_GET_INDEX);
+		if (wbUri == null || wbUri.getEnabled() == null || wbUri.getEnabled() == 0)
+		{
+			continue;
+		}
+		if (wbUri.getResourceType() == WPBUri.RESOURCE_TYPE_URL_CONTROLLER)
+		{
+			skipped.put(pattern, "url controller");
+			continue;
+		}
+		if (pattern.indexOf('*') >= 0)
+		{
+			skipped.put(pattern, "wildcard pattern");
+			continue;
+		}
+		List<URLMatcherResult> targets = expand(pattern, resolvedSources);
+		if (targets == null)
+		{
+			skipped.put(pattern, "parameter without source");
+			continue;
+		}
+		for(final URLMatcherResult target: targets)
+		{
+			tasks.add(new Callable<Boolean>() {
+				public Boolean call()
+				{
+					try
+					{
+						return exportUri(directory, wbUri, target, previous, outputs, skipped);
+					} catch (Exception e)
+					{
+						errors.put(target.getUrlRequest(), String.valueOf(e.getMessage()));
+						if (keepPreviousOutput(wbUri, target, previous, outputs))
+						{
+							kept.incrementAndGet();
+						}
+						return Boolean.FALSE;
+					}
+				}
+			});
+		}
+	}
+
+	int written = 0;
+	if (tasks.size() > 0)
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, tasks.size()), new ThreadFactory() {
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "wpb-static-export");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try
+		{
+			for(Future<Boolean> future: executor.invokeAll(tasks))
+			{
+				if (Boolean.TRUE.equals(future.get()))
+				{
+					written++;
+				}
+			}
+		} catch (Exception e)
+		{
+			throw new WPBException("Static export interrupted", e);
+		} finally
+		{
+			executor.shutdownNow();
+		}
+	}
+
+	// the outputs that are not exported anymore are deleted, the outputs of the uris in error were kept in outputs
+	int removed = 0;
+	for(String path: previous.keySet())
+	{
+		if (!outputs.containsKey(path))
+		{
+			FileUtils.deleteQuietly(new File(directory, path));
+			FileUtils.deleteQuietly(new File(directory, path + GZIP_SUFFIX));
+			removed++;
+		}
+	}
+	writeManifest(directory, outputs);
+
+	result.written = written;
+	result.unchanged = outputs.size() - written - kept.get();
+	result.removed = removed;
+	result.errors.putAll(errors);
+	result.skipped.putAll(skipped);
+	result.duration = System.currentTimeMillis() - startTime;
+	log.log(Level.INFO, "Static export to {0}: {1} written, {2} unchanged, {3} removed, {4} errors", 
+			new Object[] {directory.getAbsolutePath(), result.written, result.unchanged, result.removed, result.errors.size()});
+	return result;
+}
+
+/*
+ * Keeps the previous output of an uri that could not be exported, returns true if there was one
+ */
+private static boolean keepPreviousOutput(WPBUri wbUri, URLMatcherResult target, Map<String, Output> previous, 
+		ConcurrentMap<String, Output> outputs)
+{
+	String path = outputPath(target.getUrlRequest(), wbUri.getResourceType() == WPBUri.RESOURCE_TYPE_TEXT);
+	Output previousOutput = (path != null) ? previous.get(path) : null;
+	return previousOutput != null && outputs.putIfAbsent(path, previousOutput) == null;
+}
+
+/*
+ * Renders one uri, returns true if the output was written, false if it did not change
+ */
+private boolean exportUri(File directory, WPBUri wbUri, URLMatcherResult target, Map<String, Output> previous, 
+		ConcurrentMap<String, Output> outputs, Map<String, String> skipped) throws WPBException, IOException
+{
+	boolean page = wbUri.getResourceType() == WPBUri.RESOURCE_TYPE_TEXT;
+	WPBPage webPage = null;
+	WPBFile file = null;
+	if (page)
+	{
+		webPage = pageContentBuilder.findWebPage(wbUri.getResourceExternalKey());
+		if (webPage == null)
+		{
+			throw new WPBIOException("page not found " + wbUri.getResourceExternalKey());
+		}
+	} else
+	{
+		file = fileContentBuilder.find(wbUri.getResourceExternalKey());
+		if (file == null)
+		{
+			throw new WPBIOException("file not found " + wbUri.getResourceExternalKey());
+		}
+		if (file.getDirectoryFlag() != null && file.getDirectoryFlag() == 1)
+		{
+			skipped.put(target.getUrlRequest(), "directory");
+			return false;
+		}
+	}
+	String path = outputPath(target.getUrlRequest(), page);
+	if (path == null)
+	{
+		skipped.put(target.getUrlRequest(), "not a file path");
+		return false;
+	}
+
+	File tempFile = File.createTempFile(TEMP_PREFIX, null, directory);
+	try
+	{
+		CRC32 crc = new CRC32();
+		OutputStream os = new CheckedOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)), crc);
+		String contentType;
+		try
+		{
+			if (page)
+			{
+				InternalModel model = new InternalModel();
+				modelBuilder.populateModelForExport(wbUri, target, baseUrl, model);
+				Writer out = PageContentBuilder.createPageWriter(os);
+				pageContentBuilder.buildPageContent(webPage, model, out);
+				out.flush();
+				contentType = webPage.getContentType();
+			} else
+			{
+				fileContentBuilder.writeFileContent(file, os);
+				contentType = file.getAdjustedContentType();
+			}
+			os.close();
+		} finally
+		{
+			IOUtils.closeQuietly(os);
+		}
+		String hash = Long.toHexString(crc.getValue());
+		long size = tempFile.length();
+		// the manifest reads a missing content type as empty
+		String outputContentType = (contentType != null) ? contentType : "";
+		Output output = new Output(hash, outputContentType, size, false);
+		if (outputs.putIfAbsent(path, output) != null)
+		{
+			skipped.put(target.getUrlRequest(), "same output as another uri");
+			return false;
+		}
+	
+		File outputFile = new File(directory, path);
+		Output previousOutput = previous.get(path);
+		if (previousOutput != null && previousOutput.hash.equals(hash) && previousOutput.contentType.equals(outputContentType) 
+				&& outputFile.exists() && (!previousOutput.gzip || new File(directory, path + GZIP_SUFFIX).exists()))
+		{
+			outputs.replace(path, output, previousOutput);
+			return false;
+		}
+		boolean gzip;
+		try
+		{
+			gzip = writeOutput(directory, tempFile, outputFile, GzipEncoding.isWorthCompressing(contentType, size));
+		} catch (IOException e)
+		{
+			// the caller keeps the previous output entry
+			outputs.remove(path, output);
+			throw e;
+		}
+		// the manifest lists the gzip variant only if it was kept
+		outputs.replace(path, output, new Output(hash, outputContentType, size, gzip));
+		return true;
+	} finally
+	{
+		FileUtils.deleteQuietly(tempFile);
+	}
+}
+
+/*
+ * Moves the rendered content to the output file and writes its gzip variant, the variant is not kept if it is not smaller.
+ * Returns true if the gzip variant was kept.
+ */
+private static boolean writeOutput(File directory, File tempFile, File outputFile, boolean gzip) throws IOException
+{
+	FileUtils.forceMkdir(outputFile.getParentFile());
+	Files.move(tempFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	File gzipFile = new File(outputFile.getPath() + GZIP_SUFFIX);
+	if (!gzip)
+	{
+		FileUtils.deleteQuietly(gzipFile);
+		return false;
+	}
+	File gzipTempFile = File.createTempFile(TEMP_PREFIX, null, directory);
+	try
+	{
+		InputStream is = new FileInputStream(outputFile);
+		OutputStream os = new BufferedOutputStream(new FileOutputStream(gzipTempFile));
+		try
+		{
+			GzipEncoding.gzip(is, os);
+			os.close();
+		} finally
+		{
+			IOUtils.closeQuietly(is);
+			IOUtils.closeQuietly(os);
+		}
+		if (gzipTempFile.length() < outputFile.length())
+		{
+			Files.move(gzipTempFile.toPath(), gzipFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			return true;
+		}
+		FileUtils.deleteQuietly(gzipFile);
+		return false;
+	} finally
+	{
+		FileUtils.deleteQuietly(gzipTempFile);
+	}
+}
+
+static Map<String, Output> readManifest(File directory)
+{
+	Map<String, Output> outputs = new HashMap<String, Output>();
+	File manifest = new File(directory, MANIFEST_FILE);
+	if (!manifest.exists())
+	{
+		return outputs;
+	}
+	try
+	{
+		org.json.JSONObject json = new org.json.JSONObject(FileUtils.readFileToString(manifest, "UTF-8"));
+		Iterator<?> keys = json.keys();
+		while (keys.hasNext())
+		{
+			String path = keys.next().toString();
+			org.json.JSONObject entry = json.getJSONObject(path);
+			outputs.put(path, new Output(entry.getString("hash"), entry.optString("contentType"), entry.optLong("size"), entry.optBoolean("gzip")));
+		}
+	} catch (Exception e)
+	{
+		// all the outputs are written again
+		log.log(Level.WARNING, "Cannot read the static export manifest " + manifest.getAbsolutePath(), e);
+		return new HashMap<String, Output>();
+	}
+	return outputs;
+}
+
+private static void writeManifest(File directory, Map<String, Output> outputs) throws WPBIOException
+{
+	try
+	{
+		org.json.JSONObject json = new org.json.JSONObject();
+		for(Map.Entry<String, Output> entry: new TreeMap<String, Output>(outputs).entrySet())
+		{
+			org.json.JSONObject outputJson = new org.json.JSONObject();
+			outputJson.put("hash", entry.getValue().hash);
+			outputJson.put("contentType", entry.getValue().contentType);
+			outputJson.put("size", entry.getValue().size);
+			outputJson.put("gzip", entry.getValue().gzip);
+			json.put(entry.getKey(), outputJson);
+		}
+		FileUtils.writeStringToFile(new File(directory, MANIFEST_FILE), json.toString(1), "UTF-8");
+	} catch (Exception e)
+	{
+		throw new WPBIOException("Cannot write the static export manifest", e);
+	}
+}
+
+/*
+ * Writes as zip the outputs of the manifest, their gzip variants and the manifest
+ */
+public static void writeZip(File directory, OutputStream os) throws IOException
+{
+	ZipOutputStream zos = new ZipOutputStream(os);
+	List<String> paths = new ArrayList<String>();
+	for(Map.Entry<String, Output> entry: readManifest(directory).entrySet())
+	{
+		paths.add(entry.getKey());
+		if (entry.getValue().gzip)
+		{
+			paths.add(entry.getKey() + GZIP_SUFFIX);
+		}
+	}
+	Collections.sort(paths);
+	paths.add(MANIFEST_FILE);
+	for(String path: paths)
+	{
+		File file = new File(directory, path);
+		if (!file.exists())
+		{
+			continue;
+		}
+		zos.putNextEntry(new ZipEntry(path));
+		InputStream is = new FileInputStream(file);
+		try
+		{
+			FileTransfer.copy(is, zos);
+		} finally
+		{
+			IOUtils.closeQuietly(is);
+		}
+		zos.closeEntry();
+	}
+	zos.finish();
+}
+
+}
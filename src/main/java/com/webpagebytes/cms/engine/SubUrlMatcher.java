@@ -0,0 +1,309 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/*
+ * Immutable matcher for a sub url pattern like 'test-{keywords}-id-{id}', compiled once when the patterns are loaded.
+ *
+ * The pattern is kept as a fixed prefix, the parameter names, the fixed separators between parameters and a fixed suffix:
+ * 'test-{keywords}-id-{id}' has the prefix 'test-', the names [keywords, id], the separators ['-id-'] and an empty suffix.
+ * The match does only offset arithmetic on the sub url and records the parameter values bounds,
+ * the values are created only when needed.
+ *
+ * A parameter can have a constraint after ':' like '{id:int}', '{slug:alpha}', '{code:alnum}' or a regular expression
+ * like '{lang:[a-z]{2}}'. The constraints are compiled here and checked as soon as a parameter value bounds are known,
+ * so a sub url that does not satisfy them is rejected before the trie descends further.
+ */
+final class SubUrlMatcher {
+
+/*
+ * Constraint of a parameter value, checked on the value bounds without creating the value
+ */
+static abstract class Constraint
+{
+	abstract boolean matches(String subUrl, int start, int end);
+}
+
+private static final Constraint INT_CONSTRAINT = new Constraint()
+{
+	boolean matches(String subUrl, int start, int end)
+	{
+		if (start == end) return false;
+		for(int i = start; i < end; i++)
+		{
+			char c = subUrl.charAt(i);
+			if (c < '0' || c > '9') return false;
+		}
+		return true;
+	}
+};
+
+private static final Constraint ALPHA_CONSTRAINT = new Constraint()
+{
+	boolean matches(String subUrl, int start, int end)
+	{
+		if (start == end) return false;
+		for(int i = start; i < end; i++)
+		{
+			if (!Character.isLetter(subUrl.charAt(i))) return false;
+		}
+		return true;
+	}
+};
+
+private static final Constraint ALNUM_CONSTRAINT = new Constraint()
+{
+	boolean matches(String subUrl, int start, int end)
+	{
+		if (start == end) return false;
+		for(int i = start; i < end; i++)
+		{
+			if (!Character.isLetterOrDigit(subUrl.charAt(i))) return false;
+		}
+		return true;
+	}
+};
+
+private static class RegexConstraint extends Constraint
+{
+	private final Pattern pattern;
+	RegexConstraint(Pattern pattern)
+	{
+		this.pattern = pattern;
+	}
+	boolean matches(String subUrl, int start, int end)
+	{
+		Matcher matcher = pattern.matcher(subUrl);
+		matcher.region(start, end);
+		return matcher.matches();
+	}
+}
+
+private final String subUrlPattern;
+private final String prefix;
+private final String[] names;
+private final Constraint[] constraints; // constraints[i] is null if names[i] has no constraint
+private final int constraintsCount;
+private final boolean[] lastOccurrence; // true for the '*' parameter that takes the longest value
+private final String[] separators; // separators[i] is the fixed text after names[i], for all but the last name
+private final String suffix;
+private final boolean valid; // false for wrong formatted patterns like 'test-{id' or 'test-{id{}'
+
+private SubUrlMatcher(String subUrlPattern, String prefix, List<String> names, List<Constraint> constraints, List<String> separators, String suffix, boolean valid)
+{
+	this.subUrlPattern = subUrlPattern;
+	this.prefix = prefix;
+	this.names = names.toArray(new String[names.size()]);
+	this.constraints = constraints.toArray(new Constraint[constraints.size()]);
+	int count = 0;
+	for(Constraint constraint: this.constraints)
+	{
+		if (constraint != null) count++;
+	}
+	this.constraintsCount = count;
+	this.lastOccurrence = new boolean[this.names.length];
+	for(int i = 0; i < this.names.length; i++)
+	{
+		lastOccurrence[i] = this.names[i].equals("*");
+	}
+	this.separators = separators.toArray(new String[separators.size()]);
+	this.suffix = suffix;
+	this.valid = valid;
+}
+
+public static SubUrlMatcher compile(String subUrlPattern)
+{
+	List<String> names = new ArrayList<String>();
+	List<Constraint> constraints = new ArrayList<Constraint>();
+	List<String> separators = new ArrayList<String>();
+	int dpos = subUrlPattern.indexOf('{');
+	if (dpos < 0)
+	{
+		return new SubUrlMatcher(subUrlPattern, subUrlPattern, names, constraints, separators, "", true);
+	}
+	String prefix = subUrlPattern.substring(0, dpos);
+	int pos = dpos + 1;
+	while (true)
+	{
+		int closePos = findParamEnd(subUrlPattern, pos);
+		if (closePos < 0)
+		{
+			// contains '{' but no closing '}' or cases like '{id{}'
+			return new SubUrlMatcher(subUrlPattern, prefix, names, constraints, separators, "", false);
+		}
+		String param = subUrlPattern.substring(pos, closePos);
+		int colonPos = param.indexOf(':');
+		if (colonPos < 0)
+		{
+			names.add(param);
+			constraints.add(null);
+		} else
+		{
+			Constraint constraint = compileConstraint(param.substring(colonPos + 1));
+			if (constraint == null)
+			{
+				return new SubUrlMatcher(subUrlPattern, prefix, names, constraints, separators, "", false);
+			}
+			names.add(param.substring(0, colonPos));
+			constraints.add(constraint);
+		}
+		int nextPos = subUrlPattern.indexOf('{', closePos + 1);
+		if (nextPos < 0)
+		{
+			return new SubUrlMatcher(subUrlPattern, prefix, names, constraints, separators, subUrlPattern.substring(closePos + 1), true);
+		}
+		separators.add(subUrlPattern.substring(closePos + 1, nextPos));
+		pos = nextPos + 1;
+	}
+}
+
+/*
+ * Returns the position of the '}' that closes the parameter that starts at pos or -1 if the parameter is wrong formatted.
+ * A '{' is allowed only in the constraint, as part of a regular expression like '{lang:[a-z]{2}}'
+ */
+private static int findParamEnd(String subUrlPattern, int pos)
+{
+	int depth = 0;
+	boolean inConstraint = false;
+	for(int i = pos; i < subUrlPattern.length(); i++)
+	{
+		char c = subUrlPattern.charAt(i);
+		if (c == ':')
+		{
+			inConstraint = true;
+		} else if (c == '{')
+		{
+			if (!inConstraint) return -1;
+			depth++;
+		} else if (c == '}')
+		{
+			if (depth == 0) return i;
+			depth--;
+		}
+	}
+	return -1;
+}
+
+/*
+ * Returns the constraint for int, alpha, alnum or a regular expression, null if the regular expression is not valid
+ */
+static Constraint compileConstraint(String constraint)
+{
+	if (constraint.equals("int")) return INT_CONSTRAINT;
+	if (constraint.equals("alpha")) return ALPHA_CONSTRAINT;
+	if (constraint.equals("alnum")) return ALNUM_CONSTRAINT;
+	if (constraint.length() == 0 || constraint.indexOf('/') >= 0) return null;
+	try
+	{
+		return new RegexConstraint(Pattern.compile(constraint));
+	} catch (PatternSyntaxException e)
+	{
+		return null;
+	}
+}
+
+public String getSubUrlPattern()
+{
+	return subUrlPattern;
+}
+
+public String getPrefix()
+{
+	return prefix;
+}
+
+public int getParamsCount()
+{
+	return names.length;
+}
+
+public String getParamName(int index)
+{
+	return names[index];
+}
+
+public int getConstraintsCount()
+{
+	return constraintsCount;
+}
+
+/*
+ * Matches the sub url against the pattern. On match returns true and bounds will contain
+ * the start and end position in subUrl of each parameter value: [start0, end0, start1, end1, ...]
+ * bounds length needs to be at least 2 * getParamsCount()
+ */
+public boolean match(String subUrl, int[] bounds)
+{
+	if (!valid) return false;
+	if (names.length == 0)
+	{
+		return subUrl.equals(prefix);
+	}
+	if (!subUrl.startsWith(prefix)) return false;
+
+	int pos = prefix.length();
+	int last = names.length - 1;
+	for(int i = 0; i < last; i++)
+	{
+		String separator = separators[i];
+		int fixedPos = lastOccurrence[i] ? subUrl.lastIndexOf(separator) : subUrl.indexOf(separator, pos);
+		if (fixedPos < pos) return false;
+		if (constraints[i] != null && !constraints[i].matches(subUrl, pos, fixedPos)) return false;
+		bounds[2*i] = pos;
+		bounds[2*i+1] = fixedPos;
+		pos = fixedPos + separator.length();
+	}
+	int end = subUrl.length() - suffix.length();
+	if (end < pos || !subUrl.endsWith(suffix)) return false;
+	if (constraints[last] != null && !constraints[last].matches(subUrl, pos, end)) return false;
+	bounds[2*last] = pos;
+	bounds[2*last+1] = end;
+	return true;
+}
+
+/*
+ * Puts the parameter values in params, bounds are the ones filled by a successful match
+ */
+public void putParams(String subUrl, int[] bounds, Map<String, String> params)
+{
+	for(int i = 0; i < names.length; i++)
+	{
+		params.put(names[i], subUrl.substring(bounds[2*i], bounds[2*i+1]));
+	}
+}
+
+/*
+ * Returns the map of parameter values or null if there is no match
+ */
+public Map<String, String> matchToMap(String subUrl)
+{
+	int[] bounds = new int[2 * names.length];
+	if (!match(subUrl, bounds)) return null;
+	Map<String, String> params = new HashMap<String, String>();
+	putParams(subUrl, bounds, params);
+	return params;
+}
+
+}
@@ -0,0 +1,34 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.engine;
+
+import java.util.Set;
+
+import com.webpagebytes.cms.exception.WPBIOException;
+
+/*
+ * Implemented by the pages and modules caches to list the records that are templates, used by TemplateWarmUp
+ * to parse the templates before the first request. A cache that does not implement it is not warmed up.
+ */
+public interface TemplateSourceCache {
+
+/*
+ * Returns the external keys of the records that are templates
+ */
+public Set<String> getTemplateSourceKeys() throws WPBIOException;
+
+}
@@ -16,22 +16,59 @@
 
 package com.webpagebytes.cms.engine;
 
-import java.util.ArrayList;
-
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.webpagebytes.cms.WPBUrisCache;
+import com.webpagebytes.cms.WPBUrisCache.UriChange;
+import com.webpagebytes.cms.cmsdata.WPBUri;
+import com.webpagebytes.cms.exception.WPBIOException;
+import com.webpagebytes.cms.utility.ConcurrentLRUCache;
 
 public class URLMatcher {
 
-private Long fingerPrint;
-private Set<String> patterns;
-private Set<String> simplePatterns; // patterns with no parameters
-private Map<String, URLDataStructure> patternsWithParams; // the patterns with parameters
-private Map<Integer, Set<String>> deepToPatternUrls; // fast lookup to get all patterns with a certain deep value
-private Map<String, URLDataStructure> patternsWithAllMatch; // the patterns with all match params (these are patterns that ends with {**}
+public static final int DEFAULT_RESULTS_CACHE_SIZE = 4096;
+
+// cached in place of null for the urls that do not match any pattern
+private static final URLMatcherResult NO_MATCH = new URLMatcherResult(null, null, null);
+
+/*
+ * Immutable state of the matcher. A new snapshot is built by initialize and published
+ * through the volatile reference so readers see either the old or the new state, never a mix.
+ */
+private static class Snapshot
+{
+	private final Long fingerPrint;
+	private final Set<String> patterns;
+	private final Set<String> simplePatterns; // patterns with no parameters
+	private final URLPatternTrie patternsTrie; // the patterns with parameters, including the ones that ends with {**}
+	// results of the recent urls matched against this snapshot, null if the cache is disabled
+	// it belongs to the snapshot so publishing a new snapshot drops all the cached results at once
+	private final ConcurrentLRUCache<String, URLMatcherResult> results;
+	
+	private Snapshot(Long fingerPrint, Set<String> patterns, Set<String> simplePatterns, URLPatternTrie patternsTrie, int resultsCacheSize)
+	{
+		this.fingerPrint = fingerPrint;
+		this.patterns = patterns;
+		this.simplePatterns = simplePatterns;
+		this.patternsTrie = patternsTrie;
+		this.results = (resultsCacheSize > 0) ? new ConcurrentLRUCache<String, URLMatcherResult>(resultsCacheSize) : null;
+	}
+}
+
+private volatile Snapshot snapshot;
+
+// makes sure only one thread rebuilds the snapshot when the uris cache changes
+private final ReentrantLock rebuildLock = new ReentrantLock();
+
+private volatile int resultsCacheSize = DEFAULT_RESULTS_CACHE_SIZE;
+private final AtomicLong cacheHits = new AtomicLong();
+private final AtomicLong cacheMisses = new AtomicLong();
 
 public URLMatcher()
 {
@@ -39,344 +76,206 @@ public URLMatcher()
 }
 public void initialize(Set<String> patterns, Long fingerPrint)
 {
-	Set<String> newPatters = new HashSet<String>(patterns);
+	Set<String> newPatters = Collections.unmodifiableSet(new HashSet<String>(patterns));
 	
 	// newSimplePatterns are all the patterns that do not contain any parameter
 	HashSet<String> newSimplePatterns = new HashSet<String>();
 	
-	// newPatternsWithParams is a map between patterns with params and their URLDataStructure
-	HashMap<String, URLDataStructure> newPatternsWithParams = new HashMap<String, URLDataStructure>();
-	
-	// newDeepToPatternUrls is a map between deep url levels and their patterns ( /home/test has deed 2, /home has deep 1) 
-	HashMap<Integer, Set<String>> newDeepToPatternUrls = new HashMap<Integer, Set<String>>();
-	// newPatternsAllMatch are patterns that ends with /{**}
-	HashMap<String, URLDataStructure> newPatternsAllMatch = new HashMap<String, URLDataStructure>();
+	// newPatternsWithParams are all the patterns that contain parameters
+	HashSet<String> newPatternsWithParams = new HashSet<String>();
 	
-	for (String pattern : patterns)
+	for (String pattern : newPatters)
 	{
-		URLDataStructure aUrlStructure = new URLDataStructure(pattern);
-		if (aUrlStructure.hasParams()) {
-			newPatternsWithParams.put(pattern, aUrlStructure);
-			if (newDeepToPatternUrls.containsKey(aUrlStructure.getDeep()) == false)
-			{
-				newDeepToPatternUrls.put(aUrlStructure.getDeep(), new HashSet<String>());
-			}
-			newDeepToPatternUrls.get(aUrlStructure.getDeep()).add(pattern);
+		if (pattern.indexOf('{') >= 0) {
+			newPatternsWithParams.add(pattern);
 		} else
 		{
 			newSimplePatterns.add(pattern);
 		}
-		if (aUrlStructure.isAllMatch())
-		{
-		    newPatternsAllMatch.put(pattern, aUrlStructure);
-		}
 	}
 	
-	this.patterns = newPatters;
-	this.simplePatterns = newSimplePatterns;
-	this.patternsWithParams = newPatternsWithParams;
-	this.deepToPatternUrls = newDeepToPatternUrls;
-	this.patternsWithAllMatch = newPatternsAllMatch;
+	// newPatternsTrie is the segment trie of the patterns with params, built and compiled once here and used for all requests 
+	URLPatternTrie newPatternsTrie = new URLPatternTrie(newPatternsWithParams);
 	
-	setFingerPrint(fingerPrint);
+	snapshot = new Snapshot(fingerPrint, newPatters, newSimplePatterns, newPatternsTrie, resultsCacheSize);
 }
 
-
 /*
- * possible matching
- * 
- * Matching is case sensitive 
+ * Rebuilds the matcher if the uris cache fingerprint changed since the last initialize.
+ * If the cache knows the single record changes done since the current snapshot, only those patterns 
+ * are inserted or removed, otherwise all the patterns are loaded again.
+ * Only one thread does the rebuild, the other threads continue to use the current snapshot.
+ * If there is no snapshot yet, the other threads wait for the first one to be built.
  */
-public URLMatcherResult matchUrlToPattern(String url)
+public void refresh(WPBUrisCache urisCache, int httpIndex) throws WPBIOException
 {
-	if (null == patterns) return null;
-	// get rid of url request params i.e /news?id=123 will make the url as /news
-	int indexQ = 0; 
-	if ((indexQ = url.indexOf('?'))>=0)
+	Snapshot current = snapshot;
+	if (current != null && urisCache.getCacheFingerPrint().equals(current.fingerPrint))
 	{
-		url = url.substring(0, indexQ);
+		return;
 	}
-	URLMatcherResult result = new URLMatcherResult();
-	result.setUrlRequest(url);
-	// check if the url matches one of the non parameterized patterns
-	if (simplePatterns.contains(url))
+	if (current == null)
 	{
-		result.setUrlPattern(url);
-		return result;
-	}
-	
-	URLDataStructure urlDataStructure = new URLDataStructure(url);
-	Map<Integer, String> urlClearSubUrls = urlDataStructure.getClearSubUrl();
-    Map<String, String> mapParams = new HashMap<String, String>();
-
-	// get all the patterns with the same url deep
-	Set<String> toSearchLevel1 = this.deepToPatternUrls.get(urlDataStructure.getDeep());
-	if (null != toSearchLevel1)
+		rebuildLock.lock();
+	} else if (!rebuildLock.tryLock())
 	{
-    	// toSearchLevel2 will contain all patterns that have the same clear sub urls and the same deep as the url
-    	// the key is the pattern and the value a weight that measures the possibility to have a match, as greater the value as greater the posibility.
-    	Map<String, Integer> toSearchLevel2 = new HashMap<String, Integer>(); 
-    	for (String pattern: toSearchLevel1)
-    	{
-    		Map<Integer, String> patternClearSubUrl = this.patternsWithParams.get(pattern).getClearSubUrl();
-    		if (isMapIncluded(patternClearSubUrl, urlClearSubUrls))
-    		{
-    			toSearchLevel2.put(pattern, patternClearSubUrl.size()*1000);
-    			
-    			Map<Integer, String> patternDirtySubUrl = this.patternsWithParams.get(pattern).getDirtySubUrl();
-    			for(int i: patternDirtySubUrl.keySet())
-    			{
-    			    // increase the weight with the common number of characters in each dirty suburl 
-    			    String patternSubUrl = patternDirtySubUrl.get(i);
-    			    String inputSubUrl = urlClearSubUrls.get(i);
-    			    int weight = toSearchLevel2.get(pattern);
-    			    int lengthP = patternSubUrl.length();
-    			    int lengthI = inputSubUrl.length();
-    			    if (lengthP > lengthI) lengthP = lengthI;
-    			    for(int x = 0; x< lengthP; x++)
-    			    {
-    			        if (patternSubUrl.charAt(x) == inputSubUrl.charAt(x))
-    			        {
-    			            weight = weight + 1;
-    			        } else
-    			            break;
-    			    }
-    			    toSearchLevel2.put(pattern, weight);
-    			}
-    		}
-    	} 
-    	
-    	//the search was narrowed enough, we match against patterns with the same deep and common clear suburls 
-    	// the match begins with the most probable patterns, the ones that have the most common clear suburls
-    	String urlPatternMatched = "";
-    	ArrayList<Integer> searchLevel2Order = new ArrayList<Integer>(toSearchLevel2.values());
-    	Collections.sort(searchLevel2Order);
-    	ArrayList<String> orderedPatterns = new ArrayList<String>();
-    	for(int i= searchLevel2Order.size()-1; i >=0; i--)
-    	{
-    		Set<String> keySet = toSearchLevel2.keySet();
-    		for( String s : keySet)
-    		{
-    			if (toSearchLevel2.get(s).compareTo(searchLevel2Order.get(i)) == 0)
-    			{
-    				orderedPatterns.add(s);
-    				toSearchLevel2.remove(s);
-    				break;
-    			}
-    		}
-    	}
-    	// orderedPatterns now contain candidates ordered by their probability to match our request 
-    	for (String pattern: orderedPatterns)
-    	{
-    		//search though each narrowed pattern
-    		URLDataStructure aDataStructure = patternsWithParams.get(pattern);
-    		Map<Integer, String> aDirtySubUrls = aDataStructure.getDirtySubUrl();
-    		boolean found = true;
-    		
-    		urlPatternMatched = pattern; //keep track of the last pattern checked
-    		Set<Integer> keySet = aDirtySubUrls.keySet();
-    		// each pattern has a set of sub urls with params (called dirty sub urls)
-    		// each such sub pattern is matched against the corresponding index from the url
-    		for(Integer key : keySet)
-    		{
-    			String subPattern = aDirtySubUrls.get(key);
-    			if (urlClearSubUrls.containsKey(key))
-    			{
-    				String subUrl = urlClearSubUrls.get(key);
-    				Map<String, String> tempMap = null;
-    				if ((tempMap = matchSubUrls(subPattern, subUrl))!= null)
-    				{
-    					mapParams.putAll(tempMap);
-    				} else
-    				{
-    					// one of the sub urls does not match
-    					found = false;
-    					break;
-    				}
-    			} else
-    			{
-    				found = false;
-    				break;
-    			}
-    		}
-    		
-    		if (found)
-    		{
-    			result.setPatternParams(mapParams);
-    			result.setUrlPattern(urlPatternMatched);
-    			return result;
-    		} else
-    		{
-    			// current pattern did not match,clear the params for next pattern
-    			mapParams.clear();
-    		}		
-    	}
+		// another thread does the rebuild
+		return;
 	}
-	
-	// match for /{**} match all
-	if (this.patternsWithAllMatch.size()>0)
+	try
+	{
+		// check again, the snapshot could have been rebuilt in the meantime
+		Long cacheFingerPrint = urisCache.getCacheFingerPrint();
+		current = snapshot;
+		if (current == null || !cacheFingerPrint.equals(current.fingerPrint))
+		{
+			List<UriChange> changes = (current != null) ? urisCache.getChangesSince(current.fingerPrint) : null;
+			if (changes != null && changes.size() > 0)
+			{
+				snapshot = applyChanges(current, changes, urisCache, httpIndex);
+			} else
+			{
+				initialize(urisCache.getAllUris(httpIndex), cacheFingerPrint);
+			}
+		}
+	} finally
 	{
-	    String bestPatternMarch = "";
-	    for(String pattern: patternsWithAllMatch.keySet())
-	    {
-	        // length of '/{**} is 5 but we will test also the ending /
-	        String baseUrl = pattern.substring(0, pattern.length()-4);
-	        if (url.startsWith(baseUrl))
-	        {
-	            if (bestPatternMarch.length() < pattern.length())
-	            {
-	                bestPatternMarch = pattern;
-	            }
-	        }
-	    }
-	    if (bestPatternMarch.length() > 0)
-	    {
-	        result.setUrlPattern(bestPatternMarch);
-	        String baseUrl = bestPatternMarch.substring(0, bestPatternMarch.length()-5);
-	        String paramValue = url.substring(baseUrl.length()+1);
-	        mapParams.put("**", paramValue);
-	        result.setPatternParams(mapParams);
-	        return result;
-	    }
-	    
+		rebuildLock.unlock();
 	}
-	return null;
 }
 
-public Map<String, String> matchSubUrls(String subUrlPattern, String subUrl)
+/*
+ * Builds a new snapshot from current by removing the previous and inserting the current pattern of each change,
+ * the patterns not affected by the changes are not parsed again.
+ */
+private Snapshot applyChanges(Snapshot current, List<UriChange> changes, WPBUrisCache urisCache, int httpIndex)
 {
-	// will match 'test-{id}' against 'test-234' and in this case will return a Map with key id=234
-	// test-{*}-{id}
-	// if subUrlPattern == subUrl and there are no params it will return an empty Map
-	// if no match then will return null
-	// there can be any number of parameters 'test-{keywords}-id-{id}' <-> 'test-sports-news-id-345'
-	boolean canContinue = true;
-	Map<String, String> result = new HashMap<String, String>();	
-	while (canContinue)
+	Set<String> newPatterns = new HashSet<String>(current.patterns);
+	Set<String> newSimplePatterns = new HashSet<String>(current.simplePatterns);
+	URLPatternTrie newPatternsTrie = current.patternsTrie;
+	for(UriChange change: changes)
 	{
-		int dpos = subUrlPattern.indexOf('{');
-		if (dpos >= 0)
+		WPBUri previous = change.getPreviousUri();
+		if (previous != null && previous.getUri() != null && previous.getHttpOperation() != null 
+				&& urisCache.httpToOperationIndex(previous.getHttpOperation()) == httpIndex)
 		{
-			if (dpos > 0) // fixed prefix before { 
-			{
-				if (subUrl.startsWith(subUrlPattern.substring(0, dpos)))
-				{
-					subUrl = subUrl.substring(dpos);
-					subUrlPattern = subUrlPattern.substring(dpos+1); //count also the '{'
-				} else
-				{
-					return null; // no match 
-				}
-			} else
-			{
-				subUrlPattern = subUrlPattern.substring(1);	
-			}
-			
-			dpos = subUrlPattern.indexOf('}');
-			int epos = subUrlPattern.indexOf('{');
-			if ((epos >=0) && (dpos > epos))
-			{
-				// protect against cases '{id{}'
-				return null;
-			}
-			if (dpos >=0)
+			String pattern = previous.getUri();
+			newPatterns.remove(pattern);
+			if (pattern.indexOf('{') >= 0)
 			{
-				String parameter = subUrlPattern.substring(0, dpos);
-				subUrlPattern = subUrlPattern.substring(dpos+1);
-				if (subUrlPattern.length()>0)
-				{
-					// do we have another parameter?
-					int tempPos = subUrlPattern.indexOf('{');
-					if (tempPos >= 0)
-					{				
-						// we have another parameter so get the value for the first one
-						String fixedValue = subUrlPattern.substring(0, tempPos);
-						int fixedPos = -1;
-						if (parameter.equals("*"))
-						{
-							fixedPos = subUrl.lastIndexOf(fixedValue);
-						} else
-						{
-							fixedPos = subUrl.indexOf(fixedValue);
-						}
-						if (fixedPos >=0)
-						{
-							String parameterValue = subUrl.substring(0, fixedPos);
-							result.put(parameter, parameterValue);
-							subUrl = subUrl.substring(fixedPos);
-						} else
-						{
-							return null;
-						}
-					} else
-					{
-						// check if the subUrl ends with the fixed value
-						if (subUrl.endsWith(subUrlPattern))
-						{
-							subUrl = subUrl.substring(0,subUrl.length() - subUrlPattern.length());
-							result.put(parameter, subUrl);
-							return result;
-						} else
-						{
-							return null;
-						}
-					}
-				} else
-				{
-					result.put(parameter, subUrl);
-					return result;
-				}
+				newPatternsTrie = newPatternsTrie.withoutPattern(pattern);
 			} else
 			{
-				return null; // wrong formatted pattern: contains '{' but no closing '}'
+				newSimplePatterns.remove(pattern);
 			}
-		} else
+		}
+		WPBUri updated = change.getCurrentUri();
+		if (updated != null && updated.getUri() != null && updated.getHttpOperation() != null 
+				&& urisCache.httpToOperationIndex(updated.getHttpOperation()) == httpIndex)
 		{
-			if (subUrl.equals(subUrlPattern))
+			String pattern = updated.getUri();
+			newPatterns.add(pattern);
+			if (pattern.indexOf('{') >= 0)
 			{
-				return result;
+				newPatternsTrie = newPatternsTrie.withPattern(pattern);
 			} else
 			{
-				return null;
+				newSimplePatterns.add(pattern);
 			}
 		}
 	}
-		
-	return null;
+	Long fingerPrint = changes.get(changes.size()-1).getFingerPrint();
+	return new Snapshot(fingerPrint, Collections.unmodifiableSet(newPatterns), newSimplePatterns, newPatternsTrie, resultsCacheSize);
 }
 
-public boolean isMapIncluded(Map<Integer, String> small, Map<Integer, String> large)
+/*
+ * possible matching
+ * 
+ * Matching is case sensitive 
+ */
+public URLMatcherResult matchUrlToPattern(String url)
 {
-	// return true if small is included in large, false otherwise
-	Set<Integer> keys = small.keySet();
-	for (Object key: keys)
+	Snapshot current = snapshot;
+	if (null == current) return null;
+	// get rid of url request params i.e /news?id=123 will make the url as /news
+	int indexQ = 0; 
+	if ((indexQ = url.indexOf('?'))>=0)
 	{
-		if (large.containsKey(key) == false)
-		{
-			return false;
-		} else
-		{
-			if (large.get(key).equals(small.get(key)) == false)
-			{
-				return false;
-			}
-		}
+		url = url.substring(0, indexQ);
+	}
+	if (current.results == null)
+	{
+		return match(current, url);
 	}
-	return true;
+	// each matcher serves a single http operation so the url alone is the cache key
+	URLMatcherResult result = current.results.get(url);
+	if (result != null)
+	{
+		cacheHits.incrementAndGet();
+		return (result != NO_MATCH) ? result : null;
+	}
+	cacheMisses.incrementAndGet();
+	result = match(current, url);
+	current.results.put(url, (result != null) ? result : NO_MATCH);
+	return result;
 }
-public Set<String> getPatterns() {
-	return patterns;
+
+private URLMatcherResult match(Snapshot current, String url)
+{
+	// check if the url matches one of the non parameterized patterns
+	if (current.simplePatterns.contains(url))
+	{
+		return new URLMatcherResult(url, url, null);
+	}
+	
+	// walk the patterns trie, the cost depends on the url length and not on the number of patterns
+	return current.patternsTrie.match(url);
 }
 
-public void setPatterns(Set<String> patterns) {
-	this.patterns = patterns;	
+/*
+ * Returns true if the constraint of an uri parameter is int, alpha, alnum or a valid regular expression with no '/'
+ */
+public static boolean isValidParamConstraint(String constraint)
+{
+	return SubUrlMatcher.compileConstraint(constraint) != null;
+}
+
+public Map<String, String> matchSubUrls(String subUrlPattern, String subUrl)
+{
+	// will match 'test-{id}' against 'test-234' and in this case will return a Map with key id=234
+	// if subUrlPattern == subUrl and there are no params it will return an empty Map
+	// if no match then will return null
+	return SubUrlMatcher.compile(subUrlPattern).matchToMap(subUrl);
 }
+
+public Set<String> getPatterns() {
+	Snapshot current = snapshot;
+	return current != null ? current.patterns : null;
+}
+
 public Long getFingerPrint() {
-	return fingerPrint;
+	Snapshot current = snapshot;
+	return current != null ? current.fingerPrint : null;
+}
+
+/*
+ * Sets the maximum number of url results cached, 0 disables the cache.
+ * The size is used by the snapshots built after this call.
+ */
+public void setResultsCacheSize(int resultsCacheSize) {
+	this.resultsCacheSize = resultsCacheSize;
+}
+
+public int getResultsCacheSize() {
+	return resultsCacheSize;
 }
-public void setFingerPrint(Long fingerPrint) {
-	this.fingerPrint = fingerPrint;
+
+public long getCacheHits() {
+	return cacheHits.get();
 }
 
+public long getCacheMisses() {
+	return cacheMisses.get();
+}
 
 }
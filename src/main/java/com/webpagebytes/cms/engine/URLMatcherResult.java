@@ -16,31 +16,32 @@
 
 package com.webpagebytes.cms.engine;
 
+import java.util.Collections;
 import java.util.Map;
 
+/*
+ * The result of matching a request url, immutable so the same instance can be cached
+ * by the URLMatcher and shared by all the requests for the same url.
+ */
 public class URLMatcherResult {
-private String urlRequest;
+private final String urlRequest;
 
-private String urlPattern;
-private Map<String, String> patternParams;
+private final String urlPattern;
+private final Map<String, String> patternParams;
+public URLMatcherResult(String urlRequest, String urlPattern, Map<String, String> patternParams) {
+	this.urlRequest = urlRequest;
+	this.urlPattern = urlPattern;
+	this.patternParams = (patternParams != null) ? Collections.unmodifiableMap(patternParams) : null;
+}
 public String getUrlPattern() {
 	return urlPattern;
 }
-public void setUrlPattern(String urlPattern) {
-	this.urlPattern = urlPattern;
-}
 public Map<String, String> getPatternParams() {
 	return patternParams;
 }
-public void setPatternParams(Map<String, String> patternParams) {
-	this.patternParams = patternParams;
-}
 public String getUrlRequest() {
 	return urlRequest;
 }
-public void setUrlRequest(String urlRequest) {
-	this.urlRequest = urlRequest;
-}
 
 
 }
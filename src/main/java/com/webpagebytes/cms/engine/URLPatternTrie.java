@@ -0,0 +1,529 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.engine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Segment trie of the url patterns that have parameters.
+ *
+ * Each node corresponds to a sub url (the text between two '/'). A node has literal children (sub urls with no params),
+ * parameterized children (sub urls like 'test-{id}', compiled in a SubUrlMatcher and indexed by the fixed prefix before the first '{')
+ * and, in a separate trie, the patterns that end with /{**}.
+ *
+ * The lookup walks the request sub urls so its cost depends on the url length and not on the number of patterns.
+ * The precedence is the same as the one of the previous deep/weight sort: among the patterns that match,
+ * wins the one with most clear sub urls, then the one with most common characters between the dirty sub urls
+ * and the request sub urls, then the one with most constrained parameters like {id:int}.
+ * The /{**} patterns are checked only if no other pattern matched, the longest one wins.
+ */
+class URLPatternTrie {
+
+private static final String ALL_MATCH_SUFFIX = "/{**}";
+
+// a clear sub url weights more than the common characters and the constraints of all the dirty sub urls of an url
+private static final int CLEAR_SUBURL_WEIGHT = 10000;
+
+private static class Node
+{
+	private Map<String, Node> literalChildren = new HashMap<String, Node>();
+
+	// parameterized children, keyed by their sub url pattern
+	private Map<String, Node> paramChildren = new HashMap<String, Node>();
+
+	// index of the parameterized children by their fixed prefix:
+	// prefixLengths are the distinct prefix lengths ascending, prefixes[i] the sorted prefixes with the length prefixLengths[i]
+	// and prefixChildren[i][j] the children that have the prefix prefixes[i][j]
+	private int[] prefixLengths = new int[0];
+	private String[][] prefixes = new String[0][];
+	private Node[][][] prefixChildren = new Node[0][][];
+
+	// the maximum number of params of the parameterized children
+	private int maxParamsCount;
+
+	// the compiled sub url pattern of this node, set only for parameterized nodes
+	private SubUrlMatcher matcher;
+
+	// the pattern that ends in this node and the number of its clear sub urls
+	private String pattern;
+	private int clearCount;
+
+	// the pattern that ends with /{**} right after this node, used only in the all match trie
+	private String allMatchPattern;
+	
+	private Node copy()
+	{
+		Node node = new Node();
+		node.literalChildren = new HashMap<String, Node>(literalChildren);
+		node.paramChildren = new HashMap<String, Node>(paramChildren);
+		node.prefixLengths = prefixLengths;
+		node.prefixes = prefixes;
+		node.prefixChildren = prefixChildren;
+		node.maxParamsCount = maxParamsCount;
+		node.matcher = matcher;
+		node.pattern = pattern;
+		node.clearCount = clearCount;
+		node.allMatchPattern = allMatchPattern;
+		return node;
+	}
+	
+	private boolean isEmpty()
+	{
+		return literalChildren.isEmpty() && paramChildren.isEmpty() && pattern == null && allMatchPattern == null;
+	}
+}
+
+private static class MatchState
+{
+	private String[] subUrls;
+	private SubUrlMatcher[] levelMatchers; // the matcher used for each sub url, null for clear sub urls
+	private int[][] levelBounds; // the params bounds for each sub url
+	private String bestPattern;
+	private int bestWeight = -1;
+	private Map<String, String> bestParams;
+}
+
+private Node root = new Node();
+private Node allMatchRoot = new Node();
+
+public URLPatternTrie(Collection<String> patterns)
+{
+	for(String pattern: patterns)
+	{
+		add(pattern);
+	}
+	buildIndex(root);
+}
+
+private URLPatternTrie(Node root, Node allMatchRoot)
+{
+	this.root = (root != null) ? root : new Node();
+	this.allMatchRoot = (allMatchRoot != null) ? allMatchRoot : new Node();
+}
+
+/*
+ * Returns a new trie that contains also the pattern. This trie is not changed, only the nodes
+ * on the pattern path are copied, the rest of the nodes are shared between the two tries.
+ */
+public URLPatternTrie withPattern(String pattern)
+{
+	String[] subUrls = splitUrl(pattern);
+	if (subUrls == null) return this;
+	Node newAllMatchRoot = allMatchRoot;
+	if (pattern.endsWith(ALL_MATCH_SUFFIX))
+	{
+		newAllMatchRoot = setAllMatch(allMatchRoot, subUrls, 0, pattern);
+	}
+	return new URLPatternTrie(insert(root, subUrls, 0, 0, pattern), newAllMatchRoot);
+}
+
+/*
+ * Returns a new trie without the pattern. This trie is not changed, only the nodes
+ * on the pattern path are copied, the rest of the nodes are shared between the two tries.
+ */
+public URLPatternTrie withoutPattern(String pattern)
+{
+	String[] subUrls = splitUrl(pattern);
+	if (subUrls == null) return this;
+	Node newAllMatchRoot = allMatchRoot;
+	if (pattern.endsWith(ALL_MATCH_SUFFIX))
+	{
+		newAllMatchRoot = setAllMatch(allMatchRoot, subUrls, 0, null);
+	}
+	return new URLPatternTrie(remove(root, subUrls, 0, pattern), newAllMatchRoot);
+}
+
+private static Node insert(Node node, String[] subUrls, int index, int clearCount, String pattern)
+{
+	Node copy = node.copy();
+	if (index == subUrls.length)
+	{
+		copy.pattern = pattern;
+		copy.clearCount = clearCount;
+		return copy;
+	}
+	String subUrl = subUrls[index];
+	if (subUrl.indexOf('{') >= 0)
+	{
+		Node child = node.paramChildren.get(subUrl);
+		if (child == null)
+		{
+			child = new Node();
+			child.matcher = SubUrlMatcher.compile(subUrl);
+		}
+		copy.paramChildren.put(subUrl, insert(child, subUrls, index + 1, clearCount, pattern));
+		indexParamChildren(copy);
+	} else
+	{
+		Node child = node.literalChildren.get(subUrl);
+		if (child == null)
+		{
+			child = new Node();
+		}
+		copy.literalChildren.put(subUrl, insert(child, subUrls, index + 1, clearCount + 1, pattern));
+	}
+	return copy;
+}
+
+/*
+ * Returns the node unchanged if the pattern is not found, null if the node becomes empty or a changed copy
+ */
+private static Node remove(Node node, String[] subUrls, int index, String pattern)
+{
+	if (index == subUrls.length)
+	{
+		if (!pattern.equals(node.pattern)) return node;
+		Node copy = node.copy();
+		copy.pattern = null;
+		copy.clearCount = 0;
+		return copy.isEmpty() ? null : copy;
+	}
+	String subUrl = subUrls[index];
+	boolean isParam = subUrl.indexOf('{') >= 0;
+	Node child = isParam ? node.paramChildren.get(subUrl) : node.literalChildren.get(subUrl);
+	if (child == null) return node;
+	Node newChild = remove(child, subUrls, index + 1, pattern);
+	if (newChild == child) return node;
+	
+	Node copy = node.copy();
+	Map<String, Node> children = isParam ? copy.paramChildren : copy.literalChildren;
+	if (newChild == null)
+	{
+		children.remove(subUrl);
+	} else
+	{
+		children.put(subUrl, newChild);
+	}
+	if (isParam)
+	{
+		indexParamChildren(copy);
+	}
+	return copy.isEmpty() ? null : copy;
+}
+
+/*
+ * Sets (or clears if allMatchPattern is null) the all match pattern on a copy of the all match trie path
+ */
+private static Node setAllMatch(Node node, String[] subUrls, int index, String allMatchPattern)
+{
+	Node copy = (node != null) ? node.copy() : new Node();
+	if (index == subUrls.length - 1)
+	{
+		copy.allMatchPattern = allMatchPattern;
+	} else
+	{
+		Node child = setAllMatch(copy.literalChildren.get(subUrls[index]), subUrls, index + 1, allMatchPattern);
+		if (child.isEmpty())
+		{
+			copy.literalChildren.remove(subUrls[index]);
+		} else
+		{
+			copy.literalChildren.put(subUrls[index], child);
+		}
+	}
+	return copy;
+}
+
+private void add(String pattern)
+{
+	String[] subUrls = splitUrl(pattern);
+	if (subUrls == null) return;
+
+	if (pattern.endsWith(ALL_MATCH_SUFFIX))
+	{
+		Node node = allMatchRoot;
+		for(int i = 0; i < subUrls.length - 1; i++)
+		{
+			node = getOrAddLiteral(node, subUrls[i]);
+		}
+		node.allMatchPattern = pattern;
+	}
+
+	Node node = root;
+	int clearCount = 0;
+	for(String subUrl: subUrls)
+	{
+		if (subUrl.indexOf('{') >= 0)
+		{
+			node = getOrAddParam(node, subUrl);
+		} else
+		{
+			node = getOrAddLiteral(node, subUrl);
+			clearCount += 1;
+		}
+	}
+	node.pattern = pattern;
+	node.clearCount = clearCount;
+}
+
+/*
+ * Matches the url (with no query string) against the patterns with parameters.
+ * Returns the matched pattern and params or null if there is no match.
+ */
+public URLMatcherResult match(String url)
+{
+	String[] subUrls = splitUrl(url);
+	if (subUrls == null) return null;
+
+	MatchState state = new MatchState();
+	state.subUrls = subUrls;
+	state.levelMatchers = new SubUrlMatcher[subUrls.length];
+	state.levelBounds = new int[subUrls.length][];
+	descend(root, 0, 0, state);
+	if (state.bestPattern != null)
+	{
+		return new URLMatcherResult(url, state.bestPattern, state.bestParams);
+	}
+
+	// match for /{**}, the deepest node wins as it has the longest pattern
+	Node node = allMatchRoot;
+	String allMatchPattern = null;
+	int allMatchOffset = 0;
+	int offset = 1;
+	for(int i = 0; i < subUrls.length && node != null; i++)
+	{
+		if (node.allMatchPattern != null)
+		{
+			allMatchPattern = node.allMatchPattern;
+			allMatchOffset = offset;
+		}
+		offset += subUrls[i].length() + 1;
+		node = node.literalChildren.get(subUrls[i]);
+	}
+	if (allMatchPattern != null)
+	{
+		Map<String, String> params = new HashMap<String, String>();
+		params.put("**", url.substring(allMatchOffset));
+		return new URLMatcherResult(url, allMatchPattern, params);
+	}
+	return null;
+}
+
+private void descend(Node node, int index, int weight, MatchState state)
+{
+	if (index == state.subUrls.length)
+	{
+		if (node.pattern != null && (node.clearCount * CLEAR_SUBURL_WEIGHT + weight) > state.bestWeight)
+		{
+			// only now the parameter values are created
+			Map<String, String> params = new HashMap<String, String>();
+			for(int i = 0; i < state.subUrls.length; i++)
+			{
+				if (state.levelMatchers[i] != null)
+				{
+					state.levelMatchers[i].putParams(state.subUrls[i], state.levelBounds[i], params);
+				}
+			}
+			state.bestWeight = node.clearCount * CLEAR_SUBURL_WEIGHT + weight;
+			state.bestPattern = node.pattern;
+			state.bestParams = params;
+		}
+		return;
+	}
+	String subUrl = state.subUrls[index];
+	Node literal = node.literalChildren.get(subUrl);
+	if (literal != null)
+	{
+		descend(literal, index + 1, weight, state);
+	}
+	if (node.prefixLengths.length == 0) return;
+
+	// the bounds of this level are consumed before descend returns so the same array is used for all candidates
+	int[] bounds = state.levelBounds[index];
+	if (bounds == null || bounds.length < 2 * node.maxParamsCount)
+	{
+		bounds = new int[2 * node.maxParamsCount];
+		state.levelBounds[index] = bounds;
+	}
+	for(int i = 0; i < node.prefixLengths.length; i++)
+	{
+		if (node.prefixLengths[i] > subUrl.length()) break;
+		int pos = findPrefix(node.prefixes[i], subUrl, node.prefixLengths[i]);
+		if (pos < 0) continue;
+		for(Node candidate: node.prefixChildren[i][pos])
+		{
+			// the parameter constraints are checked by the match so the candidates with impossible values are not descended
+			if (candidate.matcher.match(subUrl, bounds))
+			{
+				state.levelMatchers[index] = candidate.matcher;
+				descend(candidate, index + 1, weight + dirtySubUrlWeight(candidate.matcher, subUrl), state);
+				state.levelMatchers[index] = null;
+			}
+		}
+	}
+}
+
+/*
+ * Binary search in the sorted prefixes (all with the same length) for the first length characters of subUrl
+ */
+private static int findPrefix(String[] prefixes, String subUrl, int length)
+{
+	int low = 0;
+	int high = prefixes.length - 1;
+	while (low <= high)
+	{
+		int middle = (low + high) >>> 1;
+		String prefix = prefixes[middle];
+		int compare = 0;
+		for(int i = 0; i < length && compare == 0; i++)
+		{
+			compare = prefix.charAt(i) - subUrl.charAt(i);
+		}
+		if (compare < 0)
+		{
+			low = middle + 1;
+		} else if (compare > 0)
+		{
+			high = middle - 1;
+		} else
+		{
+			return middle;
+		}
+	}
+	return -1;
+}
+
+private Node getOrAddLiteral(Node node, String subUrl)
+{
+	Node child = node.literalChildren.get(subUrl);
+	if (child == null)
+	{
+		child = new Node();
+		node.literalChildren.put(subUrl, child);
+	}
+	return child;
+}
+
+private Node getOrAddParam(Node node, String subUrlPattern)
+{
+	Node child = node.paramChildren.get(subUrlPattern);
+	if (child == null)
+	{
+		child = new Node();
+		child.matcher = SubUrlMatcher.compile(subUrlPattern);
+		node.paramChildren.put(subUrlPattern, child);
+	}
+	return child;
+}
+
+private void buildIndex(Node node)
+{
+	indexParamChildren(node);
+	for(Node child: node.literalChildren.values())
+	{
+		buildIndex(child);
+	}
+	for(Node child: node.paramChildren.values())
+	{
+		buildIndex(child);
+	}
+}
+
+private static void indexParamChildren(Node node)
+{
+	// group by prefix length, then by prefix, both sorted
+	TreeMap<Integer, TreeMap<String, List<Node>>> groups = new TreeMap<Integer, TreeMap<String, List<Node>>>();
+	int maxParamsCount = 0;
+	for(Node child: node.paramChildren.values())
+	{
+		String prefix = child.matcher.getPrefix();
+		TreeMap<String, List<Node>> lengthGroup = groups.get(prefix.length());
+		if (lengthGroup == null)
+		{
+			lengthGroup = new TreeMap<String, List<Node>>();
+			groups.put(prefix.length(), lengthGroup);
+		}
+		List<Node> prefixGroup = lengthGroup.get(prefix);
+		if (prefixGroup == null)
+		{
+			prefixGroup = new ArrayList<Node>();
+			lengthGroup.put(prefix, prefixGroup);
+		}
+		prefixGroup.add(child);
+		maxParamsCount = Math.max(maxParamsCount, child.matcher.getParamsCount());
+	}
+	int[] prefixLengths = new int[groups.size()];
+	String[][] prefixes = new String[groups.size()][];
+	Node[][][] prefixChildren = new Node[groups.size()][][];
+	int i = 0;
+	for(Map.Entry<Integer, TreeMap<String, List<Node>>> lengthEntry: groups.entrySet())
+	{
+		prefixLengths[i] = lengthEntry.getKey();
+		prefixes[i] = lengthEntry.getValue().keySet().toArray(new String[lengthEntry.getValue().size()]);
+		prefixChildren[i] = new Node[prefixes[i].length][];
+		int j = 0;
+		for(List<Node> prefixGroup: lengthEntry.getValue().values())
+		{
+			prefixChildren[i][j++] = prefixGroup.toArray(new Node[prefixGroup.size()]);
+		}
+		i++;
+	}
+	node.prefixLengths = prefixLengths;
+	node.prefixes = prefixes;
+	node.prefixChildren = prefixChildren;
+	node.maxParamsCount = maxParamsCount;
+}
+
+/*
+ * The common characters decide first, the number of constraints (at most 3 counted) only between equal common prefixes
+ */
+private static int dirtySubUrlWeight(SubUrlMatcher matcher, String subUrl)
+{
+	return 4 * commonPrefixLength(matcher.getSubUrlPattern(), subUrl) + Math.min(matcher.getConstraintsCount(), 3);
+}
+
+private static int commonPrefixLength(String subUrlPattern, String subUrl)
+{
+	int length = Math.min(subUrlPattern.length(), subUrl.length());
+	int i = 0;
+	while (i < length && subUrlPattern.charAt(i) == subUrl.charAt(i))
+	{
+		i++;
+	}
+	return i;
+}
+
+/*
+ * Splits an url in its sub urls: /test/abc -> [test, abc], /test/ -> [test, ""], / -> [""]
+ * Returns null if the url does not start with '/'
+ */
+static String[] splitUrl(String url)
+{
+	if (url == null || url.length() == 0 || url.charAt(0) != '/') return null;
+	int count = 1;
+	for(int i = 1; i < url.length(); i++)
+	{
+		if (url.charAt(i) == '/') count++;
+	}
+	String[] subUrls = new String[count];
+	int start = 1;
+	for(int i = 0; i < count; i++)
+	{
+		int end = url.indexOf('/', start);
+		if (end < 0) end = url.length();
+		subUrls[i] = url.substring(start, end);
+		start = end + 1;
+	}
+	return subUrls;
+}
+
+}
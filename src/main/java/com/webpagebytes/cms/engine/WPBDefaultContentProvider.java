@@ -17,6 +17,7 @@
 package com.webpagebytes.cms.engine;
 
 import java.io.OutputStream;
+import java.io.Writer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -67,8 +68,10 @@ public class WPBDefaultContentProvider implements WPBContentProvider {
 			{
 				return false;
 			}
-			String content = pageContentBuilder.buildPageContent(wbWebPage, (InternalModel)model);
-			os.write(content.getBytes("UTF-8"));
+			// the content is encoded to os while the template is processed, it is not built in memory first
+			Writer out = PageContentBuilder.createPageWriter(os);
+			pageContentBuilder.buildPageContent(wbWebPage, (InternalModel)model, out);
+			out.flush();
 		} catch (Exception e)
 		{
 			log.log(Level.SEVERE, "writeFileContent for " + externalKey, e);
@@ -23,13 +23,17 @@ import java.util.Map;
 import com.webpagebytes.cms.WPBAdminDataStorage;
 import com.webpagebytes.cms.WPBArticlesCache;
 import com.webpagebytes.cms.cmsdata.WPBArticle;
+import com.webpagebytes.cms.engine.EncodedContent;
+import com.webpagebytes.cms.engine.EncodedContentCache;
+import com.webpagebytes.cms.engine.PageOutputCache;
 import com.webpagebytes.cms.engine.WPBAdminDataStorageFactory;
 import com.webpagebytes.cms.exception.WPBIOException;
 
-public class WPBLocalArticlesCache implements WPBArticlesCache {
+public class WPBLocalArticlesCache implements WPBArticlesCache, EncodedContentCache {
 	
 	private WPBAdminDataStorage dataStorage;
 	private Map<String, WPBArticle> localCache;
+	private Map<String, EncodedContent> encodedCache;
 	private static final Object lock = new Object();
 	public WPBLocalArticlesCache()
 	{
@@ -58,16 +62,34 @@ public class WPBLocalArticlesCache implements WPBArticlesCache {
 		return null;
 	}
 
+	public EncodedContent getEncodedContent(String externalKey) throws WPBIOException
+	{
+		if (encodedCache == null)
+		{
+			Refresh();
+		}
+		if (encodedCache != null)
+		{
+			return encodedCache.get(externalKey);
+		}
+		return null;
+	}
+
 	public void Refresh() throws WPBIOException {
 		synchronized (lock)
 		{
 			Map<String, WPBArticle> tempMap = new HashMap<String, WPBArticle>();
+			Map<String, EncodedContent> tempEncoded = new HashMap<String, EncodedContent>();
 			List<WPBArticle> recList = dataStorage.getAllRecords(WPBArticle.class);
 			for(WPBArticle item: recList)
 			{
 				tempMap.put(item.getExternalKey(), item);
+				tempEncoded.put(item.getExternalKey(), new EncodedContent(item.getHtmlSource(), null));
 			}
 			localCache = tempMap;
+			encodedCache = tempEncoded;
+			// the rendered pages that used the previous content are not valid anymore
+			PageOutputCache.invalidateAll();
 		}
 		
 	}
@@ -24,6 +24,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Calendar;
@@ -37,17 +39,20 @@ import java.util.zip.CRC32;
 import javax.xml.bind.DatatypeConverter;
 
 import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
 
 import com.webpagebytes.cms.WPBFileInfo;
 import com.webpagebytes.cms.WPBFilePath;
 import com.webpagebytes.cms.WPBFileStorage;
+import com.webpagebytes.cms.WPBLocalFileAccess;
+import com.webpagebytes.cms.WPBRangedFileAccess;
 import com.webpagebytes.cms.engine.WPBDefaultCloudFileInfo;
 import com.webpagebytes.cms.utility.CmsBase64Utility;
 import com.webpagebytes.cms.utility.CmsConfiguration;
 import com.webpagebytes.cms.utility.CmsConfigurationFactory;
 import com.webpagebytes.cms.utility.CmsConfiguration.WPBSECTION;
 
-public class WPBLocalFileStorage implements WPBFileStorage {
+public class WPBLocalFileStorage implements WPBFileStorage, WPBLocalFileAccess, WPBRangedFileAccess {
 	private static final String publicDataFolder = "public";
 	private static final String privateDataFolder = "private";
 	private static final String publicMetaFolder = "public_meta";
@@ -365,6 +370,36 @@ public class WPBLocalFileStorage implements WPBFileStorage {
 		return createStorageInputStream(fullFilePath);
 	}
 	
+	public Path getLocalPath(WPBFilePath file) throws IOException
+	{
+		String fullFilePath = getLocalFullDataPath(file);
+		if (fullFilePath == null || ! checkIfFileExists(fullFilePath))
+		{
+			return null;
+		}
+		return Paths.get(fullFilePath);
+	}
+	
+	public InputStream getFileContent(WPBFilePath file, long offset, long length) throws IOException
+	{
+		String fullFilePath = getLocalFullDataPath(file);
+		if (! checkIfFileExists(fullFilePath))
+		{
+			throw new IOException("file does not exists");
+		}
+		FileInputStream fis = new FileInputStream(fullFilePath);
+		try
+		{
+			// seek to the range start, the content before it is not read
+			fis.getChannel().position(offset);
+		} catch (IOException e)
+		{
+			IOUtils.closeQuietly(fis);
+			throw e;
+		}
+		return new BoundedInputStream(fis, length);
+	}
+	
 	
 	public void updateContentType(WPBFilePath file, String contentType) throws IOException
 	{
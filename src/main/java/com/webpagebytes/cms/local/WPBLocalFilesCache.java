@@ -26,6 +26,7 @@ import com.webpagebytes.cms.WPBAdminDataStorage;
 import com.webpagebytes.cms.WPBAdminDataStorage.AdminQueryOperator;
 import com.webpagebytes.cms.WPBFilesCache;
 import com.webpagebytes.cms.cmsdata.WPBFile;
+import com.webpagebytes.cms.engine.PageOutputCache;
 import com.webpagebytes.cms.engine.WPBAdminDataStorageFactory;
 import com.webpagebytes.cms.exception.WPBIOException;
 
@@ -150,6 +151,8 @@ public class WPBLocalFilesCache implements WPBFilesCache {
 			this.pathToFiles = pathToFiles;
 			
 			localCache = tempMap;
+			// the rendered pages that used the previous content are not valid anymore
+			PageOutputCache.invalidateAll();
 		}
 		
 	}
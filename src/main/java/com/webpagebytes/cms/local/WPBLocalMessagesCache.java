@@ -26,6 +26,7 @@ import java.util.Set;
 import com.webpagebytes.cms.WPBAdminDataStorage;
 import com.webpagebytes.cms.WPBMessagesCache;
 import com.webpagebytes.cms.cmsdata.WPBMessage;
+import com.webpagebytes.cms.engine.PageOutputCache;
 import com.webpagebytes.cms.engine.WPBAdminDataStorageFactory;
 import com.webpagebytes.cms.exception.WPBIOException;
 
@@ -94,6 +95,8 @@ public class WPBLocalMessagesCache implements WPBMessagesCache {
 			cacheMessages =  tempCache;
 			Random r = new Random();
 			cacheFingerPrint = r.nextLong();
+			// the rendered pages that used the previous content are not valid anymore
+			PageOutputCache.invalidateAll();
 		}
 		
 	}
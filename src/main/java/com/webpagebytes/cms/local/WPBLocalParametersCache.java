@@ -24,6 +24,7 @@ import java.util.Map;
 import com.webpagebytes.cms.WPBAdminDataStorage;
 import com.webpagebytes.cms.WPBParametersCache;
 import com.webpagebytes.cms.cmsdata.WPBParameter;
+import com.webpagebytes.cms.engine.PageOutputCache;
 import com.webpagebytes.cms.engine.WPBAdminDataStorageFactory;
 import com.webpagebytes.cms.exception.WPBIOException;
 
@@ -91,6 +92,8 @@ public class WPBLocalParametersCache implements WPBParametersCache {
 			}
 			cacheParameters = localCache;
 			cacheOwnerParameters = ownersLocalCache;
+			// the rendered pages that used the previous content are not valid anymore
+			PageOutputCache.invalidateAll();
 		}
 	}
 }
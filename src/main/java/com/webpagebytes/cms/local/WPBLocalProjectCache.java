@@ -23,6 +23,7 @@ import java.util.TimeZone;
 import com.webpagebytes.cms.WPBAdminDataStorage;
 import com.webpagebytes.cms.WPBProjectCache;
 import com.webpagebytes.cms.cmsdata.WPBProject;
+import com.webpagebytes.cms.engine.PageOutputCache;
 import com.webpagebytes.cms.engine.WPBAdminDataStorageFactory;
 import com.webpagebytes.cms.exception.WPBIOException;
 import com.webpagebytes.cms.utility.Pair;
@@ -97,6 +98,8 @@ public class WPBLocalProjectCache implements WPBProjectCache {
 				throw new WPBIOException("Invalid default language");
 			
 			supportedLanguages = project.getSupportedLanguagesSet();
+			// the rendered pages that used the previous content are not valid anymore
+			PageOutputCache.invalidateAll();
 		}
 	}
 }
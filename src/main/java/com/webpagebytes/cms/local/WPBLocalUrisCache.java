@@ -16,8 +16,10 @@
 
 package com.webpagebytes.cms.local;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
@@ -26,15 +28,24 @@ import java.util.Set;
 import com.webpagebytes.cms.WPBAdminDataStorage;
 import com.webpagebytes.cms.WPBUrisCache;
 import com.webpagebytes.cms.cmsdata.WPBUri;
+import com.webpagebytes.cms.engine.PageOutputCache;
 import com.webpagebytes.cms.engine.WPBAdminDataStorageFactory;
 import com.webpagebytes.cms.exception.WPBIOException;
 
 public class WPBLocalUrisCache extends WPBUrisCache {
 
 	private static final Object lock = new Object();
+	static final int MAX_CHANGES = 100;
 	private WPBAdminDataStorage dataStorage;
-	Map<Integer, Map<String, WPBUri>> localCache;
-	long cacheFingerPrint;
+	volatile Map<Integer, Map<String, WPBUri>> localCache;
+	volatile long cacheFingerPrint;
+	
+	// records by privkey, accessed only under lock
+	Map<Long, WPBUri> keysCache = new HashMap<Long, WPBUri>();
+	
+	// the last single record changes, cleared on full refresh, accessed only under lock
+	LinkedList<UriChange> changes = new LinkedList<UriChange>();
+	private Random random = new Random();
 	
 	public WPBLocalUrisCache()
 	{
@@ -90,10 +101,12 @@ public class WPBLocalUrisCache extends WPBUrisCache {
 		synchronized (lock)
 		{
 			Map<Integer, Map<String, WPBUri>> tempMapUris = new HashMap<Integer, Map<String, WPBUri>>();
+			Map<Long, WPBUri> tempKeys = new HashMap<Long, WPBUri>();
 			
 			List<WPBUri> recList = dataStorage.getAllRecords(WPBUri.class);
 			for(WPBUri item: recList)
 			{
+				tempKeys.put(item.getPrivkey(), item);
 				int httpIndex = httpToOperationIndex(item.getHttpOperation().toUpperCase());
 				if (httpIndex >=0)
 				{
@@ -107,11 +120,109 @@ public class WPBLocalUrisCache extends WPBUrisCache {
 				}			
 			}
 			localCache = tempMapUris;
-			Random r = new Random();
-			cacheFingerPrint = r.nextLong();
+			keysCache = tempKeys;
+			changes.clear();
+			cacheFingerPrint = random.nextLong();
+			// the rendered pages that used the previous content are not valid anymore
+			PageOutputCache.invalidateAll();
 		}
 
 		
 	}
+	
+	public void refreshRecord(WPBUri uri) throws WPBIOException
+	{
+		synchronized (lock)
+		{
+			if (localCache == null || uri == null || uri.getPrivkey() == null || uri.getUri() == null || uri.getHttpOperation() == null)
+			{
+				Refresh();
+				return;
+			}
+			applyChange(keysCache.get(uri.getPrivkey()), uri);
+		}
+	}
+	
+	public void removeRecord(WPBUri uri) throws WPBIOException
+	{
+		synchronized (lock)
+		{
+			if (localCache == null || uri == null || uri.getPrivkey() == null)
+			{
+				Refresh();
+				return;
+			}
+			WPBUri previous = keysCache.get(uri.getPrivkey());
+			if (previous != null)
+			{
+				applyChange(previous, null);
+			}
+		}
+	}
+	
+	public List<UriChange> getChangesSince(Long fromFingerPrint)
+	{
+		synchronized (lock)
+		{
+			if (fromFingerPrint == null) return null;
+			List<UriChange> result = new ArrayList<UriChange>();
+			if (fromFingerPrint.longValue() == cacheFingerPrint) return result;
+			boolean found = false;
+			for(UriChange change: changes)
+			{
+				if (!found && change.getPreviousFingerPrint().equals(fromFingerPrint))
+				{
+					found = true;
+				}
+				if (found)
+				{
+					result.add(change);
+				}
+			}
+			return found ? result : null;
+		}
+	}
+	
+	/*
+	 * Replaces previous with current in a copy of localCache, only the affected http operation maps are copied.
+	 * Needs to be called under lock.
+	 */
+	private void applyChange(WPBUri previous, WPBUri current)
+	{
+		Map<Integer, Map<String, WPBUri>> tempMapUris = new HashMap<Integer, Map<String, WPBUri>>(localCache);
+		if (previous != null)
+		{
+			int httpIndex = httpToOperationIndex(previous.getHttpOperation().toUpperCase());
+			Map<String, WPBUri> aMap = tempMapUris.get(httpIndex);
+			if (aMap != null)
+			{
+				aMap = new HashMap<String, WPBUri>(aMap);
+				aMap.remove(previous.getUri());
+				tempMapUris.put(httpIndex, aMap);
+			}
+			keysCache.remove(previous.getPrivkey());
+		}
+		if (current != null)
+		{
+			int httpIndex = httpToOperationIndex(current.getHttpOperation().toUpperCase());
+			if (httpIndex >= 0)
+			{
+				Map<String, WPBUri> aMap = tempMapUris.get(httpIndex);
+				aMap = (aMap == null) ? new HashMap<String, WPBUri>() : new HashMap<String, WPBUri>(aMap);
+				aMap.put(current.getUri(), current);
+				tempMapUris.put(httpIndex, aMap);
+			}
+			keysCache.put(current.getPrivkey(), current);
+		}
+		long previousFingerPrint = cacheFingerPrint;
+		localCache = tempMapUris;
+		cacheFingerPrint = random.nextLong();
+		PageOutputCache.invalidateAll();
+		changes.add(new UriChange(previous, current, previousFingerPrint, cacheFingerPrint));
+		if (changes.size() > MAX_CHANGES)
+		{
+			changes.removeFirst();
+		}
+	}
 
 }
@@ -16,21 +16,30 @@
 
 package com.webpagebytes.cms.local;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.webpagebytes.cms.WPBAdminDataStorage;
 import com.webpagebytes.cms.WPBPageModulesCache;
 import com.webpagebytes.cms.cmsdata.WPBPageModule;
+import com.webpagebytes.cms.engine.EncodedContent;
+import com.webpagebytes.cms.engine.EncodedContentCache;
+import com.webpagebytes.cms.engine.PageOutputCache;
+import com.webpagebytes.cms.engine.TemplateSourceCache;
 import com.webpagebytes.cms.engine.WPBAdminDataStorageFactory;
 import com.webpagebytes.cms.exception.WPBIOException;
 
-public class WPBLocalWebPageModulesCache implements WPBPageModulesCache {
+public class WPBLocalWebPageModulesCache implements WPBPageModulesCache, EncodedContentCache, TemplateSourceCache {
 	
 	private WPBAdminDataStorage dataStorage;
 	private Map<String, WPBPageModule> localCacheByID;
 	private Map<String, WPBPageModule> localCacheByName;
+	private Map<String, EncodedContent> encodedByID;
+	private Set<String> templateKeys;
 	private static final Object lock = new Object();
 	public WPBLocalWebPageModulesCache()
 	{
@@ -55,20 +64,51 @@ public class WPBLocalWebPageModulesCache implements WPBPageModulesCache {
 		return null;
 	}
 
+	public EncodedContent getEncodedContent(String externalKey) throws WPBIOException
+	{
+		if (encodedByID != null)
+		{
+			return encodedByID.get(externalKey);
+		}
+		return null;
+	}
+
+	public Set<String> getTemplateSourceKeys() throws WPBIOException
+	{
+		if (templateKeys != null)
+		{
+			return templateKeys;
+		}
+		return Collections.emptySet();
+	}
+
 	public void Refresh() throws WPBIOException {
 		synchronized (lock)
 		{
 			Map<String, WPBPageModule> tempMapByID = new HashMap<String, WPBPageModule>();
 			Map<String, WPBPageModule> tempMapByName = new HashMap<String, WPBPageModule>();
+			Map<String, EncodedContent> tempEncoded = new HashMap<String, EncodedContent>();
+			Set<String> tempTemplateKeys = new HashSet<String>();
 			
 			List<WPBPageModule> recList = dataStorage.getAllRecords(WPBPageModule.class);
 			for(WPBPageModule item: recList)
 			{
 				tempMapByID.put(item.getExternalKey(), item);
 				tempMapByName.put(item.getName(), item);
+				if (item.getIsTemplateSource() == null || item.getIsTemplateSource() != 1)
+				{
+					tempEncoded.put(item.getExternalKey(), new EncodedContent(item.getHtmlSource(), null));
+				} else
+				{
+					tempTemplateKeys.add(item.getExternalKey());
+				}
 			}
 			localCacheByID = tempMapByID;
 			localCacheByName = tempMapByName;
+			encodedByID = tempEncoded;
+			templateKeys = Collections.unmodifiableSet(tempTemplateKeys);
+			// the rendered pages that used the previous content are not valid anymore
+			PageOutputCache.invalidateAll();
 		}
 		
 	}
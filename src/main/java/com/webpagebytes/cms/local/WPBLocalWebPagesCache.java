@@ -16,20 +16,29 @@
 
 package com.webpagebytes.cms.local;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import com.webpagebytes.cms.WPBAdminDataStorage;
 import com.webpagebytes.cms.WPBPagesCache;
 import com.webpagebytes.cms.cmsdata.WPBPage;
+import com.webpagebytes.cms.engine.EncodedContent;
+import com.webpagebytes.cms.engine.EncodedContentCache;
+import com.webpagebytes.cms.engine.PageOutputCache;
+import com.webpagebytes.cms.engine.TemplateSourceCache;
 import com.webpagebytes.cms.engine.WPBAdminDataStorageFactory;
 import com.webpagebytes.cms.exception.WPBIOException;
 
-public class WPBLocalWebPagesCache implements WPBPagesCache {
+public class WPBLocalWebPagesCache implements WPBPagesCache, EncodedContentCache, TemplateSourceCache {
 	private WPBAdminDataStorage dataStorage;
 	private Map<String, WPBPage> localCacheByExternalId;
 	private Map<String, WPBPage> localCacheByName;	
+	private Map<String, EncodedContent> encodedByExternalId;
+	private Set<String> templateKeys;
 	private static final Object lock = new Object();
 	public WPBLocalWebPagesCache()
 	{
@@ -54,19 +63,51 @@ public class WPBLocalWebPagesCache implements WPBPagesCache {
 		return null;
 	}
 
+	public EncodedContent getEncodedContent(String externalKey) throws WPBIOException
+	{
+		if (encodedByExternalId != null)
+		{
+			return encodedByExternalId.get(externalKey);
+		}
+		return null;
+	}
+
+	public Set<String> getTemplateSourceKeys() throws WPBIOException
+	{
+		if (templateKeys != null)
+		{
+			return templateKeys;
+		}
+		return Collections.emptySet();
+	}
+
 	public void Refresh() throws WPBIOException {
 		synchronized (lock)
 		{
 			Map<String, WPBPage> tempMapByID = new HashMap<String, WPBPage>();
 			Map<String, WPBPage> tempMapByName = new HashMap<String, WPBPage>();
+			Map<String, EncodedContent> tempEncoded = new HashMap<String, EncodedContent>();
+			Set<String> tempTemplateKeys = new HashSet<String>();
 			List<WPBPage> recList = dataStorage.getAllRecords(WPBPage.class);
 			for(WPBPage item: recList)
 			{
 				tempMapByID.put(item.getExternalKey(), item);
 				tempMapByName.put(item.getName(), item);
+				if (item.getIsTemplateSource() == null || item.getIsTemplateSource() != 1)
+				{
+					// a static page is sent as it is, it is encoded only once
+					tempEncoded.put(item.getExternalKey(), new EncodedContent(item.getHtmlSource(), item.getHash()));
+				} else
+				{
+					tempTemplateKeys.add(item.getExternalKey());
+				}
 			}
 			localCacheByExternalId = tempMapByID;
 			localCacheByName = tempMapByName;
+			encodedByExternalId = tempEncoded;
+			templateKeys = Collections.unmodifiableSet(tempTemplateKeys);
+			// the rendered pages that used the previous content are not valid anymore
+			PageOutputCache.invalidateAll();
 		}
 		
 	}
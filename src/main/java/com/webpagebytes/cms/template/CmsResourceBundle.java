@@ -24,6 +24,7 @@ import java.util.Map;
 import java.util.ResourceBundle;
 
 import com.webpagebytes.cms.WPBMessagesCache;
+import com.webpagebytes.cms.engine.RenderDependencies;
 import com.webpagebytes.cms.exception.WPBIOException;
 
 public class CmsResourceBundle extends ResourceBundle {
@@ -31,12 +32,14 @@ public class CmsResourceBundle extends ResourceBundle {
 	private WPBMessagesCache messageCache;
 	private Long fingerPrint;
 	private Map<String, String> messages;
+	private String lcid;
 	
 	CmsResourceBundle(WPBMessagesCache messageCache, Locale locale)
 	{
 		this.messageCache = messageCache;
 		fingerPrint = 0L;
 		messages = new HashMap<String, String>();
+		lcid = (locale.getCountry().length()>0) ? (locale.getLanguage() + "_" + locale.getCountry()): locale.getLanguage();
 		Refresh(locale);
 	}
 	
@@ -58,11 +61,13 @@ public class CmsResourceBundle extends ResourceBundle {
 	
 	@Override
 	public Enumeration<String> getKeys() {
+		RenderDependencies.record(RenderDependencies.MESSAGES, lcid);
 		return Collections.enumeration(messages.keySet());
 	}
 
 	@Override
 	protected Object handleGetObject(String arg0) {
+		RenderDependencies.record(RenderDependencies.MESSAGES, lcid);
 		return messages.get(arg0);
 	}
 	
@@ -0,0 +1,89 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.template;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Least recently used cache of the base64 data URIs written by FreeMarkerImageDirective for the embedded images.
+ * The key is the file external key and hash so a changed file gets a new entry, the old one ages out.
+ * The cache is bounded by the heap used by the data URIs, not by the number of entries, an entry larger
+ * than the budget is not stored. A String keeps 2 bytes per char, a data URI of n chars counts as 2 * n bytes.
+ */
+class DataUriCache {
+
+public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+private final long maxBytes;
+private long totalBytes;
+private final LinkedHashMap<String, String> dataUris = new LinkedHashMap<String, String>(16, 0.75f, true);
+
+public DataUriCache(long maxBytes)
+{
+	this.maxBytes = maxBytes;
+}
+
+public static String buildKey(String externalKey, Long hash)
+{
+	return externalKey + ":" + hash;
+}
+
+public synchronized String get(String key)
+{
+	return dataUris.get(key);
+}
+
+public synchronized void put(String key, String dataUri)
+{
+	long size = sizeOf(dataUri);
+	if (size > maxBytes)
+	{
+		return;
+	}
+	String previous = dataUris.put(key, dataUri);
+	if (previous != null)
+	{
+		totalBytes -= sizeOf(previous);
+	}
+	totalBytes += size;
+	Iterator<Map.Entry<String, String>> iterator = dataUris.entrySet().iterator();
+	while (totalBytes > maxBytes && iterator.hasNext())
+	{
+		Map.Entry<String, String> eldest = iterator.next();
+		totalBytes -= sizeOf(eldest.getValue());
+		iterator.remove();
+	}
+}
+
+static long sizeOf(String dataUri)
+{
+	return 2L * dataUri.length();
+}
+
+public synchronized long getTotalBytes()
+{
+	return totalBytes;
+}
+
+public synchronized int size()
+{
+	return dataUris.size();
+}
+
+}
@@ -21,7 +21,10 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import com.webpagebytes.cms.WPBArticlesCache;
 import com.webpagebytes.cms.cmsdata.WPBArticle;
+import com.webpagebytes.cms.engine.PageWriter;
+import com.webpagebytes.cms.engine.RenderDependencies;
 import com.webpagebytes.cms.engine.WPBCacheInstances;
 import com.webpagebytes.cms.exception.WPBIOException;
 
@@ -63,12 +66,14 @@ class FreeMarkerArticleDirective implements TemplateDirectiveModel {
     	
         try
         {
-        	WPBArticle article = cacheInstances.getArticleCache().getByExternalKey(articleKeyStr);
+        	RenderDependencies.record(RenderDependencies.ARTICLE, articleKeyStr);
+        	WPBArticlesCache articlesCache = cacheInstances.getArticleCache();
+        	WPBArticle article = articlesCache.getByExternalKey(articleKeyStr);
         	if (article == null)
         	{
         		throw new TemplateModelException("WBFreeMarkerArticleDirective externalKey does not match an existing Article : " + articleKeyStr);       
         	}
-        	env.getOut().write(article.getHtmlSource());
+        	PageWriter.writeContent(env.getOut(), articlesCache, articleKeyStr, article.getHtmlSource());
         	
         } catch (WPBIOException e)
         {
@@ -28,9 +28,13 @@ import org.apache.commons.io.IOUtils;
 import com.webpagebytes.cms.WPBFilePath;
 import com.webpagebytes.cms.WPBFileStorage;
 import com.webpagebytes.cms.cmsdata.WPBFile;
+import com.webpagebytes.cms.engine.RenderDependencies;
 import com.webpagebytes.cms.engine.WPBCacheInstances;
 import com.webpagebytes.cms.exception.WPBIOException;
 import com.webpagebytes.cms.utility.CmsBase64Utility;
+import com.webpagebytes.cms.utility.CmsConfiguration;
+import com.webpagebytes.cms.utility.CmsConfigurationFactory;
+import com.webpagebytes.cms.utility.CmsConfiguration.WPBSECTION;
 
 import freemarker.core.Environment;
 import freemarker.template.TemplateDirectiveBody;
@@ -44,6 +48,11 @@ class FreeMarkerImageDirective implements TemplateDirectiveModel {
 	private static final Logger log = Logger.getLogger(FreeMarkerModuleDirective.class.getName());
 	WPBCacheInstances cacheInstances;
 	WPBFileStorage cloudFileStorage;
+	// the images up to this size are embedded when the directive has embedded="auto"
+	long autoEmbedMaxSize = DEFAULT_AUTO_EMBED_MAX_SIZE;
+	DataUriCache dataUriCache = new DataUriCache(DataUriCache.DEFAULT_MAX_BYTES);
+	
+	public static final long DEFAULT_AUTO_EMBED_MAX_SIZE = 2048;
 	
 	public FreeMarkerImageDirective()
 	{
@@ -53,6 +62,29 @@ class FreeMarkerImageDirective implements TemplateDirectiveModel {
 	{
 		this.cacheInstances = cacheInstances;
 		this.cloudFileStorage = cloudFileStorage;
+		
+		CmsConfiguration configuration = CmsConfigurationFactory.getConfiguration();
+		Map<String, String> generalParams = (configuration != null) ? configuration.getSectionParams(WPBSECTION.SECTION_GENERAL) : null;
+		if (generalParams != null && generalParams.containsKey("image_auto_embed_max_size"))
+		{
+			try
+			{
+				autoEmbedMaxSize = Long.valueOf(generalParams.get("image_auto_embed_max_size"));
+			} catch (NumberFormatException e)
+			{
+				autoEmbedMaxSize = DEFAULT_AUTO_EMBED_MAX_SIZE;
+			}
+		}
+		if (generalParams != null && generalParams.containsKey("image_embed_cache_bytes"))
+		{
+			try
+			{
+				dataUriCache = new DataUriCache(Long.valueOf(generalParams.get("image_embed_cache_bytes")));
+			} catch (NumberFormatException e)
+			{
+				dataUriCache = new DataUriCache(DataUriCache.DEFAULT_MAX_BYTES);
+			}
+		}
 	}
 	
     public void execute(Environment env,
@@ -73,20 +105,28 @@ class FreeMarkerImageDirective implements TemplateDirectiveModel {
     	}
     	
     	boolean embedded = false;
+    	boolean autoEmbedded = false;
     	if (params.containsKey("embedded"))
     	{
     		String embeddedStr = (String) DeepUnwrap.unwrap((TemplateModel) params.get("embedded"));
     		embedded = embeddedStr.toLowerCase().equals("true");
+    		autoEmbedded = embeddedStr.toLowerCase().equals("auto");
     	}
         try
         {
         	String serveUrl = "";
+        	RenderDependencies.record(RenderDependencies.FILE, externalKey);
         	WPBFile file = cacheInstances.getFilesCache().getByExternalKey(externalKey);
         	if (file == null)
         	{
         		log.log(Level.WARNING, "cannot find iamge with key" + externalKey);
         		return;
         	}
+        	if (autoEmbedded)
+        	{
+        		// the size known by the files cache decides, the small images save a request
+        		embedded = file.getSize() != null && file.getSize() <= autoEmbedMaxSize;
+        	}
         	WPBFilePath cloudFile = new WPBFilePath("public", file.getBlobKey());
         	if (! embedded)
         	{
@@ -94,16 +134,23 @@ class FreeMarkerImageDirective implements TemplateDirectiveModel {
         		env.getOut().write(serveUrl);
         	} else
         	{
-        		
+        		String dataUriKey = DataUriCache.buildKey(externalKey, file.getHash());
+        		String cachedImage = dataUriCache.get(dataUriKey);
+        		if (cachedImage != null)
+        		{
+        			env.getOut().write(cachedImage);
+        			return;
+        		}
         		InputStream is = null;
         		ByteArrayOutputStream baos = null;
         		try
         		{
 	        		is = cloudFileStorage.getFileContent(cloudFile);
-	        		baos = new ByteArrayOutputStream(4046);
+	        		baos = new ByteArrayOutputStream((file.getSize() != null) ? file.getSize().intValue() : 4046);
 	        		IOUtils.copy(is, baos);
 	        		String base64 = CmsBase64Utility.toBase64(baos.toByteArray());
-	        		String htmlImage = String.format("data:%s;base64,%s", file.getAdjustedContentType(), base64);
+	        		String htmlImage = "data:" + file.getAdjustedContentType() + ";base64," + base64;
+	        		dataUriCache.put(dataUriKey, htmlImage);
 	        		env.getOut().write(htmlImage);
         		} catch (IOException e)
         		{
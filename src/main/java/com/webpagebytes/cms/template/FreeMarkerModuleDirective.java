@@ -17,13 +17,22 @@
 package com.webpagebytes.cms.template;
 
 import java.io.IOException;
+import java.io.StringWriter;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Logger;
 
+import com.webpagebytes.cms.WPBPageModulesCache;
 import com.webpagebytes.cms.cmsdata.WPBPageModule;
+import com.webpagebytes.cms.engine.PageOutputCache;
+import com.webpagebytes.cms.engine.PageWriter;
+import com.webpagebytes.cms.engine.RenderDependencies;
 import com.webpagebytes.cms.engine.WPBCacheInstances;
 import com.webpagebytes.cms.exception.WPBException;
 import com.webpagebytes.cms.exception.WPBTemplateException;
+import com.webpagebytes.cms.utility.CmsConfiguration;
+import com.webpagebytes.cms.utility.CmsConfigurationFactory;
+import com.webpagebytes.cms.utility.CmsConfiguration.WPBSECTION;
 
 import freemarker.core.Environment;
 import freemarker.template.TemplateDirectiveBody;
@@ -36,6 +45,7 @@ public class FreeMarkerModuleDirective extends FreeMarkerDirectiveBase {
 	private static final Logger log = Logger.getLogger(FreeMarkerModuleDirective.class.getName());
 	WPBTemplateEngine templateEngine;
 	WPBCacheInstances cacheInstances;
+	ModuleFragmentCache fragmentCache; // null if the rendered modules are not cached
 	
 	public FreeMarkerModuleDirective()
 	{
@@ -45,6 +55,21 @@ public class FreeMarkerModuleDirective extends FreeMarkerDirectiveBase {
 	{
 		this.templateEngine = engine;
 		this.cacheInstances = cacheInstances;
+		
+		int fragmentCacheSize = ModuleFragmentCache.DEFAULT_SIZE;
+		CmsConfiguration configuration = CmsConfigurationFactory.getConfiguration();
+		Map<String, String> generalParams = (configuration != null) ? configuration.getSectionParams(WPBSECTION.SECTION_GENERAL) : null;
+		if (generalParams != null && generalParams.containsKey("module_fragment_cache_size"))
+		{
+			try
+			{
+				fragmentCacheSize = Integer.valueOf(generalParams.get("module_fragment_cache_size"));
+			} catch (NumberFormatException e)
+			{
+				fragmentCacheSize = ModuleFragmentCache.DEFAULT_SIZE;
+			}
+		}
+		fragmentCache = (fragmentCacheSize > 0) ? new ModuleFragmentCache(fragmentCacheSize) : null;
 	}
 	
     public void execute(Environment env,
@@ -55,8 +80,6 @@ public class FreeMarkerModuleDirective extends FreeMarkerDirectiveBase {
         // Check if no parameters were given:
     	if (body != null) throw new TemplateModelException("WBFreeMarkerModuleDirective does not suport directive body");
         
-    	copyParams(env, params);
-    	
     	String externalKey = null;
     	if (params.containsKey("externalKey"))
     	{
@@ -66,18 +89,39 @@ public class FreeMarkerModuleDirective extends FreeMarkerDirectiveBase {
     	
         try
         {
-        	WPBPageModule pageModule = cacheInstances.getPageModuleCache().getByExternalKey(externalKey);
+        	RenderDependencies.record(RenderDependencies.MODULE, externalKey);
+        	WPBPageModulesCache pageModulesCache = cacheInstances.getPageModuleCache();
+        	WPBPageModule pageModule = pageModulesCache.getByExternalKey(externalKey);
         	if (pageModule == null)
         	{
         		throw new TemplateModelException("WBFreeMarkerModuleDirective directive name does not match any existing page module: " + externalKey);       
         	}
         	if (pageModule.getIsTemplateSource() == 1)
         	{
+        		String fragmentKey = null;
+        		if (fragmentCache != null && fragmentCache.isCacheable(pageModule, cacheInstances.getParameterCache()))
+        		{
+        			fragmentKey = fragmentCache.buildKey(pageModule, params, env);
+        		}
+        		ModuleFragmentCache.Fragment fragment = (fragmentKey != null) ? fragmentCache.get(fragmentKey) : null;
+        		if (fragment != null)
+        		{
+        			RenderDependencies.recordAll(fragment.getDependencies());
+        			env.getOut().write(fragment.getContent());
+        			return;
+        		}
+        		copyParams(env, params);
         		String moduleName = WPBTemplateEngine.WEBMODULES_PATH_PREFIX + pageModule.getExternalKey();
-        	    templateEngine.process(moduleName, params, env.getOut());        	 
+        		if (fragmentKey == null)
+        		{
+        			templateEngine.process(moduleName, params, env.getOut());
+        		} else
+        		{
+        			renderFragment(fragmentKey, moduleName, params, env);
+        		}
         	} else
         	{
-        		env.getOut().write(pageModule.getHtmlSource());
+        		PageWriter.writeContent(env.getOut(), pageModulesCache, externalKey, pageModule.getHtmlSource());
         	}
         } 
         catch (WPBTemplateException e)
@@ -93,5 +137,29 @@ public class FreeMarkerModuleDirective extends FreeMarkerDirectiveBase {
         }
     }
 
+    /*
+     * Renders the module in memory and stores it in the fragment cache, the dependencies of the module
+     * are recorded apart to be kept with the fragment and then added to the ones of the page
+     */
+    private void renderFragment(String fragmentKey, String moduleName, Map params, Environment env) throws WPBException, IOException
+    {
+    	long version = PageOutputCache.getVersion();
+    	Set<String> pageDependencies = RenderDependencies.stop();
+    	RenderDependencies.start();
+    	Set<String> moduleDependencies = null;
+    	StringWriter out = new StringWriter();
+    	try
+    	{
+    		templateEngine.process(moduleName, params, out);
+    	} finally
+    	{
+    		moduleDependencies = RenderDependencies.stop();
+    		RenderDependencies.resume(pageDependencies);
+    	}
+    	RenderDependencies.recordAll(moduleDependencies);
+    	String content = out.toString();
+    	fragmentCache.put(fragmentKey, new ModuleFragmentCache.Fragment(content, version, moduleDependencies));
+    	env.getOut().write(content);
+    }
 	   
 }
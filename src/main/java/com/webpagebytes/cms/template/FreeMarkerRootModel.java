@@ -0,0 +1,105 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.template;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import freemarker.ext.beans.BeansWrapper;
+import freemarker.ext.beans.SimpleMapModel;
+import freemarker.template.SimpleCollection;
+import freemarker.template.TemplateCollectionModel;
+import freemarker.template.TemplateHashModelEx;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+
+/*
+ * Read only view of the root map of a render that FreeMarker uses as data model.
+ * The values are wrapped with the shared object wrapper only when a template reads them, the map values
+ * are wrapped as SimpleMapModel so they are not copied. The root map is not changed.
+ * It is a TemplateHashModelEx as the SimpleHash FreeMarker made of the root map, so .data_model?keys and ?values work.
+ * An instance belongs to one render, it is not thread safe.
+ */
+class FreeMarkerRootModel implements TemplateHashModelEx {
+
+private final Map<String, Object> root;
+private final BeansWrapper wrapper;
+// the values wrapped so far, created on the first read
+private Map<String, TemplateModel> wrapped;
+
+public FreeMarkerRootModel(Map<String, Object> root, BeansWrapper wrapper)
+{
+	this.root = root;
+	this.wrapper = wrapper;
+}
+
+public TemplateModel get(String key) throws TemplateModelException
+{
+	TemplateModel model = (wrapped != null) ? wrapped.get(key) : null;
+	if (model != null)
+	{
+		return model;
+	}
+	Object value = root.get(key);
+	if (value == null)
+	{
+		return null;
+	}
+	if (value instanceof TemplateModel)
+	{
+		return (TemplateModel) value;
+	}
+	model = (value instanceof Map) ? new SimpleMapModel((Map) value, wrapper) : wrapper.wrap(value);
+	if (wrapped == null)
+	{
+		wrapped = new HashMap<String, TemplateModel>();
+	}
+	wrapped.put(key, model);
+	return model;
+}
+
+public boolean isEmpty() throws TemplateModelException
+{
+	return root.isEmpty();
+}
+
+public int size() throws TemplateModelException
+{
+	return root.size();
+}
+
+public TemplateCollectionModel keys() throws TemplateModelException
+{
+	return new SimpleCollection(new ArrayList<String>(root.keySet()), wrapper);
+}
+
+/*
+ * The values in the order of keys, wrapped as get wraps them
+ */
+public TemplateCollectionModel values() throws TemplateModelException
+{
+	List<TemplateModel> values = new ArrayList<TemplateModel>();
+	for(String key: new ArrayList<String>(root.keySet()))
+	{
+		values.add(get(key));
+	}
+	return new SimpleCollection(values, wrapper);
+}
+
+}
@@ -17,6 +17,8 @@ package com.webpagebytes.cms.template;
 
 import java.io.IOException;
 import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -26,11 +28,14 @@ import com.webpagebytes.cms.WPBUrisCache;
 import com.webpagebytes.cms.cmsdata.WPBFile;
 import com.webpagebytes.cms.cmsdata.WPBPage;
 import com.webpagebytes.cms.cmsdata.WPBUri;
+import com.webpagebytes.cms.engine.PageOutputCache;
+import com.webpagebytes.cms.engine.RenderDependencies;
 import com.webpagebytes.cms.engine.WPBCacheInstances;
 import com.webpagebytes.cms.exception.WPBIOException;
 import com.webpagebytes.cms.utility.CmsConfiguration;
 import com.webpagebytes.cms.utility.CmsConfigurationFactory;
 import com.webpagebytes.cms.utility.CmsConfiguration.WPBSECTION;
+import com.webpagebytes.cms.utility.ConcurrentLRUCache;
 
 import freemarker.core.Environment;
 import freemarker.template.TemplateDirectiveBody;
@@ -45,6 +50,38 @@ public class FreeMarkerUriDirective implements TemplateDirectiveModel {
     WPBTemplateEngine templateEngine;
     WPBCacheInstances cacheInstances;
     String cache_query_param = WPBPublicContentServlet.CACHE_QUERY_PARAM;
+    private volatile LinksSnapshot links;
+    
+    private static final int LINKS_CACHE_SIZE = 4096;
+    
+    /*
+     * The final url of a link and the records it was built from, recorded again each time the link is used
+     */
+    private static class Link
+    {
+        final String url;
+        final List<String> dependencies;
+        Link(String url, List<String> dependencies)
+        {
+            this.url = url;
+            this.dependencies = dependencies;
+        }
+    }
+    
+    /*
+     * The links built since the last change of the content, a change starts a new snapshot
+     */
+    private static class LinksSnapshot
+    {
+        final long version;
+        final Long fingerPrint;
+        final ConcurrentLRUCache<String, Link> links = new ConcurrentLRUCache<String, Link>(LINKS_CACHE_SIZE);
+        LinksSnapshot(long version, Long fingerPrint)
+        {
+            this.version = version;
+            this.fingerPrint = fingerPrint;
+        }
+    }
     
     public void initialize(WPBTemplateEngine engine, WPBCacheInstances cacheInstances)
     {
@@ -65,13 +102,6 @@ public class FreeMarkerUriDirective implements TemplateDirectiveModel {
             TemplateDirectiveBody body)
             throws TemplateException, IOException 
     {
-        String bodyStr = null;
-        if (body != null)
-        {
-            StringWriter strWriter = new StringWriter();
-            body.render(strWriter);
-            bodyStr = strWriter.toString();
-        }
         String uriPattern = null;
         if (params.containsKey("uriPattern"))
         {
@@ -95,47 +125,30 @@ public class FreeMarkerUriDirective implements TemplateDirectiveModel {
             uriFile = (String) DeepUnwrap.unwrap((TemplateModel) params.get("uriFile"));
         }
         
-        
         try
         {
-            WPBUri wpbUri = cacheInstances.getUriCache().get(uriPattern, WPBUrisCache.HTTP_GET_INDEX);
-            if (wpbUri == null)
+            WPBUrisCache urisCache = cacheInstances.getUriCache();
+            // the links are valid until the uris, pages or files change
+            long version = PageOutputCache.getVersion();
+            Long fingerPrint = urisCache.getCacheFingerPrint();
+            LinksSnapshot snapshot = links;
+            if (snapshot == null || snapshot.version != version || !equalFingerPrints(snapshot.fingerPrint, fingerPrint))
             {
-                log.log(Level.WARNING, "FreeMarkerUriDirective could not found WPBUri for " + uriPattern);      
+                snapshot = new LinksSnapshot(version, fingerPrint);
+                links = snapshot;
             }
-            if (wpbUri.getResourceType() == WPBUri.RESOURCE_TYPE_TEXT)
+            String linkKey = uriPattern + "\u0001" + uri + "\u0001" + uriFile;
+            Link link = snapshot.links.get(linkKey);
+            if (link == null)
             {
-                WPBPage page = cacheInstances.getPageCache().getByExternalKey(wpbUri.getResourceExternalKey());
-                if (page != null && (page.getIsTemplateSource() == null || page.getIsTemplateSource() == 0))
-                {
-                    if (uri.indexOf("&")>0)
-                    {
-                        uri = uri.concat("&");
-                    } else
-                    {
-                        uri = uri.concat("?");
-                    }
-                    uri = uri.concat(cache_query_param).concat("=").concat(page.getHash().toString());
-                }
+                link = buildLink(uriPattern, uri, uriFile);
+                snapshot.links.put(linkKey, link);
             }
-
-            if (wpbUri.getResourceType() == WPBUri.RESOURCE_TYPE_FILE)
+            for(String dependency: link.dependencies)
             {
-                WPBFile file = cacheInstances.getFilesCache().geByPath(uriFile);
-                if (file != null && (file.getDirectoryFlag()!=1))
-                {
-                    if (uri.indexOf("&")>0)
-                    {
-                        uri = uri.concat("&");
-                    } else
-                    {
-                        uri = uri.concat("?");
-                    }
-                    uri = uri.concat(cache_query_param).concat("=").concat(file.getHash().toString());
-                }
+                RenderDependencies.recordDependency(dependency);
             }
-
-            env.getOut().write(uri);
+            env.getOut().write(link.url);
             
         } catch (WPBIOException e)
         {
@@ -144,4 +157,57 @@ public class FreeMarkerUriDirective implements TemplateDirectiveModel {
         }
     }
     
+    private static boolean equalFingerPrints(Long fingerPrint1, Long fingerPrint2)
+    {
+        return (fingerPrint1 == null) ? fingerPrint2 == null : fingerPrint1.equals(fingerPrint2);
+    }
+    
+    /*
+     * Adds the cache query parameter with the hash of the page or of the file to the uri
+     */
+    private Link buildLink(String uriPattern, String uri, String uriFile) throws WPBIOException
+    {
+        List<String> dependencies = new ArrayList<String>();
+        WPBUri wpbUri = cacheInstances.getUriCache().get(uriPattern, WPBUrisCache.HTTP_GET_INDEX);
+        if (wpbUri == null)
+        {
+            log.log(Level.WARNING, "FreeMarkerUriDirective could not found WPBUri for " + uriPattern);      
+        }
+        dependencies.add(RenderDependencies.dependency(RenderDependencies.URI, wpbUri.getExternalKey()));
+        if (wpbUri.getResourceType() == WPBUri.RESOURCE_TYPE_TEXT)
+        {
+            dependencies.add(RenderDependencies.dependency(RenderDependencies.PAGE, wpbUri.getResourceExternalKey()));
+            WPBPage page = cacheInstances.getPageCache().getByExternalKey(wpbUri.getResourceExternalKey());
+            if (page != null && (page.getIsTemplateSource() == null || page.getIsTemplateSource() == 0))
+            {
+                if (uri.indexOf("&")>0)
+                {
+                    uri = uri.concat("&");
+                } else
+                {
+                    uri = uri.concat("?");
+                }
+                uri = uri.concat(cache_query_param).concat("=").concat(page.getHash().toString());
+            }
+        }
+
+        if (wpbUri.getResourceType() == WPBUri.RESOURCE_TYPE_FILE)
+        {
+            WPBFile file = cacheInstances.getFilesCache().geByPath(uriFile);
+            if (file != null && (file.getDirectoryFlag()!=1))
+            {
+                dependencies.add(RenderDependencies.dependency(RenderDependencies.FILE, file.getExternalKey()));
+                if (uri.indexOf("&")>0)
+                {
+                    uri = uri.concat("&");
+                } else
+                {
+                    uri = uri.concat("?");
+                }
+                uri = uri.concat(cache_query_param).concat("=").concat(file.getHash().toString());
+            }
+        }
+        return new Link(uri, dependencies);
+    }
+    
 }
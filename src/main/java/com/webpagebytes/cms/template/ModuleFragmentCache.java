@@ -0,0 +1,160 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.template;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import com.webpagebytes.cms.WPBModel;
+import com.webpagebytes.cms.WPBParametersCache;
+import com.webpagebytes.cms.cmsdata.WPBPageModule;
+import com.webpagebytes.cms.cmsdata.WPBParameter;
+import com.webpagebytes.cms.engine.PageOutputCache;
+import com.webpagebytes.cms.exception.WPBIOException;
+import com.webpagebytes.cms.utility.ConcurrentLRUCache;
+
+import freemarker.core.Environment;
+import freemarker.template.TemplateHashModel;
+import freemarker.template.TemplateModel;
+import freemarker.template.TemplateModelException;
+import freemarker.template.utility.DeepUnwrap;
+
+/*
+ * Cache of the rendered template modules, used by FreeMarkerModuleDirective so a header or a footer
+ * included by many pages is rendered once.
+ *
+ * A module opts in with a parameter named WPB_FRAGMENT_CACHE with the value 1 owned by the module.
+ * The key is made of the module external key and lastModified, the directive parameter values and the locale,
+ * a module that uses anything else from the page model (page or uri parameters, the request) must not opt in.
+ * A fragment rendered before the last content change (see PageOutputCache.getVersion) is not used,
+ * the RenderDependencies recorded while the module was rendered are kept with the fragment and recorded again on a hit.
+ */
+class ModuleFragmentCache {
+
+public static final String FRAGMENT_CACHE_PARAMETER = "WPB_FRAGMENT_CACHE";
+public static final int DEFAULT_SIZE = 256;
+
+static class Fragment
+{
+	private final String content;
+	private final long version;
+	private final Set<String> dependencies;
+
+	Fragment(String content, long version, Set<String> dependencies)
+	{
+		this.content = content;
+		this.version = version;
+		this.dependencies = (dependencies != null) ? dependencies : Collections.<String>emptySet();
+	}
+	public String getContent() {
+		return content;
+	}
+	public long getVersion() {
+		return version;
+	}
+	public Set<String> getDependencies() {
+		return dependencies;
+	}
+}
+
+private final ConcurrentLRUCache<String, Fragment> fragments;
+
+public ModuleFragmentCache(int maxSize)
+{
+	fragments = new ConcurrentLRUCache<String, Fragment>(maxSize);
+}
+
+public boolean isCacheable(WPBPageModule module, WPBParametersCache parametersCache) throws WPBIOException
+{
+	List<WPBParameter> moduleParams = parametersCache.getAllForOwner(module.getExternalKey());
+	if (moduleParams != null)
+	{
+		for(WPBParameter param: moduleParams)
+		{
+			if (FRAGMENT_CACHE_PARAMETER.equals(param.getName()))
+			{
+				return "1".equals(param.getValue());
+			}
+		}
+	}
+	return false;
+}
+
+/*
+ * Builds the fragment key from the directive parameters, params must not contain yet the model copied by copyParams.
+ * Returns null if a parameter value is not a scalar, such a module call is not cached.
+ */
+public String buildKey(WPBPageModule module, Map params, Environment env) throws TemplateModelException
+{
+	StringBuilder key = new StringBuilder();
+	Date lastModified = module.getLastModified();
+	key.append(module.getExternalKey()).append('|').append((lastModified != null) ? lastModified.getTime() : 0);
+
+	TemplateHashModel dataModel = env.getDataModel();
+	key.append('|').append(unwrapScalar(dataModel.get(WPBModel.LOCALE_LANGUAGE_KEY)));
+	key.append('_').append(unwrapScalar(dataModel.get(WPBModel.LOCALE_COUNTRY_KEY)));
+
+	Map<String, Object> sortedParams = new TreeMap<String, Object>();
+	for(Object entry: params.entrySet())
+	{
+		Map.Entry paramEntry = (Map.Entry) entry;
+		Object value = DeepUnwrap.unwrap((TemplateModel) paramEntry.getValue());
+		if (value != null && !(value instanceof String || value instanceof Number || value instanceof Boolean))
+		{
+			return null;
+		}
+		sortedParams.put(paramEntry.getKey().toString(), value);
+	}
+	for(Map.Entry<String, Object> entry: sortedParams.entrySet())
+	{
+		key.append('\u0001').append(entry.getKey()).append('=').append(entry.getValue());
+	}
+	return key.toString();
+}
+
+private Object unwrapScalar(TemplateModel model) throws TemplateModelException
+{
+	return (model != null) ? DeepUnwrap.unwrap(model) : "";
+}
+
+/*
+ * Returns null if there is no fragment or if the content changed after the fragment was rendered
+ */
+public Fragment get(String key)
+{
+	Fragment fragment = fragments.get(key);
+	if (fragment != null && fragment.getVersion() != PageOutputCache.getVersion())
+	{
+		fragments.remove(key);
+		return null;
+	}
+	return fragment;
+}
+
+public void put(String key, Fragment fragment)
+{
+	if (fragment.getVersion() == PageOutputCache.getVersion())
+	{
+		fragments.put(key, fragment);
+	}
+}
+
+}
@@ -0,0 +1,286 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.template;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.webpagebytes.cms.engine.TemplateSourceCache;
+import com.webpagebytes.cms.engine.WPBCacheInstances;
+import com.webpagebytes.cms.exception.WPBIOException;
+
+import freemarker.template.Configuration;
+
+/*
+ * Parses the page and module templates before they are requested so the first render of a page does not pay
+ * the FreeMarker parse cost. It runs when the public servlet starts and after a project import.
+ *
+ * The template names are taken from the pages and modules caches (see TemplateSourceCache) and each template
+ * is loaded with Configuration.getTemplate on a bounded pool of threads, FreeMarker keeps the parsed templates
+ * in its own template cache. The timings and the parse failures of the last warm up are kept in a Report
+ * that the admin interface reads with getLastReport.
+ */
+public class TemplateWarmUp {
+
+private static final Logger log = Logger.getLogger(TemplateWarmUp.class.getName());
+public static final int DEFAULT_THREADS = 4;
+
+// the warm ups of all the template engines, startAll runs them after a project import
+private static final List<TemplateWarmUp> instances = new CopyOnWriteArrayList<TemplateWarmUp>();
+private static volatile Report lastReport;
+
+public static class Report
+{
+	private final long startTime;
+	private final long duration;
+	private final Map<String, Long> timings;
+	private final Map<String, String> failures;
+
+	Report(long startTime, long duration, Map<String, Long> timings, Map<String, String> failures)
+	{
+		this.startTime = startTime;
+		this.duration = duration;
+		this.timings = Collections.unmodifiableMap(timings);
+		this.failures = Collections.unmodifiableMap(failures);
+	}
+	public long getStartTime() {
+		return startTime;
+	}
+	// the wall clock time of the warm up in milliseconds
+	public long getDuration() {
+		return duration;
+	}
+	// the load time in milliseconds of each template, by template name
+	public Map<String, Long> getTimings() {
+		return timings;
+	}
+	// the error message of each template that could not be parsed, by template name
+	public Map<String, String> getFailures() {
+		return failures;
+	}
+}
+
+private final Configuration configuration;
+private final WPBCacheInstances cacheInstances;
+private final int threads;
+// guarded by this, a start while a warm up runs asks for another run, for example after a project import
+private boolean running;
+private boolean rerun;
+
+public TemplateWarmUp(Configuration configuration, WPBCacheInstances cacheInstances, int threads)
+{
+	this.configuration = configuration;
+	this.cacheInstances = cacheInstances;
+	this.threads = Math.max(1, threads);
+	instances.add(this);
+}
+
+/*
+ * Removes this warm up from the ones started by startAll, a warm up already running completes
+ */
+public void unregister()
+{
+	instances.remove(this);
+}
+
+/*
+ * Starts in background the warm up of all the template engines
+ */
+public static void startAll()
+{
+	for(TemplateWarmUp instance: instances)
+	{
+		instance.start();
+	}
+}
+
+/*
+ * Returns null if no warm up completed yet
+ */
+public static Report getLastReport()
+{
+	return lastReport;
+}
+
+public static boolean isAnyRunning()
+{
+	for(TemplateWarmUp instance: instances)
+	{
+		if (instance.isRunning())
+		{
+			return true;
+		}
+	}
+	return false;
+}
+
+/*
+ * Starts the warm up in a background thread. Returns false if a warm up of this engine is already running,
+ * the running warm up then runs again when it ends so the templates changed meanwhile are also loaded.
+ */
+public synchronized boolean start()
+{
+	if (running)
+	{
+		rerun = true;
+		return false;
+	}
+	running = true;
+	Thread thread = new Thread(new Runnable() {
+		public void run()
+		{
+			boolean again = true;
+			while (again)
+			{
+				try
+				{
+					runWarmUp();
+				} catch (RuntimeException e)
+				{
+					log.log(Level.WARNING, "Template warm up failed", e);
+				}
+				again = endRun();
+			}
+		}
+	}, "wpb-template-warmup");
+	thread.setDaemon(true);
+	thread.start();
+	return true;
+}
+
+public synchronized boolean isRunning()
+{
+	return running;
+}
+
+/*
+ * Returns true if the warm up has to run again
+ */
+private synchronized boolean endRun()
+{
+	boolean again = rerun;
+	rerun = false;
+	running = again;
+	return again;
+}
+
+List<String> getTemplateNames() throws WPBIOException
+{
+	List<String> names = new ArrayList<String>();
+	addTemplateNames(cacheInstances.getPageCache(), WPBTemplateEngine.WEBPAGES_PATH_PREFIX, names);
+	addTemplateNames(cacheInstances.getPageModuleCache(), WPBTemplateEngine.WEBMODULES_PATH_PREFIX, names);
+	return names;
+}
+
+private void addTemplateNames(Object cache, String prefix, List<String> names) throws WPBIOException
+{
+	if (cache instanceof TemplateSourceCache)
+	{
+		Set<String> keys = ((TemplateSourceCache) cache).getTemplateSourceKeys();
+		for(String key: keys)
+		{
+			names.add(prefix + key);
+		}
+	}
+}
+
+/*
+ * Loads all the templates and waits for them, the report is also kept as the last report
+ */
+Report runWarmUp()
+{
+	long startTime = System.currentTimeMillis();
+	final Map<String, Long> timings = Collections.synchronizedMap(new TreeMap<String, Long>());
+	final Map<String, String> failures = Collections.synchronizedMap(new TreeMap<String, String>());
+	List<String> names;
+	try
+	{
+		names = getTemplateNames();
+	} catch (WPBIOException e)
+	{
+		log.log(Level.WARNING, "Template warm up cannot read the templates", e);
+		names = Collections.emptyList();
+	}
+	if (names.size() > 0)
+	{
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(names.size());
+		for(final String name: names)
+		{
+			tasks.add(new Callable<Object>() {
+				public Object call()
+				{
+					long start = System.nanoTime();
+					try
+					{
+						configuration.getTemplate(name);
+					} catch (IOException e)
+					{
+						// freemarker.core.ParseException is an IOException
+						failures.put(name, String.valueOf(e.getMessage()));
+					} catch (RuntimeException e)
+					{
+						failures.put(name, e.toString());
+					}
+					timings.put(name, (System.nanoTime() - start) / 1000000L);
+					return null;
+				}
+			});
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, names.size()), new ThreadFactory() {
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "wpb-template-warmup-worker");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try
+		{
+			executor.invokeAll(tasks);
+		} catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		} finally
+		{
+			executor.shutdownNow();
+		}
+	}
+	Report report = new Report(startTime, System.currentTimeMillis() - startTime, 
+			new TreeMap<String, Long>(timings), new TreeMap<String, String>(failures));
+	lastReport = report;
+	log.log(Level.INFO, "Template warm up loaded {0} templates in {1} ms, {2} failed", 
+			new Object[] {names.size(), report.getDuration(), report.getFailures().size()});
+	for(Map.Entry<String, String> failure: report.getFailures().entrySet())
+	{
+		log.log(Level.WARNING, "Template warm up cannot parse {0}: {1}", new Object[] {failure.getKey(), failure.getValue()});
+	}
+	return report;
+}
+
+}
@@ -0,0 +1,35 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.template;
+
+/*
+ * Implemented by the template engines that can parse their templates before the first request, see TemplateWarmUp.
+ * PageContentBuilder checks for it, an engine that does not implement it is not warmed up.
+ */
+public interface TemplateWarmUpSupport {
+
+/*
+ * Starts in background the parsing of all the page and module templates
+ */
+public void warmUp();
+
+/*
+ * Removes the engine from the warm ups started by TemplateWarmUp.startAll, called when the engine is no longer used
+ */
+public void stopWarmUp();
+
+}
@@ -21,35 +21,62 @@ import java.io.IOException;
 import java.io.Writer;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.webpagebytes.cms.WPBFileStorage;
+import com.webpagebytes.cms.WPBMessagesCache;
 import com.webpagebytes.cms.WPBModel;
+import com.webpagebytes.cms.engine.AccessLog;
 import com.webpagebytes.cms.engine.WPBCacheInstances;
 import com.webpagebytes.cms.engine.WPBFileStorageFactory;
 import com.webpagebytes.cms.exception.WPBException;
 import com.webpagebytes.cms.exception.WPBIOException;
 import com.webpagebytes.cms.exception.WPBTemplateException;
+import com.webpagebytes.cms.utility.CmsConfiguration;
+import com.webpagebytes.cms.utility.CmsConfigurationFactory;
+import com.webpagebytes.cms.utility.CmsConfiguration.WPBSECTION;
 
 import freemarker.core.Environment;
 import freemarker.core.ParseException;
 import freemarker.ext.beans.ResourceBundleModel;
-import freemarker.ext.beans.SimpleMapModel;
 import freemarker.template.Configuration;
 import freemarker.template.DefaultObjectWrapper;
 import freemarker.template.Template;
 import freemarker.template.TemplateException;
-import freemarker.template.TemplateHashModel;
 
-public class WPBFreeMarkerTemplateEngine implements WPBTemplateEngine {
+public class WPBFreeMarkerTemplateEngine implements WPBTemplateEngine, TemplateWarmUpSupport {
 	private static final Logger log = Logger.getLogger(WPBFreeMarkerTemplateEngine.class.getName());
 	private FreeMarkerResourcesFactory wbFreeMarkerFactory;
 	private Configuration configuration;
 	private FreeMarkerTemplateLoader templateLoader;
 	private WPBCacheInstances cacheInstances;
 	private WPBFileStorage cloudFileStorage;
+	private TemplateWarmUp templateWarmUp; // null if the warm up is disabled
+	// the object wrapper is thread safe, it is shared by all the renders
+	private final DefaultObjectWrapper objectWrapper = new DefaultObjectWrapper();
+	// the messages model of each locale, replaced when the messages fingerprint of the locale changes
+	private final ConcurrentHashMap<String, LocaleMessages> localeMessages = new ConcurrentHashMap<String, LocaleMessages>();
+	
+	private static class LocaleMessages
+	{
+		final Locale locale;
+		final Long fingerPrint;
+		final ResourceBundleModel model;
+		
+		LocaleMessages(Locale locale, Long fingerPrint, ResourceBundleModel model)
+		{
+			this.locale = locale;
+			this.fingerPrint = fingerPrint;
+			this.model = model;
+		}
+		// a 0 fingerprint means the messages are not loaded, the bundle is not kept
+		boolean isCurrent(Long currentFingerPrint)
+		{
+			return fingerPrint != null && fingerPrint != 0L && fingerPrint.equals(currentFingerPrint);
+		}
+	}
 	
 	public WPBFreeMarkerTemplateEngine(WPBCacheInstances cacheInstances)
 	{
@@ -64,6 +91,9 @@ public class WPBFreeMarkerTemplateEngine implements WPBTemplateEngine {
 		configuration = wbFreeMarkerFactory.createConfiguration();
 		configuration.setDefaultEncoding("UTF-8");
 		configuration.setOutputEncoding("UTF-8");
+		configuration.setObjectWrapper(objectWrapper);
+		// the format method has no state, one instance serves all the renders
+		configuration.setSharedVariable(WPBModel.FORMAT_TEXT_METHOD, new FreeMarkerTextFormatMethod());
 		templateLoader = wbFreeMarkerFactory.createWBFreeMarkerTemplateLoader(cacheInstances);
  
 		cloudFileStorage = WPBFileStorageFactory.getInstance();
@@ -86,59 +116,79 @@ public class WPBFreeMarkerTemplateEngine implements WPBTemplateEngine {
 		FreeMarkerUriDirective uriDirective = wbFreeMarkerFactory.createFreeMarkerUriDirective();
 		uriDirective.initialize(this, cacheInstances);
 		configuration.setSharedVariable(WPBModel.URI_DIRECTIVE, uriDirective);
+		
+		int warmUpThreads = TemplateWarmUp.DEFAULT_THREADS;
+		CmsConfiguration cmsConfiguration = CmsConfigurationFactory.getConfiguration();
+		Map<String, String> generalParams = (cmsConfiguration != null) ? cmsConfiguration.getSectionParams(WPBSECTION.SECTION_GENERAL) : null;
+		if (generalParams != null && generalParams.containsKey("template_warmup_threads"))
+		{
+			try
+			{
+				warmUpThreads = Integer.valueOf(generalParams.get("template_warmup_threads"));
+			} catch (NumberFormatException e)
+			{
+				warmUpThreads = TemplateWarmUp.DEFAULT_THREADS;
+			}
+		}
+		templateWarmUp = (warmUpThreads > 0) ? new TemplateWarmUp(configuration, cacheInstances, warmUpThreads) : null;
+	}
+	
+	public void warmUp()
+	{
+		if (templateWarmUp != null)
+		{
+			templateWarmUp.start();
+		}
 	}
+	
+	public void stopWarmUp()
+	{
+		if (templateWarmUp != null)
+		{
+			templateWarmUp.unregister();
+		}
+	}
+	/*
+	 * Returns the messages model of the locale, the model is shared by the renders until the messages
+	 * of the locale change
+	 */
+	private ResourceBundleModel getMessagesModel(String localeLanguage, String localeCountry)
+	{
+		boolean hasCountry = localeCountry != null && localeCountry.length() > 0;
+		String lcid = hasCountry ? localeLanguage + "_" + localeCountry : localeLanguage;
+		WPBMessagesCache messagesCache = cacheInstances.getMessageCache();
+		LocaleMessages messages = localeMessages.get(lcid);
+		if (messages != null && messages.isCurrent(messagesCache.getFingerPrint(messages.locale)))
+		{
+			return messages.model;
+		}
+		Locale locale = hasCountry ? new Locale(localeLanguage, localeCountry) : new Locale(localeLanguage);
+		// the fingerprint is taken before the messages are read so a change in between is seen by the next render
+		Long fingerPrint = messagesCache.getFingerPrint(locale);
+		log.log(Level.FINE, "WBFreeMarkerTemplateEngine create resource bundle for " + lcid);
+		CmsResourceBundle r = wbFreeMarkerFactory.createResourceBundle(messagesCache, locale);
+		messages = new LocaleMessages(locale, fingerPrint, new ResourceBundleModel(r, objectWrapper));
+		localeMessages.put(lcid, messages);
+		return messages.model;
+	}
+	
 	public void process(String templateName, Map<String, Object> rootMap, Writer out) throws WPBException
 	{
 		try {
-			log.log(Level.INFO, "call WBFreeMarkerTemplateEngine process for " + templateName);
+			// called for each page and module render, it goes to the asynchronous trace log
+			AccessLog.trace("render", "template", templateName);
 					
 			Template t = configuration.getTemplate(templateName);
 			
-			Object textFormatMethod = rootMap.get(WPBModel.FORMAT_TEXT_METHOD);
-			if (textFormatMethod == null)
-			{
-				textFormatMethod = new FreeMarkerTextFormatMethod();
-				rootMap.put(WPBModel.FORMAT_TEXT_METHOD, textFormatMethod);
-			}
-					
 			if (null == rootMap.get(WPBModel.LOCALE_MESSAGES))
 			{
-				Locale locale = null;
 				String localeLanguage = (String) rootMap.get(WPBModel.LOCALE_LANGUAGE_KEY);
 				String localeCountry = (String) rootMap.get(WPBModel.LOCALE_COUNTRY_KEY);
-
-				if (localeCountry !=null && localeCountry.length()>0)
-				{
-					locale = new Locale(localeLanguage, localeCountry);
-				} else
-				{
-					locale = new Locale(localeLanguage);
-				}
-				log.log(Level.INFO, "WBFreeMarkerTemplateEngine process create resource bundle for " + locale.toString());	
-				CmsResourceBundle r = wbFreeMarkerFactory.createResourceBundle(cacheInstances.getMessageCache(), locale);
-				ResourceBundleModel fmBundle = new ResourceBundleModel(r, new DefaultObjectWrapper()); 
-				rootMap.put(WPBModel.LOCALE_MESSAGES, fmBundle);
-			} else
-			{
-				log.log(Level.INFO, "WBFreeMarkerTemplateEngine process found wpbmessages in root " + templateName);	
+				rootMap.put(WPBModel.LOCALE_MESSAGES, getMessagesModel(localeLanguage, localeCountry));
 			}
 			
-			Set<String> rootKeys = rootMap.keySet();
-			for(String key: rootKeys)
-			{
-				Object params = rootMap.get(key);
-				if (params instanceof Map)
-				{
-					TemplateHashModel hashModel = new SimpleMapModel((Map)params, new DefaultObjectWrapper());
-					rootMap.put(key, hashModel);			
-				} else
-				if (params instanceof String)
-				{
-					// leave this as it is for now
-				}
-			}
-
-			Environment env = t.createProcessingEnvironment(rootMap, out);
+			// the root values are wrapped when the template reads them
+			Environment env = t.createProcessingEnvironment(new FreeMarkerRootModel(rootMap, objectWrapper), out);
 			env.process();
 		} 
 		catch (TemplateException e)
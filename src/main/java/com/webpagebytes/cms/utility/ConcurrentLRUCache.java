@@ -0,0 +1,156 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms.utility;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Bounded least recently used cache safe to be used by many threads.
+ * The entries are spread on segments by key hash, each segment is an access ordered LinkedHashMap
+ * guarded by its own lock so the threads that access different keys do not wait for each other.
+ * The eviction is least recently used per segment, the total number of entries is at most maxSize.
+ */
+public class ConcurrentLRUCache<K, V> {
+
+private static final int DEFAULT_SEGMENTS = 16;
+
+/*
+ * Called with the segment lock held when an entry is dropped to make room for a new one
+ */
+public interface EvictionListener<K, V>
+{
+	public void evicted(K key, V value);
+}
+
+private static class Segment<K, V> extends LinkedHashMap<K, V>
+{
+	private static final long serialVersionUID = 1L;
+	private final int maxSize;
+	private final ConcurrentLRUCache<K, V> owner;
+
+	Segment(int maxSize, ConcurrentLRUCache<K, V> owner)
+	{
+		super(16, 0.75f, true);
+		this.maxSize = maxSize;
+		this.owner = owner;
+	}
+
+	@Override
+	protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+	{
+		if (size() > maxSize)
+		{
+			EvictionListener<K, V> listener = owner.evictionListener;
+			if (listener != null)
+			{
+				listener.evicted(eldest.getKey(), eldest.getValue());
+			}
+			return true;
+		}
+		return false;
+	}
+}
+
+private final Segment<K, V>[] segments;
+private volatile EvictionListener<K, V> evictionListener;
+
+public ConcurrentLRUCache(int maxSize)
+{
+	this(maxSize, DEFAULT_SEGMENTS);
+}
+
+@SuppressWarnings("unchecked")
+public ConcurrentLRUCache(int maxSize, int segmentsCount)
+{
+	if (maxSize <= 0 || segmentsCount <= 0)
+	{
+		throw new IllegalArgumentException("maxSize and segmentsCount must be positive");
+	}
+	segmentsCount = Math.min(segmentsCount, maxSize);
+	segments = new Segment[segmentsCount];
+	for(int i = 0; i < segmentsCount; i++)
+	{
+		// the first segments get the remainder so the sum of the segment sizes is maxSize
+		segments[i] = new Segment<K, V>(maxSize / segmentsCount + ((i < maxSize % segmentsCount) ? 1 : 0), this);
+	}
+}
+
+public void setEvictionListener(EvictionListener<K, V> evictionListener)
+{
+	this.evictionListener = evictionListener;
+}
+
+private Segment<K, V> segmentFor(Object key)
+{
+	int h = key.hashCode();
+	h ^= (h >>> 16);
+	return segments[(h & 0x7fffffff) % segments.length];
+}
+
+public V get(K key)
+{
+	Segment<K, V> segment = segmentFor(key);
+	synchronized (segment)
+	{
+		return segment.get(key);
+	}
+}
+
+public V put(K key, V value)
+{
+	Segment<K, V> segment = segmentFor(key);
+	synchronized (segment)
+	{
+		return segment.put(key, value);
+	}
+}
+
+public V remove(K key)
+{
+	Segment<K, V> segment = segmentFor(key);
+	synchronized (segment)
+	{
+		return segment.remove(key);
+	}
+}
+
+public void clear()
+{
+	for(Segment<K, V> segment: segments)
+	{
+		synchronized (segment)
+		{
+			segment.clear();
+		}
+	}
+}
+
+public int size()
+{
+	int size = 0;
+	for(Segment<K, V> segment: segments)
+	{
+		synchronized (segment)
+		{
+			size += segment.size();
+		}
+	}
+	return size;
+}
+
+}
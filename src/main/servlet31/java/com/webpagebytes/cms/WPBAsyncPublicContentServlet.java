@@ -0,0 +1,683 @@
+/*
+ *   Copyright 2014 Webpagebytes
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+*/
+
+package com.webpagebytes.cms;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.apache.commons.io.IOUtils;
+
+import com.webpagebytes.cms.cmsdata.WPBFile;
+import com.webpagebytes.cms.engine.FileTransfer;
+import com.webpagebytes.cms.exception.WPBException;
+import com.webpagebytes.cms.utility.CmsConfiguration;
+import com.webpagebytes.cms.utility.CmsConfiguration.WPBSECTION;
+import com.webpagebytes.cms.utility.CmsConfigurationFactory;
+
+/**
+ * <p>
+ * Servlet 3.1 variant of WPBPublicContentServlet that processes the requests asynchronously.
+ * It is built only with the servlet31 Maven profile.
+ * </p>
+ * <p>
+ * The container thread only starts the request: the page rendering, including the page model providers,
+ * runs on a bounded executor owned by the CMS, and a request that takes longer than the timeout gets a 503
+ * response. The body of a large file is written with non blocking output, so a slow client does not hold any thread
+ * while it reads the content; the timeout ends when the body starts, a slow download is not cut by it. When the executor queue is full the request is processed on the container thread
+ * as WPBPublicContentServlet does.
+ * </p>
+ * <p>
+ * The following general configuration parameters are used:
+ * async_threads (default 16), async_queue_size (default 256), async_timeout in milliseconds (default 30000)
+ * and async_file_min_size in bytes (default 65536).
+ * </p>
+ * <p>
+ * The servlet needs to be declared with async support in the WEB-INF/web.xml:<br>
+ * <pre>
+ * {@code
+ * <servlet>
+ *     <servlet-name>public</servlet-name>
+ *     <servlet-class>com.webpagebytes.cms.WPBAsyncPublicContentServlet</servlet-class>
+ *     <async-supported>true</async-supported>
+ * </servlet>
+ * }
+ * </pre>
+ */
+public class WPBAsyncPublicContentServlet extends WPBPublicContentServlet {
+	private static final long serialVersionUID = 1L;
+	private static final Logger log = Logger.getLogger(WPBAsyncPublicContentServlet.class.getName());
+	private static final int DEFAULT_THREADS = 16;
+	private static final int DEFAULT_QUEUE_SIZE = 256;
+	private static final long DEFAULT_TIMEOUT = 30000;
+	private static final long DEFAULT_FILE_MIN_SIZE = 65536;
+	private static final int FILE_BUFFER_SIZE = 16384;
+
+	private ThreadPoolExecutor executor;
+	private ScheduledExecutorService timeoutExecutor;
+	private long timeout = DEFAULT_TIMEOUT;
+	private long fileMinSize = DEFAULT_FILE_MIN_SIZE;
+
+private static long getLongParam(Map<String, String> params, String name, long defaultValue)
+{
+	if (params != null && params.containsKey(name))
+	{
+		try
+		{
+			return Long.valueOf(params.get(name));
+		} catch (NumberFormatException e)
+		{
+			return defaultValue;
+		}
+	}
+	return defaultValue;
+}
+
+public void init() throws ServletException
+{
+	super.init();
+	CmsConfiguration configuration = CmsConfigurationFactory.getConfiguration();
+	Map<String, String> generalParams = configuration.getSectionParams(WPBSECTION.SECTION_GENERAL);
+	int threads = (int) Math.max(1, getLongParam(generalParams, "async_threads", DEFAULT_THREADS));
+	int queueSize = (int) Math.max(1, getLongParam(generalParams, "async_queue_size", DEFAULT_QUEUE_SIZE));
+	initAsync(threads, queueSize, getLongParam(generalParams, "async_timeout", DEFAULT_TIMEOUT),
+			getLongParam(generalParams, "async_file_min_size", DEFAULT_FILE_MIN_SIZE));
+}
+
+void initAsync(int threads, int queueSize, long timeout, long fileMinSize)
+{
+	this.timeout = timeout;
+	this.fileMinSize = fileMinSize;
+	final AtomicInteger threadCount = new AtomicInteger();
+	executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "wpb-public-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	executor.allowCoreThreadTimeOut(true);
+	ScheduledThreadPoolExecutor scheduledExecutor = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable, "wpb-public-timeout");
+			thread.setDaemon(true);
+			return thread;
+		}
+	});
+	scheduledExecutor.setRemoveOnCancelPolicy(true);
+	timeoutExecutor = scheduledExecutor;
+}
+
+public void destroy()
+{
+	if (executor != null)
+	{
+		executor.shutdownNow();
+	}
+	if (timeoutExecutor != null)
+	{
+		timeoutExecutor.shutdownNow();
+	}
+	super.destroy();
+}
+
+protected void handleRequest(final HttpServletRequest req, final HttpServletResponse resp)
+	throws ServletException,
+	IOException
+{
+	if (executor == null || !req.isAsyncSupported() || req.getDispatcherType() != DispatcherType.REQUEST)
+	{
+		super.handleRequest(req, resp);
+		return;
+	}
+	final AsyncContext asyncContext = req.startAsync(req, resp);
+	final AsyncRequest asyncRequest = new AsyncRequest();
+	req.setAttribute(AsyncRequest.class.getName(), asyncRequest);
+	// the container timeout would also cut the body of a large file, the servlet applies its own timeout to the processing
+	asyncContext.setTimeout(0);
+	asyncContext.addListener(new AsyncListener() {
+		public void onTimeout(AsyncEvent event) throws IOException
+		{
+		}
+		public void onError(AsyncEvent event) throws IOException
+		{
+			if (asyncRequest.error())
+			{
+				completeQuietly(asyncContext);
+			}
+		}
+		public void onComplete(AsyncEvent event) throws IOException
+		{
+		}
+		public void onStartAsync(AsyncEvent event) throws IOException
+		{
+		}
+	});
+	// the worker gets a response that refuses any change once the request timed out
+	final HttpServletResponse asyncResp = new AsyncResponse(resp, asyncRequest);
+	FutureTask<Object> task = new FutureTask<Object>(new Runnable() {
+		public void run()
+		{
+			if (asyncRequest.startWorker())
+			{
+				processAsync(asyncContext, asyncRequest, req, resp, asyncResp);
+			}
+		}
+	}, null);
+	asyncRequest.task = task;
+	if (timeout > 0)
+	{
+		asyncRequest.timeout = timeoutExecutor.schedule(new Runnable() {
+			public void run()
+			{
+				if (asyncRequest.timeout())
+				{
+					// the worker did not start, it never will, this thread answers
+					log.log(Level.WARNING, "Request timeout for " + req.getRequestURI());
+					sendTimeout(resp);
+					completeQuietly(asyncContext);
+				}
+			}
+		}, timeout, TimeUnit.MILLISECONDS);
+	}
+	try
+	{
+		executor.execute(task);
+	} catch (RejectedExecutionException e)
+	{
+		// the executor is saturated, the container thread does the work without timeout
+		asyncRequest.stopTimeout();
+		task.run();
+	}
+}
+
+/*
+ * Runs a request on a worker thread
+ */
+private void processAsync(AsyncContext asyncContext, AsyncRequest asyncRequest, HttpServletRequest req, 
+		HttpServletResponse resp, HttpServletResponse asyncResp)
+{
+	boolean bodyPending = false;
+	try
+	{
+		processRequest(req, asyncResp);
+		bodyPending = (req.getAttribute(FileBodyWriter.class.getName()) != null);
+	} catch (Exception e)
+	{
+		// after a timeout the errors come from the refused response or the interrupted processing
+		log.log(asyncRequest.isTimedOut() ? Level.FINE : Level.SEVERE, "ERROR: ", e);
+	} catch (Error e)
+	{
+		log.log(Level.SEVERE, "ERROR: ", e);
+		throw e;
+	} finally
+	{
+		if (!bodyPending)
+		{
+			finishWorker(asyncContext, asyncRequest, req, resp);
+		}
+	}
+}
+
+/*
+ * The worker completes the request, with a 503 response if it timed out
+ */
+private void finishWorker(AsyncContext asyncContext, AsyncRequest asyncRequest, HttpServletRequest req, HttpServletResponse resp)
+{
+	boolean timedOut;
+	synchronized (asyncRequest)
+	{
+		timedOut = asyncRequest.isTimedOut();
+		if (!asyncRequest.finish())
+		{
+			return;
+		}
+		if (timedOut)
+		{
+			log.log(Level.WARNING, "Request timeout for " + req.getRequestURI());
+			sendTimeout(resp);
+		}
+	}
+	completeQuietly(asyncContext);
+}
+
+/*
+ * The processing done by the worker, WPBPublicContentServlet.handleRequest
+ */
+void processRequest(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
+{
+	super.handleRequest(req, resp);
+}
+
+private static void sendTimeout(HttpServletResponse resp)
+{
+	if (!resp.isCommitted())
+	{
+		resp.reset();
+		resp.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+	}
+}
+
+private static void completeQuietly(AsyncContext asyncContext)
+{
+	try
+	{
+		asyncContext.complete();
+	} catch (IllegalStateException e)
+	{
+		// the request was completed already
+	}
+}
+
+/*
+ * Writes the large files with non blocking output, the small files, the requests that are not asynchronous 
+ * and the files sent by the container (sendfile) go through WPBPublicContentServlet.
+ */
+protected boolean writeFileContentAsync(WPBFile file, HttpServletRequest req, HttpServletResponse resp) throws WPBException, IOException
+{
+	if (!req.isAsyncStarted() || file.getSize() == null || file.getSize() < fileMinSize 
+			|| Boolean.TRUE.equals(req.getAttribute(FileTransfer.SENDFILE_SUPPORT_ATTRIBUTE)))
+	{
+		return false;
+	}
+	AsyncRequest asyncRequest = (AsyncRequest) req.getAttribute(AsyncRequest.class.getName());
+	// the processing is done, the body is written without timeout
+	if (asyncRequest == null || !asyncRequest.startBody())
+	{
+		return false;
+	}
+	InputStream is = getFileContentBuilder().getFileContent(file);
+	resp.setHeader("Content-Length", Long.toString(file.getSize()));
+	FileBodyWriter writer = new FileBodyWriter(req.getAsyncContext(), asyncRequest, is, resp.getOutputStream());
+	req.setAttribute(FileBodyWriter.class.getName(), writer);
+	// the container calls onWritePossible right away when the output is ready
+	resp.getOutputStream().setWriteListener(writer);
+	return true;
+}
+
+/*
+ * Copies the file content to the response while the output can take it, the container calls onWritePossible 
+ * again when the client reads more. Completes the request at the end of the content or on error.
+ */
+private static class FileBodyWriter implements WriteListener
+{
+	private final AsyncContext asyncContext;
+	private final AsyncRequest asyncRequest;
+	private final InputStream is;
+	private final ServletOutputStream os;
+	private final byte[] buffer = new byte[FILE_BUFFER_SIZE];
+	
+	FileBodyWriter(AsyncContext asyncContext, AsyncRequest asyncRequest, InputStream is, ServletOutputStream os)
+	{
+		this.asyncContext = asyncContext;
+		this.asyncRequest = asyncRequest;
+		this.is = is;
+		this.os = os;
+	}
+	
+	public void onWritePossible() throws IOException
+	{
+		while (os.isReady())
+		{
+			int len = is.read(buffer);
+			if (len == -1)
+			{
+				IOUtils.closeQuietly(is);
+				if (asyncRequest.finish())
+				{
+					completeQuietly(asyncContext);
+				}
+				return;
+			}
+			os.write(buffer, 0, len);
+		}
+	}
+	
+	public void onError(Throwable t)
+	{
+		log.log(Level.FINE, "File body not sent: ", t);
+		IOUtils.closeQuietly(is);
+		if (asyncRequest.error())
+		{
+			completeQuietly(asyncContext);
+		}
+	}
+}
+
+/*
+ * The state of an asynchronous request shared by the worker, the timeout and the container callbacks.
+ *
+ * The timeout never touches a response the worker may write: if the worker did not start the timeout finishes
+ * the request and answers, otherwise it only marks the request timed out and interrupts the worker, that sends
+ * the 503 response and completes. The response changes and writes of the worker and the body writer hold the lock
+ * of this object, as the container error callback when it finishes the request, so nothing is written
+ * after the container completed the request.
+ */
+private static class AsyncRequest
+{
+	static final int QUEUED = 0;
+	static final int RUNNING = 1;
+	static final int BODY = 2;
+	static final int TIMED_OUT = 3;
+	static final int FINISHED = 4;
+	
+	private final AtomicInteger state = new AtomicInteger(QUEUED);
+	private volatile Future<?> task;
+	private volatile ScheduledFuture<?> timeout;
+	
+	boolean isTimedOut()
+	{
+		return state.get() == TIMED_OUT;
+	}
+	
+	/*
+	 * True while the worker or the body writer can change the response
+	 */
+	boolean isActive()
+	{
+		int current = state.get();
+		return current == RUNNING || current == BODY;
+	}
+	
+	/*
+	 * Returns false if the request timed out before the worker started
+	 */
+	boolean startWorker()
+	{
+		return state.compareAndSet(QUEUED, RUNNING);
+	}
+	
+	/*
+	 * Ends the processing timeout before the file body is written, returns false if the request timed out
+	 */
+	boolean startBody()
+	{
+		stopTimeout();
+		return state.compareAndSet(RUNNING, BODY);
+	}
+	
+	/*
+	 * Called by the timeout, returns true if the worker did not start and the caller answers the request.
+	 * A running worker is interrupted and answers itself.
+	 */
+	boolean timeout()
+	{
+		if (state.compareAndSet(QUEUED, FINISHED))
+		{
+			cancelTask(false);
+			return true;
+		}
+		if (state.compareAndSet(RUNNING, TIMED_OUT))
+		{
+			cancelTask(true);
+		}
+		return false;
+	}
+	
+	/*
+	 * Finishes the request after an error reported by the container, returns true if this call finished it
+	 */
+	boolean error()
+	{
+		int previous;
+		synchronized (this)
+		{
+			previous = state.getAndSet(FINISHED);
+		}
+		if (previous == FINISHED)
+		{
+			return false;
+		}
+		stopTimeout();
+		cancelTask(true);
+		return true;
+	}
+	
+	/*
+	 * Returns true if this call finished the request, the caller then completes it
+	 */
+	boolean finish()
+	{
+		int previous;
+		synchronized (this)
+		{
+			previous = state.getAndSet(FINISHED);
+		}
+		if (previous == FINISHED)
+		{
+			return false;
+		}
+		stopTimeout();
+		return true;
+	}
+	
+	void stopTimeout()
+	{
+		ScheduledFuture<?> currentTimeout = timeout;
+		if (currentTimeout != null)
+		{
+			currentTimeout.cancel(false);
+		}
+	}
+	
+	private void cancelTask(boolean interrupt)
+	{
+		Future<?> currentTask = task;
+		if (currentTask != null)
+		{
+			currentTask.cancel(interrupt);
+		}
+	}
+}
+
+/*
+ * The response given to the worker, the changes and the body writes fail once the request timed out or is finished
+ * because the timeout answers with a 503 and the container may have recycled the response for another request
+ */
+private static class AsyncResponse extends HttpServletResponseWrapper
+{
+	private final AsyncRequest asyncRequest;
+	private ServletOutputStream outputStream;
+	
+	AsyncResponse(HttpServletResponse resp, AsyncRequest asyncRequest)
+	{
+		super(resp);
+		this.asyncRequest = asyncRequest;
+	}
+	
+	private void checkActive()
+	{
+		if (!asyncRequest.isActive())
+		{
+			throw new IllegalStateException("The request timed out or was completed");
+		}
+	}
+	
+	public ServletOutputStream getOutputStream() throws IOException
+	{
+		synchronized (asyncRequest)
+		{
+			checkActive();
+			if (outputStream == null)
+			{
+				outputStream = new AsyncOutputStream(super.getOutputStream(), asyncRequest);
+			}
+			return outputStream;
+		}
+	}
+	public void setStatus(int sc)
+	{
+		synchronized (asyncRequest)
+		{
+			checkActive();
+			super.setStatus(sc);
+		}
+	}
+	public void setHeader(String name, String value)
+	{
+		synchronized (asyncRequest)
+		{
+			checkActive();
+			super.setHeader(name, value);
+		}
+	}
+	public void addHeader(String name, String value)
+	{
+		synchronized (asyncRequest)
+		{
+			checkActive();
+			super.addHeader(name, value);
+		}
+	}
+	public void setDateHeader(String name, long date)
+	{
+		synchronized (asyncRequest)
+		{
+			checkActive();
+			super.setDateHeader(name, date);
+		}
+	}
+	public void setContentType(String type)
+	{
+		synchronized (asyncRequest)
+		{
+			checkActive();
+			super.setContentType(type);
+		}
+	}
+	public void setContentLength(int len)
+	{
+		synchronized (asyncRequest)
+		{
+			checkActive();
+			super.setContentLength(len);
+		}
+	}
+	public void setCharacterEncoding(String charset)
+	{
+		synchronized (asyncRequest)
+		{
+			checkActive();
+			super.setCharacterEncoding(charset);
+		}
+	}
+	public void setBufferSize(int size)
+	{
+		synchronized (asyncRequest)
+		{
+			checkActive();
+			super.setBufferSize(size);
+		}
+	}
+	public void reset()
+	{
+		synchronized (asyncRequest)
+		{
+			checkActive();
+			super.reset();
+		}
+	}
+}
+
+private static class AsyncOutputStream extends ServletOutputStream
+{
+	private final ServletOutputStream os;
+	private final AsyncRequest asyncRequest;
+	
+	AsyncOutputStream(ServletOutputStream os, AsyncRequest asyncRequest)
+	{
+		this.os = os;
+		this.asyncRequest = asyncRequest;
+	}
+	
+	private void checkActive() throws IOException
+	{
+		if (!asyncRequest.isActive())
+		{
+			throw new IOException("The request timed out or was completed");
+		}
+	}
+	
+	public void write(int b) throws IOException
+	{
+		synchronized (asyncRequest)
+		{
+			checkActive();
+			os.write(b);
+		}
+	}
+	public void write(byte[] b, int off, int len) throws IOException
+	{
+		synchronized (asyncRequest)
+		{
+			checkActive();
+			os.write(b, off, len);
+		}
+	}
+	public void flush() throws IOException
+	{
+		synchronized (asyncRequest)
+		{
+			checkActive();
+			os.flush();
+		}
+	}
+	public void close() throws IOException
+	{
+		synchronized (asyncRequest)
+		{
+			checkActive();
+			os.close();
+		}
+	}
+	public boolean isReady()
+	{
+		return os.isReady();
+	}
+	public void setWriteListener(WriteListener writeListener)
+	{
+		os.setWriteListener(writeListener);
+	}
+}
+
+}
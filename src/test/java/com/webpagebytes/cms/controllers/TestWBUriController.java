@@ -330,9 +330,11 @@ public void test_notify_ok()
 	try
 	{
 	WPBUri uriMock = PowerMock.createMock(WPBUri.class);
-	cacheMock.Refresh();
+	EasyMock.expect(uriMock.getExternalKey()).andReturn("xyz");
+	cacheMock.refreshRecord(uriMock);
 	EasyMock.replay(httpServletToolboxMock, requestMock, responseMock, cacheMock, uriMock, jsonObjectConverterMock, validatorMock, adminStorageMock, objectForControllerMock);	
 	controllerForTest.notify(uriMock, WPBAdminDataStorageListener.AdminDataStorageOperation.CREATE_RECORD, WPBUri.class);
+	EasyMock.verify(cacheMock);
 	} catch (Exception e)
 	{
 		assertTrue (false);
@@ -340,12 +342,44 @@ public void test_notify_ok()
 }
 
 @Test
-public void test_notify_exception()
+public void test_notify_delete_record()
 {
 	try
 	{
 	WPBUri uriMock = PowerMock.createMock(WPBUri.class);
+	cacheMock.removeRecord(uriMock);
+	EasyMock.replay(httpServletToolboxMock, requestMock, responseMock, cacheMock, uriMock, jsonObjectConverterMock, validatorMock, adminStorageMock, objectForControllerMock);	
+	controllerForTest.notify(uriMock, WPBAdminDataStorageListener.AdminDataStorageOperation.DELETE_RECORD, WPBUri.class);
+	EasyMock.verify(cacheMock);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_notify_delete_records()
+{
+	try
+	{
 	cacheMock.Refresh();
+	EasyMock.replay(httpServletToolboxMock, requestMock, responseMock, cacheMock, jsonObjectConverterMock, validatorMock, adminStorageMock, objectForControllerMock);	
+	controllerForTest.notify(null, WPBAdminDataStorageListener.AdminDataStorageOperation.DELETE_RECORDS, WPBUri.class);
+	EasyMock.verify(cacheMock);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_notify_exception()
+{
+	try
+	{
+	WPBUri uriMock = PowerMock.createMock(WPBUri.class);
+	EasyMock.expect(uriMock.getExternalKey()).andReturn("xyz");
+	cacheMock.refreshRecord(uriMock);
 	EasyMock.expectLastCall().andThrow(new WPBIOException(""));
 	EasyMock.replay(httpServletToolboxMock, requestMock, responseMock, cacheMock, uriMock, jsonObjectConverterMock, validatorMock, adminStorageMock, objectForControllerMock);	
 	controllerForTest.notify(uriMock, WPBAdminDataStorageListener.AdminDataStorageOperation.CREATE_RECORD, WPBUri.class);
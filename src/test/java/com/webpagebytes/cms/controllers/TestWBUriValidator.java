@@ -585,4 +585,27 @@ public void test_validateUpdateWBUri_noKey()
 }
 
 
+@Test
+public void test_validateCreateWBUri_constraints()
+{
+	wburi.setHttpOperation("GET");
+	wburi.setResourceType(WPBUri.RESOURCE_TYPE_FILE);
+	wburi.setEnabled(1);
+	wburi.setExternalKey("xyz");
+	wburi.setUri("/{lang:[a-z]{2}}/news/{slug:alpha}-{id:int}");
+	assertTrue (uriValidator.validateCreate(wburi).isEmpty());
+	wburi.setUri("/news/{code:alnum}");
+	assertTrue (uriValidator.validateCreate(wburi).isEmpty());
+	
+	errorsContainer.put("uri", WPBErrors.ERROR_INVALID_VALUE);
+	wburi.setUri("/news/{id:[a-z}");
+	assertTrue (errorsContainer.equals(uriValidator.validateCreate(wburi)));
+	wburi.setUri("/news/{id:}");
+	assertTrue (errorsContainer.equals(uriValidator.validateCreate(wburi)));
+	wburi.setUri("/news/{id:[a-z]{2}");
+	assertTrue (errorsContainer.equals(uriValidator.validateCreate(wburi)));
+	wburi.setUri("/news/{i d:int}");
+	assertTrue (errorsContainer.equals(uriValidator.validateCreate(wburi)));
+}
+
 }
@@ -0,0 +1,69 @@
+package com.webpagebytes.cms.engine;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+public class TestAccessLog {
+
+@Test
+public void test_offer_drain()
+{
+	AccessLog accessLog = new AccessLog(4, false);
+	for(int i = 0; i < 4; i++)
+	{
+		assertTrue (accessLog.offer("request", new Object[] {"uri", "/p" + i, "micros", i}));
+	}
+	// the buffer is full, the event is dropped
+	assertTrue (! accessLog.offer("request", new Object[] {"uri", "/p4"}));
+
+	StringBuilder batch = new StringBuilder();
+	assertTrue (accessLog.drain(batch) == 4);
+	String[] lines = batch.toString().split("\n");
+	assertTrue (lines.length == 4);
+	assertTrue (lines[0].endsWith(" request uri=/p0 micros=0"));
+	assertTrue (lines[3].endsWith(" request uri=/p3 micros=3"));
+
+	batch.setLength(0);
+	assertTrue (accessLog.drain(batch) == 0);
+	assertTrue (accessLog.offer("render", new Object[] {"template", "webpages/x"}));
+	assertTrue (accessLog.drain(batch) == 1);
+	assertTrue (batch.toString().endsWith(" render template=webpages/x"));
+}
+
+@Test
+public void test_inline_when_full()
+{
+	AccessLog accessLog = new AccessLog(2, true);
+	assertTrue (accessLog.offer("a", null));
+	assertTrue (accessLog.offer("b", null));
+	// written by the caller
+	assertTrue (accessLog.offer("c", null));
+	assertTrue (accessLog.drain(new StringBuilder()) == 2);
+}
+
+@Test
+public void test_configure()
+{
+	Map<String, String> params = new HashMap<String, String>();
+	AccessLog.configure(params);
+	assertTrue (! AccessLog.isEnabled());
+	params.put("access_log", "1");
+	AccessLog.configure(params);
+	assertTrue (AccessLog.isEnabled());
+	assertTrue (! AccessLog.isTraceEnabled());
+	params.put("trace_log", "1");
+	AccessLog.configure(params);
+	assertTrue (AccessLog.isTraceEnabled());
+	AccessLog.configure(null);
+	assertTrue (! AccessLog.isEnabled());
+	assertTrue (! AccessLog.isTraceEnabled());
+}
+
+}
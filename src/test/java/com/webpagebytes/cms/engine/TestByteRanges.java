@@ -0,0 +1,158 @@
+package com.webpagebytes.cms.engine;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.webpagebytes.cms.WPBFilePath;
+import com.webpagebytes.cms.WPBFileStorage;
+
+@RunWith(PowerMockRunner.class)
+public class TestByteRanges {
+
+private HttpServletRequest requestMock;
+private HttpServletResponse responseMock;
+private WPBFileStorage storageMock;
+
+@Before
+public void setUp()
+{
+	requestMock = EasyMock.createMock(HttpServletRequest.class);
+	responseMock = EasyMock.createMock(HttpServletResponse.class);
+	storageMock = EasyMock.createMock(WPBFileStorage.class);
+}
+
+@Test
+public void test_parse()
+{
+	assertTrue (ByteRanges.parse(null, 100) == null);
+	assertTrue (ByteRanges.parse("items=0-10", 100) == null);
+	assertTrue (ByteRanges.parse("bytes=abc", 100) == null);
+	assertTrue (ByteRanges.parse("bytes=20-10", 100) == null);
+
+	List<ByteRanges.Range> ranges = ByteRanges.parse("bytes=0-9, 60-, -5", 100);
+	assertTrue (ranges.size() == 2);
+	assertTrue (ranges.get(0).getStart() == 0 && ranges.get(0).getEnd() == 9);
+	assertTrue (ranges.get(1).getStart() == 60 && ranges.get(1).getEnd() == 99);
+
+	ranges = ByteRanges.parse("bytes=-5, 20-29, 0-9", 100);
+	assertTrue (ranges.size() == 3);
+	assertTrue (ranges.get(0).getStart() == 0 && ranges.get(1).getStart() == 20 && ranges.get(2).getStart() == 95);
+
+	assertTrue (ByteRanges.parse("bytes=100-", 100).size() == 0);
+}
+
+@Test
+public void test_parse_coalesce()
+{
+	// 10-19 and 15-24 overlap, 0-4 and 5-7 are adjacent
+	List<ByteRanges.Range> ranges = ByteRanges.parse("bytes=10-19, 0-4, 15-24, 5-7, 40-49", 100);
+	assertTrue (ranges.size() == 3);
+	assertTrue (ranges.get(0).getStart() == 0 && ranges.get(0).getEnd() == 7);
+	assertTrue (ranges.get(1).getStart() == 10 && ranges.get(1).getEnd() == 24);
+	assertTrue (ranges.get(2).getStart() == 40 && ranges.get(2).getEnd() == 49);
+
+	ranges = ByteRanges.parse("bytes=0-9, 0-9", 100);
+	assertTrue (ranges.size() == 1);
+	assertTrue (ranges.get(0).getStart() == 0 && ranges.get(0).getEnd() == 9);
+}
+
+@Test
+public void test_parse_more_than_content()
+{
+	// the same bytes asked many times, the whole content is sent once
+	StringBuilder header = new StringBuilder("bytes=0-");
+	for(int i = 1; i < 16; i++)
+	{
+		header.append(",0-");
+	}
+	assertTrue (ByteRanges.parse(header.toString(), 100) == null);
+	assertTrue (ByteRanges.parse("bytes=0-59, 40-99", 100) == null);
+	assertTrue (ByteRanges.parse("bytes=0-49, 50-99", 100).size() == 1);
+}
+
+@Test
+public void test_isIfRangeCurrent()
+{
+	EasyMock.expect(requestMock.getHeader(ByteRanges.IF_RANGE)).andReturn("\"ff\"");
+	EasyMock.expect(requestMock.getHeader(ByteRanges.IF_RANGE)).andReturn("W/\"ff\"");
+	EasyMock.replay(requestMock);
+	assertTrue (ByteRanges.isIfRangeCurrent(requestMock, "\"ff\"", null));
+	assertTrue (! ByteRanges.isIfRangeCurrent(requestMock, "\"ff\"", null));
+}
+
+@Test
+public void test_serveRanges_single()
+{
+	try
+	{
+		WPBFilePath file = new WPBFilePath("public", "blob");
+		ServletOutputStreamStub os = new ServletOutputStreamStub();
+		EasyMock.expect(requestMock.getMethod()).andReturn("GET");
+		EasyMock.expect(requestMock.getHeader(ByteRanges.RANGE)).andReturn("bytes=2-4");
+		EasyMock.expect(requestMock.getHeader(ByteRanges.IF_RANGE)).andReturn(null);
+		// the storage cannot read a range, the content before it is skipped
+		EasyMock.expect(storageMock.getFileContent(file)).andReturn(new ByteArrayInputStream("abcdefghij".getBytes()));
+		responseMock.setHeader(ByteRanges.ACCEPT_RANGES, "bytes");
+		responseMock.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+		responseMock.setContentType("video/mp4");
+		responseMock.setHeader(ByteRanges.CONTENT_RANGE, "bytes 2-4/10");
+		responseMock.setHeader("Content-Length", "3");
+		EasyMock.expect(responseMock.getOutputStream()).andReturn(os);
+		EasyMock.replay(requestMock, responseMock, storageMock);
+
+		assertTrue (ByteRanges.serveRanges(requestMock, responseMock, storageMock, file, 10, "video/mp4", null, null));
+		EasyMock.verify(requestMock, responseMock, storageMock);
+		assertTrue (os.toString().equals("cde"));
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_serveRanges_not_satisfiable()
+{
+	try
+	{
+		WPBFilePath file = new WPBFilePath("public", "blob");
+		EasyMock.expect(requestMock.getMethod()).andReturn("GET");
+		EasyMock.expect(requestMock.getHeader(ByteRanges.RANGE)).andReturn("bytes=20-");
+		EasyMock.expect(requestMock.getHeader(ByteRanges.IF_RANGE)).andReturn(null);
+		responseMock.setHeader(ByteRanges.ACCEPT_RANGES, "bytes");
+		responseMock.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+		responseMock.setHeader(ByteRanges.CONTENT_RANGE, "bytes */10");
+		EasyMock.replay(requestMock, responseMock, storageMock);
+
+		assertTrue (ByteRanges.serveRanges(requestMock, responseMock, storageMock, file, 10, "video/mp4", null, null));
+		EasyMock.verify(requestMock, responseMock, storageMock);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+private static class ServletOutputStreamStub extends javax.servlet.ServletOutputStream
+{
+	private java.io.ByteArrayOutputStream bos = new java.io.ByteArrayOutputStream();
+	public void write(int b)
+	{
+		bos.write(b);
+	}
+	public String toString()
+	{
+		return bos.toString();
+	}
+}
+
+}
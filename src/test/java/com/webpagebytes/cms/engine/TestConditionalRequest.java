@@ -0,0 +1,88 @@
+package com.webpagebytes.cms.engine;
+
+import static org.junit.Assert.*;
+
+import java.util.Date;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+public class TestConditionalRequest {
+
+private HttpServletRequest requestMock;
+private HttpServletResponse responseMock;
+
+@Before
+public void setUp()
+{
+	requestMock = EasyMock.createMock(HttpServletRequest.class);
+	responseMock = EasyMock.createMock(HttpServletResponse.class);
+}
+
+@Test
+public void test_etags()
+{
+	assertTrue (ConditionalRequest.strongETag(null) == null);
+	assertTrue (ConditionalRequest.strongETag(255L).equals("\"ff\""));
+	String etag = ConditionalRequest.weakETag(new byte[] {1, 2, 3});
+	assertTrue (etag.startsWith("W/\""));
+	assertTrue (etag.equals(ConditionalRequest.weakETag(new byte[] {1, 2, 3})));
+	assertTrue (!etag.equals(ConditionalRequest.weakETag(new byte[] {1, 2, 4})));
+}
+
+@Test
+public void test_matchesETag()
+{
+	assertTrue (ConditionalRequest.matchesETag("\"ff\"", "\"ff\""));
+	assertTrue (ConditionalRequest.matchesETag("\"aa\", W/\"ff\"", "\"ff\""));
+	assertTrue (ConditionalRequest.matchesETag("*", "\"ff\""));
+	assertTrue (! ConditionalRequest.matchesETag("\"aa\"", "\"ff\""));
+}
+
+@Test
+public void test_handle_if_none_match()
+{
+	String etag = ConditionalRequest.strongETag(255L);
+	EasyMock.expect(requestMock.getMethod()).andReturn("GET");
+	EasyMock.expect(requestMock.getHeader(ConditionalRequest.IF_NONE_MATCH)).andReturn(etag);
+	responseMock.setHeader(ConditionalRequest.ETAG, etag);
+	responseMock.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+	EasyMock.replay(requestMock, responseMock);
+	assertTrue (ConditionalRequest.handle(requestMock, responseMock, etag, null));
+	EasyMock.verify(requestMock, responseMock);
+}
+
+@Test
+public void test_handle_if_modified_since()
+{
+	Date lastModified = new Date(1400000000500L);
+	EasyMock.expect(requestMock.getMethod()).andReturn("GET").times(2);
+	EasyMock.expect(requestMock.getHeader(ConditionalRequest.IF_NONE_MATCH)).andReturn(null).times(2);
+	EasyMock.expect(requestMock.getDateHeader(ConditionalRequest.IF_MODIFIED_SINCE)).andReturn(1400000000000L);
+	EasyMock.expect(requestMock.getDateHeader(ConditionalRequest.IF_MODIFIED_SINCE)).andReturn(1300000000000L);
+	responseMock.setDateHeader(ConditionalRequest.LAST_MODIFIED, lastModified.getTime());
+	EasyMock.expectLastCall().times(2);
+	responseMock.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+	EasyMock.replay(requestMock, responseMock);
+	assertTrue (ConditionalRequest.handle(requestMock, responseMock, null, lastModified));
+	assertTrue (! ConditionalRequest.handle(requestMock, responseMock, null, lastModified));
+	EasyMock.verify(requestMock, responseMock);
+}
+
+@Test
+public void test_handle_post()
+{
+	EasyMock.expect(requestMock.getMethod()).andReturn("POST");
+	EasyMock.replay(requestMock, responseMock);
+	assertTrue (! ConditionalRequest.handle(requestMock, responseMock, "\"ff\"", new Date()));
+	EasyMock.verify(requestMock, responseMock);
+}
+
+}
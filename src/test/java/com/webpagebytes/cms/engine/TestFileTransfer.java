@@ -0,0 +1,154 @@
+package com.webpagebytes.cms.engine;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.webpagebytes.cms.WPBFilePath;
+import com.webpagebytes.cms.WPBFileStorage;
+import com.webpagebytes.cms.WPBLocalFileAccess;
+import com.webpagebytes.cms.WPBRangedFileAccess;
+
+@RunWith(PowerMockRunner.class)
+public class TestFileTransfer {
+
+public interface LocalFileStorage extends WPBFileStorage, WPBLocalFileAccess
+{
+}
+
+public interface RangedFileStorage extends WPBFileStorage, WPBRangedFileAccess
+{
+}
+
+private File tempFile;
+private Path tempPath;
+private LocalFileStorage storageMock;
+private WPBFilePath file = new WPBFilePath("public", "file.txt");
+
+@Before
+public void setUp() throws IOException
+{
+	tempFile = File.createTempFile("wpbtransfer", ".txt");
+	FileOutputStream fos = new FileOutputStream(tempFile);
+	fos.write("0123456789".getBytes());
+	fos.close();
+	tempPath = tempFile.toPath();
+	storageMock = EasyMock.createMock(LocalFileStorage.class);
+}
+
+@After
+public void tearDown()
+{
+	tempFile.delete();
+}
+
+@Test
+public void test_copy_local_range()
+{
+	try
+	{
+		EasyMock.expect(storageMock.getLocalPath(file)).andReturn(tempPath);
+		EasyMock.replay(storageMock);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		FileTransfer.copy(storageMock, file, 2, 3, bos);
+		assertTrue (bos.toString().equals("234"));
+		EasyMock.verify(storageMock);
+	} catch (IOException e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_copy_stream()
+{
+	try
+	{
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		long count = FileTransfer.copy(new ByteArrayInputStream("content".getBytes()), bos);
+		assertTrue (count == 7);
+		assertTrue (bos.toString().equals("content"));
+	} catch (IOException e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_openContent_ranged_storage()
+{
+	try
+	{
+		RangedFileStorage rangedStorageMock = EasyMock.createMock(RangedFileStorage.class);
+		EasyMock.expect(rangedStorageMock.getFileContent(file, 2, 3)).andReturn(new ByteArrayInputStream("234".getBytes()));
+		EasyMock.replay(rangedStorageMock);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		FileTransfer.copy(FileTransfer.openContent(rangedStorageMock, file, 2, 3), bos);
+		EasyMock.verify(rangedStorageMock);
+		assertTrue (bos.toString().equals("234"));
+	} catch (IOException e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_openContent_skip()
+{
+	try
+	{
+		WPBFileStorage plainStorageMock = EasyMock.createMock(WPBFileStorage.class);
+		EasyMock.expect(plainStorageMock.getFileContent(file)).andReturn(new ByteArrayInputStream("0123456789".getBytes()));
+		EasyMock.expect(plainStorageMock.getFileContent(file)).andReturn(new ByteArrayInputStream("0123456789".getBytes()));
+		EasyMock.replay(plainStorageMock);
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		FileTransfer.copy(FileTransfer.openContent(plainStorageMock, file, 2, 3), bos);
+		assertTrue (bos.toString().equals("234"));
+		bos.reset();
+		FileTransfer.copy(FileTransfer.openContent(plainStorageMock, file, 7, -1), bos);
+		assertTrue (bos.toString().equals("789"));
+		EasyMock.verify(plainStorageMock);
+	} catch (IOException e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_sendFile_sendfile_support()
+{
+	try
+	{
+		HttpServletRequest requestMock = EasyMock.createMock(HttpServletRequest.class);
+		HttpServletResponse responseMock = EasyMock.createMock(HttpServletResponse.class);
+		EasyMock.expect(storageMock.getLocalPath(file)).andReturn(tempPath);
+		EasyMock.expect(requestMock.getAttribute(FileTransfer.SENDFILE_SUPPORT_ATTRIBUTE)).andReturn(Boolean.TRUE);
+		requestMock.setAttribute(FileTransfer.SENDFILE_FILENAME_ATTRIBUTE, tempPath.toAbsolutePath().toString());
+		requestMock.setAttribute(FileTransfer.SENDFILE_START_ATTRIBUTE, Long.valueOf(0));
+		requestMock.setAttribute(FileTransfer.SENDFILE_END_ATTRIBUTE, Long.valueOf(10));
+		responseMock.setHeader("Content-Length", "10");
+		EasyMock.replay(storageMock, requestMock, responseMock);
+		FileTransfer.sendFile(requestMock, responseMock, storageMock, file, 10L);
+		EasyMock.verify(storageMock, requestMock, responseMock);
+	} catch (IOException e)
+	{
+		assertTrue (false);
+	}
+}
+
+}
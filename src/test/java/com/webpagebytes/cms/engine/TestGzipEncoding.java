@@ -0,0 +1,77 @@
+package com.webpagebytes.cms.engine;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.io.IOUtils;
+import org.easymock.EasyMock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+public class TestGzipEncoding {
+
+private boolean acceptsGzip(String acceptEncoding)
+{
+	HttpServletRequest requestMock = EasyMock.createMock(HttpServletRequest.class);
+	EasyMock.expect(requestMock.getHeader(GzipEncoding.ACCEPT_ENCODING)).andReturn(acceptEncoding);
+	EasyMock.replay(requestMock);
+	return GzipEncoding.acceptsGzip(requestMock);
+}
+
+@Test
+public void test_acceptsGzip()
+{
+	assertTrue (acceptsGzip("gzip, deflate"));
+	assertTrue (acceptsGzip("deflate, gzip;q=0.5"));
+	assertTrue (acceptsGzip("*"));
+	assertTrue (! acceptsGzip("gzip;q=0"));
+	assertTrue (! acceptsGzip("deflate"));
+	assertTrue (! acceptsGzip(null));
+}
+
+@Test
+public void test_isWorthCompressing()
+{
+	assertTrue (GzipEncoding.isWorthCompressing("text/html; charset=UTF-8", 2000));
+	assertTrue (GzipEncoding.isWorthCompressing("application/javascript", 2000));
+	assertTrue (! GzipEncoding.isWorthCompressing("text/css", 100));
+	assertTrue (! GzipEncoding.isWorthCompressing("image/png", 2000));
+	assertTrue (! GzipEncoding.isWorthCompressing(null, 2000));
+}
+
+@Test
+public void test_gzipETag()
+{
+	assertTrue (GzipEncoding.gzipETag("\"ff\"").equals("\"ff-gz\""));
+	assertTrue (GzipEncoding.gzipETag("W/\"ff-10\"").equals("W/\"ff-10-gz\""));
+	assertTrue (GzipEncoding.gzipETag(null) == null);
+}
+
+@Test
+public void test_gzipOrNull()
+{
+	try
+	{
+		byte[] content = new byte[4096];
+		Arrays.fill(content, (byte)'a');
+		byte[] gzipContent = GzipEncoding.gzipOrNull(content);
+		assertTrue (gzipContent.length < content.length);
+		byte[] result = IOUtils.toByteArray(new GZIPInputStream(new ByteArrayInputStream(gzipContent)));
+		assertTrue (Arrays.equals(result, content));
+
+		assertTrue (GzipEncoding.gzipOrNull(new byte[] {1}) == null);
+	} catch (IOException e)
+	{
+		assertTrue (false);
+	}
+}
+
+}
@@ -0,0 +1,49 @@
+package com.webpagebytes.cms.engine;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+public class TestLatencyHistogram {
+
+@Test
+public void test_buckets()
+{
+	assertTrue (LatencyHistogram.bucketIndex(0) == 0);
+	assertTrue (LatencyHistogram.bucketIndex(15) == 15);
+	assertTrue (LatencyHistogram.bucketIndex(16) == 16);
+	assertTrue (LatencyHistogram.bucketIndex(17) == 17);
+	assertTrue (LatencyHistogram.bucketIndex(32) == 32);
+	assertTrue (LatencyHistogram.bucketIndex(33) == 32);
+	assertTrue (LatencyHistogram.bucketIndex(Long.MAX_VALUE) == LatencyHistogram.bucketIndex(1L << 40));
+	for(long value: new long[] {1, 20, 100, 1000, 12345, 987654321})
+	{
+		long upper = LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(value));
+		assertTrue (upper >= value);
+		assertTrue (upper <= value + value / 16);
+	}
+}
+
+@Test
+public void test_percentiles()
+{
+	LatencyHistogram histogram = new LatencyHistogram();
+	assertTrue (histogram.getPercentile(50) == 0);
+	for(int i = 1; i <= 100; i++)
+	{
+		histogram.record(i * 100);
+	}
+	assertTrue (histogram.getCount() == 100);
+	assertTrue (histogram.getMax() == 10000);
+	assertTrue (histogram.getMean() == 5050);
+	long p50 = histogram.getPercentile(50);
+	assertTrue (p50 >= 5000 && p50 <= 5000 + 5000 / 16);
+	long p99 = histogram.getPercentile(99);
+	assertTrue (p99 >= 9900 && p99 <= 10000);
+	assertTrue (histogram.getPercentile(100) == 10000);
+}
+
+}
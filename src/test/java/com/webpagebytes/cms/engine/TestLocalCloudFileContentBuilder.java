@@ -79,8 +79,10 @@ public void test_serveFile()
 	String contentType = "image/png";
 	EasyMock.expect(cloudFileStorageMock.getFileInfo(EasyMock.anyObject(WPBFilePath.class))).andReturn(fileInfoMock);
 	EasyMock.expect(fileInfoMock.getContentType()).andReturn(contentType);
+	EasyMock.expect(fileInfoMock.getSize()).andReturn((long)content.length());
 	
 	responseMock.setContentType(contentType);
+	responseMock.setHeader("Content-Length", String.valueOf(content.length()));
 	EasyMock.replay(cloudFileStorageMock, sosMock, responseMock, fileInfoMock);
 	fileContentBuilder.serveFile(null, responseMock, uri);
 	
@@ -181,11 +181,10 @@ public void test_populateUriParameters_OK_language_and_country()
 		supportedLanguages.add("en");
 		EasyMock.expect(projectCacheMock.getSupportedLocales()).andReturn(supportedLanguages);
 		
-		URLMatcherResult urlMatcherResult = new URLMatcherResult();
 		Map<String, String> patternParams = new HashMap<String, String>();
 		patternParams.put(param1, value1);
 		patternParams.put(param2, value2);
-		urlMatcherResult.setPatternParams(patternParams);
+		URLMatcherResult urlMatcherResult = new URLMatcherResult(null, null, patternParams);
 		
 		EasyMock.expect(paramsCacheMock.getAllForOwner(uriExternalKey)).andReturn(pageParams);
 		
@@ -246,10 +245,9 @@ public void test_populateUriParameters_OK_only_language()
 		supportedLanguages.add("en");
 		EasyMock.expect(projectCacheMock.getSupportedLocales()).andReturn(supportedLanguages);
 		
-		URLMatcherResult urlMatcherResult = new URLMatcherResult();
 		Map<String, String> patternParams = new HashMap<String, String>();
 		patternParams.put(param1, value1);
-		urlMatcherResult.setPatternParams(patternParams);
+		URLMatcherResult urlMatcherResult = new URLMatcherResult(null, null, patternParams);
 		
 		EasyMock.expect(paramsCacheMock.getAllForOwner(uriExternalKey)).andReturn(pageParams);
 		
@@ -310,7 +308,7 @@ public void test_populateUriParameters_empty_urlmatcher()
 		supportedLanguages.add("en");
 		EasyMock.expect(projectCacheMock.getSupportedLocales()).andReturn(supportedLanguages);
 		
-		URLMatcherResult urlMatcherResult = new URLMatcherResult();
+		URLMatcherResult urlMatcherResult = new URLMatcherResult(null, null, null);
 		
 		EasyMock.expect(paramsCacheMock.getAllForOwner(uriExternalKey)).andReturn(pageParams);
 		
@@ -382,11 +380,10 @@ public void test_populateUriParameters_language_not_supported()
 		supportedLanguages.add("en");
 		EasyMock.expect(projectCacheMock.getSupportedLocales()).andReturn(supportedLanguages);
 		
-		URLMatcherResult urlMatcherResult = new URLMatcherResult();
 		Map<String, String> patternParams = new HashMap<String, String>();
 		patternParams.put(param1, value1);
 		patternParams.put(param2, value2);
-		urlMatcherResult.setPatternParams(patternParams);
+		URLMatcherResult urlMatcherResult = new URLMatcherResult(null, null, patternParams);
 		
 		EasyMock.expect(paramsCacheMock.getAllForOwner(uriExternalKey)).andReturn(pageParams);
 		
@@ -464,11 +461,10 @@ public void test_populateUriParameters_no_language_param()
 		supportedLanguages.add("en");
 		EasyMock.expect(projectCacheMock.getSupportedLocales()).andReturn(supportedLanguages);
 		
-		URLMatcherResult urlMatcherResult = new URLMatcherResult();
 		Map<String, String> patternParams = new HashMap<String, String>();
 		// pattern params contains only the xyz param
 		patternParams.put(param2, value2);
-		urlMatcherResult.setPatternParams(patternParams);
+		URLMatcherResult urlMatcherResult = new URLMatcherResult(null, null, patternParams);
 		
 		EasyMock.expect(paramsCacheMock.getAllForOwner(uriExternalKey)).andReturn(pageParams);
 		
@@ -544,11 +540,10 @@ public void test_populateUriParameters_no_country_param()
 		supportedLanguages.add("en");
 		EasyMock.expect(projectCacheMock.getSupportedLocales()).andReturn(supportedLanguages);
 		
-		URLMatcherResult urlMatcherResult = new URLMatcherResult();
 		Map<String, String> patternParams = new HashMap<String, String>();
 		// pattern params contains only the language param
 		patternParams.put(param1, value1);
-		urlMatcherResult.setPatternParams(patternParams);
+		URLMatcherResult urlMatcherResult = new URLMatcherResult(null, null, patternParams);
 		
 		EasyMock.expect(paramsCacheMock.getAllForOwner(uriExternalKey)).andReturn(pageParams);
 		
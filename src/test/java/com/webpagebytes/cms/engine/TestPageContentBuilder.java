@@ -2,6 +2,7 @@ package com.webpagebytes.cms.engine;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.Writer;
 import java.util.HashMap;
 import java.util.Map;
@@ -115,6 +116,32 @@ public void test_buildPageContent_null_isTemplateSource()
 	}	
 }
 
+@Test
+public void test_buildPageContent_writer_null_isTemplateSource()
+{
+	
+	try
+	{
+		InternalModel model = new InternalModel();
+		String htmlSource = "<html>text \u00e9</html>";
+		EasyMock.expect(pageMock.getIsTemplateSource()).andReturn(null);
+		EasyMock.expect(pageMock.getHtmlSource()).andReturn(htmlSource);
+		EasyMock.expect(pageMock.getExternalKey()).andReturn("xyz");
+		EasyMock.expect(cacheInstancesMock.getPageCache()).andReturn(pagesCacheMock);
+		EasyMock.replay(cacheInstancesMock, pagesCacheMock, modelBuilderMock, templateEngineMock, pageMock, projectMock, requestMock);	
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		Writer out = PageContentBuilder.createPageWriter(bos);
+		pageContentBuilder.buildPageContent(requestMock, pageMock, model, out);
+		out.flush();
+		EasyMock.verify(cacheInstancesMock, pagesCacheMock, modelBuilderMock, templateEngineMock, pageMock, projectMock, requestMock);		
+		assertTrue (bos.toString("UTF-8").equals(htmlSource));
+
+	}catch (Exception e)
+	{
+		assertTrue (false);
+	}	
+}
+
 @Test
 public void test_buildPageContent_zero_isTemplateSource()
 {
@@ -0,0 +1,226 @@
+package com.webpagebytes.cms.engine;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.webpagebytes.cms.WPBModel;
+import com.webpagebytes.cms.WPBParametersCache;
+import com.webpagebytes.cms.cmsdata.WPBPage;
+import com.webpagebytes.cms.cmsdata.WPBParameter;
+
+@RunWith(PowerMockRunner.class)
+public class TestPageOutputCache {
+
+private PageOutputCache outputCache;
+private WPBPage page;
+private WPBParametersCache parametersCacheMock;
+
+@Before
+public void setUp()
+{
+	List<String> queryParams = new ArrayList<String>();
+	queryParams.add("page");
+	outputCache = new PageOutputCache(10, queryParams);
+	page = new WPBPage();
+	page.setExternalKey("pageKey");
+	parametersCacheMock = EasyMock.createMock(WPBParametersCache.class);
+}
+
+@After
+public void tearDown()
+{
+	outputCache.unregister();
+}
+
+private InternalModel createModel(String language, String country)
+{
+	InternalModel model = new InternalModel();
+	Map<String, String> locale = new HashMap<String, String>();
+	locale.put(WPBModel.LOCALE_LANGUAGE_KEY, language);
+	locale.put(WPBModel.LOCALE_COUNTRY_KEY, country);
+	model.getCmsModel().put(WPBModel.LOCALE_KEY, locale);
+	return model;
+}
+
+@Test
+public void test_get_put()
+{
+	PageOutputCache.Entry entry = new PageOutputCache.Entry(new byte[] {1, 2}, "text/html", true, PageOutputCache.getVersion(), null);
+	assertTrue (outputCache.get("key") == null);
+	outputCache.put("key", entry);
+	assertTrue (outputCache.get("key") == entry);
+	assertTrue (outputCache.getHits() == 1);
+	assertTrue (outputCache.getMisses() == 1);
+}
+
+@Test
+public void test_invalidateAll()
+{
+	PageOutputCache.Entry entry = new PageOutputCache.Entry(new byte[] {1, 2}, "text/html", true, PageOutputCache.getVersion(), null);
+	outputCache.put("key", entry);
+	PageOutputCache.invalidateAll();
+	assertTrue (outputCache.get("key") == null);
+
+	// rendered before the change, it is not stored
+	outputCache.put("key", entry);
+	assertTrue (outputCache.get("key") == null);
+
+	PageOutputCache.Entry newEntry = new PageOutputCache.Entry(new byte[] {3}, "text/html", true, PageOutputCache.getVersion(), null);
+	outputCache.put("key", newEntry);
+	assertTrue (outputCache.get("key") == newEntry);
+}
+
+private Set<String> dependencies(String... dependencies)
+{
+	Set<String> result = new HashSet<String>();
+	for(String dependency: dependencies)
+	{
+		result.add(dependency);
+	}
+	return result;
+}
+
+@Test
+public void test_invalidate_dependency()
+{
+	String module = RenderDependencies.dependency(RenderDependencies.MODULE, "moduleKey");
+	String article = RenderDependencies.dependency(RenderDependencies.ARTICLE, "articleKey");
+	PageOutputCache.Entry entry1 = new PageOutputCache.Entry(new byte[] {1}, "text/html", true, PageOutputCache.getVersion(), dependencies(module));
+	PageOutputCache.Entry entry2 = new PageOutputCache.Entry(new byte[] {2}, "text/html", true, PageOutputCache.getVersion(), dependencies(article));
+	outputCache.put("key1", entry1);
+	outputCache.put("key2", entry2);
+
+	PageOutputCache.invalidate(module);
+	assertTrue (outputCache.get("key1") == null);
+	assertTrue (outputCache.get("key2") == entry2);
+	assertTrue (outputCache.size() == 1);
+}
+
+@Test
+public void test_unregister()
+{
+	String module = RenderDependencies.dependency(RenderDependencies.MODULE, "moduleKey");
+	PageOutputCache.Entry entry = new PageOutputCache.Entry(new byte[] {1}, "text/html", true, PageOutputCache.getVersion(), dependencies(module));
+	outputCache.put("key", entry);
+	outputCache.unregister();
+
+	// an unregistered cache is not reached by the invalidations anymore
+	PageOutputCache.invalidate(module);
+	assertTrue (outputCache.size() == 1);
+}
+
+@Test
+public void test_recordChange()
+{
+	String page = RenderDependencies.dependency(RenderDependencies.PAGE, "pageKey");
+	PageOutputCache.Entry entry1 = new PageOutputCache.Entry(new byte[] {1}, "text/html", true, PageOutputCache.getVersion(), dependencies(page));
+	PageOutputCache.Entry entry2 = new PageOutputCache.Entry(new byte[] {2}, "text/html", true, PageOutputCache.getVersion(), null);
+	outputCache.put("key1", entry1);
+	outputCache.put("key2", entry2);
+
+	// the refresh of the local cache during a record change evicts only the dependent pages
+	PageOutputCache.beginRecordChange(RenderDependencies.PAGE, "pageKey");
+	PageOutputCache.invalidateAll();
+	PageOutputCache.endRecordChange();
+	assertTrue (outputCache.get("key1") == null);
+	assertTrue (outputCache.get("key2") == entry2);
+
+	PageOutputCache.invalidateAll();
+	assertTrue (outputCache.get("key2") == null);
+}
+
+@Test
+public void test_recordDependencies()
+{
+	RenderDependencies.record(RenderDependencies.PAGE, "notRecorded");
+	assertTrue (RenderDependencies.get() == null);
+	RenderDependencies.start();
+	RenderDependencies.record(RenderDependencies.PAGE, "pageKey");
+	RenderDependencies.record(RenderDependencies.MODULE, null);
+	Set<String> recorded = RenderDependencies.stop();
+	assertTrue (recorded.size() == 1 && recorded.contains("page:pageKey"));
+	assertTrue (! RenderDependencies.isRecording());
+}
+
+@Test
+public void test_buildKey()
+{
+	HttpServletRequest requestMock = EasyMock.createMock(HttpServletRequest.class);
+	EasyMock.expect(requestMock.getParameter("page")).andReturn("2").times(2);
+	EasyMock.expect(requestMock.getParameter("page")).andReturn(null);
+	EasyMock.replay(requestMock);
+
+	Map<String, String> params1 = new HashMap<String, String>();
+	params1.put("id", "12");
+	params1.put("lang", "en");
+	Map<String, String> params2 = new HashMap<String, String>();
+	params2.put("id", "13");
+	params2.put("lang", "en");
+	String key1 = outputCache.buildKey(new URLMatcherResult("/en/news-12", "/{lang}/news-{id}", params1), page, createModel("en", ""), requestMock);
+	String key2 = outputCache.buildKey(new URLMatcherResult("/en/news-13", "/{lang}/news-{id}", params2), page, createModel("en", ""), requestMock);
+	String key3 = outputCache.buildKey(new URLMatcherResult("/en/news-12", "/{lang}/news-{id}", params1), page, createModel("en", ""), requestMock);
+	assertTrue (!key1.equals(key2));
+	assertTrue (!key1.equals(key3));
+	EasyMock.verify(requestMock);
+}
+
+@Test
+public void test_isCacheable()
+{
+	try
+	{
+		List<WPBParameter> pageParams = new ArrayList<WPBParameter>();
+		EasyMock.expect(parametersCacheMock.getAllForOwner("pageKey")).andReturn(pageParams).times(2);
+		EasyMock.replay(parametersCacheMock);
+
+		assertTrue (outputCache.isCacheable(page, new HashMap<String, String>(), parametersCacheMock));
+		page.setPageModelProvider("com.example.Provider");
+		assertTrue (! outputCache.isCacheable(page, new HashMap<String, String>(), parametersCacheMock));
+
+		Map<String, String> uriParams = new HashMap<String, String>();
+		uriParams.put(PageOutputCache.OUTPUT_CACHE_PARAMETER, "1");
+		assertTrue (outputCache.isCacheable(page, uriParams, parametersCacheMock));
+		EasyMock.verify(parametersCacheMock);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_isCacheable_page_opt_out()
+{
+	try
+	{
+		List<WPBParameter> pageParams = new ArrayList<WPBParameter>();
+		WPBParameter param = new WPBParameter();
+		param.setName(PageOutputCache.OUTPUT_CACHE_PARAMETER);
+		param.setValue("0");
+		pageParams.add(param);
+		EasyMock.expect(parametersCacheMock.getAllForOwner("pageKey")).andReturn(pageParams);
+		EasyMock.replay(parametersCacheMock);
+
+		assertTrue (! outputCache.isCacheable(page, null, parametersCacheMock));
+		EasyMock.verify(parametersCacheMock);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+}
@@ -0,0 +1,70 @@
+package com.webpagebytes.cms.engine;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.io.Writer;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+public class TestPageWriter {
+
+@Test
+public void test_writeContent_encoded()
+{
+	try
+	{
+		EncodedContent encoded = new EncodedContent("<b>module \u00e9</b>", null);
+		EncodedContentCache cacheMock = EasyMock.createMock(EncodedContentCache.class);
+		EasyMock.expect(cacheMock.getEncodedContent("xyz")).andReturn(encoded);
+		EasyMock.replay(cacheMock);
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		Writer out = PageContentBuilder.createPageWriter(bos);
+		out.write("<p>");
+		PageWriter.writeContent(out, cacheMock, "xyz", "not used");
+		out.write("</p>");
+		out.flush();
+
+		EasyMock.verify(cacheMock);
+		assertTrue (bos.toString("UTF-8").equals("<p><b>module \u00e9</b></p>"));
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_writeContent_not_encoded()
+{
+	try
+	{
+		EncodedContentCache cacheMock = EasyMock.createMock(EncodedContentCache.class);
+		EasyMock.replay(cacheMock);
+
+		StringWriter out = new StringWriter();
+		PageWriter.writeContent(out, cacheMock, "xyz", "source");
+
+		EasyMock.verify(cacheMock);
+		assertTrue (out.toString().equals("source"));
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_encodedContent()
+{
+	EncodedContent encoded = new EncodedContent("\u00e9", 255L);
+	assertTrue (encoded.getContentLength() == 2);
+	assertTrue (encoded.getETag().equals("\"ff\""));
+	assertTrue (encoded.getGzipContent() == null);
+}
+
+}
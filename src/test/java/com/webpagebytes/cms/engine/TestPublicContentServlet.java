@@ -2,7 +2,7 @@ package com.webpagebytes.cms.engine;
 
 import static org.junit.Assert.*;
 
-
+import java.io.Writer;
 import java.util.logging.Logger;
 
 import javax.servlet.ServletConfig;
@@ -13,6 +13,7 @@ import javax.servlet.http.HttpServletResponse;
 
 import org.easymock.Capture;
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -32,6 +33,7 @@ import com.webpagebytes.cms.WPBParametersCache;
 import com.webpagebytes.cms.WPBProjectCache;
 import com.webpagebytes.cms.WPBPublicContentServlet;
 import com.webpagebytes.cms.WPBUrisCache;
+import com.webpagebytes.cms.cmsdata.WPBFile;
 import com.webpagebytes.cms.cmsdata.WPBPage;
 import com.webpagebytes.cms.engine.InternalModel;
 import com.webpagebytes.cms.engine.PageContentBuilder;
@@ -236,6 +238,18 @@ public void test_init()
 	
 }
 
+private void expectPageContent(PageContentBuilder pageBuilderMock, WPBPage pageMock, InternalModel modelMock, final String content) throws Exception
+{
+	pageBuilderMock.buildPageContent(EasyMock.eq(requestMock), EasyMock.eq(pageMock), EasyMock.eq(modelMock), EasyMock.anyObject(Writer.class));
+	EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+		public Object answer() throws Throwable
+		{
+			((Writer)EasyMock.getCurrentArguments()[3]).write(content);
+			return null;
+		}
+	});
+}
+
 @Test
 public void test_handleRequestTypeText()
 {
@@ -246,7 +260,7 @@ public void test_handleRequestTypeText()
 	PageContentBuilder pageBuilderMock = EasyMock.createMock(PageContentBuilder.class);
 	Whitebox.setInternalState(publicServlet, "pageContentBuilder", pageBuilderMock);
 	String content = "aContent";
-	EasyMock.expect(pageBuilderMock.buildPageContent(requestMock, pageMock, modelMock)).andReturn(content);
+	expectPageContent(pageBuilderMock, pageMock, modelMock, content);
 	responseMock.setCharacterEncoding("UTF-8");
 	EasyMock.expect(pageMock.getIsTemplateSource()).andReturn(1);
 	responseMock.addHeader("cache-control", "no-cache;no-store;");
@@ -256,12 +270,85 @@ public void test_handleRequestTypeText()
 	ServletOutputStream sos_ = EasyMock.createMock(ServletOutputStream.class);
 	CacheServletOutputStream cacheOutputStream = new CacheServletOutputStream(sos_);
 	EasyMock.expect(responseMock.getOutputStream()).andReturn(cacheOutputStream);
+	// the start of the rendered page is kept in the response buffer
+	EasyMock.expect(responseMock.getBufferSize()).andReturn(8192);
+	responseMock.setBufferSize(WPBPublicContentServlet.RENDER_BUFFER_SIZE);
 	Capture<byte[]> capture = new Capture<byte[]>();
-	sos_.write(EasyMock.capture(capture));
+	sos_.write(EasyMock.capture(capture), EasyMock.eq(0), EasyMock.eq(content.length()));
 	EasyMock.replay(requestMock, responseMock, pageMock, modelMock, sos_, pageBuilderMock);
 	Whitebox.invokeMethod(publicServlet, "handleRequestTypeText", pageMock, requestMock, responseMock, modelMock);
+	EasyMock.verify(responseMock);
 	
-	assertTrue((new String(capture.getValue())).equals(content));
+	assertTrue((new String(capture.getValue(), 0, content.length())).equals(content));
+	} catch (Exception e)
+	{
+		assertTrue(false);
+	}
+}
+
+private WPBFile createGzipFile()
+{
+	WPBFile file = new WPBFile();
+	file.setExternalKey("fileKey");
+	file.setBlobKey("blob");
+	file.setHash(255L);
+	file.setSize(1000L);
+	file.setGzipSize(200L);
+	file.setAdjustedContentType("text/css");
+	file.setDirectoryFlag(0);
+	return file;
+}
+
+private FileContentBuilder setFileContentBuilder(WPBFile file) throws Exception
+{
+	FileContentBuilder fileBuilderMock = EasyMock.createMock(FileContentBuilder.class);
+	Whitebox.setInternalState(publicServlet, "fileContentBuilder", fileBuilderMock);
+	WPBCacheFactory factoryMock = EasyMock.createMock(WPBCacheFactory.class);
+	EasyMock.expect(factoryMock.getFilesCacheInstance()).andReturn(filesCacheMock);
+	Whitebox.setInternalState(publicServlet, "cacheFactory", factoryMock);
+	EasyMock.expect(fileBuilderMock.find("fileKey")).andReturn(file);
+	EasyMock.replay(factoryMock);
+	return fileBuilderMock;
+}
+
+@Test
+public void test_handleRequestTypeFile_range_not_gzip()
+{
+	try
+	{
+	WPBFile file = createGzipFile();
+	FileContentBuilder fileBuilderMock = setFileContentBuilder(file);
+	HttpServletRequest gzipRequestMock = EasyMock.createNiceMock(HttpServletRequest.class);
+	HttpServletResponse niceResponseMock = EasyMock.createNiceMock(HttpServletResponse.class);
+	EasyMock.expect(gzipRequestMock.getHeader(GzipEncoding.ACCEPT_ENCODING)).andReturn("gzip").anyTimes();
+	EasyMock.expect(gzipRequestMock.getHeader(ByteRanges.RANGE)).andReturn("bytes=0-9").anyTimes();
+	EasyMock.expect(gzipRequestMock.getMethod()).andReturn("GET").anyTimes();
+	// the range is served from the identity content, the gzip variant is not sent
+	EasyMock.expect(fileBuilderMock.writeFileRanges(file, gzipRequestMock, niceResponseMock)).andReturn(true);
+	EasyMock.replay(gzipRequestMock, niceResponseMock, fileBuilderMock);
+	Whitebox.invokeMethod(publicServlet, "handleRequestTypeFile", "fileKey", null, gzipRequestMock, niceResponseMock);
+	EasyMock.verify(fileBuilderMock);
+	} catch (Exception e)
+	{
+		assertTrue(false);
+	}
+}
+
+@Test
+public void test_handleRequestTypeFile_gzip()
+{
+	try
+	{
+	WPBFile file = createGzipFile();
+	FileContentBuilder fileBuilderMock = setFileContentBuilder(file);
+	HttpServletRequest gzipRequestMock = EasyMock.createNiceMock(HttpServletRequest.class);
+	HttpServletResponse niceResponseMock = EasyMock.createNiceMock(HttpServletResponse.class);
+	EasyMock.expect(gzipRequestMock.getHeader(GzipEncoding.ACCEPT_ENCODING)).andReturn("gzip").anyTimes();
+	EasyMock.expect(gzipRequestMock.getMethod()).andReturn("GET").anyTimes();
+	fileBuilderMock.sendGzipFileContent(file, gzipRequestMock, niceResponseMock);
+	EasyMock.replay(gzipRequestMock, niceResponseMock, fileBuilderMock);
+	Whitebox.invokeMethod(publicServlet, "handleRequestTypeFile", "fileKey", null, gzipRequestMock, niceResponseMock);
+	EasyMock.verify(fileBuilderMock);
 	} catch (Exception e)
 	{
 		assertTrue(false);
@@ -288,28 +375,35 @@ private void handleRequestTypeText_cache(Integer templateSource)
 	InternalModel modelMock = EasyMock.createMock(InternalModel.class);
 	PageContentBuilder pageBuilderMock = EasyMock.createMock(PageContentBuilder.class);
 	Whitebox.setInternalState(publicServlet, "pageContentBuilder", pageBuilderMock);
+	Whitebox.setInternalState(publicServlet, "cacheInstances", cacheInstances);
 	String content = "aContent";
-	EasyMock.expect(pageBuilderMock.buildPageContent(requestMock, pageMock, modelMock)).andReturn(content);
 	responseMock.setCharacterEncoding("UTF-8");
 	EasyMock.expect(pageMock.getIsTemplateSource()).andReturn(0);
 	
 	Long hash = 123L;
 	EasyMock.expect(requestMock.getParameter(WPBPublicContentServlet.CACHE_QUERY_PARAM)).andReturn(hash.toString());
-	EasyMock.expect(pageMock.getHash()).andReturn(hash);
+	EasyMock.expect(pageMock.getHash()).andReturn(hash).times(2);
+	EasyMock.expect(pageMock.getExternalKey()).andReturn("xyz");
+	EasyMock.expect(pageMock.getLastModified()).andReturn(null);
+	EasyMock.expect(pageMock.getHtmlSource()).andReturn(content);
+	EasyMock.expect(requestMock.getMethod()).andReturn("GET");
+	EasyMock.expect(requestMock.getHeader(ConditionalRequest.IF_NONE_MATCH)).andReturn(null);
+	responseMock.setHeader(ConditionalRequest.ETAG, ConditionalRequest.strongETag(hash));
 	
 	responseMock.addHeader("cache-control", "max-age=31536000");
 	String contentType="plain/text";
-	EasyMock.expect(pageMock.getContentType()).andReturn(contentType);	
+	EasyMock.expect(pageMock.getContentType()).andReturn(contentType).times(2);	
 	responseMock.setContentType(contentType);
+	responseMock.setContentLength(content.length());
 	ServletOutputStream sos_ = EasyMock.createMock(ServletOutputStream.class);
-	CacheServletOutputStream cacheOutputStream = new CacheServletOutputStream(sos_);
-	EasyMock.expect(responseMock.getOutputStream()).andReturn(cacheOutputStream);
+	EasyMock.expect(responseMock.getOutputStream()).andReturn(sos_);
 	Capture<byte[]> capture = new Capture<byte[]>();
 	sos_.write(EasyMock.capture(capture));
 	EasyMock.replay(requestMock, responseMock, pageMock, modelMock, sos_, pageBuilderMock);
 	Whitebox.invokeMethod(publicServlet, "handleRequestTypeText", pageMock, requestMock, responseMock, modelMock);
 	
-	assertTrue((new String(capture.getValue())).equals(content));
+	EasyMock.verify(pageBuilderMock);
+	assertTrue((new String(capture.getValue(), "UTF-8")).equals(content));
 	} catch (Exception e)
 	{
 		assertTrue(false);
@@ -0,0 +1,288 @@
+package com.webpagebytes.cms.engine;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.webpagebytes.cms.exception.WPBException;
+import com.webpagebytes.cms.exception.WPBIOException;
+
+@RunWith(PowerMockRunner.class)
+public class TestRenderCoalescer {
+
+private static PageOutputCache.Entry createEntry(String content, long version)
+{
+	return new PageOutputCache.Entry(content.getBytes(), "text/html", true, version, null);
+}
+
+/*
+ * Starts a follower for the key once the leader is rendering, the follower result is put in result
+ */
+private Thread startFollower(final RenderCoalescer coalescer, final String key, final long version, final AtomicInteger renders,
+		final AtomicReference<PageOutputCache.Entry> result)
+{
+	Thread follower = new Thread(new Runnable() {
+		public void run()
+		{
+			try
+			{
+				result.set(coalescer.render(key, version, new RenderCoalescer.Render() {
+					public PageOutputCache.Entry render()
+					{
+						renders.incrementAndGet();
+						return createEntry("follower", version);
+					}
+				}));
+			} catch (Exception e)
+			{
+				result.set(null);
+			}
+		}
+	});
+	follower.start();
+	return follower;
+}
+
+private void waitForFollower(Thread follower) throws InterruptedException
+{
+	// the follower is waiting when its thread is parked on the leader latch
+	long end = System.currentTimeMillis() + 5000;
+	while (follower.getState() != Thread.State.TIMED_WAITING && System.currentTimeMillis() < end)
+	{
+		Thread.sleep(1);
+	}
+}
+
+@Test
+public void test_followers_reuse_leader_entry()
+{
+	try
+	{
+		final RenderCoalescer coalescer = new RenderCoalescer(5000);
+		final CountDownLatch leaderRendering = new CountDownLatch(1);
+		final CountDownLatch releaseLeader = new CountDownLatch(1);
+		final AtomicInteger followerRenders = new AtomicInteger();
+		final AtomicReference<PageOutputCache.Entry> followerResult = new AtomicReference<PageOutputCache.Entry>();
+		final PageOutputCache.Entry leaderEntry = createEntry("leader", 7);
+
+		Thread leader = new Thread(new Runnable() {
+			public void run()
+			{
+				try
+				{
+					coalescer.render("key", 7, new RenderCoalescer.Render() {
+						public PageOutputCache.Entry render() throws WPBException
+						{
+							leaderRendering.countDown();
+							try
+							{
+								releaseLeader.await(5, TimeUnit.SECONDS);
+							} catch (InterruptedException e)
+							{
+								throw new WPBException("interrupted");
+							}
+							return leaderEntry;
+						}
+					});
+				} catch (Exception e)
+				{
+					// checked by the follower result
+				}
+			}
+		});
+		leader.start();
+		assertTrue (leaderRendering.await(5, TimeUnit.SECONDS));
+		assertTrue (coalescer.getInFlight() == 1);
+
+		Thread follower = startFollower(coalescer, "key", 7, followerRenders, followerResult);
+		waitForFollower(follower);
+		releaseLeader.countDown();
+		leader.join(5000);
+		follower.join(5000);
+
+		assertTrue (followerResult.get() == leaderEntry);
+		assertTrue (followerRenders.get() == 0);
+		assertTrue (coalescer.getRenders() == 1);
+		assertTrue (coalescer.getCoalesced() == 1);
+		assertTrue (coalescer.getFallbacks() == 0);
+		assertTrue (coalescer.getInFlight() == 0);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_follower_renders_when_leader_fails()
+{
+	try
+	{
+		final RenderCoalescer coalescer = new RenderCoalescer(5000);
+		final CountDownLatch leaderRendering = new CountDownLatch(1);
+		final CountDownLatch releaseLeader = new CountDownLatch(1);
+		final AtomicInteger followerRenders = new AtomicInteger();
+		final AtomicReference<PageOutputCache.Entry> followerResult = new AtomicReference<PageOutputCache.Entry>();
+		final AtomicReference<Exception> leaderError = new AtomicReference<Exception>();
+
+		Thread leader = new Thread(new Runnable() {
+			public void run()
+			{
+				try
+				{
+					coalescer.render("key", 1, new RenderCoalescer.Render() {
+						public PageOutputCache.Entry render() throws WPBException, IOException
+						{
+							leaderRendering.countDown();
+							try
+							{
+								releaseLeader.await(5, TimeUnit.SECONDS);
+							} catch (InterruptedException e)
+							{
+								// fails anyway
+							}
+							throw new WPBIOException("template failed");
+						}
+					});
+				} catch (Exception e)
+				{
+					leaderError.set(e);
+				}
+			}
+		});
+		leader.start();
+		assertTrue (leaderRendering.await(5, TimeUnit.SECONDS));
+
+		Thread follower = startFollower(coalescer, "key", 1, followerRenders, followerResult);
+		waitForFollower(follower);
+		releaseLeader.countDown();
+		leader.join(5000);
+		follower.join(5000);
+
+		assertTrue (leaderError.get() instanceof WPBIOException);
+		assertTrue (followerRenders.get() == 1);
+		assertTrue (new String(followerResult.get().getContent()).equals("follower"));
+		assertTrue (coalescer.getFallbacks() == 1);
+		assertTrue (coalescer.getInFlight() == 0);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_follower_renders_on_timeout()
+{
+	try
+	{
+		final RenderCoalescer coalescer = new RenderCoalescer(20);
+		final CountDownLatch leaderRendering = new CountDownLatch(1);
+		final CountDownLatch releaseLeader = new CountDownLatch(1);
+		final AtomicInteger followerRenders = new AtomicInteger();
+		final AtomicReference<PageOutputCache.Entry> followerResult = new AtomicReference<PageOutputCache.Entry>();
+
+		Thread leader = new Thread(new Runnable() {
+			public void run()
+			{
+				try
+				{
+					coalescer.render("key", 1, new RenderCoalescer.Render() {
+						public PageOutputCache.Entry render()
+						{
+							leaderRendering.countDown();
+							try
+							{
+								releaseLeader.await(5, TimeUnit.SECONDS);
+							} catch (InterruptedException e)
+							{
+								// returns anyway
+							}
+							return createEntry("leader", 1);
+						}
+					});
+				} catch (Exception e)
+				{
+					// not checked
+				}
+			}
+		});
+		leader.start();
+		assertTrue (leaderRendering.await(5, TimeUnit.SECONDS));
+
+		Thread follower = startFollower(coalescer, "key", 1, followerRenders, followerResult);
+		follower.join(5000);
+		releaseLeader.countDown();
+		leader.join(5000);
+
+		assertTrue (followerRenders.get() == 1);
+		assertTrue (new String(followerResult.get().getContent()).equals("follower"));
+		assertTrue (coalescer.getFallbacks() == 1);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_follower_renders_newer_version()
+{
+	try
+	{
+		final RenderCoalescer coalescer = new RenderCoalescer(5000);
+		final CountDownLatch leaderRendering = new CountDownLatch(1);
+		final CountDownLatch releaseLeader = new CountDownLatch(1);
+		final AtomicInteger followerRenders = new AtomicInteger();
+		final AtomicReference<PageOutputCache.Entry> followerResult = new AtomicReference<PageOutputCache.Entry>();
+
+		Thread leader = new Thread(new Runnable() {
+			public void run()
+			{
+				try
+				{
+					coalescer.render("key", 3, new RenderCoalescer.Render() {
+						public PageOutputCache.Entry render()
+						{
+							leaderRendering.countDown();
+							try
+							{
+								releaseLeader.await(5, TimeUnit.SECONDS);
+							} catch (InterruptedException e)
+							{
+								// returns anyway
+							}
+							return createEntry("leader", 3);
+						}
+					});
+				} catch (Exception e)
+				{
+					// not checked
+				}
+			}
+		});
+		leader.start();
+		assertTrue (leaderRendering.await(5, TimeUnit.SECONDS));
+
+		// the content changed after the leader built its model
+		Thread follower = startFollower(coalescer, "key", 4, followerRenders, followerResult);
+		waitForFollower(follower);
+		releaseLeader.countDown();
+		leader.join(5000);
+		follower.join(5000);
+
+		assertTrue (followerRenders.get() == 1);
+		assertTrue (followerResult.get().getVersion() == 4);
+		assertTrue (coalescer.getCoalesced() == 0);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+}
@@ -0,0 +1,52 @@
+package com.webpagebytes.cms.engine;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+public class TestRequestTimings {
+
+@Test
+public void test_not_timed()
+{
+	assertTrue (RequestTimings.begin() == 0L);
+	RequestTimings.end(RequestTimings.Phase.RENDER, 0L);
+	assertTrue (RequestTimings.stop() == null);
+}
+
+@Test
+public void test_phases()
+{
+	RequestTimings timings = RequestTimings.start();
+	long begin = RequestTimings.begin();
+	assertTrue (begin != 0L);
+	RequestTimings.end(RequestTimings.Phase.MATCH, begin - 1500000L);
+	assertTrue (RequestTimings.stop() == timings);
+	assertTrue (timings.getDuration(RequestTimings.Phase.MATCH) >= 1500000L);
+	assertTrue (timings.getDuration(RequestTimings.Phase.RENDER) == 0L);
+	String header = timings.toServerTiming();
+	assertTrue (header.startsWith("match;dur=1."));
+	assertTrue (header.indexOf("render") < 0);
+	assertTrue (header.indexOf(", total;dur=") > 0);
+}
+
+@Test
+public void test_latencies()
+{
+	RequestLatencies.clear();
+	RequestTimings timings = RequestTimings.start();
+	RequestTimings.end(RequestTimings.Phase.FILE, RequestTimings.begin() - 2000000L);
+	RequestTimings.stop();
+	RequestLatencies.record("/files/*", timings);
+	RequestLatencies.record(null, timings);
+	RequestLatencies.PatternLatency latency = RequestLatencies.getAll().get("/files/*");
+	assertTrue (RequestLatencies.getAll().size() == 1);
+	assertTrue (latency.getHistogram().getCount() == 1);
+	assertTrue (latency.getPhaseTotal(RequestTimings.Phase.FILE) >= 2000);
+	RequestLatencies.clear();
+}
+
+}
@@ -134,6 +134,7 @@ public class TestResourceRequestProcessor{
 			String content = " body { color: #123456; } \n a { color: #567890; }";
 			
 			EasyMock.expect(resourceMapMock.getResource(resourceBasePath)).andReturn(content.getBytes());
+			EasyMock.expect(resourceMapMock.getGzipResource(resourceBasePath)).andReturn(null);
 			ServletOutputStream os = EasyMock.createMock(ServletOutputStream.class);
 			EasyMock.expect(response.getOutputStream()).andReturn(os);
 			
@@ -191,6 +192,7 @@ public class TestResourceRequestProcessor{
 			String content = "<html>1234</html>";
 			
 			EasyMock.expect(resourceMapMock.getResource("/base.html")).andReturn(content.getBytes());
+			EasyMock.expect(resourceMapMock.getGzipResource("/base.html")).andReturn(null);
 			ServletOutputStream os = EasyMock.createMock(ServletOutputStream.class);
 			EasyMock.expect(response.getOutputStream()).andReturn(os);
 			
@@ -230,6 +232,7 @@ public class TestResourceRequestProcessor{
 			String content = "<html>1234</html>";
 			
 			EasyMock.expect(resourceMapMock.getResource("/base.html")).andReturn(content.getBytes());
+			EasyMock.expect(resourceMapMock.getGzipResource("/base.html")).andReturn(null);
 			ServletOutputStream os = EasyMock.createMock(ServletOutputStream.class);
 			EasyMock.expect(response.getOutputStream()).andReturn(os);
 			
@@ -0,0 +1,73 @@
+package com.webpagebytes.cms.engine;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.webpagebytes.cms.WPBCmsModel;
+
+@RunWith(PowerMockRunner.class)
+public class TestRootModelMap {
+
+@Test
+public void test_view()
+{
+	WPBCmsModel cmsModel = new WPBCmsModel();
+	Map<String, String> globals = new HashMap<String, String>();
+	cmsModel.put("wpbGlobals", globals);
+	RootModelMap rootMap = new RootModelMap(cmsModel);
+	rootMap.put("WPB_LOCALE_LANGUAGE", "en");
+
+	assertTrue (rootMap.get("wpbGlobals") == globals);
+	assertTrue (rootMap.get("WPB_LOCALE_LANGUAGE").equals("en"));
+	assertTrue (rootMap.containsKey("wpbGlobals"));
+	assertTrue (rootMap.size() == 2);
+	// the cms model is not changed
+	assertTrue (cmsModel.size() == 1);
+	assertTrue (! cmsModel.containsKey("WPB_LOCALE_LANGUAGE"));
+}
+
+@Test
+public void test_put_hides_model()
+{
+	WPBCmsModel cmsModel = new WPBCmsModel();
+	cmsModel.put("key", new HashMap<String, String>());
+	RootModelMap rootMap = new RootModelMap(cmsModel);
+	rootMap.put("key", null);
+	assertTrue (rootMap.get("key") == null);
+	assertTrue (cmsModel.get("key") != null);
+}
+
+@Test
+public void test_remove_hides_model()
+{
+	WPBCmsModel cmsModel = new WPBCmsModel();
+	Map<String, String> keyModel = new HashMap<String, String>();
+	cmsModel.put("key", keyModel);
+	cmsModel.put("other", new HashMap<String, String>());
+	RootModelMap rootMap = new RootModelMap(cmsModel);
+	rootMap.put("added", "value");
+
+	assertTrue (rootMap.remove("key") == keyModel);
+	assertTrue (rootMap.remove("added").equals("value"));
+	assertTrue (rootMap.get("key") == null);
+	assertTrue (! rootMap.containsKey("key"));
+	assertTrue (! rootMap.containsKey("added"));
+	assertTrue (rootMap.size() == 1);
+	assertTrue (rootMap.keySet().contains("other"));
+	// the cms model keeps the key
+	assertTrue (cmsModel.get("key") == keyModel);
+
+	rootMap.put("key", "again");
+	assertTrue (rootMap.get("key").equals("again"));
+	rootMap.clear();
+	assertTrue (rootMap.isEmpty());
+	assertTrue (cmsModel.size() == 2);
+}
+
+}
@@ -0,0 +1,213 @@
+package com.webpagebytes.cms.engine;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.io.FileUtils;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.webpagebytes.cms.WPBAdminDataStorage;
+import com.webpagebytes.cms.WPBUrisCache;
+import com.webpagebytes.cms.cmsdata.WPBFile;
+import com.webpagebytes.cms.cmsdata.WPBUri;
+import com.webpagebytes.cms.exception.WPBIOException;
+
+@RunWith(PowerMockRunner.class)
+public class TestStaticSiteExporter {
+
+/*
+ * Returns an exporter of the files by uri, a null content fails the export of the uri
+ */
+private StaticSiteExporter createFilesExporter(Map<String, String> contents) throws Exception
+{
+	WPBUrisCache urisCacheMock = EasyMock.createMock(WPBUrisCache.class);
+	WPBCacheInstances cacheInstancesMock = EasyMock.createMock(WPBCacheInstances.class);
+	FileContentBuilder fileContentBuilderMock = EasyMock.createMock(FileContentBuilder.class);
+	EasyMock.expect(cacheInstancesMock.getUriCache()).andReturn(urisCacheMock).anyTimes();
+	EasyMock.expect(urisCacheMock.getAllUris(WPBUrisCache.HTTP_GET_INDEX)).andReturn(contents.keySet()).anyTimes();
+	for(Map.Entry<String, String> entry: contents.entrySet())
+	{
+		WPBUri uri = new WPBUri();
+		uri.setUri(entry.getKey());
+		uri.setEnabled(1);
+		uri.setResourceType(WPBUri.RESOURCE_TYPE_FILE);
+		uri.setResourceExternalKey(entry.getKey());
+		WPBFile file = new WPBFile();
+		file.setExternalKey(entry.getKey());
+		file.setAdjustedContentType("text/css");
+		EasyMock.expect(urisCacheMock.get(entry.getKey(), WPBUrisCache.HTTP_GET_INDEX)).andReturn(uri).anyTimes();
+		EasyMock.expect(fileContentBuilderMock.find(entry.getKey())).andReturn(file).anyTimes();
+		fileContentBuilderMock.writeFileContent(EasyMock.eq(file), EasyMock.anyObject(OutputStream.class));
+		final String content = entry.getValue();
+		EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+			public Object answer() throws Throwable
+			{
+				if (content == null)
+				{
+					throw new WPBIOException("cannot read the file");
+				}
+				((OutputStream)EasyMock.getCurrentArguments()[1]).write(content.getBytes("ISO-8859-1"));
+				return null;
+			}
+		}).anyTimes();
+	}
+	EasyMock.replay(urisCacheMock, cacheInstancesMock, fileContentBuilderMock);
+	return new StaticSiteExporter(cacheInstancesMock, null, null, fileContentBuilderMock, null, "http://localhost", 2);
+}
+
+@Test
+public void test_export_twice()
+{
+	File directory = new File(FileUtils.getTempDirectory(), "wpb-test-export-" + System.nanoTime());
+	try
+	{
+		StringBuilder large = new StringBuilder();
+		while (large.length() < 4 * GzipEncoding.MIN_SIZE)
+		{
+			large.append("body { color: red; }\n");
+		}
+		Map<String, String> contents = new HashMap<String, String>();
+		contents.put("/a.css", large.toString());
+		contents.put("/b.css", "b");
+		contents.put("/c.css", "c");
+		// compressible type and large enough but random bytes, its gzip variant is not smaller
+		StringBuilder random = new StringBuilder();
+		Random generator = new Random(7);
+		while (random.length() < 2 * GzipEncoding.MIN_SIZE)
+		{
+			random.append((char) generator.nextInt(256));
+		}
+		contents.put("/d.css", random.toString());
+		StaticSiteExporter.Result result = createFilesExporter(contents).export(directory);
+		assertTrue (result.getWritten() == 4);
+		assertTrue (result.getErrors().size() == 0);
+		assertTrue (FileUtils.readFileToString(new File(directory, "a.css"), "UTF-8").equals(large.toString()));
+		assertTrue (new File(directory, "a.css" + StaticSiteExporter.GZIP_SUFFIX).exists());
+		assertTrue (new File(directory, "b.css").exists());
+		assertTrue (! new File(directory, "d.css" + StaticSiteExporter.GZIP_SUFFIX).exists());
+		assertTrue (! StaticSiteExporter.readManifest(directory).get("d.css").gzip);
+		assertTrue (new File(directory, "a.css").setLastModified(1000L));
+
+		// b.css is not exported anymore and c.css fails
+		contents.remove("/b.css");
+		contents.put("/c.css", null);
+		result = createFilesExporter(contents).export(directory);
+		assertTrue (result.getWritten() == 0);
+		assertTrue (result.getUnchanged() == 2);
+		assertTrue (result.getRemoved() == 1);
+		assertTrue (result.getErrors().containsKey("/c.css"));
+		assertTrue (new File(directory, "a.css").lastModified() == 1000L);
+		assertTrue (!new File(directory, "b.css").exists());
+		assertTrue (FileUtils.readFileToString(new File(directory, "c.css"), "UTF-8").equals("c"));
+
+		Map<String, StaticSiteExporter.Output> outputs = StaticSiteExporter.readManifest(directory);
+		assertTrue (outputs.size() == 3);
+		assertTrue (! outputs.get("d.css").gzip);
+		assertTrue (outputs.containsKey("a.css") && outputs.get("a.css").gzip);
+		assertTrue (outputs.containsKey("c.css"));
+		// no temporary file is left
+		assertTrue (directory.list().length == 5);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	} finally
+	{
+		FileUtils.deleteQuietly(directory);
+	}
+}
+
+@Test
+public void test_outputPath()
+{
+	assertTrue (StaticSiteExporter.outputPath("/", true).equals("index.html"));
+	assertTrue (StaticSiteExporter.outputPath("/news/", true).equals("news/index.html"));
+	assertTrue (StaticSiteExporter.outputPath("/news", true).equals("news/index.html"));
+	assertTrue (StaticSiteExporter.outputPath("/news.html", true).equals("news.html"));
+	assertTrue (StaticSiteExporter.outputPath("/css/site.css", false).equals("css/site.css"));
+	assertTrue (StaticSiteExporter.outputPath("/../etc/passwd", false) == null);
+	assertTrue (StaticSiteExporter.outputPath("/a/../b", true) == null);
+}
+
+@Test
+public void test_expand_literal_source()
+{
+	try
+	{
+		WPBAdminDataStorage storageMock = org.easymock.EasyMock.createMock(WPBAdminDataStorage.class);
+		org.easymock.EasyMock.replay(storageMock);
+		StaticSiteExporter exporter = new StaticSiteExporter(null, null, null, null, storageMock, "http://localhost", 1);
+		exporter.setParameterSource("lang", "en, fr");
+		exporter.setParameterSource("key", "a,b,../x,c/d");
+
+		List<URLMatcherResult> results = exporter.expand("/{lang}/news/{key}", new HashMap<String, List<String>>());
+		Set<String> uris = new HashSet<String>();
+		for(URLMatcherResult result: results)
+		{
+			uris.add(result.getUrlRequest());
+			assertTrue (result.getUrlPattern().equals("/{lang}/news/{key}"));
+		}
+		assertTrue (uris.size() == 4);
+		assertTrue (uris.contains("/en/news/a") && uris.contains("/fr/news/b"));
+
+		assertTrue (exporter.expand("/items/{id}", new HashMap<String, List<String>>()) == null);
+		assertTrue (exporter.expand("/about", new HashMap<String, List<String>>()).size() == 1);
+		org.easymock.EasyMock.verify(storageMock);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_readManifest_writeZip()
+{
+	File directory = new File(FileUtils.getTempDirectory(), "wpb-test-export-" + System.nanoTime());
+	try
+	{
+		FileUtils.writeStringToFile(new File(directory, "index.html"), "<p>home</p>", "UTF-8");
+		FileUtils.writeStringToFile(new File(directory, "index.html.gz"), "gz", "UTF-8");
+		FileUtils.writeStringToFile(new File(directory, "stale.html"), "not in the manifest", "UTF-8");
+		FileUtils.writeStringToFile(new File(directory, StaticSiteExporter.MANIFEST_FILE),
+				"{\"index.html\":{\"hash\":\"1a\",\"contentType\":\"text/html\",\"size\":11,\"gzip\":true}}", "UTF-8");
+
+		Map<String, StaticSiteExporter.Output> outputs = StaticSiteExporter.readManifest(directory);
+		assertTrue (outputs.size() == 1);
+		assertTrue (outputs.get("index.html").hash.equals("1a"));
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		StaticSiteExporter.writeZip(directory, bos);
+		ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(bos.toByteArray()));
+		Set<String> names = new HashSet<String>();
+		ZipEntry entry;
+		while ((entry = zis.getNextEntry()) != null)
+		{
+			names.add(entry.getName());
+		}
+		assertTrue (names.size() == 3);
+		assertTrue (names.contains("index.html") && names.contains("index.html.gz") && names.contains(StaticSiteExporter.MANIFEST_FILE));
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	} finally
+	{
+		FileUtils.deleteQuietly(directory);
+	}
+}
+
+}
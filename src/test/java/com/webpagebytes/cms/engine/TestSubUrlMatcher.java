@@ -0,0 +1,115 @@
+package com.webpagebytes.cms.engine;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+public class TestSubUrlMatcher {
+
+@Test
+public void test_compile_parts()
+{
+	SubUrlMatcher matcher = SubUrlMatcher.compile("test-{keywords}-id-{id}");
+	assertTrue (matcher.getPrefix().equals("test-"));
+	assertTrue (matcher.getParamsCount() == 2);
+	assertTrue (matcher.getParamName(0).equals("keywords"));
+	assertTrue (matcher.getParamName(1).equals("id"));
+	assertTrue (matcher.getSubUrlPattern().equals("test-{keywords}-id-{id}"));
+}
+
+@Test
+public void test_match_bounds()
+{
+	SubUrlMatcher matcher = SubUrlMatcher.compile("test-{keywords}-id-{id}");
+	int[] bounds = new int[4];
+	String subUrl = "test-sports-news-id-345";
+	assertTrue (matcher.match(subUrl, bounds));
+	assertTrue (subUrl.substring(bounds[0], bounds[1]).equals("sports-news"));
+	assertTrue (subUrl.substring(bounds[2], bounds[3]).equals("345"));
+}
+
+@Test
+public void test_match_asterix_suffix()
+{
+	SubUrlMatcher matcher = SubUrlMatcher.compile("{*}-{id}.html");
+	Map<String, String> expectParams = new HashMap<String, String>();
+	expectParams.put("*", "a-b-c");
+	expectParams.put("id", "12");
+	assertTrue (matcher.matchToMap("a-b-c-12.html").equals(expectParams));
+	assertTrue (matcher.matchToMap("a-b-c-12.htm") == null);
+}
+
+@Test
+public void test_match_suffix_overlaps_prefix()
+{
+	SubUrlMatcher matcher = SubUrlMatcher.compile("ab{id}ab");
+	assertTrue (matcher.matchToMap("ab") == null);
+	assertTrue (matcher.matchToMap("abab").get("id").equals(""));
+}
+
+@Test
+public void test_wrong_formatted()
+{
+	assertTrue (SubUrlMatcher.compile("test-{id").matchToMap("test-123") == null);
+	assertTrue (SubUrlMatcher.compile("test-{id-{key}").matchToMap("test-123-abc") == null);
+}
+
+@Test
+public void test_no_params()
+{
+	SubUrlMatcher matcher = SubUrlMatcher.compile("test");
+	assertTrue (matcher.getParamsCount() == 0);
+	assertTrue (matcher.matchToMap("test").isEmpty());
+	assertTrue (matcher.matchToMap("testX") == null);
+}
+
+@Test
+public void test_constraints()
+{
+	SubUrlMatcher matcher = SubUrlMatcher.compile("{slug:alpha}-{id:int}");
+	assertTrue (matcher.getConstraintsCount() == 2);
+	assertTrue (matcher.getParamName(0).equals("slug"));
+	Map<String, String> expectParams = new HashMap<String, String>();
+	expectParams.put("slug", "news");
+	expectParams.put("id", "12");
+	assertTrue (matcher.matchToMap("news-12").equals(expectParams));
+	assertTrue (matcher.matchToMap("news-12a") == null);
+	assertTrue (matcher.matchToMap("news1-12") == null);
+	assertTrue (matcher.matchToMap("news-") == null);
+	
+	matcher = SubUrlMatcher.compile("p{code:alnum}");
+	assertTrue (matcher.matchToMap("pAb12").get("code").equals("Ab12"));
+	assertTrue (matcher.matchToMap("pAb-12") == null);
+}
+
+@Test
+public void test_regex_constraint()
+{
+	SubUrlMatcher matcher = SubUrlMatcher.compile("{lang:[a-z]{2}}_{country:[A-Z]{2}}");
+	assertTrue (matcher.getPrefix().equals(""));
+	assertTrue (matcher.getConstraintsCount() == 2);
+	Map<String, String> expectParams = new HashMap<String, String>();
+	expectParams.put("lang", "en");
+	expectParams.put("country", "GB");
+	assertTrue (matcher.matchToMap("en_GB").equals(expectParams));
+	assertTrue (matcher.matchToMap("eng_GB") == null);
+	assertTrue (matcher.matchToMap("en_gb") == null);
+}
+
+@Test
+public void test_wrong_constraints()
+{
+	assertTrue (SubUrlMatcher.compile("{id:[a-z}").matchToMap("a") == null);
+	assertTrue (SubUrlMatcher.compile("{id:}").matchToMap("a") == null);
+	assertTrue (SubUrlMatcher.compileConstraint("(a") == null);
+	assertTrue (SubUrlMatcher.compileConstraint("a/b") == null);
+	assertTrue (SubUrlMatcher.compileConstraint("int") != null);
+}
+
+}
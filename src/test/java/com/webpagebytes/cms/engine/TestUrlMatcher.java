@@ -2,16 +2,22 @@ package com.webpagebytes.cms.engine;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
+import org.easymock.EasyMock;
 import org.junit.Test;
 import org.junit.Before;
 import org.junit.runner.RunWith;
 import org.powermock.modules.junit4.PowerMockRunner;
 
+import com.webpagebytes.cms.WPBUrisCache;
+import com.webpagebytes.cms.WPBUrisCache.UriChange;
+import com.webpagebytes.cms.cmsdata.WPBUri;
 import com.webpagebytes.cms.engine.URLMatcher;
 import com.webpagebytes.cms.engine.URLMatcherResult;
 
@@ -433,4 +439,253 @@ public void test_matchAll_empty2()
     assertTrue(result == null);
 }
 
+@Test
+public void test_matchUrlToPattern_more_clear_suburls_wins()
+{
+    URLMatcher urlMarcher = new URLMatcher();
+    Set<String> patterns = new HashSet<String>();
+    patterns.add("/{a}/x/y");
+    patterns.add("/b/{c}/{d}");
+    urlMarcher.initialize(patterns, 11L);
+    URLMatcherResult result = urlMarcher.matchUrlToPattern("/b/x/y");
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("a", "b");
+    
+    assertTrue (result.getUrlPattern().equals("/{a}/x/y"));
+    assertTrue (result.getPatternParams().equals(params));
+}
+
+@Test
+public void test_matchUrlToPattern_common_prefix_wins()
+{
+    URLMatcher urlMarcher = new URLMatcher();
+    Set<String> patterns = new HashSet<String>();
+    patterns.add("/news/{id}");
+    patterns.add("/news/item-{id}");
+    urlMarcher.initialize(patterns, 12L);
+    URLMatcherResult result = urlMarcher.matchUrlToPattern("/news/item-12");
+    Map<String, String> params = new HashMap<String, String>();
+    params.put("id", "12");
+    
+    assertTrue (result.getUrlPattern().equals("/news/item-{id}"));
+    assertTrue (result.getPatternParams().equals(params));
+    
+    result = urlMarcher.matchUrlToPattern("/news/other-12");
+    assertTrue (result.getUrlPattern().equals("/news/{id}"));
+}
+
+@Test
+public void test_matchUrlToPattern_many_patterns()
+{
+    URLMatcher urlMarcher = new URLMatcher();
+    Set<String> patterns = new HashSet<String>();
+    for(int i = 0; i< 5000; i++)
+    {
+        patterns.add("/section" + i + "/{id}");
+        patterns.add("/item" + i + "-{id}");
+    }
+    urlMarcher.initialize(patterns, 13L);
+    URLMatcherResult result = urlMarcher.matchUrlToPattern("/section4321/abc");
+    assertTrue (result.getUrlPattern().equals("/section4321/{id}"));
+    assertTrue (result.getPatternParams().get("id").equals("abc"));
+    
+    result = urlMarcher.matchUrlToPattern("/item17-xyz");
+    assertTrue (result.getUrlPattern().equals("/item17-{id}"));
+    assertTrue (result.getPatternParams().get("id").equals("xyz"));
+    
+    assertTrue (urlMarcher.matchUrlToPattern("/section5000/abc") == null);
+}
+
+@Test
+public void test_refresh_fingerprint_changed()
+{
+    try
+    {
+        WPBUrisCache urisCacheMock = EasyMock.createMock(WPBUrisCache.class);
+        Set<String> patterns = new HashSet<String>();
+        patterns.add("/new-{id}");
+        EasyMock.expect(urisCacheMock.getCacheFingerPrint()).andReturn(20L).times(2);
+        EasyMock.expect(urisCacheMock.getChangesSince(9L)).andReturn(null);
+        EasyMock.expect(urisCacheMock.getAllUris(WPBUrisCache.HTTP_GET_INDEX)).andReturn(patterns);
+        EasyMock.replay(urisCacheMock);
+        
+        urlMarcher.refresh(urisCacheMock, WPBUrisCache.HTTP_GET_INDEX);
+        
+        EasyMock.verify(urisCacheMock);
+        assertTrue (urlMarcher.getFingerPrint().equals(20L));
+        assertTrue (urlMarcher.matchUrlToPattern("/new-1").getUrlPattern().equals("/new-{id}"));
+        assertTrue (urlMarcher.matchUrlToPattern("/test-1") == null);
+    } catch (Exception e)
+    {
+        assertTrue (false);
+    }
+}
+
+@Test
+public void test_refresh_fingerprint_not_changed()
+{
+    try
+    {
+        WPBUrisCache urisCacheMock = EasyMock.createMock(WPBUrisCache.class);
+        EasyMock.expect(urisCacheMock.getCacheFingerPrint()).andReturn(9L);
+        EasyMock.replay(urisCacheMock);
+        
+        urlMarcher.refresh(urisCacheMock, WPBUrisCache.HTTP_GET_INDEX);
+        
+        EasyMock.verify(urisCacheMock);
+        assertTrue (urlMarcher.matchUrlToPattern("/test-1").getUrlPattern().equals("/test-{id}"));
+    } catch (Exception e)
+    {
+        assertTrue (false);
+    }
+}
+
+@Test
+public void test_refresh_not_initialized()
+{
+    try
+    {
+        URLMatcher urlMarcher = new URLMatcher();
+        assertTrue (urlMarcher.matchUrlToPattern("/test") == null);
+        WPBUrisCache urisCacheMock = EasyMock.createMock(WPBUrisCache.class);
+        Set<String> patterns = new HashSet<String>();
+        patterns.add("/test");
+        EasyMock.expect(urisCacheMock.getCacheFingerPrint()).andReturn(1L);
+        EasyMock.expect(urisCacheMock.getAllUris(WPBUrisCache.HTTP_GET_INDEX)).andReturn(patterns);
+        EasyMock.replay(urisCacheMock);
+        
+        urlMarcher.refresh(urisCacheMock, WPBUrisCache.HTTP_GET_INDEX);
+        
+        EasyMock.verify(urisCacheMock);
+        assertTrue (urlMarcher.matchUrlToPattern("/test").getUrlPattern().equals("/test"));
+    } catch (Exception e)
+    {
+        assertTrue (false);
+    }
+}
+
+private WPBUri createUri(String uri, String httpOperation)
+{
+    WPBUri wbUri = new WPBUri();
+    wbUri.setUri(uri);
+    wbUri.setHttpOperation(httpOperation);
+    return wbUri;
+}
+
+@Test
+public void test_refresh_apply_changes()
+{
+    try
+    {
+        WPBUrisCache urisCacheMock = EasyMock.createMockBuilder(WPBUrisCache.class).
+                addMockedMethod("getCacheFingerPrint").addMockedMethod("getChangesSince").addMockedMethod("getAllUris").createMock();
+        List<UriChange> changes = new ArrayList<UriChange>();
+        changes.add(new UriChange(null, createUri("/added-{id}", "GET"), 9L, 10L));
+        changes.add(new UriChange(createUri("/test-{id}", "GET"), null, 10L, 11L));
+        changes.add(new UriChange(createUri("/xyz/abc", "GET"), createUri("/xyz/def", "GET"), 11L, 12L));
+        changes.add(new UriChange(null, createUri("/other-{id}", "POST"), 12L, 13L));
+        changes.add(new UriChange(createUri("/files/img/{**}", "GET"), null, 13L, 14L));
+        EasyMock.expect(urisCacheMock.getCacheFingerPrint()).andReturn(14L).times(2);
+        EasyMock.expect(urisCacheMock.getChangesSince(9L)).andReturn(changes);
+        EasyMock.replay(urisCacheMock);
+        
+        urlMarcher.refresh(urisCacheMock, WPBUrisCache.HTTP_GET_INDEX);
+        
+        EasyMock.verify(urisCacheMock);
+        assertTrue (urlMarcher.getFingerPrint().equals(14L));
+        assertTrue (urlMarcher.matchUrlToPattern("/added-1").getUrlPattern().equals("/added-{id}"));
+        assertTrue (urlMarcher.matchUrlToPattern("/test-1").getUrlPattern().equals("/{id}"));
+        assertTrue (urlMarcher.matchUrlToPattern("/news-1").getUrlPattern().equals("/news-{id}"));
+        assertTrue (urlMarcher.matchUrlToPattern("/xyz/abc") == null);
+        assertTrue (urlMarcher.matchUrlToPattern("/xyz/def").getUrlPattern().equals("/xyz/def"));
+        assertTrue (urlMarcher.matchUrlToPattern("/other-1").getUrlPattern().equals("/{id}"));
+        assertTrue (urlMarcher.matchUrlToPattern("/files/img/x.png").getUrlPattern().equals("/files/{**}"));
+        assertTrue (urlMarcher.getPatterns().contains("/added-{id}"));
+        assertTrue (! urlMarcher.getPatterns().contains("/test-{id}"));
+    } catch (Exception e)
+    {
+        assertTrue (false);
+    }
+}
+
+@Test
+public void test_matchUrlToPattern_results_cache()
+{
+    URLMatcherResult result1 = urlMarcher.matchUrlToPattern("/news-12?x=1");
+    URLMatcherResult result2 = urlMarcher.matchUrlToPattern("/news-12");
+    assertTrue (result1 == result2);
+    assertTrue (result2.getPatternParams().get("id").equals("12"));
+    assertTrue (urlMarcher.getCacheMisses() == 1);
+    assertTrue (urlMarcher.getCacheHits() == 1);
+    
+    assertTrue (urlMarcher.matchUrlToPattern("/a/b/c/d/e") == null);
+    assertTrue (urlMarcher.matchUrlToPattern("/a/b/c/d/e") == null);
+    assertTrue (urlMarcher.getCacheMisses() == 2);
+    assertTrue (urlMarcher.getCacheHits() == 2);
+}
+
+@Test
+public void test_matchUrlToPattern_results_cache_disabled()
+{
+    URLMatcher urlMarcher = new URLMatcher();
+    urlMarcher.setResultsCacheSize(0);
+    Set<String> patterns = new HashSet<String>();
+    patterns.add("/news-{id}");
+    urlMarcher.initialize(patterns, 1L);
+    URLMatcherResult result1 = urlMarcher.matchUrlToPattern("/news-12");
+    URLMatcherResult result2 = urlMarcher.matchUrlToPattern("/news-12");
+    assertTrue (result1 != result2);
+    assertTrue (result2.getUrlPattern().equals("/news-{id}"));
+    assertTrue (urlMarcher.getCacheMisses() == 0);
+    assertTrue (urlMarcher.getCacheHits() == 0);
+}
+
+@Test
+public void test_matchUrlToPattern_results_cache_refresh()
+{
+    try
+    {
+        assertTrue (urlMarcher.matchUrlToPattern("/xyz/def") == null);
+        WPBUrisCache urisCacheMock = EasyMock.createMock(WPBUrisCache.class);
+        List<UriChange> changes = new ArrayList<UriChange>();
+        changes.add(new UriChange(null, createUri("/xyz/def", "GET"), 9L, 10L));
+        EasyMock.expect(urisCacheMock.getCacheFingerPrint()).andReturn(10L).times(2);
+        EasyMock.expect(urisCacheMock.getChangesSince(9L)).andReturn(changes);
+        EasyMock.expect(urisCacheMock.httpToOperationIndex("GET")).andReturn(WPBUrisCache.HTTP_GET_INDEX);
+        EasyMock.replay(urisCacheMock);
+        
+        urlMarcher.refresh(urisCacheMock, WPBUrisCache.HTTP_GET_INDEX);
+        
+        EasyMock.verify(urisCacheMock);
+        assertTrue (urlMarcher.matchUrlToPattern("/xyz/def").getUrlPattern().equals("/xyz/def"));
+        assertTrue (urlMarcher.getCacheMisses() == 2);
+    } catch (Exception e)
+    {
+        assertTrue (false);
+    }
+}
+
+@Test
+public void test_matchUrlToPattern_constraints()
+{
+    URLMatcher urlMarcher = new URLMatcher();
+    Set<String> patterns = new HashSet<String>();
+    patterns.add("/news/{slug}");
+    patterns.add("/news/{id:int}");
+    patterns.add("/{lang:[a-z]{2}}/products/{id:int}");
+    patterns.add("/{section}/products/{name}");
+    urlMarcher.initialize(patterns, 1L);
+    
+    URLMatcherResult result = urlMarcher.matchUrlToPattern("/news/123");
+    assertTrue (result.getUrlPattern().equals("/news/{id:int}"));
+    assertTrue (result.getPatternParams().get("id").equals("123"));
+    assertTrue (urlMarcher.matchUrlToPattern("/news/abc").getUrlPattern().equals("/news/{slug}"));
+    
+    result = urlMarcher.matchUrlToPattern("/en/products/42");
+    assertTrue (result.getUrlPattern().equals("/{lang:[a-z]{2}}/products/{id:int}"));
+    assertTrue (result.getPatternParams().get("lang").equals("en"));
+    assertTrue (urlMarcher.matchUrlToPattern("/eng/products/42").getUrlPattern().equals("/{section}/products/{name}"));
+    assertTrue (urlMarcher.matchUrlToPattern("/en/products/x42").getUrlPattern().equals("/{section}/products/{name}"));
+}
+
 }
@@ -3,6 +3,7 @@ package com.webpagebytes.cms.engine;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.Writer;
 
 
 
@@ -11,6 +12,7 @@ import java.util.logging.Logger;
 
 import org.easymock.Capture;
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -103,6 +105,18 @@ public void test_writeFileContent_exception()
 	}		
 }
 
+private void expectPageContent(PageContentBuilder pageContentBuilderMock, WPBPage pageMock, InternalModel modelMock, final String content) throws WPBException
+{
+	pageContentBuilderMock.buildPageContent(EasyMock.eq(pageMock), EasyMock.eq(modelMock), EasyMock.anyObject(Writer.class));
+	EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+		public Object answer() throws Throwable
+		{
+			((Writer)EasyMock.getCurrentArguments()[2]).write(content);
+			return null;
+		}
+	});
+}
+
 @Test
 public void test_writePageContent()
 {
@@ -115,7 +129,7 @@ public void test_writePageContent()
 		WPBPage pageMock = EasyMock.createMock(WPBPage.class);
 		InternalModel modelMock = EasyMock.createMock(InternalModel.class);
 		EasyMock.expect(pageContentBuilderMock.findWebPage(externalKey)).andReturn(pageMock);
-		EasyMock.expect(pageContentBuilderMock.buildPageContent(pageMock, modelMock)).andReturn(content);
+		expectPageContent(pageContentBuilderMock, pageMock, modelMock, content);
 		EasyMock.replay(fileContentBuilderMock, pageContentBuilderMock, pageMock, modelMock, osMock);
 		boolean result = contentProvider.writePageContent(externalKey, modelMock, bos);
 		assertTrue (bos.toString().equals(content));
@@ -157,14 +171,14 @@ public void test_writePageContent_ioexception()
 		WPBPage pageMock = EasyMock.createMock(WPBPage.class);
 		InternalModel modelMock = EasyMock.createMock(InternalModel.class);
 		EasyMock.expect(pageContentBuilderMock.findWebPage(externalKey)).andReturn(pageMock);
-		EasyMock.expect(pageContentBuilderMock.buildPageContent(pageMock, modelMock)).andReturn(content);
+		expectPageContent(pageContentBuilderMock, pageMock, modelMock, content);
 		Capture<byte[]> capture = new Capture<byte[]>();
-		osMock.write(EasyMock.capture(capture));
+		osMock.write(EasyMock.capture(capture), EasyMock.eq(0), EasyMock.eq(content.length()));
 		EasyMock.expectLastCall().andThrow(new IOException());
 		EasyMock.replay(fileContentBuilderMock, pageContentBuilderMock, pageMock, modelMock, osMock);
 		boolean result = contentProvider.writePageContent(externalKey, modelMock, osMock);
 		assertTrue (result == false);
-		assertTrue ((new String(capture.getValue()).equals(content)));
+		assertTrue ((new String(capture.getValue(), 0, content.length()).equals(content)));
 	} catch (Exception e)
 	{
 		assertTrue(false);
@@ -182,7 +196,8 @@ public void test_writePageContent_wbexception()
 		WPBPage pageMock = EasyMock.createMock(WPBPage.class);
 		InternalModel modelMock = EasyMock.createMock(InternalModel.class);
 		EasyMock.expect(pageContentBuilderMock.findWebPage(externalKey)).andReturn(pageMock);
-		EasyMock.expect(pageContentBuilderMock.buildPageContent(pageMock, modelMock)).andThrow(new WPBException(""));
+		pageContentBuilderMock.buildPageContent(EasyMock.eq(pageMock), EasyMock.eq(modelMock), EasyMock.anyObject(Writer.class));
+		EasyMock.expectLastCall().andThrow(new WPBException(""));
 		EasyMock.replay(fileContentBuilderMock, pageContentBuilderMock, pageMock, modelMock, osMock);
 		boolean result = contentProvider.writePageContent(externalKey, modelMock, osMock);
 		assertTrue (result == false);
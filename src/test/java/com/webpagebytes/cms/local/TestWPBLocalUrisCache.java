@@ -0,0 +1,167 @@
+package com.webpagebytes.cms.local;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.easymock.EasyMock;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.reflect.Whitebox;
+
+import com.webpagebytes.cms.WPBAdminDataStorage;
+import com.webpagebytes.cms.WPBUrisCache;
+import com.webpagebytes.cms.cmsdata.WPBUri;
+import com.webpagebytes.cms.engine.WPBAdminDataStorageFactory;
+
+@RunWith(PowerMockRunner.class)
+public class TestWPBLocalUrisCache {
+
+private WPBAdminDataStorage adminStorageMock;
+private List<WPBUri> records;
+
+private static WPBUri createUri(long privkey, String uri, String httpOperation)
+{
+	WPBUri record = new WPBUri();
+	record.setPrivkey(privkey);
+	record.setUri(uri);
+	record.setHttpOperation(httpOperation);
+	record.setExternalKey("key" + privkey);
+	return record;
+}
+
+@Before
+public void setUp() throws Exception
+{
+	records = new ArrayList<WPBUri>();
+	records.add(createUri(1L, "/index", "GET"));
+	records.add(createUri(2L, "/form", "POST"));
+	adminStorageMock = EasyMock.createMock(WPBAdminDataStorage.class);
+	EasyMock.expect(adminStorageMock.getAllRecords(WPBUri.class)).andReturn(records).anyTimes();
+	EasyMock.replay(adminStorageMock);
+	Whitebox.setInternalState(WPBAdminDataStorageFactory.class, "instance", adminStorageMock);
+}
+
+@After
+public void tearDown()
+{
+	Whitebox.setInternalState(WPBAdminDataStorageFactory.class, "instance", (WPBAdminDataStorage) null);
+}
+
+@Test
+public void test_refreshRecord_update()
+{
+	try
+	{
+		WPBLocalUrisCache cache = new WPBLocalUrisCache();
+		Long fingerPrint = cache.getCacheFingerPrint();
+		assertTrue (cache.get("/index", WPBUrisCache.HTTP_GET_INDEX) != null);
+
+		WPBUri updated = createUri(1L, "/home", "GET");
+		cache.refreshRecord(updated);
+
+		assertTrue (cache.get("/index", WPBUrisCache.HTTP_GET_INDEX) == null);
+		assertTrue (cache.get("/home", WPBUrisCache.HTTP_GET_INDEX) == updated);
+		assertTrue (cache.get("/form", WPBUrisCache.HTTP_POST_INDEX) != null);
+		assertTrue (!cache.getCacheFingerPrint().equals(fingerPrint));
+
+		List<WPBUrisCache.UriChange> changes = cache.getChangesSince(fingerPrint);
+		assertTrue (changes.size() == 1);
+		assertTrue (changes.get(0).getPreviousUri().getUri().equals("/index"));
+		assertTrue (changes.get(0).getCurrentUri() == updated);
+		assertTrue (cache.getChangesSince(cache.getCacheFingerPrint()).size() == 0);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_removeRecord()
+{
+	try
+	{
+		WPBLocalUrisCache cache = new WPBLocalUrisCache();
+		Long fingerPrint = cache.getCacheFingerPrint();
+		cache.removeRecord(createUri(2L, "/form", "POST"));
+
+		assertTrue (cache.get("/form", WPBUrisCache.HTTP_POST_INDEX) == null);
+		List<WPBUrisCache.UriChange> changes = cache.getChangesSince(fingerPrint);
+		assertTrue (changes.size() == 1);
+		assertTrue (changes.get(0).getCurrentUri() == null);
+
+		// an unknown record is not a change
+		cache.removeRecord(createUri(3L, "/none", "GET"));
+		assertTrue (cache.getChangesSince(fingerPrint).size() == 1);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_getChangesSince_unknown_fingerprint()
+{
+	try
+	{
+		WPBLocalUrisCache cache = new WPBLocalUrisCache();
+		cache.refreshRecord(createUri(3L, "/news", "GET"));
+		assertTrue (cache.getChangesSince(cache.getCacheFingerPrint() + 1) == null);
+		assertTrue (cache.getChangesSince(null) == null);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_changes_bounded()
+{
+	try
+	{
+		WPBLocalUrisCache cache = new WPBLocalUrisCache();
+		Long initialFingerPrint = cache.getCacheFingerPrint();
+		cache.refreshRecord(createUri(10L, "/page0", "GET"));
+		Long firstFingerPrint = cache.getCacheFingerPrint();
+		for(int i = 1; i <= WPBLocalUrisCache.MAX_CHANGES; i++)
+		{
+			cache.refreshRecord(createUri(10L + i, "/page" + i, "GET"));
+		}
+		assertTrue (cache.changes.size() == WPBLocalUrisCache.MAX_CHANGES);
+		// the first change was dropped, a reader that missed it needs a full rebuild
+		assertTrue (cache.getChangesSince(initialFingerPrint) == null);
+		assertTrue (cache.getChangesSince(firstFingerPrint).size() == WPBLocalUrisCache.MAX_CHANGES);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_Refresh_clears_changes()
+{
+	try
+	{
+		WPBLocalUrisCache cache = new WPBLocalUrisCache();
+		Long fingerPrint = cache.getCacheFingerPrint();
+		cache.refreshRecord(createUri(3L, "/news", "GET"));
+		Long changedFingerPrint = cache.getCacheFingerPrint();
+		cache.Refresh();
+
+		assertTrue (cache.changes.size() == 0);
+		assertTrue (cache.getChangesSince(fingerPrint) == null);
+		assertTrue (cache.getChangesSince(changedFingerPrint) == null);
+		// the storage records are loaded again
+		assertTrue (cache.get("/news", WPBUrisCache.HTTP_GET_INDEX) == null);
+		assertTrue (cache.get("/index", WPBUrisCache.HTTP_GET_INDEX) != null);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+}
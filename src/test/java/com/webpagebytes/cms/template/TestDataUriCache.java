@@ -0,0 +1,48 @@
+package com.webpagebytes.cms.template;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+@RunWith(PowerMockRunner.class)
+public class TestDataUriCache {
+
+@Test
+public void test_put_get()
+{
+	DataUriCache cache = new DataUriCache(100);
+	String key = DataUriCache.buildKey("img1", 123L);
+	cache.put(key, "data:image/png;base64,AAAA");
+	assertTrue (cache.get(key).equals("data:image/png;base64,AAAA"));
+	assertTrue (cache.get(DataUriCache.buildKey("img1", 124L)) == null);
+	// 2 bytes per char
+	assertTrue (cache.getTotalBytes() == 52);
+}
+
+@Test
+public void test_byte_budget()
+{
+	DataUriCache cache = new DataUriCache(50);
+	cache.put("a", "0123456789");
+	cache.put("b", "0123456789");
+	// a is used so b is the least recently used one
+	cache.get("a");
+	cache.put("c", "0123456789");
+	assertTrue (cache.get("a") != null);
+	assertTrue (cache.get("b") == null);
+	assertTrue (cache.get("c") != null);
+	assertTrue (cache.getTotalBytes() == 40);
+}
+
+@Test
+public void test_larger_than_budget()
+{
+	DataUriCache cache = new DataUriCache(5);
+	cache.put("a", "0123456789");
+	assertTrue (cache.get("a") == null);
+	assertTrue (cache.size() == 0);
+}
+
+}
@@ -0,0 +1,67 @@
+package com.webpagebytes.cms.template;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import freemarker.template.Configuration;
+import freemarker.template.DefaultObjectWrapper;
+import freemarker.template.Template;
+
+@RunWith(PowerMockRunner.class)
+public class TestFreeMarkerRootModel {
+
+private String render(String source, Map<String, Object> root) throws Exception
+{
+	DefaultObjectWrapper wrapper = new DefaultObjectWrapper();
+	Configuration configuration = new Configuration();
+	configuration.setObjectWrapper(wrapper);
+	Template template = new Template("test", new StringReader(source), configuration);
+	StringWriter out = new StringWriter();
+	template.process(new FreeMarkerRootModel(root, wrapper), out);
+	return out.toString();
+}
+
+@Test
+public void test_get()
+{
+	try
+	{
+		Map<String, Object> root = new HashMap<String, Object>();
+		Map<String, String> globals = new HashMap<String, String>();
+		globals.put("site", "wpb");
+		root.put("wpbGlobals", globals);
+		root.put("title", "home");
+		assertTrue (render("${title} ${wpbGlobals.site}", root).equals("home wpb"));
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_keys_values()
+{
+	try
+	{
+		Map<String, Object> root = new TreeMap<String, Object>();
+		root.put("a", "1");
+		root.put("b", "2");
+		assertTrue (render("${.data_model?size}", root).equals("2"));
+		assertTrue (render("<#list .data_model?keys as key>${key}</#list>", root).equals("ab"));
+		assertTrue (render("<#list .data_model?values as value>${value}</#list>", root).equals("12"));
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+}
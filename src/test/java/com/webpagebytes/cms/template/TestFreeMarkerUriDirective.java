@@ -0,0 +1,76 @@
+package com.webpagebytes.cms.template;
+
+import static org.junit.Assert.*;
+
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.easymock.PowerMock;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.reflect.Whitebox;
+
+import com.webpagebytes.cms.WPBPagesCache;
+import com.webpagebytes.cms.WPBUrisCache;
+import com.webpagebytes.cms.cmsdata.WPBPage;
+import com.webpagebytes.cms.cmsdata.WPBUri;
+import com.webpagebytes.cms.engine.WPBCacheInstances;
+
+import freemarker.core.Environment;
+import freemarker.ext.beans.StringModel;
+import freemarker.template.DefaultObjectWrapper;
+
+@RunWith(PowerMockRunner.class)
+@PrepareForTest({Environment.class})
+public class TestFreeMarkerUriDirective {
+
+@Test
+public void test_execute_memoized_link()
+{
+	try
+	{
+		WPBUri uri = new WPBUri();
+		uri.setExternalKey("uri1");
+		uri.setResourceType(WPBUri.RESOURCE_TYPE_TEXT);
+		uri.setResourceExternalKey("page1");
+		WPBPage page = new WPBPage();
+		page.setIsTemplateSource(0);
+		page.setHash(123L);
+
+		WPBCacheInstances cacheInstancesMock = PowerMock.createMock(WPBCacheInstances.class);
+		WPBUrisCache urisCacheMock = PowerMock.createMock(WPBUrisCache.class);
+		WPBPagesCache pagesCacheMock = PowerMock.createMock(WPBPagesCache.class);
+		EasyMock.expect(cacheInstancesMock.getUriCache()).andReturn(urisCacheMock).anyTimes();
+		EasyMock.expect(urisCacheMock.getCacheFingerPrint()).andReturn(1L).anyTimes();
+		// the uri and the page are looked up only for the first link
+		EasyMock.expect(urisCacheMock.get("/about", WPBUrisCache.HTTP_GET_INDEX)).andReturn(uri);
+		EasyMock.expect(cacheInstancesMock.getPageCache()).andReturn(pagesCacheMock);
+		EasyMock.expect(pagesCacheMock.getByExternalKey("page1")).andReturn(page);
+
+		Environment envMock = PowerMock.createMock(Environment.class);
+		StringWriter outWriter = new StringWriter();
+		EasyMock.expect(envMock.getOut()).andReturn(outWriter).times(2);
+		EasyMock.replay(cacheInstancesMock, urisCacheMock, pagesCacheMock, envMock);
+
+		FreeMarkerUriDirective templateDirective = new FreeMarkerUriDirective();
+		Whitebox.setInternalState(templateDirective, "cacheInstances", cacheInstancesMock);
+		for(int i = 0; i < 2; i++)
+		{
+			Map params = new HashMap();
+			params.put("uriPattern", new StringModel("/about", new DefaultObjectWrapper()));
+			templateDirective.execute(envMock, params, null, null);
+		}
+
+		EasyMock.verify(cacheInstancesMock, urisCacheMock, pagesCacheMock, envMock);
+		assertTrue (outWriter.toString().equals("/about?cqp=123/about?cqp=123"));
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+}
@@ -0,0 +1,139 @@
+package com.webpagebytes.cms.template;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.api.easymock.PowerMock;
+import org.powermock.modules.junit4.PowerMockRunner;
+
+import com.webpagebytes.cms.engine.WPBCacheInstances;
+import com.webpagebytes.cms.local.WPBLocalWebPageModulesCache;
+import com.webpagebytes.cms.local.WPBLocalWebPagesCache;
+
+import freemarker.template.Configuration;
+
+@RunWith(PowerMockRunner.class)
+public class TestTemplateWarmUp {
+
+@Test
+public void test_runWarmUp()
+{
+	try
+	{
+		Configuration configurationMock = PowerMock.createMock(Configuration.class);
+		WPBCacheInstances cacheInstancesMock = PowerMock.createMock(WPBCacheInstances.class);
+		WPBLocalWebPagesCache pagesCacheMock = PowerMock.createMock(WPBLocalWebPagesCache.class);
+		WPBLocalWebPageModulesCache modulesCacheMock = PowerMock.createMock(WPBLocalWebPageModulesCache.class);
+
+		Set<String> pageKeys = new HashSet<String>();
+		pageKeys.add("p1");
+		pageKeys.add("p2");
+		Set<String> moduleKeys = new HashSet<String>();
+		moduleKeys.add("m1");
+		EasyMock.expect(cacheInstancesMock.getPageCache()).andReturn(pagesCacheMock);
+		EasyMock.expect(cacheInstancesMock.getPageModuleCache()).andReturn(modulesCacheMock);
+		EasyMock.expect(pagesCacheMock.getTemplateSourceKeys()).andReturn(pageKeys);
+		EasyMock.expect(modulesCacheMock.getTemplateSourceKeys()).andReturn(moduleKeys);
+		EasyMock.expect(configurationMock.getTemplate("webpages/p1")).andReturn(null);
+		EasyMock.expect(configurationMock.getTemplate("webpages/p2")).andReturn(null);
+		EasyMock.expect(configurationMock.getTemplate("webmodules/m1")).andThrow(new IOException("parse error"));
+		EasyMock.makeThreadSafe(configurationMock, true);
+		EasyMock.replay(configurationMock, cacheInstancesMock, pagesCacheMock, modulesCacheMock);
+
+		TemplateWarmUp warmUp = new TemplateWarmUp(configurationMock, cacheInstancesMock, 2);
+		TemplateWarmUp.Report report = warmUp.runWarmUp();
+		warmUp.unregister();
+
+		EasyMock.verify(configurationMock, cacheInstancesMock, pagesCacheMock, modulesCacheMock);
+		assertTrue (report.getTimings().size() == 3);
+		assertTrue (report.getFailures().size() == 1);
+		assertTrue (report.getFailures().get("webmodules/m1").equals("parse error"));
+		assertTrue (TemplateWarmUp.getLastReport() == report);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_runWarmUp_no_templates()
+{
+	try
+	{
+		Configuration configurationMock = PowerMock.createMock(Configuration.class);
+		WPBCacheInstances cacheInstancesMock = PowerMock.createMock(WPBCacheInstances.class);
+		WPBLocalWebPagesCache pagesCacheMock = PowerMock.createMock(WPBLocalWebPagesCache.class);
+		EasyMock.expect(cacheInstancesMock.getPageCache()).andReturn(pagesCacheMock);
+		EasyMock.expect(cacheInstancesMock.getPageModuleCache()).andReturn(null);
+		EasyMock.expect(pagesCacheMock.getTemplateSourceKeys()).andReturn(new HashSet<String>());
+		EasyMock.replay(configurationMock, cacheInstancesMock, pagesCacheMock);
+
+		TemplateWarmUp warmUp = new TemplateWarmUp(configurationMock, cacheInstancesMock, 2);
+		TemplateWarmUp.Report report = warmUp.runWarmUp();
+		warmUp.unregister();
+
+		EasyMock.verify(configurationMock, cacheInstancesMock, pagesCacheMock);
+		assertTrue (report.getTimings().size() == 0);
+		assertTrue (report.getFailures().size() == 0);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_start_while_running()
+{
+	try
+	{
+		Configuration configurationMock = PowerMock.createMock(Configuration.class);
+		WPBCacheInstances cacheInstancesMock = PowerMock.createMock(WPBCacheInstances.class);
+		WPBLocalWebPagesCache pagesCacheMock = PowerMock.createMock(WPBLocalWebPagesCache.class);
+		final CountDownLatch firstRunStarted = new CountDownLatch(1);
+		final CountDownLatch releaseFirstRun = new CountDownLatch(1);
+		EasyMock.expect(cacheInstancesMock.getPageCache()).andAnswer(new IAnswer<WPBLocalWebPagesCache>() {
+			public WPBLocalWebPagesCache answer() throws Throwable
+			{
+				firstRunStarted.countDown();
+				releaseFirstRun.await(5, TimeUnit.SECONDS);
+				return null;
+			}
+		});
+		// the second run lists the templates again
+		EasyMock.expect(cacheInstancesMock.getPageCache()).andReturn(pagesCacheMock);
+		EasyMock.expect(cacheInstancesMock.getPageModuleCache()).andReturn(null).times(2);
+		EasyMock.expect(pagesCacheMock.getTemplateSourceKeys()).andReturn(new HashSet<String>());
+		EasyMock.makeThreadSafe(cacheInstancesMock, true);
+		EasyMock.replay(configurationMock, cacheInstancesMock, pagesCacheMock);
+
+		TemplateWarmUp warmUp = new TemplateWarmUp(configurationMock, cacheInstancesMock, 2);
+		warmUp.unregister();
+		assertTrue (warmUp.start());
+		assertTrue (firstRunStarted.await(5, TimeUnit.SECONDS));
+		assertTrue (! warmUp.start());
+		assertTrue (! warmUp.start());
+		releaseFirstRun.countDown();
+		long end = System.currentTimeMillis() + 5000;
+		while (warmUp.isRunning() && System.currentTimeMillis() < end)
+		{
+			Thread.sleep(5);
+		}
+
+		assertTrue (! warmUp.isRunning());
+		EasyMock.verify(configurationMock, cacheInstancesMock, pagesCacheMock);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+}
@@ -2,12 +2,14 @@ package com.webpagebytes.cms.template;
 
 import java.io.StringWriter;
 import java.io.Writer;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.logging.Logger;
 
 import org.easymock.Capture;
 import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.junit.Before;
 import org.junit.runner.RunWith;
 import org.powermock.api.easymock.PowerMock;
@@ -21,7 +23,9 @@ import static org.junit.Assert.*;
 import org.junit.Test;
 
 import com.webpagebytes.cms.WPBPageModulesCache;
+import com.webpagebytes.cms.WPBParametersCache;
 import com.webpagebytes.cms.cmsdata.WPBPageModule;
+import com.webpagebytes.cms.cmsdata.WPBParameter;
 import com.webpagebytes.cms.engine.WPBCacheInstances;
 import com.webpagebytes.cms.exception.WPBIOException;
 import com.webpagebytes.cms.template.FreeMarkerModuleDirective;
@@ -31,6 +35,7 @@ import freemarker.core.Environment;
 import freemarker.ext.beans.StringModel;
 import freemarker.template.DefaultObjectWrapper;
 import freemarker.template.TemplateDirectiveBody;
+import freemarker.template.TemplateHashModel;
 import freemarker.template.TemplateModel;
 import freemarker.template.TemplateModelException;
 
@@ -248,6 +253,68 @@ public void test_execute_templatehtml()
 	}
 }
 
+@Test
+public void test_execute_fragment_cache()
+{
+	TemplateModel[] loopVars = null;
+	TemplateDirectiveBody directiveBodyMock = null;
+	String key = "test123";
+	try
+	{
+		WPBPageModule pageModule = new WPBPageModule();
+		pageModule.setExternalKey(key);
+		pageModule.setIsTemplateSource(1);
+		WPBPageModulesCache pageModuleCacheMock = PowerMock.createMock(WPBPageModulesCache.class);
+		EasyMock.expect(pageModuleCacheMock.getByExternalKey(key)).andReturn(pageModule).times(2);
+		EasyMock.expect(cacheInstancesMock.getPageModuleCache()).andReturn(pageModuleCacheMock).times(2);
+		
+		WPBParameter cacheParam = new WPBParameter();
+		cacheParam.setName(ModuleFragmentCache.FRAGMENT_CACHE_PARAMETER);
+		cacheParam.setValue("1");
+		WPBParametersCache parametersCacheMock = PowerMock.createMock(WPBParametersCache.class);
+		EasyMock.expect(parametersCacheMock.getAllForOwner(key)).andReturn(Arrays.asList(cacheParam)).times(2);
+		EasyMock.expect(cacheInstancesMock.getParameterCache()).andReturn(parametersCacheMock).times(2);
+		
+		Environment envMock = PowerMock.createMock(Environment.class);
+		TemplateHashModel dataModelMock = PowerMock.createMock(TemplateHashModel.class);
+		EasyMock.expect(envMock.getDataModel()).andReturn(dataModelMock).times(2);
+		EasyMock.expect(dataModelMock.get(EasyMock.anyObject(String.class))).andReturn(null).anyTimes();
+		StringWriter outWriter = new StringWriter();
+		EasyMock.expect(envMock.getOut()).andReturn(outWriter).times(2);
+		
+		// the module template is processed only for the first call
+		templateEngineMock.process(EasyMock.eq(WPBTemplateEngine.WEBMODULES_PATH_PREFIX + key), EasyMock.anyObject(Map.class), EasyMock.anyObject(Writer.class));
+		EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+			public Object answer() throws Throwable {
+				((Writer)EasyMock.getCurrentArguments()[2]).write("<b>module</b>");
+				return null;
+			}
+		});
+		EasyMock.replay(cacheInstancesMock, templateEngineMock, envMock, dataModelMock, pageModuleCacheMock, parametersCacheMock);
+		
+		FreeMarkerModuleDirective templateDirective = new FreeMarkerModuleDirective();
+		Whitebox.setInternalState(templateDirective, "templateEngine",templateEngineMock);
+		Whitebox.setInternalState(templateDirective, "cacheInstances",cacheInstancesMock);
+		Whitebox.setInternalState(templateDirective, "fragmentCache", new ModuleFragmentCache(10));
+		PowerMock.suppressMethod(FreeMarkerModuleDirective.class, "copyParams");
+		
+		for(int i = 0; i < 2; i++)
+		{
+			Map params = new HashMap();
+			params.put("externalKey", new StringModel(key, new DefaultObjectWrapper()));
+			params.put("title", new StringModel("aTitle", new DefaultObjectWrapper()));
+			templateDirective.execute(envMock, params, loopVars, directiveBodyMock);
+		}
+		
+		EasyMock.verify(cacheInstancesMock, templateEngineMock, envMock, pageModuleCacheMock, parametersCacheMock);
+		assertTrue(outWriter.toString().equals("<b>module</b><b>module</b>"));
+
+	} catch (Exception e)
+	{
+		assertTrue(false);
+	}
+}
+
 @Test
 public void test_execute_catch_exception()
 {
@@ -40,6 +40,7 @@ import com.webpagebytes.cms.template.CmsResourceBundle;
 
 import freemarker.core.Environment;
 import freemarker.template.Configuration;
+import freemarker.template.ObjectWrapper;
 import freemarker.template.Template;
 
 @RunWith(PowerMockRunner.class)
@@ -99,6 +100,8 @@ public void test_initialize()
 	EasyMock.expect(freeMarkerFactoryMock.createWBFreeMarkerImageDirective()).andReturn(imageDirectiveMock);
 	EasyMock.expect(freeMarkerFactoryMock.createWBFreeMarkerArticleDirective()).andReturn(articleDirectiveMock);
 	EasyMock.expect(freeMarkerFactoryMock.createFreeMarkerUriDirective()).andReturn(uriDirectiveMock);
+	configurationMock.setObjectWrapper(EasyMock.anyObject(ObjectWrapper.class));
+	configurationMock.setSharedVariable(EasyMock.eq(WPBModel.FORMAT_TEXT_METHOD), EasyMock.anyObject(FreeMarkerTextFormatMethod.class));
 	configurationMock.setLocalizedLookup(false);
 	configurationMock.setTemplateLoader(templateLoaderMock);
 	moduleDirectiveMock.initialize(templateEngine, cacheInstancesMock);
@@ -151,19 +154,21 @@ public void process_ok_no_messages()
 		
 		Locale locale = new Locale("en");
 		CmsResourceBundle resourceBundleMock = PowerMock.createMock(CmsResourceBundle.class);
-		EasyMock.expect(freeMarkerFactoryMock.createResourceBundle(EasyMock.anyObject(WPBMessagesCache.class), EasyMock.anyObject(Locale.class))).andReturn(resourceBundleMock);
+		EasyMock.expect(cacheInstancesMock.getMessageCache()).andReturn(messageCacheMock);
+		EasyMock.expect(messageCacheMock.getFingerPrint(locale)).andReturn(1L);
+		EasyMock.expect(freeMarkerFactoryMock.createResourceBundle(messageCacheMock, locale)).andReturn(resourceBundleMock);
 		
 		Environment envMock = PowerMock.createMock(Environment.class);
-		EasyMock.expect(templateMock.createProcessingEnvironment(rootMap, out)).andReturn(envMock);
+		EasyMock.expect(templateMock.createProcessingEnvironment(EasyMock.isA(FreeMarkerRootModel.class), EasyMock.eq(out))).andReturn(envMock);
 			
 		envMock.process();
 		Whitebox.setInternalState(templateEngine, "wbFreeMarkerFactory", freeMarkerFactoryMock);
 		
-		PowerMock.replay(cloudFileStorageMock, envMock, templateMock, resourceBundleMock, cacheFactoryMock, freeMarkerFactoryMock, configurationMock, templateLoaderMock, moduleDirectiveMock, messageCacheMock);
+		PowerMock.replay(cloudFileStorageMock, cacheInstancesMock, envMock, templateMock, resourceBundleMock, cacheFactoryMock, freeMarkerFactoryMock, configurationMock, templateLoaderMock, moduleDirectiveMock, messageCacheMock);
 	
 		templateEngine.process(nameTemplate, rootMap, out);
 		
-		PowerMock.verify(cloudFileStorageMock, envMock, templateMock, resourceBundleMock, cacheFactoryMock, freeMarkerFactoryMock, configurationMock, templateLoaderMock, moduleDirectiveMock, messageCacheMock);
+		PowerMock.verify(cloudFileStorageMock, cacheInstancesMock, envMock, templateMock, resourceBundleMock, cacheFactoryMock, freeMarkerFactoryMock, configurationMock, templateLoaderMock, moduleDirectiveMock, messageCacheMock);
 
 		assertTrue (rootMap.containsKey(WPBModel.LOCALE_MESSAGES));
 	} catch (Exception e)
@@ -173,6 +178,53 @@ public void process_ok_no_messages()
 	
 }
 
+@Test
+@SuppressStaticInitializationFor("WBFreeMarkerTemplateEngine.class")
+@PrepareForTest({Environment.class, WPBFreeMarkerTemplateEngine.class})
+public void process_messages_model_reused()
+{
+	try
+	{
+		WPBFreeMarkerTemplateEngine templateEngine = new WPBFreeMarkerTemplateEngine(cacheInstancesMock);
+		Whitebox.setInternalState(templateEngine, "configuration", configurationMock);
+		String nameTemplate = "textXYZ";
+		Writer out = new StringWriter();
+		Map rootMap1 = new HashMap();
+		rootMap1.put(WPBModel.LOCALE_LANGUAGE_KEY, "en");
+		Map rootMap2 = new HashMap();
+		rootMap2.put(WPBModel.LOCALE_LANGUAGE_KEY, "en");
+		
+		Template templateMock = PowerMock.createMock(Template.class);
+		EasyMock.expect(configurationMock.getTemplate(nameTemplate)).andReturn(templateMock).times(2);
+		
+		Locale locale = new Locale("en");
+		CmsResourceBundle resourceBundleMock = PowerMock.createMock(CmsResourceBundle.class);
+		EasyMock.expect(cacheInstancesMock.getMessageCache()).andReturn(messageCacheMock).times(2);
+		EasyMock.expect(messageCacheMock.getFingerPrint(locale)).andReturn(1L).times(2);
+		// the bundle is created only for the first render
+		EasyMock.expect(freeMarkerFactoryMock.createResourceBundle(messageCacheMock, locale)).andReturn(resourceBundleMock);
+		
+		Environment envMock = PowerMock.createMock(Environment.class);
+		EasyMock.expect(templateMock.createProcessingEnvironment(EasyMock.isA(FreeMarkerRootModel.class), EasyMock.eq(out))).andReturn(envMock).times(2);
+		envMock.process();
+		EasyMock.expectLastCall().times(2);
+		Whitebox.setInternalState(templateEngine, "wbFreeMarkerFactory", freeMarkerFactoryMock);
+		
+		PowerMock.replay(cloudFileStorageMock, cacheInstancesMock, envMock, templateMock, resourceBundleMock, freeMarkerFactoryMock, configurationMock, messageCacheMock);
+	
+		templateEngine.process(nameTemplate, rootMap1, out);
+		templateEngine.process(nameTemplate, rootMap2, out);
+		
+		PowerMock.verify(cloudFileStorageMock, cacheInstancesMock, envMock, templateMock, resourceBundleMock, freeMarkerFactoryMock, configurationMock, messageCacheMock);
+
+		assertTrue (rootMap1.get(WPBModel.LOCALE_MESSAGES) == rootMap2.get(WPBModel.LOCALE_MESSAGES));
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+	
+}
+
 @Test
 @SuppressStaticInitializationFor("WBFreeMarkerTemplateEngine.class")
 @PrepareForTest({Environment.class, WPBFreeMarkerTemplateEngine.class})
@@ -194,7 +246,7 @@ public void process_ok_with_messages()
 		
 		
 		Environment envMock = PowerMock.createMock(Environment.class);
-		EasyMock.expect(templateMock.createProcessingEnvironment(rootMap, out)).andReturn(envMock);
+		EasyMock.expect(templateMock.createProcessingEnvironment(EasyMock.isA(FreeMarkerRootModel.class), EasyMock.eq(out))).andReturn(envMock);
 			
 		envMock.process();
 		Whitebox.setInternalState(templateEngine, "wbFreeMarkerFactory", freeMarkerFactoryMock);
@@ -232,14 +284,16 @@ public void process_exception()
 		Writer out = new StringWriter();		
 		EasyMock.expect(configurationMock.getTemplate(nameTemplate)).andReturn(templateMock);		
 		Locale locale = new Locale("en");
-		EasyMock.expect(freeMarkerFactoryMock.createResourceBundle(EasyMock.anyObject(WPBMessagesCache.class), EasyMock.anyObject(Locale.class))).andReturn(resourceBundleMock);		
-		EasyMock.expect(templateMock.createProcessingEnvironment(rootMap, out)).andReturn(envMock);			
+		EasyMock.expect(cacheInstancesMock.getMessageCache()).andReturn(messageCacheMock);
+		EasyMock.expect(messageCacheMock.getFingerPrint(locale)).andReturn(1L);
+		EasyMock.expect(freeMarkerFactoryMock.createResourceBundle(messageCacheMock, locale)).andReturn(resourceBundleMock);		
+		EasyMock.expect(templateMock.createProcessingEnvironment(EasyMock.isA(FreeMarkerRootModel.class), EasyMock.eq(out))).andReturn(envMock);			
 		Whitebox.setInternalState(templateEngine, "wbFreeMarkerFactory", freeMarkerFactoryMock);
 
 		envMock.process();
 		EasyMock.expectLastCall().andThrow(new IOException());
 		
-		PowerMock.replay(cloudFileStorageMock, envMock, templateMock, resourceBundleMock, cacheFactoryMock, freeMarkerFactoryMock, configurationMock, templateLoaderMock, moduleDirectiveMock, messageCacheMock);
+		PowerMock.replay(cloudFileStorageMock, cacheInstancesMock, envMock, templateMock, resourceBundleMock, cacheFactoryMock, freeMarkerFactoryMock, configurationMock, templateLoaderMock, moduleDirectiveMock, messageCacheMock);
 	
 		templateEngine.process(nameTemplate, rootMap, out);
 		
@@ -0,0 +1,380 @@
+package com.webpagebytes.cms;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.powermock.modules.junit4.PowerMockRunner;
+import org.powermock.reflect.Whitebox;
+
+import com.webpagebytes.cms.cmsdata.WPBFile;
+import com.webpagebytes.cms.engine.FileContentBuilder;
+
+@RunWith(PowerMockRunner.class)
+public class TestAsyncPublicContentServlet {
+
+private interface Processor
+{
+	public void process(HttpServletRequest req, HttpServletResponse resp) throws Exception;
+}
+
+/*
+ * The servlet with the processing of WPBPublicContentServlet replaced by a Processor
+ */
+private static class TestServlet extends WPBAsyncPublicContentServlet
+{
+	private static final long serialVersionUID = 1L;
+	private final Map<HttpServletRequest, Processor> processors = Collections.synchronizedMap(new HashMap<HttpServletRequest, Processor>());
+
+	void processRequest(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException
+	{
+		try
+		{
+			processors.get(req).process(req, resp);
+		} catch (IOException e)
+		{
+			throw e;
+		} catch (Exception e)
+		{
+			throw new ServletException(e);
+		}
+	}
+}
+
+/*
+ * Ready output that keeps the bytes, a write listener is called right away as the container does
+ */
+private static class OutputStreamStub extends ServletOutputStream
+{
+	private final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+	public synchronized void write(int b)
+	{
+		bos.write(b);
+	}
+	public synchronized void write(byte[] b, int off, int len)
+	{
+		bos.write(b, off, len);
+	}
+	public boolean isReady()
+	{
+		return true;
+	}
+	public void setWriteListener(WriteListener writeListener)
+	{
+		try
+		{
+			writeListener.onWritePossible();
+		} catch (IOException e)
+		{
+			writeListener.onError(e);
+		}
+	}
+	synchronized void reset()
+	{
+		bos.reset();
+	}
+	synchronized int size()
+	{
+		return bos.size();
+	}
+	public synchronized String toString()
+	{
+		return bos.toString();
+	}
+}
+
+/*
+ * A request with its mocked response and async context
+ */
+private static class Exchange
+{
+	HttpServletRequest req;
+	HttpServletResponse resp;
+	AsyncContext asyncContext;
+	final OutputStreamStub os = new OutputStreamStub();
+	final AtomicInteger status = new AtomicInteger();
+	final AtomicInteger completes = new AtomicInteger();
+	final CountDownLatch completed = new CountDownLatch(1);
+}
+
+private TestServlet servlet = new TestServlet();
+
+@After
+public void tearDown()
+{
+	servlet.destroy();
+}
+
+private Exchange createExchange(Processor processor) throws Exception
+{
+	final Exchange exchange = new Exchange();
+	exchange.req = EasyMock.createNiceMock(HttpServletRequest.class);
+	exchange.resp = EasyMock.createNiceMock(HttpServletResponse.class);
+	exchange.asyncContext = EasyMock.createNiceMock(AsyncContext.class);
+	final Map<String, Object> attributes = Collections.synchronizedMap(new HashMap<String, Object>());
+
+	EasyMock.expect(exchange.req.isAsyncSupported()).andReturn(true).anyTimes();
+	EasyMock.expect(exchange.req.isAsyncStarted()).andReturn(true).anyTimes();
+	EasyMock.expect(exchange.req.getDispatcherType()).andReturn(DispatcherType.REQUEST).anyTimes();
+	EasyMock.expect(exchange.req.getRequestURI()).andReturn("/test").anyTimes();
+	EasyMock.expect(exchange.req.startAsync(EasyMock.anyObject(ServletRequest.class), EasyMock.anyObject(ServletResponse.class))).andReturn(exchange.asyncContext).anyTimes();
+	EasyMock.expect(exchange.req.getAsyncContext()).andReturn(exchange.asyncContext).anyTimes();
+	exchange.req.setAttribute(EasyMock.anyObject(String.class), EasyMock.anyObject());
+	EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+		public Object answer()
+		{
+			attributes.put((String) EasyMock.getCurrentArguments()[0], EasyMock.getCurrentArguments()[1]);
+			return null;
+		}
+	}).anyTimes();
+	EasyMock.expect(exchange.req.getAttribute(EasyMock.anyObject(String.class))).andAnswer(new IAnswer<Object>() {
+		public Object answer()
+		{
+			return attributes.get(EasyMock.getCurrentArguments()[0]);
+		}
+	}).anyTimes();
+
+	EasyMock.expect(exchange.resp.getOutputStream()).andReturn(exchange.os).anyTimes();
+	exchange.resp.setStatus(EasyMock.anyInt());
+	EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+		public Object answer()
+		{
+			exchange.status.set((Integer) EasyMock.getCurrentArguments()[0]);
+			return null;
+		}
+	}).anyTimes();
+	exchange.resp.reset();
+	EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+		public Object answer()
+		{
+			exchange.os.reset();
+			return null;
+		}
+	}).anyTimes();
+
+	exchange.asyncContext.addListener(EasyMock.anyObject(AsyncListener.class));
+	EasyMock.expectLastCall().anyTimes();
+	exchange.asyncContext.complete();
+	EasyMock.expectLastCall().andAnswer(new IAnswer<Object>() {
+		public Object answer()
+		{
+			exchange.completes.incrementAndGet();
+			exchange.completed.countDown();
+			return null;
+		}
+	}).anyTimes();
+
+	EasyMock.replay(exchange.req, exchange.resp, exchange.asyncContext);
+	servlet.processors.put(exchange.req, processor);
+	return exchange;
+}
+
+/*
+ * A processor that holds its worker until the latch is released, even when its request times out
+ */
+private Processor createBlockingProcessor(final CountDownLatch release)
+{
+	return new Processor() {
+		public void process(HttpServletRequest req, HttpServletResponse resp) throws Exception
+		{
+			long end = System.currentTimeMillis() + 5000;
+			while (release.getCount() > 0 && System.currentTimeMillis() < end)
+			{
+				try
+				{
+					release.await(end - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e)
+				{
+					// the request timed out, the worker stays busy
+				}
+			}
+		}
+	};
+}
+
+@Test
+public void test_timeout_before_worker_starts()
+{
+	try
+	{
+		servlet.initAsync(1, 1, 100, 65536);
+		CountDownLatch release = new CountDownLatch(1);
+		Exchange running = createExchange(createBlockingProcessor(release));
+		final AtomicBoolean queuedRan = new AtomicBoolean();
+		Exchange queued = createExchange(new Processor() {
+			public void process(HttpServletRequest req, HttpServletResponse resp) throws Exception
+			{
+				queuedRan.set(true);
+			}
+		});
+		servlet.handleRequest(running.req, running.resp);
+		servlet.handleRequest(queued.req, queued.resp);
+
+		assertTrue (queued.completed.await(5, TimeUnit.SECONDS));
+		assertTrue (queued.status.get() == HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		release.countDown();
+		assertTrue (running.completed.await(5, TimeUnit.SECONDS));
+		Thread.sleep(50);
+		assertTrue (! queuedRan.get());
+		assertTrue (queued.completes.get() == 1);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_timeout_during_render()
+{
+	try
+	{
+		servlet.initAsync(2, 2, 100, 65536);
+		final AtomicBoolean interrupted = new AtomicBoolean();
+		final AtomicBoolean refused = new AtomicBoolean();
+		Exchange exchange = createExchange(new Processor() {
+			public void process(HttpServletRequest req, HttpServletResponse resp) throws Exception
+			{
+				ServletOutputStream os = resp.getOutputStream();
+				os.write("a".getBytes());
+				try
+				{
+					Thread.sleep(5000);
+				} catch (InterruptedException e)
+				{
+					interrupted.set(true);
+				}
+				try
+				{
+					os.write("b".getBytes());
+				} catch (IOException e)
+				{
+					refused.set(true);
+				}
+				try
+				{
+					resp.setStatus(HttpServletResponse.SC_OK);
+				} catch (IllegalStateException e)
+				{
+					// refused as the write
+				}
+			}
+		});
+		servlet.handleRequest(exchange.req, exchange.resp);
+
+		assertTrue (exchange.completed.await(5, TimeUnit.SECONDS));
+		Thread.sleep(50);
+		assertTrue (interrupted.get());
+		assertTrue (refused.get());
+		assertTrue (exchange.status.get() == HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		// the partial output was reset and nothing was written after the timeout
+		assertTrue (exchange.os.size() == 0);
+		assertTrue (exchange.completes.get() == 1);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_rejected_runs_on_container_thread()
+{
+	try
+	{
+		servlet.initAsync(1, 1, 200, 65536);
+		CountDownLatch release = new CountDownLatch(1);
+		Exchange running = createExchange(createBlockingProcessor(release));
+		Exchange queued = createExchange(createBlockingProcessor(release));
+		final AtomicReference<Thread> rejectedThread = new AtomicReference<Thread>();
+		Exchange rejected = createExchange(new Processor() {
+			public void process(HttpServletRequest req, HttpServletResponse resp) throws Exception
+			{
+				rejectedThread.set(Thread.currentThread());
+				// longer than the timeout, the rejected request has no timeout
+				Thread.sleep(400);
+				resp.getOutputStream().write("c".getBytes());
+			}
+		});
+		servlet.handleRequest(running.req, running.resp);
+		servlet.handleRequest(queued.req, queued.resp);
+		servlet.handleRequest(rejected.req, rejected.resp);
+
+		assertTrue (rejectedThread.get() == Thread.currentThread());
+		assertTrue (rejected.completes.get() == 1);
+		assertTrue (rejected.status.get() == 0);
+		assertTrue (rejected.os.toString().equals("c"));
+		release.countDown();
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+@Test
+public void test_large_file_write_listener()
+{
+	try
+	{
+		servlet.initAsync(1, 1, 100, 1024);
+		StringBuilder content = new StringBuilder();
+		while (content.length() < 40000)
+		{
+			content.append("0123456789");
+		}
+		final WPBFile file = new WPBFile();
+		file.setExternalKey("file");
+		file.setSize((long) content.length());
+		FileContentBuilder fileContentBuilderMock = EasyMock.createMock(FileContentBuilder.class);
+		EasyMock.expect(fileContentBuilderMock.getFileContent(file)).andReturn(new ByteArrayInputStream(content.toString().getBytes()));
+		EasyMock.replay(fileContentBuilderMock);
+		Whitebox.setInternalState(servlet, "fileContentBuilder", fileContentBuilderMock);
+
+		final AtomicBoolean deferred = new AtomicBoolean();
+		Exchange exchange = createExchange(new Processor() {
+			public void process(HttpServletRequest req, HttpServletResponse resp) throws Exception
+			{
+				deferred.set(servlet.writeFileContentAsync(file, req, resp));
+			}
+		});
+		servlet.handleRequest(exchange.req, exchange.resp);
+
+		assertTrue (exchange.completed.await(5, TimeUnit.SECONDS));
+		// past the processing timeout the body writer is not cut
+		Thread.sleep(200);
+		assertTrue (deferred.get());
+		assertTrue (exchange.os.toString().equals(content.toString()));
+		assertTrue (exchange.status.get() == 0);
+		assertTrue (exchange.completes.get() == 1);
+		EasyMock.verify(fileContentBuilderMock);
+	} catch (Exception e)
+	{
+		assertTrue (false);
+	}
+}
+
+}